@@ -11,11 +11,12 @@ import com.facebook.jni.HybridData;
 import com.facebook.proguard.annotations.DoNotStrip;
 import com.facebook.soloader.SoLoader;
 import com.facebook.sonar.BuildConfig;
-import com.facebook.sonar.core.SonarClient;
+import com.facebook.sonar.core.SonarDiagnosticsClient;
+import com.facebook.sonar.core.SonarObject;
 import com.facebook.sonar.core.SonarPlugin;
 
 @DoNotStrip
-class SonarClientImpl implements SonarClient {
+class SonarClientImpl implements SonarDiagnosticsClient {
   static {
     if (BuildConfig.IS_INTERNAL_BUILD) {
       SoLoader.loadLibrary("sonar");
@@ -55,4 +56,7 @@ class SonarClientImpl implements SonarClient {
 
   @Override
   public native void stop();
+
+  @Override
+  public native SonarObject getDiagnostics();
 }
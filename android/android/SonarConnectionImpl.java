@@ -12,12 +12,12 @@ import com.facebook.proguard.annotations.DoNotStrip;
 import com.facebook.soloader.SoLoader;
 import com.facebook.sonar.BuildConfig;
 import com.facebook.sonar.core.SonarArray;
-import com.facebook.sonar.core.SonarConnection;
 import com.facebook.sonar.core.SonarObject;
+import com.facebook.sonar.core.SonarPrioritizedConnection;
 import com.facebook.sonar.core.SonarReceiver;
 
 @DoNotStrip
-class SonarConnectionImpl implements SonarConnection {
+class SonarConnectionImpl implements SonarPrioritizedConnection {
   static {
     if (BuildConfig.IS_INTERNAL_BUILD) {
       SoLoader.loadLibrary("sonar");
@@ -32,17 +32,31 @@ class SonarConnectionImpl implements SonarConnection {
 
   @Override
   public void send(String method, SonarObject params) {
-    sendObject(method, params);
+    send(method, params, Priority.NORMAL);
   }
 
   @Override
   public void send(String method, SonarArray params) {
-    sendArray(method, params);
+    send(method, params, Priority.NORMAL);
   }
 
-  public native void sendObject(String method, SonarObject params);
+  @Override
+  public void send(String method, SonarObject params, Priority priority) {
+    sendObject(method, params, priority.ordinal());
+  }
+
+  @Override
+  public void send(String method, SonarArray params, Priority priority) {
+    sendArray(method, params, priority.ordinal());
+  }
+
+  // priority is the ordinal of a Priority, which matches the native SendPriority.
+  public native void sendObject(String method, SonarObject params, int priority);
 
-  public native void sendArray(String method, SonarArray params);
+  public native void sendArray(String method, SonarArray params, int priority);
+
+  @Override
+  public native boolean isUnderPressure();
 
   @Override
   public native void reportError(Throwable throwable);
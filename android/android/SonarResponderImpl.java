@@ -13,10 +13,10 @@ import com.facebook.soloader.SoLoader;
 import com.facebook.sonar.BuildConfig;
 import com.facebook.sonar.core.SonarArray;
 import com.facebook.sonar.core.SonarObject;
-import com.facebook.sonar.core.SonarResponder;
+import com.facebook.sonar.core.SonarResponderAdapter;
 
 @DoNotStrip
-class SonarResponderImpl implements SonarResponder {
+class SonarResponderImpl extends SonarResponderAdapter {
   static {
     if (BuildConfig.IS_INTERNAL_BUILD) {
       SoLoader.loadLibrary("sonar");
@@ -50,4 +50,7 @@ class SonarResponderImpl implements SonarResponder {
 
   @Override
   public native void error(SonarObject response);
+
+  @Override
+  public native boolean isCancelled();
 }
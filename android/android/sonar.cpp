@@ -18,9 +18,11 @@
 #include <folly/io/async/EventBase.h>
 #include <folly/io/async/EventBaseManager.h>
 
+#include <Sonar/SonarCbor.h>
 #include <Sonar/SonarClient.h>
 #include <Sonar/SonarWebSocket.h>
 #include <Sonar/SonarConnection.h>
+#include <Sonar/SonarDiagnostics.h>
 #include <Sonar/SonarResponder.h>
 
 using namespace facebook;
@@ -60,17 +62,53 @@ class JEventBase : public jni::HybridClass<JEventBase> {
   folly::EventBase eventBase_;
 };
 
+// SonarObject and SonarArray cross the JNI boundary as CBOR encoded byte
+// arrays, which both sides can walk in a single pass without printing or
+// parsing JSON text.
+jni::local_ref<jbyteArray> toByteArray(const folly::dynamic& value) {
+  const auto cbor = toCbor(value);
+  auto bytes = jni::JArrayByte::newArray(cbor.size());
+  bytes->setRegion(0, cbor.size(), reinterpret_cast<const jbyte*>(cbor.data()));
+  return bytes;
+}
+
+folly::dynamic fromByteArray(jni::alias_ref<jbyteArray> bytes) {
+  auto pinned = bytes->pin();
+  auto value = parseCbor(folly::ByteRange(
+      reinterpret_cast<const uint8_t*>(pinned.get()), pinned.size()));
+  pinned.abort();
+  return value;
+}
+
+// Copies the encoding out as it is, for messages that are forwarded to the
+// desktop without being looked at.
+std::string encodedFromByteArray(jni::alias_ref<jbyteArray> bytes) {
+  auto pinned = bytes->pin();
+  std::string encoded(reinterpret_cast<const char*>(pinned.get()), pinned.size());
+  pinned.abort();
+  return encoded;
+}
+
 class JSonarObject : public jni::JavaClass<JSonarObject> {
  public:
   constexpr static auto kJavaDescriptor = "Lcom/facebook/sonar/core/SonarObject;";
 
   static jni::local_ref<JSonarObject> create(const folly::dynamic& json) {
-    return newInstance(folly::toJson(json));
+    DiagnosticsScope scope(DiagnosticsTimer::Serialization);
+    static const auto method = javaClassStatic()->getStaticMethod<javaobject(jni::alias_ref<jbyteArray>)>("fromCbor");
+    return method(javaClassStatic(), toByteArray(json));
   }
 
-  std::string toJsonString() {
-    static const auto method = javaClassStatic()->getMethod<std::string()>("toJsonString");
-    return method(self())->toStdString();
+  folly::dynamic toDynamic() {
+    DiagnosticsScope scope(DiagnosticsTimer::Serialization);
+    static const auto method = javaClassStatic()->getMethod<jbyteArray()>("toCbor");
+    return fromByteArray(method(self()));
+  }
+
+  std::string toEncoded() {
+    DiagnosticsScope scope(DiagnosticsTimer::Serialization);
+    static const auto method = javaClassStatic()->getMethod<jbyteArray()>("toCbor");
+    return encodedFromByteArray(method(self()));
   }
 };
 
@@ -79,12 +117,21 @@ class JSonarArray : public jni::JavaClass<JSonarArray> {
   constexpr static auto kJavaDescriptor = "Lcom/facebook/sonar/core/SonarArray;";
 
   static jni::local_ref<JSonarArray> create(const folly::dynamic& json) {
-    return newInstance(folly::toJson(json));
+    DiagnosticsScope scope(DiagnosticsTimer::Serialization);
+    static const auto method = javaClassStatic()->getStaticMethod<javaobject(jni::alias_ref<jbyteArray>)>("fromCbor");
+    return method(javaClassStatic(), toByteArray(json));
   }
 
-  std::string toJsonString() {
-    static const auto method = javaClassStatic()->getMethod<std::string()>("toJsonString");
-    return method(self())->toStdString();
+  folly::dynamic toDynamic() {
+    DiagnosticsScope scope(DiagnosticsTimer::Serialization);
+    static const auto method = javaClassStatic()->getMethod<jbyteArray()>("toCbor");
+    return fromByteArray(method(self()));
+  }
+
+  std::string toEncoded() {
+    DiagnosticsScope scope(DiagnosticsTimer::Serialization);
+    static const auto method = javaClassStatic()->getMethod<jbyteArray()>("toCbor");
+    return encodedFromByteArray(method(self()));
   }
 };
 
@@ -102,19 +149,24 @@ class JSonarResponderImpl : public jni::HybridClass<JSonarResponderImpl, JSonarR
       makeNativeMethod("successObject", JSonarResponderImpl::successObject),
       makeNativeMethod("successArray", JSonarResponderImpl::successArray),
       makeNativeMethod("error", JSonarResponderImpl::error),
+      makeNativeMethod("isCancelled", JSonarResponderImpl::isCancelled),
     });
   }
 
   void successObject(jni::alias_ref<JSonarObject> json) {
-    _responder->success(json ? folly::parseJson(json->toJsonString()) : folly::dynamic::object());
+    _responder->successEncoded(json ? json->toEncoded() : toCbor(folly::dynamic::object()));
   }
 
   void successArray(jni::alias_ref<JSonarArray> json) {
-    _responder->success(json ? folly::parseJson(json->toJsonString()) : folly::dynamic::object());
+    _responder->successEncoded(json ? json->toEncoded() : toCbor(folly::dynamic::object()));
   }
 
   void error(jni::alias_ref<JSonarObject> json) {
-    _responder->error(json ? folly::parseJson(json->toJsonString()) : folly::dynamic::object());
+    _responder->error(json ? json->toDynamic() : folly::dynamic::object());
+  }
+
+  jboolean isCancelled() {
+    return _responder->isCancelled();
   }
 
  private:
@@ -147,17 +199,22 @@ class JSonarConnectionImpl : public jni::HybridClass<JSonarConnectionImpl, JSona
     registerHybrid({
       makeNativeMethod("sendObject", JSonarConnectionImpl::sendObject),
       makeNativeMethod("sendArray", JSonarConnectionImpl::sendArray),
+      makeNativeMethod("isUnderPressure", JSonarConnectionImpl::isUnderPressure),
       makeNativeMethod("reportError", JSonarConnectionImpl::reportError),
       makeNativeMethod("receive", JSonarConnectionImpl::receive),
     });
   }
 
-  void sendObject(const std::string method, jni::alias_ref<JSonarObject> json) {
-    _connection->send(std::move(method), json ? folly::parseJson(json->toJsonString()) : folly::dynamic::object());
+  void sendObject(const std::string method, jni::alias_ref<JSonarObject> json, jint priority) {
+    _connection->sendEncoded(std::move(method), json ? json->toEncoded() : toCbor(folly::dynamic::object()), static_cast<SendPriority>(priority));
   }
 
-  void sendArray(const std::string method, jni::alias_ref<JSonarArray> json) {
-    _connection->send(std::move(method), json ? folly::parseJson(json->toJsonString()) : folly::dynamic::object());
+  void sendArray(const std::string method, jni::alias_ref<JSonarArray> json, jint priority) {
+    _connection->sendEncoded(std::move(method), json ? json->toEncoded() : toCbor(folly::dynamic::object()), static_cast<SendPriority>(priority));
+  }
+
+  jboolean isUnderPressure() {
+    return _connection->isUnderPressure();
   }
 
   void reportError(jni::alias_ref<jni::JThrowable> throwable) {
@@ -230,6 +287,7 @@ class JSonarClient : public jni::HybridClass<JSonarClient> {
       makeNativeMethod("addPlugin", JSonarClient::addPlugin),
       makeNativeMethod("removePlugin", JSonarClient::removePlugin),
       makeNativeMethod("getPlugin", JSonarClient::getPlugin),
+      makeNativeMethod("getDiagnostics", JSonarClient::getDiagnostics),
     });
   }
 
@@ -257,15 +315,20 @@ class JSonarClient : public jni::HybridClass<JSonarClient> {
   }
 
   jni::alias_ref<JSonarPlugin> getPlugin(const std::string& identifier) {
-    auto plugin = SonarClient::instance()->getPlugin(identifier);
-    if (plugin) {
-      auto wrapper = std::static_pointer_cast<JSonarPluginWrapper>(plugin);
+    // Built in plugins, like diagnostics, have no Java side.
+    auto wrapper = std::dynamic_pointer_cast<JSonarPluginWrapper>(
+        SonarClient::instance()->getPlugin(identifier));
+    if (wrapper) {
       return wrapper->jplugin;
     } else {
       return nullptr;
     }
   }
 
+  jni::local_ref<JSonarObject> getDiagnostics() {
+    return JSonarObject::create(SonarClient::instance()->diagnostics());
+  }
+
   static void init(
       jni::alias_ref<jclass>,
       JEventBase* callbackWorker,
@@ -278,7 +341,7 @@ class JSonarClient : public jni::HybridClass<JSonarClient> {
       const std::string appId,
       const std::string privateAppDirectory) {
 
-    SonarClient::init({
+    SonarInitConfig config = {
       {
         std::move(host),
         std::move(os),
@@ -290,7 +353,13 @@ class JSonarClient : public jni::HybridClass<JSonarClient> {
       },
       callbackWorker->eventBase(),
       connectionWorker->eventBase()
-    });
+    };
+    // Plugins are called on the dispatch threads, which stay attached to the
+    // JVM for as long as they run and can find the app's classes.
+    config.dispatchThreadWrapper = [](std::function<void()>&& body) {
+      jni::ThreadScope::WithClassLoader(std::move(body));
+    };
+    SonarClient::init(std::move(config));
   }
 
  private:
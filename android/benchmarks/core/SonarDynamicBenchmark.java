@@ -0,0 +1,81 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the params of a call from the desktop through {@link SonarDynamic}, as receivers do when
+ * they don't know a value's type up front.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SonarDynamicBenchmark {
+  private SonarObject mParams;
+  private SonarDynamic mJsonObject;
+
+  @Setup
+  public void setUp() throws Exception {
+    final SonarObject params =
+        new SonarObject.Builder()
+            .put("int", 42)
+            .put("long", 1L << 40)
+            .put("double", 0.5)
+            .put("string", "com.facebook.sonar")
+            .put("object", new SonarObject.Builder().put("key", "value").put("n", 1))
+            .build();
+    // Params arrive from the native bridge as CBOR.
+    mParams = SonarObject.fromCbor(params.toCbor());
+    mJsonObject = new SonarDynamic(new JSONObject("{\"key\":\"value\",\"n\":1}"));
+  }
+
+  @Benchmark
+  public int asInt() {
+    return mParams.getDynamic("int").asInt();
+  }
+
+  @Benchmark
+  public long asLong() {
+    return mParams.getDynamic("long").asLong();
+  }
+
+  @Benchmark
+  public double asDouble() {
+    return mParams.getDynamic("double").asDouble();
+  }
+
+  @Benchmark
+  public String asString() {
+    return mParams.getDynamic("string").asString();
+  }
+
+  @Benchmark
+  public SonarObject asObject() {
+    return mParams.getDynamic("object").asObject();
+  }
+
+  @Benchmark
+  public SonarObject asObjectFromJson() {
+    return mJsonObject.asObject();
+  }
+}
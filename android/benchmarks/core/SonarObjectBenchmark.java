@@ -0,0 +1,113 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building and serializing a message shaped like a layout inspector node: a few scalar fields, a
+ * nested object and an array of children.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SonarObjectBenchmark {
+  private static final int CHILDREN = 8;
+
+  private SonarObject mObject;
+  private String mJson;
+  private byte[] mCbor;
+
+  @Setup
+  public void setUp() {
+    mObject = buildNode(new SonarObject.Builder(), new SonarArray.Builder()).build();
+    mJson = mObject.toJsonString();
+    mCbor = mObject.toCbor();
+  }
+
+  @Benchmark
+  public SonarObject buildDefault() {
+    return buildNode(new SonarObject.Builder(), new SonarArray.Builder()).build();
+  }
+
+  @Benchmark
+  public SonarObject buildStreaming() {
+    return buildNode(SonarObject.Builder.streaming(), SonarArray.Builder.streaming()).build();
+  }
+
+  @Benchmark
+  public SonarArray buildArray() {
+    final SonarArray.Builder builder = new SonarArray.Builder();
+    for (int i = 0; i < CHILDREN; i++) {
+      builder.put("child-" + i);
+    }
+    return builder.build();
+  }
+
+  @Benchmark
+  public String toJsonString() {
+    return mObject.toJsonString();
+  }
+
+  @Benchmark
+  public byte[] nestedToCbor() {
+    return mObject.getObject("data").toCbor();
+  }
+
+  @Benchmark
+  public SonarObject fromJsonString() {
+    return new SonarObject(mJson);
+  }
+
+  @Benchmark
+  public int readFields() {
+    final SonarObject object = SonarObject.fromCbor(mCbor);
+    return object.getString("id").length()
+        + object.getString("name").length()
+        + object.getInt("width")
+        + object.getArray("children").length();
+  }
+
+  @Benchmark
+  public boolean equalsCopy() {
+    return mObject.equals(SonarObject.fromCbor(mCbor));
+  }
+
+  private static SonarObject.Builder buildNode(
+      SonarObject.Builder node, SonarArray.Builder children) {
+    for (int i = 0; i < CHILDREN; i++) {
+      children.put("child-" + i);
+    }
+    return node.put("id", "node-1")
+        .put("name", "android.widget.LinearLayout")
+        .put("width", 1080)
+        .put("height", 1920)
+        .put("alpha", 1.0f)
+        .put("visible", true)
+        .put(
+            "data",
+            new SonarObject.Builder()
+                .put("text", "Hello Sonar")
+                .put("textSize", 14.0)
+                .put("padding", new int[] {8, 8, 16, 16}))
+        .put("children", children);
+  }
+}
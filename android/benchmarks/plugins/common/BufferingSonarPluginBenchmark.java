@@ -0,0 +1,109 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+import com.facebook.sonar.testing.SonarConnectionMock;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Events going through {@link BufferingSonarPlugin}: into its {@link EventBuffer} while there is
+ * no connection, then out when one comes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferingSonarPluginBenchmark {
+  // The size BufferingSonarPlugin buffers.
+  private static final int BUFFER_SIZE = 500;
+
+  private final SonarObject mEvent = new SonarObject.Builder().put("id", 1).build();
+  private RingBuffer<SonarObject> mFullBuffer;
+  private BufferingSonarPlugin mConnectedPlugin;
+  private BufferingSonarPlugin mDisconnectedPlugin;
+  private SonarConnectionMock mConnection;
+
+  @Setup
+  public void setUp() {
+    mFullBuffer = new RingBuffer<>(BUFFER_SIZE);
+    for (int i = 0; i < BUFFER_SIZE; i++) {
+      mFullBuffer.enqueue(mEvent);
+    }
+    mConnection = new SonarConnectionMock();
+    mConnectedPlugin = new BenchmarkPlugin();
+    mConnectedPlugin.onConnect(mConnection);
+    mDisconnectedPlugin = new BenchmarkPlugin();
+  }
+
+  /** Once the buffer is full, every event pushes out the oldest. */
+  @Benchmark
+  public void enqueueFullRingBuffer() {
+    mFullBuffer.enqueue(mEvent);
+  }
+
+  @Benchmark
+  public void sendDisconnected() {
+    mDisconnectedPlugin.send("event", mEvent);
+  }
+
+  /** Many threads buffering events at once, as network threads do before the desktop connects. */
+  @Benchmark
+  @Threads(4)
+  public void sendDisconnectedContended(SharedPlugin shared) {
+    shared.plugin.send("event", mEvent);
+  }
+
+  @Benchmark
+  public void sendConnected() {
+    mConnectedPlugin.send("event", mEvent);
+    // The mock keeps what it is sent.
+    mConnection.sent.clear();
+  }
+
+  /**
+   * Fills a buffer as while disconnected, then takes every event out as the replay on connecting
+   * does.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BUFFER_SIZE)
+  public void bufferAndDrain() {
+    final EventBuffer buffer = new EventBuffer(EventBudget.ofBytes(4 * 1024 * 1024));
+    for (int i = 0; i < BUFFER_SIZE; i++) {
+      buffer.add("event", mEvent, SonarConnection.Priority.NORMAL);
+    }
+    while (buffer.poll() != null) {}
+  }
+
+  @State(Scope.Benchmark)
+  public static class SharedPlugin {
+    final BufferingSonarPlugin plugin = new BenchmarkPlugin();
+  }
+
+  private static class BenchmarkPlugin extends BufferingSonarPlugin {
+    @Override
+    public String getId() {
+      return "Benchmark";
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.inspector;
+
+import android.widget.Button;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looking up descriptors in the default mapping, which the inspector does for every node it
+ * visits. Classes without a descriptor of their own are looked up along their class hierarchy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DescriptorMappingBenchmark {
+  private DescriptorMapping mMapping;
+
+  @Setup
+  public void setUp() {
+    mMapping = DescriptorMapping.withDefaults();
+  }
+
+  @Benchmark
+  public NodeDescriptor<?> registeredClass() {
+    return mMapping.descriptorForClass(TextView.class);
+  }
+
+  @Benchmark
+  public NodeDescriptor<?> subclassOfTextView() {
+    return mMapping.descriptorForClass(Button.class);
+  }
+
+  @Benchmark
+  public NodeDescriptor<?> subclassOfViewGroup() {
+    return mMapping.descriptorForClass(FrameLayout.class);
+  }
+
+  @Benchmark
+  public NodeDescriptor<?> subclassOfObject() {
+    return mMapping.descriptorForClass(ArrayList.class);
+  }
+}
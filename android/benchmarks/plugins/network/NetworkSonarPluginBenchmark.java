@@ -0,0 +1,122 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.network;
+
+import com.facebook.sonar.plugins.network.NetworkReporter.Header;
+import com.facebook.sonar.plugins.network.NetworkReporter.RequestInfo;
+import com.facebook.sonar.plugins.network.NetworkReporter.ResponseInfo;
+import com.facebook.sonar.testing.SonarConnectionMock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reporting a typical request and response to a connected {@link NetworkSonarPlugin}, up to when
+ * the encoder thread has sent the event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkSonarPluginBenchmark {
+  private static final List<Header> HEADERS = headers();
+
+  @Param({"1024", "65536"})
+  public int bodySize;
+
+  private NetworkEncoder mEncoder;
+  private NetworkSonarPlugin mPlugin;
+  private SonarConnectionMock mConnection;
+  private byte[] mBody;
+
+  @Setup
+  public void setUp() {
+    // The encoder's own thread asks android.os.Process for background priority, which the JVM
+    // doesn't have.
+    mEncoder =
+        new NetworkEncoder(
+            NetworkSonarPlugin.MAX_PENDING_EVENTS,
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "SonarNetworkEncoder");
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+    NetworkSonarPlugin.setEncoder(mEncoder);
+    mConnection = new SonarConnectionMock();
+    mPlugin = new NetworkSonarPlugin();
+    mPlugin.onConnect(mConnection);
+
+    mBody = new byte[bodySize];
+    Arrays.fill(mBody, (byte) 'a');
+  }
+
+  @Benchmark
+  public void reportRequest() throws InterruptedException {
+    final RequestInfo request = new RequestInfo();
+    request.requestId = "1";
+    request.timeStamp = System.currentTimeMillis();
+    request.method = "POST";
+    request.uri = "https://graph.facebook.com/graphql?query_id=1234";
+    request.headers = HEADERS;
+    request.body = mBody;
+    mPlugin.reportRequest(request);
+    drain();
+  }
+
+  @Benchmark
+  public void reportResponse() throws InterruptedException {
+    final ResponseInfo response = new ResponseInfo();
+    response.requestId = "1";
+    response.timeStamp = System.currentTimeMillis();
+    response.statusCode = 200;
+    response.statusReason = "OK";
+    response.headers = HEADERS;
+    response.body = mBody;
+    mPlugin.reportResponse(response);
+    drain();
+  }
+
+  /**
+   * Waits for the encoder to send what was reported, so that the encoding is measured and the mock
+   * isn't cleared while the encoder adds to it.
+   */
+  private void drain() throws InterruptedException {
+    mEncoder.awaitIdle();
+    // The mock keeps what it is sent.
+    mConnection.sent.clear();
+  }
+
+  private static List<Header> headers() {
+    return Arrays.asList(
+        new Header("content-type", "application/json"),
+        new Header("content-encoding", "gzip"),
+        new Header("cache-control", "no-cache"),
+        new Header("user-agent", "okhttp/3.11.0"),
+        new Header("accept-language", "en-US"),
+        new Header("x-fb-request-id", "Ab3dE5fG7hI9jK1"),
+        new Header("date", "Mon, 02 Jul 2018 12:00:00 GMT"),
+        new Header("connection", "keep-alive"));
+  }
+}
@@ -7,9 +7,17 @@
  */
 package com.facebook.sonar.plugins.common;
 
+import android.util.Log;
 import com.facebook.sonar.core.SonarConnection;
 import com.facebook.sonar.core.SonarObject;
 import com.facebook.sonar.core.SonarPlugin;
+import com.facebook.sonar.core.SonarPrioritizedConnection;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
 
 /**
@@ -17,61 +25,186 @@ import javax.annotation.Nullable;
  *
  * <p>In order to send data to the {@link SonarConnection}, use {@link #send(String, SonarObject)}
  * instead of {@link SonarConnection#send(String, SonarObject)}.
+ *
+ * <p>Once connected, buffered events are replayed in the background, a chunk at a time at the
+ * rate set by the {@link EventBudget}, while new events are sent straight away. Buffered events
+ * are replayed first in, first out, also across connections, so they arrive in the order they
+ * were sent among themselves. New events keep their order too, but they don't wait for the
+ * replay, so they may arrive before older buffered ones. After each chunk the desktop is sent
+ * {@code replayProgress} with the number of events replayed and about how many remain, and
+ * {@code done} set once the buffer is empty. A connection that goes away during a replay is sent
+ * nothing more.
  */
 public abstract class BufferingSonarPlugin implements SonarPlugin {
 
-  private static final int BUFFER_SIZE = 500;
+  private static final EventBudget DEFAULT_BUDGET = EventBudget.ofBytes(4 * 1024 * 1024);
+  private static final String REPLAY_PROGRESS_METHOD = "replayProgress";
+
+  private static @Nullable ScheduledExecutorService sReplayTimer;
 
-  private @Nullable RingBuffer<CachedSonarEvent> mEventQueue;
-  private @Nullable SonarConnection mConnection;
+  private final EventQueue mEventQueue;
+  private final int mReplayChunkSize;
+  private final long mReplayIntervalMs;
+  // Set while a replay is running, so that only one runs at a time.
+  private final AtomicBoolean mReplaying = new AtomicBoolean();
+  private volatile @Nullable SonarConnection mConnection;
+
+  public BufferingSonarPlugin() {
+    this(DEFAULT_BUDGET);
+  }
+
+  /** Buffer events within budget, instead of the default of 4 MB and 500 events. */
+  protected BufferingSonarPlugin(EventBudget budget) {
+    mEventQueue = createEventQueue(budget);
+    mReplayChunkSize = budget.getReplayChunkSize();
+    mReplayIntervalMs = budget.getReplayIntervalMs();
+  }
+
+  /** Plugins are made on the main thread, so the disk log is opened in the background. */
+  private static EventQueue createEventQueue(EventBudget budget) {
+    final File spillDirectory = budget.getSpillDirectory();
+    final EventBuffer buffer = new EventBuffer(budget);
+    if (spillDirectory == null) {
+      return buffer;
+    }
+    final DeferredEventQueue queue = new DeferredEventQueue(buffer);
+    final long maxSpillBytes = budget.getMaxSpillBytes();
+    replayTimer()
+        .execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  queue.handOver(DiskEventLog.open(spillDirectory, maxSpillBytes));
+                } catch (IOException e) {
+                  Log.e("Sonar", "Buffering events on the heap: " + e);
+                }
+              }
+            });
+    return queue;
+  }
 
   @Override
-  public synchronized void onConnect(SonarConnection connection) {
+  public void onConnect(SonarConnection connection) {
     mConnection = connection;
 
-    sendBufferedEvents();
+    replayBufferedEvents();
   }
 
   @Override
-  public synchronized void onDisconnect() {
+  public void onDisconnect() {
     mConnection = null;
   }
 
-  public synchronized SonarConnection getConnection() {
+  public SonarConnection getConnection() {
     return mConnection;
   }
 
-  public synchronized boolean isConnected() {
+  public boolean isConnected() {
     return mConnection != null;
   }
 
-  public synchronized void send(String method, SonarObject sonarObject) {
-    if (mEventQueue == null) {
-      mEventQueue = new RingBuffer<>(BUFFER_SIZE);
+  public void send(String method, SonarObject sonarObject) {
+    send(method, sonarObject, SonarConnection.Priority.NORMAL);
+  }
+
+  /**
+   * Sends the event, or buffers it until there is a connection. May be called from any thread
+   * without blocking on others. The priority is ignored by connections that aren't {@link
+   * SonarPrioritizedConnection}s.
+   */
+  public void send(String method, SonarObject sonarObject, SonarConnection.Priority priority) {
+    final SonarConnection connection = mConnection;
+    if (connection != null) {
+      sendTo(connection, method, sonarObject, priority);
+      return;
     }
-    if (mConnection != null) {
-      mConnection.send(method, sonarObject);
+    mEventQueue.add(method, sonarObject, priority);
+    // The connection may have come while the event was being buffered.
+    replayBufferedEvents();
+  }
+
+  private static void sendTo(
+      SonarConnection connection,
+      String method,
+      SonarObject sonarObject,
+      SonarConnection.Priority priority) {
+    if (connection instanceof SonarPrioritizedConnection) {
+      ((SonarPrioritizedConnection) connection).send(method, sonarObject, priority);
     } else {
-      mEventQueue.enqueue(new CachedSonarEvent(method, sonarObject));
+      connection.send(method, sonarObject);
     }
   }
 
-  private synchronized void sendBufferedEvents() {
-    if (mEventQueue != null && mConnection != null) {
-      for (CachedSonarEvent cachedSonarEvent : mEventQueue.asList()) {
-        mConnection.send(cachedSonarEvent.method, cachedSonarEvent.sonarObject);
-      }
-      mEventQueue.clear();
+  private void replayBufferedEvents() {
+    final SonarConnection connection = mConnection;
+    if (connection != null && !mEventQueue.isEmpty() && mReplaying.compareAndSet(false, true)) {
+      replayTimer().execute(new Replay(connection));
+    }
+  }
+
+  private static synchronized ScheduledExecutorService replayTimer() {
+    if (sReplayTimer == null) {
+      sReplayTimer =
+          new ScheduledThreadPoolExecutor(
+              1, new ReceiverExecution.BackgroundThreadFactory("SonarReplay"));
     }
+    return sReplayTimer;
   }
 
-  private static class CachedSonarEvent {
-    final String method;
-    final SonarObject sonarObject;
+  /**
+   * Sends a chunk of buffered events to one connection each time it runs, and schedules itself for
+   * the next. It stops once that connection is gone.
+   */
+  private final class Replay implements Runnable {
+    private final SonarConnection mTarget;
+    private int mReplayed;
+
+    Replay(SonarConnection target) {
+      mTarget = target;
+    }
+
+    @Override
+    public void run() {
+      final SonarConnection connection = mTarget;
+      if (mConnection != connection) {
+        handOver();
+        return;
+      }
+      EventQueue.Event event = null;
+      // Events taken once the connection is gone would be lost, so it is checked for each.
+      for (int i = 0;
+          i < mReplayChunkSize && mConnection == connection && (event = mEventQueue.poll()) != null;
+          i++) {
+        sendTo(connection, event.method, event.getObject(), event.priority);
+        mReplayed++;
+      }
+      if (mConnection != connection) {
+        // Progress would be a message to a desktop that is no longer listening.
+        handOver();
+        return;
+      }
+      final boolean done = event == null || mEventQueue.isEmpty();
+      connection.send(
+          REPLAY_PROGRESS_METHOD,
+          SonarObject.Builder.streaming()
+              .put("replayed", mReplayed)
+              .put("remaining", done ? 0 : mEventQueue.size())
+              .put("done", done)
+              .build());
+      if (!done) {
+        replayTimer().schedule(this, mReplayIntervalMs, TimeUnit.MILLISECONDS);
+        return;
+      }
+      mReplaying.set(false);
+      // Events may have been buffered just as the last chunk was sent.
+      replayBufferedEvents();
+    }
 
-    private CachedSonarEvent(String method, SonarObject sonarObject) {
-      this.method = method;
-      this.sonarObject = sonarObject;
+    /** Whatever is left waits for the next connection, or is replayed to it afresh. */
+    private void handOver() {
+      mReplaying.set(false);
+      replayBufferedEvents();
     }
   }
 }
@@ -0,0 +1,60 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps events in a first queue until the queue meant for them is ready, such as a {@link
+ * DiskEventLog} that is being opened in the background. Events in the first queue are older, so
+ * they are taken before any in the second.
+ */
+final class DeferredEventQueue implements EventQueue {
+  private final EventQueue mFirst;
+  private volatile @Nullable EventQueue mSecond;
+
+  DeferredEventQueue(EventQueue first) {
+    mFirst = first;
+  }
+
+  /** Sends events added from now on to second. May be called from any thread. */
+  void handOver(EventQueue second) {
+    mSecond = second;
+  }
+
+  @Override
+  public void add(String method, SonarObject object, SonarConnection.Priority priority) {
+    final EventQueue second = mSecond;
+    (second != null ? second : mFirst).add(method, object, priority);
+  }
+
+  @Override
+  @Nullable
+  public Event poll() {
+    final Event event = mFirst.poll();
+    if (event != null) {
+      return event;
+    }
+    final EventQueue second = mSecond;
+    return second != null ? second.poll() : null;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    final EventQueue second = mSecond;
+    return mFirst.isEmpty() && (second == null || second.isEmpty());
+  }
+
+  @Override
+  public int size() {
+    final EventQueue second = mSecond;
+    return mFirst.size() + (second != null ? second.size() : 0);
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps events on disk instead of the heap, appended to memory mapped segment files, so a plugin
+ * can hold a long history from before the desktop connects. Events are written in their encoded
+ * form and read back one at a time as they are sent.
+ *
+ * <p>Segments are dropped whole, oldest first, to stay within the size limit. Appending and
+ * reading are a copy into or out of the mapped file, done under a lock held only for that long.
+ *
+ * <p>Each log claims a directory of its own under the one it is opened with, by locking a file in
+ * it, so plugins sharing a directory in one process or in several don't delete each other's
+ * events.
+ */
+final class DiskEventLog implements EventQueue {
+  private static final String SEGMENT_PREFIX = "events-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String LOCK_FILE = "lock";
+  // How many logs may share a directory.
+  private static final int MAX_LOGS = 16;
+  private static final int SEGMENT_SIZE = 1024 * 1024;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final SonarConnection.Priority[] PRIORITIES = SonarConnection.Priority.values();
+
+  /**
+   * A file of records, each an int length of what follows, the priority, the method name with its
+   * length as a short and the encoded event.
+   */
+  private static final class Segment {
+    final File file;
+    final MappedByteBuffer buffer;
+    int writePosition;
+    int readPosition;
+    int unread;
+
+    Segment(File file, MappedByteBuffer buffer) {
+      this.file = file;
+      this.buffer = buffer;
+    }
+  }
+
+  private final File mDirectory;
+  private final long mMaxBytes;
+  // Held for as long as the log is, so that no other log uses mDirectory.
+  private final FileLock mLock;
+  // Guarded by this.
+  private final ArrayDeque<Segment> mSegments = new ArrayDeque<>();
+  private long mMappedBytes;
+  private int mNextSegment;
+  // Events written but not read, read without the lock to keep isEmpty() cheap.
+  private volatile int mUnread;
+
+  private DiskEventLog(File directory, long maxBytes, FileLock lock) {
+    mDirectory = directory;
+    mMaxBytes = maxBytes;
+    mLock = lock;
+  }
+
+  /**
+   * Opens a log in the first free directory under directory, which may hold at most maxBytes of
+   * segments. Does file IO, so don't call it on the main thread.
+   */
+  static DiskEventLog open(File directory, long maxBytes) throws IOException {
+    for (int i = 0; i < MAX_LOGS; i++) {
+      final File logDirectory = new File(directory, Integer.toString(i));
+      if (!logDirectory.isDirectory() && !logDirectory.mkdirs()) {
+        throw new IOException("Can't create " + logDirectory);
+      }
+      final FileLock lock = tryLock(new File(logDirectory, LOCK_FILE));
+      if (lock == null) {
+        continue;
+      }
+      // Events left by an earlier run of the app are not of interest.
+      final File[] files = logDirectory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          if (file.getName().startsWith(SEGMENT_PREFIX)) {
+            file.delete();
+          }
+        }
+      }
+      return new DiskEventLog(logDirectory, maxBytes, lock);
+    }
+    throw new IOException("Too many logs in " + directory);
+  }
+
+  /** Locks file, or returns null if another log holds it. */
+  @Nullable
+  private static FileLock tryLock(File file) throws IOException {
+    final FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+    try {
+      final FileLock lock = channel.tryLock();
+      if (lock != null) {
+        return lock;
+      }
+    } catch (OverlappingFileLockException e) {
+      // Held by a log in this process.
+    }
+    channel.close();
+    return null;
+  }
+
+  /** The directory this log claimed. */
+  File getDirectory() {
+    return mDirectory;
+  }
+
+  @Override
+  public synchronized void add(
+      String method, SonarObject object, SonarConnection.Priority priority) {
+    final byte[] name = method.getBytes(UTF_8);
+    final byte[] cbor = object.toCbor();
+    final int length = 4 + 1 + 2 + name.length + cbor.length;
+    if (length > mMaxBytes) {
+      // It would push out every other event and still not fit. The event is lost.
+      return;
+    }
+
+    Segment segment = mSegments.peekLast();
+    if (segment == null || segment.buffer.capacity() - segment.writePosition < length) {
+      try {
+        segment = addSegment((int) Math.max(Math.min(SEGMENT_SIZE, mMaxBytes), length));
+      } catch (IOException e) {
+        // Out of disk space, most likely. The event is lost.
+        return;
+      }
+    }
+    final ByteBuffer buffer = segment.buffer;
+    buffer.position(segment.writePosition);
+    buffer.putInt(length - 4);
+    buffer.put((byte) priority.ordinal());
+    buffer.putShort((short) name.length).put(name);
+    buffer.put(cbor);
+    segment.writePosition = buffer.position();
+    segment.unread++;
+    mUnread++;
+  }
+
+  @Override
+  @Nullable
+  public synchronized Event poll() {
+    Segment segment;
+    while ((segment = mSegments.peekFirst()) != null) {
+      if (segment.readPosition < segment.writePosition) {
+        return read(segment);
+      }
+      if (segment == mSegments.peekLast()) {
+        // Everything has been read, so the segment can be written from the start again.
+        segment.readPosition = 0;
+        segment.writePosition = 0;
+        return null;
+      }
+      removeFirstSegment();
+    }
+    return null;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return mUnread == 0;
+  }
+
+  @Override
+  public int size() {
+    return mUnread;
+  }
+
+  private Event read(Segment segment) {
+    final ByteBuffer buffer = segment.buffer;
+    buffer.position(segment.readPosition);
+    final int length = buffer.getInt();
+    final SonarConnection.Priority priority = PRIORITIES[buffer.get()];
+    final byte[] name = new byte[buffer.getShort() & 0xffff];
+    buffer.get(name);
+    final byte[] cbor = new byte[length - 1 - 2 - name.length];
+    buffer.get(cbor);
+    segment.readPosition = buffer.position();
+    segment.unread--;
+    mUnread--;
+    return new Event(new String(name, UTF_8), SonarObject.fromCbor(cbor), priority);
+  }
+
+  private Segment addSegment(int size) throws IOException {
+    final File file = new File(mDirectory, SEGMENT_PREFIX + mNextSegment++ + SEGMENT_SUFFIX);
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    final MappedByteBuffer buffer;
+    try {
+      // The mapping stays valid once the file is closed.
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } finally {
+      raf.close();
+    }
+    final Segment segment = new Segment(file, buffer);
+    mSegments.addLast(segment);
+    mMappedBytes += size;
+    while (mMappedBytes > mMaxBytes && mSegments.size() > 1) {
+      removeFirstSegment();
+    }
+    return segment;
+  }
+
+  private void removeFirstSegment() {
+    final Segment segment = mSegments.removeFirst();
+    mMappedBytes -= segment.buffer.capacity();
+    mUnread -= segment.unread;
+    // The memory is unmapped once the buffer is collected.
+    segment.file.delete();
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import com.facebook.sonar.core.SonarObject;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * How much a {@link BufferingSonarPlugin} may hold while there is no connection, measured by the
+ * encoded size of its events. When the budget is exceeded the oldest events make room: first
+ * they are shrunk by the {@link Shrinker}, for example by dropping large bodies and keeping the
+ * rest, and only if that isn't enough are they dropped.
+ *
+ * <pre>
+ * EventBudget.ofBytes(8 * 1024 * 1024)
+ *     .withMethodQuota("newResponse", 6 * 1024 * 1024)
+ *     .withShrinker(dropBodies);
+ * </pre>
+ *
+ * <p>A method with a quota can't take more than its quota, so large events of one method don't
+ * push out the small events of others. Events of methods over their quota make room first when
+ * the whole budget is exceeded.
+ */
+public final class EventBudget {
+
+  /** Makes a smaller version of a buffered event, to keep instead of dropping it entirely. */
+  public interface Shrinker {
+    /** A smaller version of event, or null if it can't be made smaller. */
+    @Nullable
+    SonarObject shrink(String method, SonarObject event);
+  }
+
+  private static final int DEFAULT_MAX_EVENTS = 500;
+  private static final int DEFAULT_REPLAY_CHUNK_SIZE = 50;
+  private static final long DEFAULT_REPLAY_INTERVAL_MS = 20;
+
+  private final long mMaxBytes;
+  private final int mMaxEvents;
+  private final Map<String, Long> mMethodQuotas;
+  private final @Nullable Shrinker mShrinker;
+  private final @Nullable File mSpillDirectory;
+  private final long mMaxSpillBytes;
+  private final int mReplayChunkSize;
+  private final long mReplayIntervalMs;
+
+  private EventBudget(
+      long maxBytes,
+      int maxEvents,
+      Map<String, Long> methodQuotas,
+      @Nullable Shrinker shrinker,
+      @Nullable File spillDirectory,
+      long maxSpillBytes,
+      int replayChunkSize,
+      long replayIntervalMs) {
+    mMaxBytes = maxBytes;
+    mMaxEvents = maxEvents;
+    mMethodQuotas = methodQuotas;
+    mShrinker = shrinker;
+    mSpillDirectory = spillDirectory;
+    mMaxSpillBytes = maxSpillBytes;
+    mReplayChunkSize = replayChunkSize;
+    mReplayIntervalMs = replayIntervalMs;
+  }
+
+  /** Hold at most maxBytes of encoded events, and at most 500 events. */
+  public static EventBudget ofBytes(long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+    return new EventBudget(
+        maxBytes,
+        DEFAULT_MAX_EVENTS,
+        Collections.<String, Long>emptyMap(),
+        null,
+        null,
+        0,
+        DEFAULT_REPLAY_CHUNK_SIZE,
+        DEFAULT_REPLAY_INTERVAL_MS);
+  }
+
+  /** Hold at most maxEvents events, however small they are. */
+  public EventBudget withMaxEvents(int maxEvents) {
+    if (maxEvents <= 0) {
+      throw new IllegalArgumentException("maxEvents must be positive");
+    }
+    return new EventBudget(
+        mMaxBytes,
+        maxEvents,
+        mMethodQuotas,
+        mShrinker,
+        mSpillDirectory,
+        mMaxSpillBytes,
+        mReplayChunkSize,
+        mReplayIntervalMs);
+  }
+
+  /** Hold at most maxBytes of events sent with method. */
+  public EventBudget withMethodQuota(String method, long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+    final Map<String, Long> quotas = new HashMap<>(mMethodQuotas);
+    quotas.put(method, maxBytes);
+    return new EventBudget(
+        mMaxBytes,
+        mMaxEvents,
+        Collections.unmodifiableMap(quotas),
+        mShrinker,
+        mSpillDirectory,
+        mMaxSpillBytes,
+        mReplayChunkSize,
+        mReplayIntervalMs);
+  }
+
+  /** Shrink events with shrinker before dropping them. */
+  public EventBudget withShrinker(Shrinker shrinker) {
+    return new EventBudget(
+        mMaxBytes,
+        mMaxEvents,
+        mMethodQuotas,
+        shrinker,
+        mSpillDirectory,
+        mMaxSpillBytes,
+        mReplayChunkSize,
+        mReplayIntervalMs);
+  }
+
+  /**
+   * Keep events in files in directory instead of on the heap, up to maxBytes of them. The oldest
+   * are dropped beyond that, a segment of about 1 MB at a time. The other limits of the budget
+   * don't apply to events on disk, and an event bigger than maxBytes is dropped. Each plugin uses
+   * a directory of its own under directory, and files left there by an earlier run are deleted.
+   *
+   * <p>Meant for the app's files dir, to keep a long history of what happened before the desktop
+   * connected, such as network requests made as the app starts. The files are opened in the
+   * background, and events are kept on the heap until then, or for good if they can't be created.
+   */
+  public EventBudget withDiskSpill(File directory, long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+    return new EventBudget(
+        mMaxBytes,
+        mMaxEvents,
+        mMethodQuotas,
+        mShrinker,
+        directory,
+        maxBytes,
+        mReplayChunkSize,
+        mReplayIntervalMs);
+  }
+
+  /**
+   * Once connected, send buffered events chunkSize at a time, waiting intervalMs between chunks,
+   * instead of 50 every 20ms. Keeps a long history from flooding the connection as the desktop
+   * sets up the plugin.
+   */
+  public EventBudget withReplayRate(int chunkSize, long intervalMs) {
+    if (chunkSize <= 0 || intervalMs < 0) {
+      throw new IllegalArgumentException("chunkSize must be positive, intervalMs not negative");
+    }
+    return new EventBudget(
+        mMaxBytes,
+        mMaxEvents,
+        mMethodQuotas,
+        mShrinker,
+        mSpillDirectory,
+        mMaxSpillBytes,
+        chunkSize,
+        intervalMs);
+  }
+
+  long getMaxBytes() {
+    return mMaxBytes;
+  }
+
+  int getMaxEvents() {
+    return mMaxEvents;
+  }
+
+  Map<String, Long> getMethodQuotas() {
+    return mMethodQuotas;
+  }
+
+  @Nullable
+  Shrinker getShrinker() {
+    return mShrinker;
+  }
+
+  @Nullable
+  File getSpillDirectory() {
+    return mSpillDirectory;
+  }
+
+  long getMaxSpillBytes() {
+    return mMaxSpillBytes;
+  }
+
+  int getReplayChunkSize() {
+    return mReplayChunkSize;
+  }
+
+  long getReplayIntervalMs() {
+    return mReplayIntervalMs;
+  }
+}
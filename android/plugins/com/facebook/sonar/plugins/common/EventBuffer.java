@@ -0,0 +1,146 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * The events a {@link BufferingSonarPlugin} holds while there is no connection, kept within an
+ * {@link EventBudget}. Events are added without locking, from any thread. Whichever thread takes
+ * the buffer over budget makes room, while others carry on adding, so the budget may briefly be
+ * exceeded by the events added meanwhile.
+ */
+final class EventBuffer implements EventQueue {
+
+  private final EventBudget mBudget;
+  private final RingBuffer<Event> mEvents;
+  private final AtomicLong mBytes = new AtomicLong();
+  // Bytes held for each method that has a quota.
+  private final Map<String, AtomicLong> mMethodBytes;
+  private final AtomicBoolean mMakingRoom = new AtomicBoolean();
+
+  EventBuffer(EventBudget budget) {
+    mBudget = budget;
+    mEvents = new RingBuffer<>(budget.getMaxEvents());
+    final Map<String, AtomicLong> methodBytes = new HashMap<>();
+    for (String method : budget.getMethodQuotas().keySet()) {
+      methodBytes.put(method, new AtomicLong());
+    }
+    mMethodBytes = Collections.unmodifiableMap(methodBytes);
+  }
+
+  @Override
+  public void add(String method, SonarObject object, SonarConnection.Priority priority) {
+    final Event event = new Event(method, object, priority);
+    account(method, event.getSize());
+    final Event pushedOut = mEvents.enqueue(event);
+    if (pushedOut != null) {
+      account(pushedOut.method, -pushedOut.drop());
+    }
+    makeRoom();
+  }
+
+  @Override
+  @Nullable
+  public Event poll() {
+    Event event;
+    while ((event = mEvents.poll()) != null) {
+      final int size = event.take();
+      if (size >= 0) {
+        account(event.method, -size);
+        return event;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return mEvents.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    // Counts events that were dropped to make room but are still in the ring.
+    return (int) (mEvents.tail() - mEvents.head());
+  }
+
+  /** Bytes of events held, as they are encoded. */
+  long getBytes() {
+    return mBytes.get();
+  }
+
+  private void account(String method, long bytes) {
+    mBytes.addAndGet(bytes);
+    final AtomicLong methodBytes = mMethodBytes.get(method);
+    if (methodBytes != null) {
+      methodBytes.addAndGet(bytes);
+    }
+  }
+
+  private void makeRoom() {
+    if (!(isOverBudget() || isAnyMethodOverQuota()) || !mMakingRoom.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      // Events of methods over their quota make room first, then the oldest of any method. Either
+      // way events are shrunk before any are dropped.
+      final EventBudget.Shrinker shrinker = mBudget.getShrinker();
+      if (shrinker != null) {
+        makeRoom(false, shrinker);
+      }
+      makeRoom(false, null);
+      if (shrinker != null) {
+        makeRoom(true, shrinker);
+      }
+      makeRoom(true, null);
+    } finally {
+      mMakingRoom.set(false);
+    }
+  }
+
+  /** Shrinks events with shrinker, or drops them if it is null, oldest first. */
+  private void makeRoom(boolean anyMethod, @Nullable EventBudget.Shrinker shrinker) {
+    final long tail = mEvents.tail();
+    for (long sequence = mEvents.head(); sequence < tail; sequence++) {
+      if (anyMethod ? !isOverBudget() : !isAnyMethodOverQuota()) {
+        return;
+      }
+      final Event event = mEvents.peek(sequence);
+      if (event == null || (!anyMethod && !isOverQuota(event.method))) {
+        continue;
+      }
+      account(event.method, -(shrinker != null ? event.shrink(shrinker) : event.drop()));
+    }
+  }
+
+  private boolean isOverBudget() {
+    return mBytes.get() > mBudget.getMaxBytes();
+  }
+
+  private boolean isOverQuota(String method) {
+    final AtomicLong methodBytes = mMethodBytes.get(method);
+    return methodBytes != null && methodBytes.get() > mBudget.getMethodQuotas().get(method);
+  }
+
+  private boolean isAnyMethodOverQuota() {
+    for (String method : mMethodBytes.keySet()) {
+      if (isOverQuota(method)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+import javax.annotation.Nullable;
+
+/** Where a {@link BufferingSonarPlugin} keeps events until there is a connection. */
+interface EventQueue {
+
+  /** May be called from any thread. */
+  void add(String method, SonarObject object, SonarConnection.Priority priority);
+
+  /** Takes the oldest event. Must not be called from more than one thread at a time. */
+  @Nullable
+  Event poll();
+
+  boolean isEmpty();
+
+  /** About how many events are held, for reporting progress. */
+  int size();
+
+  final class Event {
+    final String method;
+    final SonarConnection.Priority priority;
+    // Guarded by this. Null once the event has been dropped.
+    private @Nullable SonarObject mObject;
+    private int mSize;
+    private boolean mShrunk;
+    private boolean mTaken;
+
+    Event(String method, SonarObject object, SonarConnection.Priority priority) {
+      this.method = method;
+      this.priority = priority;
+      mObject = object;
+      mSize = sizeOf(object);
+    }
+
+    synchronized SonarObject getObject() {
+      return mObject;
+    }
+
+    synchronized int getSize() {
+      return mSize;
+    }
+
+    /** Marks the event as on its way out. Returns its size, or -1 if it was dropped. */
+    synchronized int take() {
+      if (mObject == null) {
+        return -1;
+      }
+      mTaken = true;
+      return mSize;
+    }
+
+    /** Shrinks the event, once. Returns the bytes freed. */
+    synchronized int shrink(EventBudget.Shrinker shrinker) {
+      if (mTaken || mShrunk || mObject == null) {
+        return 0;
+      }
+      mShrunk = true;
+      final SonarObject smaller = shrinker.shrink(method, mObject);
+      if (smaller == null) {
+        return 0;
+      }
+      final int size = sizeOf(smaller);
+      if (size >= mSize) {
+        return 0;
+      }
+      final int freed = mSize - size;
+      mObject = smaller;
+      mSize = size;
+      return freed;
+    }
+
+    /** Returns the bytes freed. */
+    synchronized int drop() {
+      if (mTaken || mObject == null) {
+        return 0;
+      }
+      final int freed = mSize;
+      mObject = null;
+      mSize = 0;
+      return freed;
+    }
+
+    private static int sizeOf(SonarObject object) {
+      // Objects hold their encoding, so this doesn't encode anything.
+      return object.toCbor().length;
+    }
+  }
+}
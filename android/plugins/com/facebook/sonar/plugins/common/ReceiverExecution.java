@@ -0,0 +1,453 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import com.facebook.sonar.core.SonarArray;
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+import com.facebook.sonar.core.SonarReceiver;
+import com.facebook.sonar.core.SonarResponder;
+import com.facebook.sonar.core.SonarResponderAdapter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * Describes where a {@link SonarReceiver} runs and how it is protected from the other receivers of
+ * the app. A receiver registered with {@link SonarConnection#receive(String, SonarReceiver)} runs
+ * on its plugin's dispatch queue, which handles one call at a time, so one that blocks holds up
+ * every other call to the plugin. Receivers that do real work should be wrapped:
+ *
+ * <pre>
+ * connection.receive(
+ *     "getData", ReceiverExecution.background().withTimeout(5000).wrap(connection, receiver));
+ * </pre>
+ *
+ * <p>Calls beyond the concurrency limit, or that the executor can't accept, are answered with an
+ * error straight away. A call that hasn't been answered within the timeout, or that a newer call
+ * replaced, is answered with an error and marked as {@link SonarResponderAdapter#isCancelled()
+ * cancelled}. Whatever the receiver responds after that is dropped, and the call gives up its place
+ * in the concurrency limit, so a receiver that hangs can't lock out later calls. Calls that are
+ * cancelled while they wait for the executor are dropped without running.
+ */
+public final class ReceiverExecution {
+
+  // Sized like AsyncTask's pool: a few threads that stay around while busy, and more once the
+  // queue is full, for the bursts of calls a desktop sends as it opens plugins.
+  private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+  private static final int BACKGROUND_THREADS = Math.max(2, Math.min(CPU_COUNT - 1, 4));
+  private static final int MAX_BACKGROUND_THREADS = CPU_COUNT * 2 + 1;
+  private static final int QUEUE_CAPACITY = 64;
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static @Nullable Handler sMainHandler;
+  private static @Nullable Executor sBackground;
+  // Lanes with calls queued or running. Guarded by the class.
+  private static final Map<String, Lane> sLanes = new HashMap<>();
+  private static @Nullable ScheduledExecutorService sTimer;
+
+  private final Executor mExecutor;
+  private final int mMaxConcurrency;
+  private final long mTimeoutMs;
+  private final boolean mLatestWins;
+
+  private ReceiverExecution(
+      Executor executor, int maxConcurrency, long timeoutMs, boolean latestWins) {
+    mExecutor = executor;
+    mMaxConcurrency = maxConcurrency;
+    mTimeoutMs = timeoutMs;
+    mLatestWins = latestWins;
+  }
+
+  /** Run on the main thread, for receivers that touch views. */
+  public static ReceiverExecution mainThread() {
+    return on(
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            mainHandler().post(command);
+          }
+        });
+  }
+
+  /** Run on a small pool of background threads shared by all plugins. */
+  public static ReceiverExecution background() {
+    return on(backgroundExecutor());
+  }
+
+  /**
+   * Run on the background pool, one call at a time and in the order they arrived. Receivers which
+   * share a lane never run concurrently.
+   */
+  public static ReceiverExecution serial(final String lane) {
+    return on(
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            executeInLane(lane, command);
+          }
+        });
+  }
+
+  /** Run on the given executor. */
+  public static ReceiverExecution on(Executor executor) {
+    return new ReceiverExecution(executor, 0, 0, false);
+  }
+
+  /** Allow at most maxConcurrency calls to the receiver to run at once, 0 means no limit. */
+  public ReceiverExecution withMaxConcurrency(int maxConcurrency) {
+    if (maxConcurrency < 0) {
+      throw new IllegalArgumentException("maxConcurrency must not be negative");
+    }
+    return new ReceiverExecution(mExecutor, maxConcurrency, mTimeoutMs, mLatestWins);
+  }
+
+  /** Answer calls with an error if the receiver hasn't responded in time, 0 means never. */
+  public ReceiverExecution withTimeout(long timeoutMs) {
+    if (timeoutMs < 0) {
+      throw new IllegalArgumentException("timeoutMs must not be negative");
+    }
+    return new ReceiverExecution(mExecutor, mMaxConcurrency, timeoutMs, mLatestWins);
+  }
+
+  /**
+   * Only the newest call to the receiver matters, each call cancels the one before it. Meant for
+   * queries the desktop repeats as the user types. A cancelled call that is already running keeps
+   * running until it returns, so it should check {@link
+   * SonarResponderAdapter#isCancelled(SonarResponder)} as it goes.
+   */
+  public ReceiverExecution withLatestWins() {
+    return new ReceiverExecution(mExecutor, mMaxConcurrency, mTimeoutMs, true);
+  }
+
+  /** Wrap receiver so that it runs as described. Errors it throws are reported to connection. */
+  public SonarReceiver wrap(SonarConnection connection, SonarReceiver receiver) {
+    return new ExecutingReceiver(
+        connection,
+        receiver,
+        mExecutor,
+        mMaxConcurrency > 0 ? new Semaphore(mMaxConcurrency) : null,
+        mTimeoutMs,
+        mLatestWins ? new AtomicReference<OnceResponder>() : null);
+  }
+
+  private static synchronized Handler mainHandler() {
+    if (sMainHandler == null) {
+      sMainHandler = new Handler(Looper.getMainLooper());
+    }
+    return sMainHandler;
+  }
+
+  private static synchronized Executor backgroundExecutor() {
+    if (sBackground == null) {
+      final ThreadPoolExecutor executor =
+          new ThreadPoolExecutor(
+              BACKGROUND_THREADS,
+              MAX_BACKGROUND_THREADS,
+              KEEP_ALIVE_SECONDS,
+              TimeUnit.SECONDS,
+              new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+              new BackgroundThreadFactory("SonarReceiver"));
+      executor.allowCoreThreadTimeOut(true);
+      sBackground = executor;
+    }
+    return sBackground;
+  }
+
+  private static void executeInLane(String name, Runnable command) {
+    final Lane lane;
+    synchronized (ReceiverExecution.class) {
+      final Lane running = sLanes.get(name);
+      if (running != null) {
+        if (running.mTasks.size() >= QUEUE_CAPACITY) {
+          throw new RejectedExecutionException("Lane " + name + " is full");
+        }
+        running.mTasks.add(command);
+        return;
+      }
+      lane = new Lane(name);
+      lane.mTasks.add(command);
+      sLanes.put(name, lane);
+    }
+    try {
+      backgroundExecutor().execute(lane);
+    } catch (RejectedExecutionException e) {
+      synchronized (ReceiverExecution.class) {
+        sLanes.remove(name);
+      }
+      throw e;
+    }
+  }
+
+  /** Number of lanes with calls queued or running, for tests. */
+  static synchronized int activeLanes() {
+    return sLanes.size();
+  }
+
+  private static synchronized ScheduledExecutorService timer() {
+    if (sTimer == null) {
+      final ScheduledThreadPoolExecutor timer =
+          new ScheduledThreadPoolExecutor(1, new BackgroundThreadFactory("SonarReceiverTimeout"));
+      timer.setRemoveOnCancelPolicy(true);
+      sTimer = timer;
+    }
+    return sTimer;
+  }
+
+  private static SonarObject errorObject(String message, @Nullable Throwable throwable) {
+    final SonarObject.Builder error = new SonarObject.Builder().put("message", message);
+    if (throwable != null) {
+      final StringWriter stacktrace = new StringWriter();
+      throwable.printStackTrace(new PrintWriter(stacktrace));
+      error.put("stacktrace", stacktrace.toString());
+    }
+    return error.build();
+  }
+
+  private static final class ExecutingReceiver implements SonarReceiver {
+    private final SonarConnection mConnection;
+    private final SonarReceiver mReceiver;
+    private final Executor mExecutor;
+    private final @Nullable Semaphore mPermits;
+    private final long mTimeoutMs;
+    private final @Nullable AtomicReference<OnceResponder> mLatest;
+
+    ExecutingReceiver(
+        SonarConnection connection,
+        SonarReceiver receiver,
+        Executor executor,
+        @Nullable Semaphore permits,
+        long timeoutMs,
+        @Nullable AtomicReference<OnceResponder> latest) {
+      mConnection = connection;
+      mReceiver = receiver;
+      mExecutor = executor;
+      mPermits = permits;
+      mTimeoutMs = timeoutMs;
+      mLatest = latest;
+    }
+
+    @Override
+    public void onReceive(final SonarObject params, SonarResponder responder) {
+      if (mPermits != null && !mPermits.tryAcquire()) {
+        responder.error(errorObject("Too many concurrent calls, try again later", null));
+        return;
+      }
+
+      final OnceResponder once = new OnceResponder(responder, mPermits, mLatest);
+      if (mLatest != null) {
+        final OnceResponder previous = mLatest.getAndSet(once);
+        if (previous != null) {
+          previous.cancel("Superseded by a newer call");
+        }
+      }
+      if (mTimeoutMs > 0) {
+        once.timeoutAfter(mTimeoutMs);
+      }
+
+      try {
+        mExecutor.execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  if (!once.isCancelled()) {
+                    mReceiver.onReceive(params, once);
+                  }
+                } catch (Exception e) {
+                  mConnection.reportError(e);
+                  once.error(errorObject(String.valueOf(e.getMessage()), e));
+                } finally {
+                  once.releasePermit();
+                }
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        once.releasePermit();
+        once.error(errorObject("Too many pending calls, try again later", null));
+      }
+    }
+  }
+
+  /**
+   * Passes the first response on, and drops any after it or after the call was cancelled. Holds the
+   * call's place in the concurrency limit until the receiver returns or the call is cancelled.
+   */
+  private static final class OnceResponder extends SonarResponderAdapter {
+    private final SonarResponder mResponder;
+    private final @Nullable Semaphore mPermits;
+    private final @Nullable AtomicReference<OnceResponder> mLatest;
+    private final AtomicBoolean mDone = new AtomicBoolean();
+    private final AtomicBoolean mPermitReleased = new AtomicBoolean();
+    private volatile boolean mCancelled;
+    private volatile @Nullable ScheduledFuture<?> mTimeout;
+
+    OnceResponder(
+        SonarResponder responder,
+        @Nullable Semaphore permits,
+        @Nullable AtomicReference<OnceResponder> latest) {
+      mResponder = responder;
+      mPermits = permits;
+      mLatest = latest;
+    }
+
+    void timeoutAfter(final long timeoutMs) {
+      mTimeout =
+          timer()
+              .schedule(
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      cancel("Timed out after " + timeoutMs + "ms");
+                    }
+                  },
+                  timeoutMs,
+                  TimeUnit.MILLISECONDS);
+    }
+
+    void cancel(String reason) {
+      mCancelled = true;
+      // Free the place before answering, so that the desktop can call again as soon as it sees the
+      // error.
+      releasePermit();
+      error(errorObject(reason, null));
+    }
+
+    /** Give up the call's place in the concurrency limit. Only the first call has an effect. */
+    void releasePermit() {
+      if (mPermits != null && mPermitReleased.compareAndSet(false, true)) {
+        mPermits.release();
+      }
+    }
+
+    private boolean complete() {
+      if (!mDone.compareAndSet(false, true)) {
+        return false;
+      }
+      final ScheduledFuture<?> timeout = mTimeout;
+      if (timeout != null) {
+        timeout.cancel(false);
+      }
+      // Don't keep the responder, and the call it answers, alive until the next call.
+      if (mLatest != null) {
+        mLatest.compareAndSet(this, null);
+      }
+      return true;
+    }
+
+    @Override
+    public void success(SonarObject response) {
+      if (complete()) {
+        mResponder.success(response);
+      }
+    }
+
+    @Override
+    public void success(SonarArray response) {
+      if (complete()) {
+        mResponder.success(response);
+      }
+    }
+
+    @Override
+    public void success() {
+      if (complete()) {
+        mResponder.success();
+      }
+    }
+
+    @Override
+    public void error(SonarObject response) {
+      if (complete()) {
+        mResponder.error(response);
+      }
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return mCancelled || SonarResponderAdapter.isCancelled(mResponder);
+    }
+  }
+
+  /**
+   * Runs the calls of a lane one after another on the background pool. The lane is forgotten once
+   * it runs out of calls, and started again by the next one.
+   */
+  private static final class Lane implements Runnable {
+    private final String mName;
+    // Guarded by ReceiverExecution.class.
+    private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+    Lane(String name) {
+      mName = name;
+    }
+
+    @Override
+    public void run() {
+      Runnable task;
+      while ((task = next()) != null) {
+        task.run();
+      }
+    }
+
+    @Nullable
+    private Runnable next() {
+      synchronized (ReceiverExecution.class) {
+        final Runnable task = mTasks.poll();
+        if (task == null) {
+          sLanes.remove(mName);
+        }
+        return task;
+      }
+    }
+  }
+
+  static final class BackgroundThreadFactory implements ThreadFactory {
+    private final String mName;
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    BackgroundThreadFactory(String name) {
+      mName = name;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      final Thread thread =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                  runnable.run();
+                }
+              },
+              mName + "-" + mCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
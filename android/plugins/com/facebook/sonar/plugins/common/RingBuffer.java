@@ -7,29 +7,122 @@
  */
 package com.facebook.sonar.plugins.common;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nullable;
 
+/**
+ * A fixed size buffer that keeps the most recent items. Any number of threads may enqueue at once
+ * without locking, while one thread at a time takes items out in the order they were enqueued.
+ * When it is full the oldest item is overwritten.
+ *
+ * <p>Each enqueue claims the next sequence number and stores its item in the slot for it. A
+ * slot's state records which sequence it holds and whether that is still being written: 0 when
+ * empty, s + 1 once item s is stored, and -(s + 1) while it is being stored. A slot only ever
+ * moves to a later sequence, so a writer that finds a later one there drops its item, as it would
+ * have been overwritten anyway.
+ */
 final class RingBuffer<T> {
-  final int mBufferSize;
-  final List<T> mBuffer = new LinkedList<>();
+  private final int mCapacity;
+  private final AtomicReferenceArray<T> mItems;
+  private final AtomicLongArray mStates;
+  // The next sequence to claim.
+  private final AtomicLong mTail = new AtomicLong();
+  // The next sequence to take. Only written by the taking thread.
+  private volatile long mHead;
 
-  RingBuffer(int bufferSize) {
-    mBufferSize = bufferSize;
+  RingBuffer(int capacity) {
+    mCapacity = capacity;
+    mItems = new AtomicReferenceArray<>(capacity);
+    mStates = new AtomicLongArray(capacity);
   }
 
-  void enqueue(T item) {
-    if (mBuffer.size() >= mBufferSize) {
-      mBuffer.remove(0);
+  /**
+   * Returns the item this one pushed out of the buffer, or item itself if it was overwritten before
+   * it could be stored. Returns null when nothing had to go.
+   */
+  @Nullable
+  T enqueue(T item) {
+    final long sequence = mTail.getAndIncrement();
+    final int slot = (int) (sequence % mCapacity);
+    while (true) {
+      final long state = mStates.get(slot);
+      if (state < 0 && -state - 1 < sequence) {
+        // An older item is still being stored here, which won't take long.
+        Thread.yield();
+        continue;
+      }
+      if (Math.abs(state) - 1 > sequence) {
+        return item;
+      }
+      final T pushedOut = mItems.get(slot);
+      if (mStates.compareAndSet(slot, state, -(sequence + 1))) {
+        mItems.set(slot, item);
+        mStates.set(slot, sequence + 1);
+        return state > 0 ? pushedOut : null;
+      }
     }
-    mBuffer.add(item);
   }
 
-  void clear() {
-    mBuffer.clear();
+  boolean isEmpty() {
+    return mHead >= mTail.get();
+  }
+
+  /** The sequence of the oldest item that may still be held. */
+  long head() {
+    return Math.max(mHead, mTail.get() - mCapacity);
+  }
+
+  /** The sequence the next item will have. */
+  long tail() {
+    return mTail.get();
   }
 
-  List<T> asList() {
-    return mBuffer;
+  /** The item with the given sequence, if it is still held and has been stored. */
+  @Nullable
+  T peek(long sequence) {
+    final int slot = (int) (sequence % mCapacity);
+    if (mStates.get(slot) != sequence + 1) {
+      return null;
+    }
+    final T item = mItems.get(slot);
+    return mStates.get(slot) == sequence + 1 ? item : null;
+  }
+
+  /**
+   * Takes the oldest item, or returns null if there is none. Must not be called from more than
+   * one thread at a time.
+   */
+  @Nullable
+  T poll() {
+    while (true) {
+      final long tail = mTail.get();
+      // Anything older than the last capacity items has been overwritten.
+      long head = Math.max(mHead, tail - mCapacity);
+      if (head >= tail) {
+        mHead = head;
+        return null;
+      }
+      final int slot = (int) (head % mCapacity);
+      final long state = mStates.get(slot);
+      if (state == head + 1) {
+        final T item = mItems.get(slot);
+        // Empty the slot, unless a later item has claimed it since.
+        if (mStates.compareAndSet(slot, state, -(head + 1))) {
+          mItems.set(slot, null);
+          mStates.set(slot, 0);
+          mHead = head + 1;
+          return item;
+        }
+      } else if (Math.abs(state) - 1 > head) {
+        // Overwritten.
+        mHead = head + 1;
+      } else {
+        // Claimed but not stored yet.
+        mHead = head;
+        Thread.yield();
+      }
+    }
   }
 }
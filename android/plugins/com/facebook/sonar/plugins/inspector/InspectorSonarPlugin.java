@@ -21,7 +21,9 @@ import com.facebook.sonar.core.SonarObject;
 import com.facebook.sonar.core.SonarPlugin;
 import com.facebook.sonar.core.SonarReceiver;
 import com.facebook.sonar.core.SonarResponder;
+import com.facebook.sonar.core.SonarResponderAdapter;
 import com.facebook.sonar.plugins.common.MainThreadSonarReceiver;
+import com.facebook.sonar.plugins.common.ReceiverExecution;
 import com.facebook.sonar.plugins.console.iface.ConsoleCommandReceiver;
 import com.facebook.sonar.plugins.console.iface.NullScriptingEnvironment;
 import com.facebook.sonar.plugins.console.iface.ScriptingEnvironment;
@@ -125,7 +127,11 @@ public class InspectorSonarPlugin implements SonarPlugin {
     connection.receive("setData", mSetData);
     connection.receive("setHighlighted", mSetHighlighted);
     connection.receive("setSearchActive", mSetSearchActive);
-    connection.receive("getSearchResults", mGetSearchResults);
+    // The desktop searches on every keystroke. Only the newest search is worth finishing, older
+    // ones are dropped while they wait for the main thread and abandoned part way through.
+    connection.receive(
+        "getSearchResults",
+        ReceiverExecution.mainThread().withLatestWins().wrap(connection, mGetSearchResults));
     connection.receive("getAXRoot", mGetAXRoot);
     connection.receive("getAXNodes", mGetAXNodes);
 
@@ -312,12 +318,15 @@ public class InspectorSonarPlugin implements SonarPlugin {
       };
 
   final SonarReceiver mGetSearchResults =
-      new MainThreadSonarReceiver(mConnection) {
+      new SonarReceiver() {
         @Override
-        public void onReceiveOnMainThread(SonarObject params, SonarResponder responder)
-            throws Exception {
+        public void onReceive(SonarObject params, SonarResponder responder) throws Exception {
           final String query = params.getString("query");
-          final SearchResultNode matchTree = searchTree(query.toLowerCase(), mApplication);
+          final SearchResultNode matchTree =
+              searchTree(query.toLowerCase(), mApplication, responder);
+          if (SonarResponderAdapter.isCancelled(responder)) {
+            return;
+          }
           final SonarObject results = matchTree == null ? null : matchTree.toSonarObject();
           final SonarObject response =
               new SonarObject.Builder().put("results", results).put("query", query).build();
@@ -408,13 +417,22 @@ public class InspectorSonarPlugin implements SonarPlugin {
   }
 
   public SearchResultNode searchTree(String query, Object obj) throws Exception {
+    return searchTree(query, obj, null);
+  }
+
+  /** Stops early and returns null once the call the search is for has been cancelled. */
+  private @Nullable SearchResultNode searchTree(
+      String query, Object obj, @Nullable SonarResponder call) throws Exception {
+    if (call != null && SonarResponderAdapter.isCancelled(call)) {
+      return null;
+    }
     final NodeDescriptor descriptor = descriptorForObject(obj);
     List<SearchResultNode> childTrees = null;
     boolean isMatch = descriptor.matches(query, obj);
 
     for (int i = 0; i < descriptor.getChildCount(obj); i++) {
       Object child = descriptor.getChildAt(obj, i);
-      SearchResultNode childNode = searchTree(query, child);
+      SearchResultNode childNode = searchTree(query, child, call);
       if (childNode != null) {
         if (childTrees == null) {
           childTrees = new ArrayList<>();
@@ -441,7 +459,7 @@ public class InspectorSonarPlugin implements SonarPlugin {
       return null;
     }
 
-    final SonarArray.Builder children = new SonarArray.Builder();
+    final SonarArray.Builder children = SonarArray.Builder.streaming();
     new ErrorReportingRunnable(mConnection) {
       @Override
       protected void runOrThrow() throws Exception {
@@ -452,7 +470,7 @@ public class InspectorSonarPlugin implements SonarPlugin {
       }
     }.run();
 
-    final SonarObject.Builder data = new SonarObject.Builder();
+    final SonarObject.Builder data = SonarObject.Builder.streaming();
     new ErrorReportingRunnable(mConnection) {
       @Override
       protected void runOrThrow() throws Exception {
@@ -462,21 +480,20 @@ public class InspectorSonarPlugin implements SonarPlugin {
       }
     }.run();
 
-    final SonarArray.Builder attributes = new SonarArray.Builder();
+    final SonarArray.Builder attributes = SonarArray.Builder.streaming();
     new ErrorReportingRunnable(mConnection) {
       @Override
       protected void runOrThrow() throws Exception {
         for (Named<String> attribute : descriptor.getAttributes(obj)) {
           attributes.put(
-              new SonarObject.Builder()
+              SonarObject.Builder.streaming()
                   .put("name", attribute.getName())
-                  .put("value", attribute.getValue())
-                  .build());
+                  .put("value", attribute.getValue()));
         }
       }
     }.run();
 
-    return new SonarObject.Builder()
+    return SonarObject.Builder.streaming()
         .put("id", descriptor.getId(obj))
         .put("name", descriptor.getName(obj))
         .put("data", data)
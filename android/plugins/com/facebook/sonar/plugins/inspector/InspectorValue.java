@@ -70,7 +70,7 @@ public class InspectorValue<T> implements SonarValue {
 
   @Override
   public SonarObject toSonarObject() {
-    return new SonarObject.Builder()
+    return SonarObject.Builder.streaming()
         .put("__type__", mType)
         .put("__mutable__", mMutable)
         .put("value", mValue)
@@ -30,22 +30,24 @@ public class SearchResultNode {
   }
 
   SonarObject toSonarObject() {
-    final SonarArray childArray;
+    return toSonarObjectBuilder().build();
+  }
+
+  // Children are streamed into their parent and matched elements are spliced in already encoded,
+  // so the result tree is written out once.
+  private SonarObject.Builder toSonarObjectBuilder() {
+    final SonarObject.Builder builder =
+        SonarObject.Builder.streaming()
+            .put("id", this.id)
+            .put("isMatch", this.isMatch)
+            .put("element", this.element);
     if (children != null) {
-      final SonarArray.Builder builder = new SonarArray.Builder();
+      final SonarArray.Builder childArray = SonarArray.Builder.streaming();
       for (SearchResultNode child : children) {
-        builder.put(child.toSonarObject());
+        childArray.put(child.toSonarObjectBuilder());
       }
-      childArray = builder.build();
-    } else {
-      childArray = null;
+      builder.put("children", childArray);
     }
-
-    return new SonarObject.Builder()
-        .put("id", this.id)
-        .put("isMatch", this.isMatch)
-        .put("element", this.element)
-        .put("children", childArray)
-        .build();
+    return builder;
   }
 }
@@ -105,7 +105,7 @@ public class ViewDescriptor extends NodeDescriptor<View> {
   @Override
   public List<Named<SonarObject>> getData(View node) {
     final SonarObject.Builder viewProps =
-        new SonarObject.Builder()
+        SonarObject.Builder.streaming()
             .put("height", InspectorValue.mutable(node.getHeight()))
             .put("width", InspectorValue.mutable(node.getWidth()))
             .put("alpha", InspectorValue.mutable(node.getAlpha()))
@@ -116,39 +116,39 @@ public class ViewDescriptor extends NodeDescriptor<View> {
             .put("layoutParams", getLayoutParams(node))
             .put(
                 "state",
-                new SonarObject.Builder()
+                SonarObject.Builder.streaming()
                     .put("enabled", InspectorValue.mutable(node.isEnabled()))
                     .put("activated", InspectorValue.mutable(node.isActivated()))
                     .put("focused", node.isFocused())
                     .put("selected", InspectorValue.mutable(node.isSelected())))
             .put(
                 "bounds",
-                new SonarObject.Builder()
+                SonarObject.Builder.streaming()
                     .put("left", InspectorValue.mutable(node.getLeft()))
                     .put("right", InspectorValue.mutable(node.getRight()))
                     .put("top", InspectorValue.mutable(node.getTop()))
                     .put("bottom", InspectorValue.mutable(node.getBottom())))
             .put(
                 "padding",
-                new SonarObject.Builder()
+                SonarObject.Builder.streaming()
                     .put("left", InspectorValue.mutable(node.getPaddingLeft()))
                     .put("top", InspectorValue.mutable(node.getPaddingTop()))
                     .put("right", InspectorValue.mutable(node.getPaddingRight()))
                     .put("bottom", InspectorValue.mutable(node.getPaddingBottom())))
             .put(
                 "rotation",
-                new SonarObject.Builder()
+                SonarObject.Builder.streaming()
                     .put("x", InspectorValue.mutable(node.getRotationX()))
                     .put("y", InspectorValue.mutable(node.getRotationY()))
                     .put("z", InspectorValue.mutable(node.getRotation())))
             .put(
                 "scale",
-                new SonarObject.Builder()
+                SonarObject.Builder.streaming()
                     .put("x", InspectorValue.mutable(node.getScaleX()))
                     .put("y", InspectorValue.mutable(node.getScaleY())))
             .put(
                 "pivot",
-                new SonarObject.Builder()
+                SonarObject.Builder.streaming()
                     .put("x", InspectorValue.mutable(node.getPivotX()))
                     .put("y", InspectorValue.mutable(node.getPivotY())));
 
@@ -164,7 +164,7 @@ public class ViewDescriptor extends NodeDescriptor<View> {
     }
 
     SonarObject.Builder translation =
-        new SonarObject.Builder()
+        SonarObject.Builder.streaming()
             .put("x", InspectorValue.mutable(node.getTranslationX()))
             .put("y", InspectorValue.mutable(node.getTranslationY()));
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -173,7 +173,7 @@ public class ViewDescriptor extends NodeDescriptor<View> {
     viewProps.put("translation", translation);
 
     SonarObject.Builder position =
-        new SonarObject.Builder()
+        SonarObject.Builder.streaming()
             .put("x", InspectorValue.mutable(node.getX()))
             .put("y", InspectorValue.mutable(node.getY()));
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) {
@@ -526,7 +526,7 @@ public class ViewDescriptor extends NodeDescriptor<View> {
   }
 
   private SonarObject getTags(final View node) {
-    final SonarObject.Builder tags = new SonarObject.Builder();
+    final SonarObject.Builder tags = SonarObject.Builder.streaming();
     if (sKeyedTagsField == null) {
       return tags.build();
     }
@@ -558,7 +558,7 @@ public class ViewDescriptor extends NodeDescriptor<View> {
 
   private static SonarObject getLayoutParams(View node) {
     final LayoutParams layoutParams = node.getLayoutParams();
-    final SonarObject.Builder params = new SonarObject.Builder();
+    final SonarObject.Builder params = SonarObject.Builder.streaming();
 
     params.put("width", fromSize(layoutParams.width));
     params.put("height", fromSize(layoutParams.height));
@@ -567,7 +567,7 @@ public class ViewDescriptor extends NodeDescriptor<View> {
       final MarginLayoutParams marginLayoutParams = (MarginLayoutParams) layoutParams;
       params.put(
           "margin",
-          new SonarObject.Builder()
+          SonarObject.Builder.streaming()
               .put("left", InspectorValue.mutable(marginLayoutParams.leftMargin))
               .put("top", InspectorValue.mutable(marginLayoutParams.topMargin))
               .put("right", InspectorValue.mutable(marginLayoutParams.rightMargin))
@@ -0,0 +1,97 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+package com.facebook.sonar.plugins.network;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import javax.annotation.Nullable;
+
+/**
+ * Which request and response bodies {@link SonarOkhttpInterceptor} shows, and how much of each.
+ * Bodies longer than the cap are cut short and marked as truncated, with their full length. The
+ * app always gets the whole body.
+ *
+ * <pre>
+ * BodyCapturePolicy.upTo(64 * 1024)
+ *     .withAllowedTypes("application/json", "text/")
+ *     .withDeniedTypes("text/event-stream");
+ * </pre>
+ *
+ * <p>Types are matched as prefixes of the content type. A body is shown when no allowed types are
+ * given or its type starts with one of them, and its type doesn't start with a denied one. Bodies
+ * without a content type are shown unless there are allowed types.
+ */
+public final class BodyCapturePolicy {
+  private static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+  /** Up to 1 MB of each body, leaving out media and archives. */
+  public static final BodyCapturePolicy DEFAULT =
+      upTo(DEFAULT_MAX_BYTES).withDeniedTypes("image/", "video/", "audio/", "application/zip");
+
+  private final long mMaxBytes;
+  private final List<String> mAllowedTypes;
+  private final List<String> mDeniedTypes;
+
+  private BodyCapturePolicy(long maxBytes, List<String> allowedTypes, List<String> deniedTypes) {
+    mMaxBytes = maxBytes;
+    mAllowedTypes = allowedTypes;
+    mDeniedTypes = deniedTypes;
+  }
+
+  /** Show at most maxBytes of each body, whatever its type. */
+  public static BodyCapturePolicy upTo(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("maxBytes must not be negative");
+    }
+    return new BodyCapturePolicy(
+        maxBytes, Collections.<String>emptyList(), Collections.<String>emptyList());
+  }
+
+  /** Only show bodies whose content type starts with one of types. */
+  public BodyCapturePolicy withAllowedTypes(String... types) {
+    return new BodyCapturePolicy(mMaxBytes, toLowerCase(types), mDeniedTypes);
+  }
+
+  /** Don't show bodies whose content type starts with one of types. */
+  public BodyCapturePolicy withDeniedTypes(String... types) {
+    return new BodyCapturePolicy(mMaxBytes, mAllowedTypes, toLowerCase(types));
+  }
+
+  long getMaxBytes() {
+    return mMaxBytes;
+  }
+
+  boolean shouldCapture(@Nullable String contentType) {
+    if (contentType == null) {
+      return mAllowedTypes.isEmpty();
+    }
+    final String type = contentType.toLowerCase(Locale.US);
+    return (mAllowedTypes.isEmpty() || startsWithAny(type, mAllowedTypes))
+        && !startsWithAny(type, mDeniedTypes);
+  }
+
+  private static boolean startsWithAny(String type, List<String> prefixes) {
+    for (String prefix : prefixes) {
+      if (type.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<String> toLowerCase(String[] types) {
+    final String[] lowerCase = new String[types.length];
+    for (int i = 0; i < types.length; i++) {
+      lowerCase[i] = types[i].toLowerCase(Locale.US);
+    }
+    return Collections.unmodifiableList(Arrays.asList(lowerCase));
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+package com.facebook.sonar.plugins.network;
+
+import android.os.Process;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the work of turning requests and responses into events on a background thread, one at a
+ * time and in the order they were reported, so that the threads making requests only hand them
+ * over. It never makes them wait: when it falls behind, bodies are left out, and when it is full,
+ * events are dropped.
+ */
+final class NetworkEncoder {
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static final ThreadFactory BACKGROUND_THREADS =
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+          final Thread thread =
+              new Thread(
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                      runnable.run();
+                    }
+                  },
+                  "SonarNetworkEncoder");
+          thread.setDaemon(true);
+          return thread;
+        }
+      };
+
+  private final ThreadPoolExecutor mExecutor;
+  private final int mMaxPending;
+
+  NetworkEncoder(int maxPending) {
+    this(maxPending, BACKGROUND_THREADS);
+  }
+
+  /** Runs jobs on a thread made by threadFactory, for running off Android. */
+  NetworkEncoder(int maxPending, ThreadFactory threadFactory) {
+    mMaxPending = maxPending;
+    mExecutor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(maxPending),
+            threadFactory);
+    mExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /** Whether so much is waiting that bodies should be left out, to catch up. */
+  boolean isBehind() {
+    return mExecutor.getQueue().size() >= mMaxPending / 2;
+  }
+
+  /** Runs job in the background, or returns false if too much is waiting already. */
+  boolean submit(Runnable job) {
+    try {
+      mExecutor.execute(job);
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Waits until every job submitted so far has run, for tests and benchmarks. Jobs run in order, so
+   * that is once a job submitted after them has run, which waits for room if the queue is full.
+   */
+  void awaitIdle() throws InterruptedException {
+    final CountDownLatch idle = new CountDownLatch(1);
+    final Runnable signal =
+        new Runnable() {
+          @Override
+          public void run() {
+            idle.countDown();
+          }
+        };
+    while (!submit(signal)) {
+      Thread.sleep(1);
+    }
+    idle.await();
+  }
+}
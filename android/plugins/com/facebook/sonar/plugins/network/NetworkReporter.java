@@ -38,6 +38,10 @@ public interface NetworkReporter {
     public String method;
     public String uri;
     public byte[] body;
+    // Set when body holds only the start of the body, or is null as the body wasn't captured.
+    public boolean bodyTruncated;
+    // The length of the whole body, or -1 if it isn't known.
+    public long bodyLength = -1;
 
     public Header getFirstHeader(final String name) {
       for (Header header : headers) {
@@ -56,6 +60,12 @@ public interface NetworkReporter {
     public String statusReason;
     public List<Header> headers = new ArrayList<>();
     public byte[] body;
+    // Set when body holds only the start of the body, or is null as the body wasn't captured.
+    public boolean bodyTruncated;
+    // The length of the whole body, or -1 if it isn't known.
+    public long bodyLength = -1;
+    // Where the time went, if it was measured.
+    public Timings timings;
 
     public Header getFirstHeader(final String name) {
       for (Header header : headers) {
@@ -66,4 +76,25 @@ public interface NetworkReporter {
       return null;
     }
   }
+
+  /**
+   * How long each phase of a call took, in nanoseconds, or -1 for phases that didn't happen, such
+   * as connecting when a pooled connection was reused.
+   */
+  public class Timings {
+    public long dnsNanos = -1;
+    // Includes the TLS handshake.
+    public long connectNanos = -1;
+    public long tlsNanos = -1;
+    public long requestWriteNanos = -1;
+    // From the request being written to the response headers being read.
+    public long timeToFirstByteNanos = -1;
+    public long bodyReadNanos = -1;
+    // From the start of the call, up to when the response was reported.
+    public long totalNanos = -1;
+    public boolean connectionReused;
+    // The connections in the client's pool as the call got its connection, or -1 if not known.
+    public int poolConnectionCount = -1;
+    public int poolIdleConnectionCount = -1;
+  }
 }
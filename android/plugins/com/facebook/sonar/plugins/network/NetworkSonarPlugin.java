@@ -8,16 +8,41 @@
 
 package com.facebook.sonar.plugins.network;
 
-import android.util.Base64;
+import android.content.Context;
 import com.facebook.sonar.core.ErrorReportingRunnable;
 import com.facebook.sonar.core.SonarArray;
+import com.facebook.sonar.core.SonarConnection;
 import com.facebook.sonar.core.SonarObject;
 import com.facebook.sonar.plugins.common.BufferingSonarPlugin;
+import com.facebook.sonar.plugins.common.EventBudget;
+import java.io.File;
 import java.util.List;
+import javax.annotation.Nullable;
 
 public class NetworkSonarPlugin extends BufferingSonarPlugin implements NetworkReporter {
   public static final String ID = "Network";
 
+  private static final String SPILL_DIRECTORY = "sonar/network";
+  private static final long MAX_SPILL_BYTES = 32 * 1024 * 1024;
+  // Requests and responses waiting to be encoded, beyond which more are dropped.
+  static final int MAX_PENDING_EVENTS = 256;
+
+  // Responses may take most of the buffer, but not the room kept for requests. Bodies are dropped
+  // before whole events, so the list of requests stays complete for as long as possible.
+  private static final EventBudget BUFFER_BUDGET =
+      EventBudget.ofBytes(8 * 1024 * 1024)
+          .withMaxEvents(1000)
+          .withMethodQuota("newResponse", 6 * 1024 * 1024)
+          .withShrinker(
+              new EventBudget.Shrinker() {
+                @Override
+                public SonarObject shrink(String method, SonarObject event) {
+                  return event.contains("data") ? withoutBody(method, event) : null;
+                }
+              });
+
+  private static @Nullable NetworkEncoder sEncoder;
+
   private final List<NetworkResponseFormatter> mFormatters;
 
   public NetworkSonarPlugin() {
@@ -25,6 +50,22 @@ public class NetworkSonarPlugin extends BufferingSonarPlugin implements NetworkR
   }
 
   public NetworkSonarPlugin(List<NetworkResponseFormatter> formatters) {
+    this(BUFFER_BUDGET, formatters);
+  }
+
+  /**
+   * Keeps events from before the desktop connects, such as requests made while the app starts, in
+   * the app's files dir instead of the heap, so many more of them are shown.
+   */
+  public NetworkSonarPlugin(Context context, List<NetworkResponseFormatter> formatters) {
+    this(
+        BUFFER_BUDGET.withDiskSpill(
+            new File(context.getFilesDir(), SPILL_DIRECTORY), MAX_SPILL_BYTES),
+        formatters);
+  }
+
+  private NetworkSonarPlugin(EventBudget budget, List<NetworkResponseFormatter> formatters) {
+    super(budget);
     this.mFormatters = formatters;
   }
 
@@ -33,42 +74,73 @@ public class NetworkSonarPlugin extends BufferingSonarPlugin implements NetworkR
     return ID;
   }
 
+  /**
+   * Sends the request from a background thread. requestInfo must not be changed after it is
+   * reported.
+   */
   @Override
   public void reportRequest(RequestInfo requestInfo) {
-    final SonarObject request =
-        new SonarObject.Builder()
-            .put("id", requestInfo.requestId)
-            .put("timestamp", requestInfo.timeStamp)
-            .put("method", requestInfo.method)
-            .put("url", requestInfo.uri)
-            .put("headers", toSonarObject(requestInfo.headers))
-            .put("data", toBase64(requestInfo.body))
-            .build();
+    final NetworkEncoder encoder = encoder();
+    final RequestInfo request =
+        encoder.isBehind() && requestInfo.body != null ? copyWithoutBody(requestInfo) : requestInfo;
+    encoder.submit(
+        new ErrorReportingRunnable(getConnection()) {
+          @Override
+          protected void runOrThrow() throws Exception {
+            final SonarObject.Builder event =
+                new SonarObject.Builder()
+                    .put("id", request.requestId)
+                    .put("timestamp", request.timeStamp)
+                    .put("method", request.method)
+                    .put("url", request.uri)
+                    .put("headers", toSonarObject(request.headers))
+                    .putBinary("data", request.body);
+            putTruncation(event, request.bodyTruncated, request.bodyLength);
 
-    send("newRequest", request);
+            send("newRequest", event.build(), SonarConnection.Priority.BULK);
+          }
+        });
   }
 
+  /**
+   * Formats and sends the response from a background thread. responseInfo must not be changed
+   * after it is reported.
+   */
   @Override
-  public void reportResponse(final ResponseInfo responseInfo) {
-    final Runnable job =
+  public void reportResponse(ResponseInfo responseInfo) {
+    final NetworkEncoder encoder = encoder();
+    final ResponseInfo response =
+        encoder.isBehind() && responseInfo.body != null
+            ? copyWithoutBody(responseInfo)
+            : responseInfo;
+    encoder.submit(
         new ErrorReportingRunnable(getConnection()) {
           @Override
           protected void runOrThrow() throws Exception {
-            if (shouldStripResponseBody(responseInfo)) {
-              responseInfo.body = null;
-            }
+            formatAndSend(response);
+          }
+        });
+  }
 
-            final SonarObject response =
+  private void formatAndSend(final ResponseInfo responseInfo) {
+    final Runnable job =
+        new ErrorReportingRunnable(getConnection()) {
+          @Override
+          protected void runOrThrow() throws Exception {
+            final SonarObject.Builder response =
                 new SonarObject.Builder()
                     .put("id", responseInfo.requestId)
                     .put("timestamp", responseInfo.timeStamp)
                     .put("status", responseInfo.statusCode)
                     .put("reason", responseInfo.statusReason)
                     .put("headers", toSonarObject(responseInfo.headers))
-                    .put("data", toBase64(responseInfo.body))
-                    .build();
+                    .putBinary("data", responseInfo.body);
+            putTruncation(response, responseInfo.bodyTruncated, responseInfo.bodyLength);
+            if (responseInfo.timings != null) {
+              response.put("timings", toSonarObject(responseInfo.timings));
+            }
 
-            send("newResponse", response);
+            send("newResponse", response.build(), SonarConnection.Priority.BULK);
           }
         };
 
@@ -92,13 +164,6 @@ public class NetworkSonarPlugin extends BufferingSonarPlugin implements NetworkR
     job.run();
   }
 
-  private String toBase64(byte[] bytes) {
-    if (bytes == null) {
-      return null;
-    }
-    return new String(Base64.encode(bytes, Base64.DEFAULT));
-  }
-
   private SonarArray toSonarObject(List<Header> headers) {
     final SonarArray.Builder list = new SonarArray.Builder();
 
@@ -109,14 +174,114 @@ public class NetworkSonarPlugin extends BufferingSonarPlugin implements NetworkR
     return list.build();
   }
 
-  private static boolean shouldStripResponseBody(ResponseInfo responseInfo) {
-    final Header contentType = responseInfo.getFirstHeader("content-type");
-    if (contentType == null) {
-      return false;
+  /** Timings in milliseconds, leaving out phases that didn't happen. */
+  private static SonarObject toSonarObject(Timings timings) {
+    final SonarObject.Builder object =
+        new SonarObject.Builder().put("connectionReused", timings.connectionReused);
+    putMillis(object, "dns", timings.dnsNanos);
+    putMillis(object, "connect", timings.connectNanos);
+    putMillis(object, "tls", timings.tlsNanos);
+    putMillis(object, "requestWrite", timings.requestWriteNanos);
+    putMillis(object, "timeToFirstByte", timings.timeToFirstByteNanos);
+    putMillis(object, "bodyRead", timings.bodyReadNanos);
+    putMillis(object, "total", timings.totalNanos);
+    if (timings.poolConnectionCount >= 0) {
+      object
+          .put("poolConnections", timings.poolConnectionCount)
+          .put("poolIdleConnections", timings.poolIdleConnectionCount);
     }
+    return object.build();
+  }
+
+  private static void putMillis(SonarObject.Builder object, String name, long nanos) {
+    if (nanos >= 0) {
+      object.put(name, nanos / 1e6);
+    }
+  }
+
+  private static synchronized NetworkEncoder encoder() {
+    if (sEncoder == null) {
+      sEncoder = new NetworkEncoder(MAX_PENDING_EVENTS);
+    }
+    return sEncoder;
+  }
+
+  /** Replaces the encoder every instance shares, for tests and benchmarks. */
+  static synchronized void setEncoder(NetworkEncoder encoder) {
+    sEncoder = encoder;
+  }
+
+  /**
+   * A copy of requestInfo with the body left out, as the caller may still be reading the one it
+   * reported.
+   */
+  private static RequestInfo copyWithoutBody(RequestInfo requestInfo) {
+    final RequestInfo copy = new RequestInfo();
+    copy.requestId = requestInfo.requestId;
+    copy.timeStamp = requestInfo.timeStamp;
+    copy.headers = requestInfo.headers;
+    copy.method = requestInfo.method;
+    copy.uri = requestInfo.uri;
+    copy.bodyTruncated = true;
+    copy.bodyLength =
+        fullLength(requestInfo.body, requestInfo.bodyTruncated, requestInfo.bodyLength);
+    return copy;
+  }
 
-    return contentType.value.contains("image/")
-        || contentType.value.contains("video/")
-        || contentType.value.contains("application/zip");
+  private static ResponseInfo copyWithoutBody(ResponseInfo responseInfo) {
+    final ResponseInfo copy = new ResponseInfo();
+    copy.requestId = responseInfo.requestId;
+    copy.timeStamp = responseInfo.timeStamp;
+    copy.statusCode = responseInfo.statusCode;
+    copy.statusReason = responseInfo.statusReason;
+    copy.headers = responseInfo.headers;
+    copy.timings = responseInfo.timings;
+    copy.bodyTruncated = true;
+    copy.bodyLength =
+        fullLength(responseInfo.body, responseInfo.bodyTruncated, responseInfo.bodyLength);
+    return copy;
+  }
+
+  /** The length of the whole body, which is that of body unless only its start was captured. */
+  private static long fullLength(byte[] body, boolean truncated, long length) {
+    return length < 0 && !truncated ? body.length : length;
+  }
+
+  /** Marks a body that was cut short or left out, with its full length if that is known. */
+  private static void putTruncation(SonarObject.Builder event, boolean truncated, long length) {
+    if (truncated) {
+      event.put("dataTruncated", true);
+      if (length >= 0) {
+        event.put("dataLength", length);
+      }
+    }
+  }
+
+  @Nullable
+  private static SonarObject withoutBody(String method, SonarObject event) {
+    final SonarObject.Builder builder =
+        new SonarObject.Builder()
+            .put("id", event.getString("id"))
+            .put("timestamp", event.getLong("timestamp"))
+            .put("headers", event.getArray("headers"))
+            .put("dataTruncated", true);
+    if (event.contains("dataLength")) {
+      builder.put("dataLength", event.getLong("dataLength"));
+    }
+    if ("newRequest".equals(method)) {
+      return builder
+          .put("method", event.getString("method"))
+          .put("url", event.getString("url"))
+          .build();
+    } else if ("newResponse".equals(method)) {
+      if (event.contains("timings")) {
+        builder.put("timings", event.getObject("timings"));
+      }
+      return builder
+          .put("status", event.getInt("status"))
+          .put("reason", event.getString("reason"))
+          .build();
+    }
+    return null;
   }
 }
@@ -1,7 +1,6 @@
 // Copyright 2004-present Facebook. All Rights Reserved.
 package com.facebook.sonar.plugins.network;
 
-import android.util.Log;
 import com.facebook.sonar.plugins.network.NetworkReporter.RequestInfo;
 import com.facebook.sonar.plugins.network.NetworkReporter.ResponseInfo;
 import java.io.IOException;
@@ -10,23 +9,63 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import javax.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
 import okhttp3.Headers;
 import okhttp3.Interceptor;
+import okhttp3.MediaType;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Timeout;
 
 public class SonarOkhttpInterceptor implements Interceptor {
 
   public @Nullable NetworkSonarPlugin plugin;
+  private final BodyCapturePolicy mCapturePolicy;
+  private @Nullable TimingEventListener.Factory mListenerFactory;
 
   public SonarOkhttpInterceptor() {
     this.plugin = null;
+    this.mCapturePolicy = BodyCapturePolicy.DEFAULT;
   }
 
   public SonarOkhttpInterceptor(NetworkSonarPlugin plugin) {
+    this(plugin, BodyCapturePolicy.DEFAULT);
+  }
+
+  /**
+   * Shows the request and response bodies capturePolicy allows in Sonar. The app gets the whole
+   * response body either way, as it arrives.
+   */
+  public SonarOkhttpInterceptor(NetworkSonarPlugin plugin, BodyCapturePolicy capturePolicy) {
     this.plugin = plugin;
+    this.mCapturePolicy = capturePolicy;
+  }
+
+  /**
+   * Times the calls of the client this interceptor is added to, so their responses are shown with
+   * how long DNS, connecting, TLS, writing the request, waiting for the response and reading its
+   * body took, and whether a pooled connection was reused. pool is the client's connection pool,
+   * for how many connections it holds, or null to leave that out.
+   *
+   * <pre>
+   * new OkHttpClient.Builder()
+   *     .connectionPool(pool)
+   *     .addNetworkInterceptor(interceptor)
+   *     .eventListenerFactory(interceptor.eventListenerFactory(pool))
+   *     .build();
+   * </pre>
+   */
+  public synchronized EventListener.Factory eventListenerFactory(@Nullable ConnectionPool pool) {
+    mListenerFactory = new TimingEventListener.Factory(pool);
+    return mListenerFactory;
   }
 
   @Override
@@ -35,25 +74,47 @@ public class SonarOkhttpInterceptor implements Interceptor {
     int randInt = randInt(1, Integer.MAX_VALUE);
     plugin.reportRequest(convertRequest(request, randInt));
     Response response = chain.proceed(request);
+    ResponseInfo responseInfo = convertResponse(response, randInt);
+    TimingEventListener listener = listenerFor(chain.call());
     ResponseBody body = response.body();
-    ResponseInfo responseInfo = convertResponse(response, body, randInt);
-    plugin.reportResponse(responseInfo);
-    // Creating new response as can't used response.body() more than once
+    if (body == null) {
+      if (listener != null) {
+        responseInfo.timings = listener.snapshot();
+      }
+      plugin.reportResponse(responseInfo);
+      return response;
+    }
+    // The response is reported once the app is done reading the body.
     return response
         .newBuilder()
-        .body(ResponseBody.create(body.contentType(), responseInfo.body))
+        .body(new TeeResponseBody(body, mCapturePolicy, listener, responseInfo, plugin))
         .build();
   }
 
-  private static byte[] bodyToByteArray(final Request request) {
+  @Nullable
+  private synchronized TimingEventListener listenerFor(Call call) {
+    return mListenerFactory != null ? mListenerFactory.get(call) : null;
+  }
 
+  private void captureRequestBody(RequestInfo info, RequestBody body) {
+    final MediaType contentType = body.contentType();
     try {
-      final Request copy = request.newBuilder().build();
-      final Buffer buffer = new Buffer();
-      copy.body().writeTo(buffer);
-      return buffer.readByteArray();
+      info.bodyLength = body.contentLength();
+      // A body of unknown length may be streamed from somewhere it can only be read from once, and
+      // writing it here would leave nothing to send.
+      if (info.bodyLength < 0
+          || !mCapturePolicy.shouldCapture(contentType != null ? contentType.toString() : null)) {
+        info.bodyTruncated = true;
+        return;
+      }
+      final CappedSink sink = new CappedSink(mCapturePolicy.getMaxBytes());
+      final BufferedSink bufferedSink = Okio.buffer(sink);
+      body.writeTo(bufferedSink);
+      bufferedSink.flush();
+      info.body = sink.mCaptured.readByteArray();
+      info.bodyTruncated = sink.mBytesWritten > info.body.length;
     } catch (final IOException e) {
-      return e.getMessage().getBytes();
+      info.body = String.valueOf(e.getMessage()).getBytes();
     }
   }
 
@@ -66,13 +127,13 @@ public class SonarOkhttpInterceptor implements Interceptor {
     info.method = request.method();
     info.uri = request.url().toString();
     if (request.body() != null) {
-      info.body = bodyToByteArray(request);
+      captureRequestBody(info, request.body());
     }
 
     return info;
   }
 
-  private ResponseInfo convertResponse(Response response, ResponseBody body, int identifier) {
+  private ResponseInfo convertResponse(Response response, int identifier) {
 
     List<NetworkReporter.Header> headers = convertHeader(response.headers());
     ResponseInfo info = new ResponseInfo();
@@ -80,11 +141,6 @@ public class SonarOkhttpInterceptor implements Interceptor {
     info.timeStamp = response.receivedResponseAtMillis();
     info.statusCode = response.code();
     info.headers = headers;
-    try {
-      info.body = body.bytes();
-    } catch (IOException e) {
-      Log.e("Sonar", e.toString());
-    }
     return info;
   }
 
@@ -103,4 +159,36 @@ public class SonarOkhttpInterceptor implements Interceptor {
     int randomNum = rand.nextInt((max - min) + 1) + min;
     return randomNum;
   }
+
+  /** Keeps the start of what is written to it, counting and discarding the rest. */
+  private static class CappedSink implements Sink {
+    final Buffer mCaptured = new Buffer();
+    final long mMaxBytes;
+    long mBytesWritten;
+
+    CappedSink(long maxBytes) {
+      mMaxBytes = maxBytes;
+    }
+
+    @Override
+    public void write(Buffer source, long byteCount) throws IOException {
+      final long toCapture = Math.min(byteCount, mMaxBytes - mCaptured.size());
+      if (toCapture > 0) {
+        mCaptured.write(source, toCapture);
+      }
+      source.skip(byteCount - toCapture);
+      mBytesWritten += byteCount;
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public Timeout timeout() {
+      return Timeout.NONE;
+    }
+
+    @Override
+    public void close() {}
+  }
 }
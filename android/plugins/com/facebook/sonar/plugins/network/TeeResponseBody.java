@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+package com.facebook.sonar.plugins.network;
+
+import com.facebook.sonar.plugins.network.NetworkReporter.ResponseInfo;
+import java.io.IOException;
+import javax.annotation.Nullable;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * A response body that hands bytes to the app as they arrive, keeping a copy of as many of them
+ * as the {@link BodyCapturePolicy} allows on the side. The response is reported once the app has
+ * read the body to the end or closed it, with whatever was captured by then as its body, and with
+ * the timings of the call if it is timed.
+ */
+final class TeeResponseBody extends ResponseBody {
+  private final ResponseBody mDelegate;
+  private final boolean mCapture;
+  private final long mMaxCapturedBytes;
+  private final @Nullable TimingEventListener mListener;
+  private final ResponseInfo mResponseInfo;
+  private final NetworkReporter mReporter;
+  private final Buffer mCaptured = new Buffer();
+  private @Nullable BufferedSource mSource;
+  private long mBytesRead;
+  private boolean mReported;
+
+  TeeResponseBody(
+      ResponseBody delegate,
+      BodyCapturePolicy policy,
+      @Nullable TimingEventListener listener,
+      ResponseInfo responseInfo,
+      NetworkReporter reporter) {
+    final MediaType contentType = delegate.contentType();
+    mDelegate = delegate;
+    mCapture = policy.shouldCapture(contentType != null ? contentType.toString() : null);
+    mMaxCapturedBytes = mCapture ? policy.getMaxBytes() : 0;
+    mListener = listener;
+    mResponseInfo = responseInfo;
+    mReporter = reporter;
+  }
+
+  @Override
+  @Nullable
+  public MediaType contentType() {
+    return mDelegate.contentType();
+  }
+
+  @Override
+  public long contentLength() {
+    return mDelegate.contentLength();
+  }
+
+  @Override
+  public BufferedSource source() {
+    if (mSource == null) {
+      mSource = Okio.buffer(new TeeSource(mDelegate.source()));
+    }
+    return mSource;
+  }
+
+  private void report(boolean readToTheEnd) {
+    if (mReported) {
+      return;
+    }
+    mReported = true;
+    final long length = readToTheEnd ? mBytesRead : mDelegate.contentLength();
+    mResponseInfo.bodyLength = length;
+    mResponseInfo.bodyTruncated = !mCapture || length < 0 || length > mCaptured.size();
+    mResponseInfo.body = mCapture ? mCaptured.readByteArray() : null;
+    if (mListener != null) {
+      mResponseInfo.timings = mListener.snapshot();
+    }
+    mReporter.reportResponse(mResponseInfo);
+  }
+
+  private final class TeeSource extends ForwardingSource {
+    TeeSource(Source delegate) {
+      super(delegate);
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+      final long read = super.read(sink, byteCount);
+      if (read == -1) {
+        report(true);
+        return read;
+      }
+      mBytesRead += read;
+      final long toCapture = Math.min(read, mMaxCapturedBytes - mCaptured.size());
+      if (toCapture > 0 && !mReported) {
+        // What was just read is at the end of sink.
+        sink.copyTo(mCaptured, sink.size() - read, toCapture);
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        report(false);
+      }
+    }
+  }
+}
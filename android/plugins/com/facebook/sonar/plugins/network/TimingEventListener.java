@@ -0,0 +1,185 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+package com.facebook.sonar.plugins.network;
+
+import com.facebook.sonar.plugins.network.NetworkReporter.Timings;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Times the phases of one call with {@link System#nanoTime()}, for {@link SonarOkhttpInterceptor}
+ * to attach to the response it reports. Events of a call may arrive on different threads as it
+ * moves from the dispatcher to whichever thread reads the body, so they are recorded under a lock.
+ *
+ * <p>When a call follows redirects or retries, each phase is timed by its latest occurrence.
+ */
+final class TimingEventListener extends EventListener {
+
+  /** Creates a listener for each call, and finds it again while the call runs. */
+  static final class Factory implements EventListener.Factory {
+    private final @Nullable ConnectionPool mPool;
+    private final Map<Call, TimingEventListener> mListeners = new ConcurrentHashMap<>();
+
+    Factory(@Nullable ConnectionPool pool) {
+      mPool = pool;
+    }
+
+    @Override
+    public EventListener create(Call call) {
+      final TimingEventListener listener = new TimingEventListener(this, mPool);
+      mListeners.put(call, listener);
+      return listener;
+    }
+
+    /** The listener of call, or null if it wasn't created by this factory or has ended. */
+    @Nullable
+    TimingEventListener get(Call call) {
+      return mListeners.get(call);
+    }
+  }
+
+  private final Factory mFactory;
+  private final @Nullable ConnectionPool mPool;
+  private final long mCallStart = System.nanoTime();
+  private final Timings mTimings = new Timings();
+  private long mDnsStart;
+  private long mConnectStart;
+  private long mSecureConnectStart;
+  private long mRequestStart;
+  private long mRequestEnd;
+  private long mBodyStart;
+  private boolean mConnected;
+
+  private TimingEventListener(Factory factory, @Nullable ConnectionPool pool) {
+    mFactory = factory;
+    mPool = pool;
+  }
+
+  /** A copy of the timings so far. */
+  synchronized Timings snapshot() {
+    final Timings timings = new Timings();
+    timings.dnsNanos = mTimings.dnsNanos;
+    timings.connectNanos = mTimings.connectNanos;
+    timings.tlsNanos = mTimings.tlsNanos;
+    timings.requestWriteNanos = mTimings.requestWriteNanos;
+    timings.timeToFirstByteNanos = mTimings.timeToFirstByteNanos;
+    timings.bodyReadNanos = mTimings.bodyReadNanos;
+    timings.totalNanos = System.nanoTime() - mCallStart;
+    timings.connectionReused = mTimings.connectionReused;
+    timings.poolConnectionCount = mTimings.poolConnectionCount;
+    timings.poolIdleConnectionCount = mTimings.poolIdleConnectionCount;
+    return timings;
+  }
+
+  @Override
+  public synchronized void dnsStart(Call call, String domainName) {
+    mDnsStart = System.nanoTime();
+  }
+
+  @Override
+  public synchronized void dnsEnd(
+      Call call, String domainName, List<InetAddress> inetAddressList) {
+    mTimings.dnsNanos = System.nanoTime() - mDnsStart;
+  }
+
+  @Override
+  public synchronized void connectStart(
+      Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+    mConnectStart = System.nanoTime();
+    mConnected = true;
+  }
+
+  @Override
+  public synchronized void secureConnectStart(Call call) {
+    mSecureConnectStart = System.nanoTime();
+  }
+
+  @Override
+  public synchronized void secureConnectEnd(Call call, @Nullable Handshake handshake) {
+    mTimings.tlsNanos = System.nanoTime() - mSecureConnectStart;
+  }
+
+  @Override
+  public synchronized void connectEnd(
+      Call call, InetSocketAddress inetSocketAddress, Proxy proxy, @Nullable Protocol protocol) {
+    mTimings.connectNanos = System.nanoTime() - mConnectStart;
+  }
+
+  @Override
+  public void connectionAcquired(Call call, Connection connection) {
+    // Read before taking the lock, as the pool has a lock of its own.
+    final int connectionCount = mPool != null ? mPool.connectionCount() : -1;
+    final int idleConnectionCount = mPool != null ? mPool.idleConnectionCount() : -1;
+    synchronized (this) {
+      mTimings.connectionReused = !mConnected;
+      mTimings.poolConnectionCount = connectionCount;
+      mTimings.poolIdleConnectionCount = idleConnectionCount;
+      mConnected = false;
+    }
+  }
+
+  @Override
+  public synchronized void requestHeadersStart(Call call) {
+    mRequestStart = System.nanoTime();
+  }
+
+  @Override
+  public synchronized void requestHeadersEnd(Call call, Request request) {
+    requestWritten();
+  }
+
+  @Override
+  public synchronized void requestBodyEnd(Call call, long byteCount) {
+    requestWritten();
+  }
+
+  @Override
+  public synchronized void responseHeadersEnd(Call call, Response response) {
+    mTimings.timeToFirstByteNanos = System.nanoTime() - mRequestEnd;
+  }
+
+  @Override
+  public synchronized void responseBodyStart(Call call) {
+    mBodyStart = System.nanoTime();
+  }
+
+  @Override
+  public synchronized void responseBodyEnd(Call call, long byteCount) {
+    mTimings.bodyReadNanos = System.nanoTime() - mBodyStart;
+  }
+
+  @Override
+  public void callEnd(Call call) {
+    mFactory.mListeners.remove(call);
+  }
+
+  @Override
+  public void callFailed(Call call, IOException ioe) {
+    mFactory.mListeners.remove(call);
+  }
+
+  private void requestWritten() {
+    mRequestEnd = System.nanoTime();
+    mTimings.requestWriteNanos = mRequestEnd - mRequestStart;
+  }
+}
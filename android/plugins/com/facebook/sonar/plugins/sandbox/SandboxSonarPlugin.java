@@ -13,6 +13,7 @@ import com.facebook.sonar.core.SonarObject;
 import com.facebook.sonar.core.SonarPlugin;
 import com.facebook.sonar.core.SonarReceiver;
 import com.facebook.sonar.core.SonarResponder;
+import com.facebook.sonar.plugins.common.ReceiverExecution;
 import java.util.Map;
 
 public class SandboxSonarPlugin implements SonarPlugin {
@@ -20,6 +21,7 @@ public class SandboxSonarPlugin implements SonarPlugin {
 
   private static final String SET_METHOD_NAME = "setSandbox";
   private static final String GET_METHOD_NAME = "getSandbox";
+  private static final long TIMEOUT_MS = 10000;
 
   private final SandboxSonarPluginStrategy mStrategy;
 
@@ -34,8 +36,7 @@ public class SandboxSonarPlugin implements SonarPlugin {
 
   @Override
   public void onConnect(SonarConnection connection) {
-    connection.receive(
-        GET_METHOD_NAME,
+    final SonarReceiver getSandbox =
         new SonarReceiver() {
           @Override
           public void onReceive(SonarObject params, final SonarResponder responder) {
@@ -53,9 +54,8 @@ public class SandboxSonarPlugin implements SonarPlugin {
             }
             responder.success(sandboxes.build());
           }
-        });
-    connection.receive(
-        SET_METHOD_NAME,
+        };
+    final SonarReceiver setSandbox =
         new SonarReceiver() {
           @Override
           public void onReceive(SonarObject params, SonarResponder responder) throws Exception {
@@ -63,7 +63,14 @@ public class SandboxSonarPlugin implements SonarPlugin {
             mStrategy.setSandbox(sandbox);
             responder.success(new SonarObject.Builder().put("result", true).build());
           }
-        });
+        };
+
+    // Strategies are free to block, e.g. on a network request for the known sandboxes, so they
+    // run in the background and are given up on rather than left to hang the desktop.
+    final ReceiverExecution execution =
+        ReceiverExecution.background().withMaxConcurrency(1).withTimeout(TIMEOUT_MS);
+    connection.receive(GET_METHOD_NAME, execution.wrap(connection, getSandbox));
+    connection.receive(SET_METHOD_NAME, execution.wrap(connection, setSandbox));
   }
 
   @Override
@@ -15,8 +15,10 @@ import android.content.SharedPreferences;
 import com.facebook.sonar.core.SonarConnection;
 import com.facebook.sonar.core.SonarObject;
 import com.facebook.sonar.core.SonarPlugin;
+import com.facebook.sonar.core.SonarPrioritizedConnection;
 import com.facebook.sonar.core.SonarReceiver;
 import com.facebook.sonar.core.SonarResponder;
+import com.facebook.sonar.plugins.common.ReceiverExecution;
 import java.util.Map;
 
 public class SharedPreferencesSonarPlugin implements SonarPlugin {
@@ -31,14 +33,19 @@ public class SharedPreferencesSonarPlugin implements SonarPlugin {
               if (mConnection == null) {
                 return;
               }
-              mConnection.send(
-                  "sharedPreferencesChange",
+              final SonarObject change =
                   new SonarObject.Builder()
                       .put("name", key)
                       .put("deleted", !mSharedPreferences.contains(key))
                       .put("time", System.currentTimeMillis())
                       .put("value", mSharedPreferences.getAll().get(key))
-                      .build());
+                      .build();
+              if (mConnection instanceof SonarPrioritizedConnection) {
+                ((SonarPrioritizedConnection) mConnection)
+                    .send("sharedPreferencesChange", change, SonarConnection.Priority.BULK);
+              } else {
+                mConnection.send("sharedPreferencesChange", change);
+              }
             }
           };
 
@@ -96,17 +103,15 @@ public class SharedPreferencesSonarPlugin implements SonarPlugin {
   public void onConnect(SonarConnection connection) {
     mConnection = connection;
 
-    connection.receive(
-        "getSharedPreferences",
+    final SonarReceiver getSharedPreferences =
         new SonarReceiver() {
           @Override
           public void onReceive(SonarObject params, SonarResponder responder) {
             responder.success(getSharedPreferencesObject());
           }
-        });
+        };
 
-    connection.receive(
-        "setSharedPreference",
+    final SonarReceiver setSharedPreference =
         new SonarReceiver() {
           @Override
           public void onReceive(SonarObject params, SonarResponder responder)
@@ -134,7 +139,13 @@ public class SharedPreferencesSonarPlugin implements SonarPlugin {
 
             responder.success(getSharedPreferencesObject());
           }
-        });
+        };
+
+    // Reading preferences can hit the disk, so they are kept off the thread that delivers calls.
+    // Both methods share a lane so that edits are applied in the order they were made.
+    final ReceiverExecution lane = ReceiverExecution.serial(getId());
+    connection.receive("getSharedPreferences", lane.wrap(connection, getSharedPreferences));
+    connection.receive("setSharedPreference", lane.wrap(connection, setSharedPreference));
   }
 
   @Override
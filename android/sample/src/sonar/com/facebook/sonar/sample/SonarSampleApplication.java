@@ -28,7 +28,7 @@ public class SonarSampleApplication extends Application {
     final SonarClient client = AndroidSonarClient.getInstance(this);
     final DescriptorMapping descriptorMapping = DescriptorMapping.withDefaults();
 
-    NetworkSonarPlugin networkPlugin = new NetworkSonarPlugin();
+    NetworkSonarPlugin networkPlugin = new NetworkSonarPlugin(this, null);
     SonarOkhttpInterceptor interceptor = new SonarOkhttpInterceptor(networkPlugin);
 
     okhttpClient = new OkHttpClient.Builder()
@@ -0,0 +1,46 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+/**
+ * Standard base64 with padding and without line breaks, the form binary data takes in JSON. The
+ * core classes are shared with the JVM client, so they can't use android.util.Base64, and
+ * java.util.Base64 isn't available before API 26.
+ */
+final class Base64Encoder {
+  private static final char[] ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  private Base64Encoder() {}
+
+  static String encode(byte[] bytes) {
+    return encode(bytes, 0, bytes.length);
+  }
+
+  static String encode(byte[] bytes, int offset, int length) {
+    final char[] out = new char[(length + 2) / 3 * 4];
+    final int end = offset + length;
+    int o = 0;
+    int i = offset;
+    for (; i + 2 < end; i += 3) {
+      final int n = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+      out[o++] = ALPHABET[n >>> 18];
+      out[o++] = ALPHABET[(n >>> 12) & 0x3f];
+      out[o++] = ALPHABET[(n >>> 6) & 0x3f];
+      out[o++] = ALPHABET[n & 0x3f];
+    }
+    if (i < end) {
+      final int n = (bytes[i] & 0xff) << 16 | (i + 1 < end ? (bytes[i + 1] & 0xff) << 8 : 0);
+      out[o++] = ALPHABET[n >>> 18];
+      out[o++] = ALPHABET[(n >>> 12) & 0x3f];
+      out[o++] = i + 1 < end ? ALPHABET[(n >>> 6) & 0x3f] : '=';
+      out[o++] = '=';
+    }
+    return new String(out);
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import org.json.JSONObject;
+
+/**
+ * Locates the entries of an encoded CBOR map or array with a single pass over the data that steps
+ * over values without decoding them. Values are only decoded when asked for, and nested maps and
+ * arrays are handed out as {@link SonarObject}s and {@link SonarArray}s over the same buffer.
+ * Packed typed arrays are not scanned at all, their elements are read at fixed offsets.
+ */
+final class CborIndex {
+  private final byte[] mBuffer;
+  private final @Nullable String[] mKeys;
+  private final @Nullable int[] mStarts;
+  private final @Nullable int[] mEnds;
+  private final int mSize;
+
+  // Typed arrays need no scan, element i is at a fixed offset into the packed data.
+  private final long mTypedArrayTag;
+  private final int mPackedOffset;
+  private final int mElementSize;
+
+  private CborIndex(
+      byte[] buffer, @Nullable String[] keys, int[] starts, int[] ends, int size) {
+    mBuffer = buffer;
+    mKeys = keys;
+    mStarts = starts;
+    mEnds = ends;
+    mSize = size;
+    mTypedArrayTag = -1;
+    mPackedOffset = 0;
+    mElementSize = 0;
+  }
+
+  private CborIndex(byte[] buffer, long tag, int packedOffset, int packedLength) {
+    mBuffer = buffer;
+    mKeys = null;
+    mStarts = null;
+    mEnds = null;
+    mTypedArrayTag = tag;
+    mPackedOffset = packedOffset;
+    mElementSize = CborReader.typedArrayElementSize(tag);
+    mSize = packedLength / mElementSize;
+  }
+
+  static CborIndex ofMap(byte[] buffer, int offset, int length) {
+    return scan(buffer, offset, length, true);
+  }
+
+  static CborIndex ofArray(byte[] buffer, int offset, int length) {
+    final CborReader reader = new CborReader(buffer, offset, length);
+    final long tag = length > 0 ? reader.peekTag() : -1;
+    if (CborReader.typedArrayElementSize(tag) > 0) {
+      final int packedLength = reader.readTypedArrayHeader();
+      return new CborIndex(buffer, tag, reader.position(), packedLength);
+    }
+    return scan(buffer, offset, length, false);
+  }
+
+  private static CborIndex scan(byte[] buffer, int offset, int length, boolean isMap) {
+    final CborReader reader = new CborReader(buffer, offset, length);
+    final long count =
+        reader.readContainerHeader(isMap ? CborReader.MAJOR_MAP : CborReader.MAJOR_ARRAY);
+
+    // Every entry takes at least one byte, which bounds the up front allocation for hostile input.
+    int capacity = count < 0 ? 8 : (int) Math.min(count, length);
+    String[] keys = isMap ? new String[capacity] : null;
+    int[] starts = new int[capacity];
+    int[] ends = new int[capacity];
+    int size = 0;
+
+    while (count < 0 ? !reader.consumeBreak() : size < count) {
+      if (size == capacity) {
+        capacity = Math.max(8, capacity * 2);
+        keys = isMap ? Arrays.copyOf(keys, capacity) : null;
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+      }
+      if (isMap) {
+        keys[size] = reader.readKey();
+      }
+      starts[size] = reader.position();
+      reader.skip();
+      ends[size] = reader.position();
+      size++;
+    }
+    return new CborIndex(buffer, keys, starts, ends, size);
+  }
+
+  int size() {
+    return mSize;
+  }
+
+  /** Index of the entry with the given key, or -1. Later duplicates win, as they do in JSON. */
+  int indexOf(String key) {
+    if (mKeys == null) {
+      return -1;
+    }
+    for (int i = mSize - 1; i >= 0; i--) {
+      if (key.equals(mKeys[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Decode the value at index. Scalars are returned as the org.json values {@link
+   * CborReader#readJson()} produces, maps and arrays as lazily decoded {@link SonarObject}s and
+   * {@link SonarArray}s. Returns null if index is out of range.
+   */
+  @Nullable
+  Object get(int index) {
+    if (index < 0 || index >= mSize) {
+      return null;
+    }
+    if (mTypedArrayTag >= 0) {
+      return CborReader.readTypedArrayElement(
+          mBuffer, mPackedOffset + index * mElementSize, mTypedArrayTag);
+    }
+    final int start = mStarts[index];
+    final int length = mEnds[index] - start;
+    final CborReader reader = new CborReader(mBuffer, start, length);
+    if (CborReader.typedArrayElementSize(reader.peekTag()) > 0) {
+      return new SonarArray(mBuffer, start, length);
+    }
+    switch (reader.peekMajorType()) {
+      case CborReader.MAJOR_MAP:
+        return new SonarObject(mBuffer, start, length);
+      case CborReader.MAJOR_ARRAY:
+        return new SonarArray(mBuffer, start, length);
+      default:
+        return reader.readJson();
+    }
+  }
+
+  @Nullable
+  Object get(String key) {
+    return get(indexOf(key));
+  }
+
+  // The conversions below match those of JSONObject and JSONArray's opt methods, so that reading a
+  // lazily decoded value gives the same result as reading it from a parsed JSONObject.
+
+  static @Nullable String toString(@Nullable Object value) {
+    if (value instanceof String) {
+      return (String) value;
+    }
+    return value != null ? String.valueOf(value) : null;
+  }
+
+  static int toInt(@Nullable Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    if (value instanceof String) {
+      try {
+        return (int) Double.parseDouble((String) value);
+      } catch (NumberFormatException e) {
+        return 0;
+      }
+    }
+    return 0;
+  }
+
+  static long toLong(@Nullable Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof String) {
+      try {
+        return (long) Double.parseDouble((String) value);
+      } catch (NumberFormatException e) {
+        return 0;
+      }
+    }
+    return 0;
+  }
+
+  static double toDouble(@Nullable Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    if (value instanceof String) {
+      try {
+        return Double.parseDouble((String) value);
+      } catch (NumberFormatException e) {
+        return Double.NaN;
+      }
+    }
+    return Double.NaN;
+  }
+
+  static boolean toBoolean(@Nullable Object value) {
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    if (value instanceof String) {
+      return "true".equalsIgnoreCase((String) value);
+    }
+    return false;
+  }
+
+  static boolean isNull(@Nullable Object value) {
+    return value == null || value == JSONObject.NULL;
+  }
+}
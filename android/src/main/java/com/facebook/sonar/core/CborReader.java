@@ -0,0 +1,488 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** Reads CBOR (RFC 7049) data items as written by {@link CborWriter} or the native bridge. */
+final class CborReader {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  static final int MAJOR_UNSIGNED = 0;
+  static final int MAJOR_NEGATIVE = 1;
+  static final int MAJOR_BYTES = 2;
+  static final int MAJOR_TEXT = 3;
+  static final int MAJOR_ARRAY = 4;
+  static final int MAJOR_MAP = 5;
+  static final int MAJOR_TAG = 6;
+  static final int MAJOR_SIMPLE = 7;
+
+  // Typed array tags from RFC 8746. A typed array is a byte string of packed big endian numbers.
+  static final int TAG_UINT8 = 64;
+  static final int TAG_UINT16 = 65;
+  static final int TAG_UINT32 = 66;
+  static final int TAG_UINT64 = 67;
+  static final int TAG_SINT8 = 72;
+  static final int TAG_SINT16 = 73;
+  static final int TAG_SINT32 = 74;
+  static final int TAG_SINT64 = 75;
+  static final int TAG_FLOAT32 = 81;
+  static final int TAG_FLOAT64 = 82;
+
+  private static final int INDEFINITE = 31;
+  private static final int BREAK = 0xff;
+
+  private final byte[] mBuffer;
+  private final int mEnd;
+  private int mPosition;
+
+  CborReader(byte[] buffer) {
+    this(buffer, 0, buffer.length);
+  }
+
+  CborReader(byte[] buffer, int offset, int length) {
+    mBuffer = buffer;
+    mPosition = offset;
+    mEnd = offset + length;
+  }
+
+  /**
+   * Read the next data item as an org.json value: a {@link JSONObject}, {@link JSONArray}, {@link
+   * String}, {@link Integer}, {@link Long}, {@link Double}, {@link Boolean} or {@link
+   * JSONObject#NULL}.
+   */
+  Object readJson() {
+    final int initial = readByte();
+    final int majorType = initial >>> 5;
+    final int info = initial & 0x1f;
+
+    switch (majorType) {
+      case MAJOR_UNSIGNED:
+        return narrowUnsigned(readLength(info));
+      case MAJOR_NEGATIVE:
+        {
+          final long value = readLength(info);
+          return value < 0 ? -1 - unsignedToDouble(value) : narrow(-1 - value);
+        }
+      case MAJOR_BYTES:
+        return readBytesAsBase64(info);
+      case MAJOR_TEXT:
+        return readText(info);
+      case MAJOR_ARRAY:
+        {
+          final JSONArray array = new JSONArray();
+          if (info == INDEFINITE) {
+            while (!consumeBreak()) {
+              array.put(readJson());
+            }
+          } else {
+            for (long i = readLength(info); i > 0; i--) {
+              array.put(readJson());
+            }
+          }
+          return array;
+        }
+      case MAJOR_MAP:
+        {
+          final JSONObject object = new JSONObject();
+          try {
+            if (info == INDEFINITE) {
+              while (!consumeBreak()) {
+                object.put(readKey(), readJson());
+              }
+            } else {
+              for (long i = readLength(info); i > 0; i--) {
+                object.put(readKey(), readJson());
+              }
+            }
+          } catch (JSONException e) {
+            throw new RuntimeException(e);
+          }
+          return object;
+        }
+      case MAJOR_TAG:
+        {
+          final long tag = readLength(info);
+          if (typedArrayElementSize(tag) > 0) {
+            return readTypedArray(tag);
+          }
+          return readJson();
+        }
+      case MAJOR_SIMPLE:
+        return readSimple(info);
+      default:
+        throw new IllegalArgumentException("Unsupported CBOR major type " + majorType);
+    }
+  }
+
+  int position() {
+    return mPosition;
+  }
+
+  /**
+   * Skip any tags and return the major type of the next data item without consuming its initial
+   * byte.
+   */
+  int peekMajorType() {
+    while (true) {
+      checkAvailable(1);
+      final int initial = mBuffer[mPosition] & 0xff;
+      if ((initial >>> 5) != MAJOR_TAG) {
+        return initial >>> 5;
+      }
+      mPosition++;
+      readLength(initial & 0x1f);
+    }
+  }
+
+  /**
+   * Read the header of an array or map, skipping any tags before it. Returns the number of
+   * elements or entries, or -1 if the length is indefinite and the container ends with a break.
+   */
+  long readContainerHeader(int expectedMajorType) {
+    if (peekMajorType() != expectedMajorType) {
+      throw new IllegalArgumentException(
+          "Expected CBOR major type " + expectedMajorType + " at " + mPosition);
+    }
+    final int info = readByte() & 0x1f;
+    return info == INDEFINITE ? -1 : readLength(info);
+  }
+
+  /** The tag of the next data item if it has one, or -1. Nothing is consumed. */
+  long peekTag() {
+    checkAvailable(1);
+    final int initial = mBuffer[mPosition] & 0xff;
+    if ((initial >>> 5) != MAJOR_TAG) {
+      return -1;
+    }
+    final int start = mPosition;
+    mPosition++;
+    final long tag = readLength(initial & 0x1f);
+    mPosition = start;
+    return tag;
+  }
+
+  /**
+   * Read the tag and byte string header of a typed array, leaving the reader at the first element.
+   * Returns the length of the packed data in bytes.
+   */
+  int readTypedArrayHeader() {
+    final int initial = readByte();
+    if ((initial >>> 5) != MAJOR_TAG
+        || typedArrayElementSize(readLength(initial & 0x1f)) == 0) {
+      throw new IllegalArgumentException("Expected a typed array at " + (mPosition - 1));
+    }
+    return readPackedLength();
+  }
+
+  /** Size in bytes of one element of a typed array with the given tag, or 0 if unsupported. */
+  static int typedArrayElementSize(long tag) {
+    switch ((int) Math.min(tag, Integer.MAX_VALUE)) {
+      case TAG_UINT8:
+      case TAG_SINT8:
+        return 1;
+      case TAG_UINT16:
+      case TAG_SINT16:
+        return 2;
+      case TAG_UINT32:
+      case TAG_SINT32:
+      case TAG_FLOAT32:
+        return 4;
+      case TAG_UINT64:
+      case TAG_SINT64:
+      case TAG_FLOAT64:
+        return 8;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Decode the typed array element at position. Integers are narrowed as in {@link #readJson()}
+   * and floating point values become doubles. NaN and infinities can't be represented in JSON and
+   * are read as {@link JSONObject#NULL}, as they are for single values.
+   */
+  static Object readTypedArrayElement(byte[] buffer, int position, long tag) {
+    final int size = typedArrayElementSize(tag);
+    long bits = 0;
+    for (int i = 0; i < size; i++) {
+      bits = (bits << 8) | (buffer[position + i] & 0xff);
+    }
+    switch ((int) tag) {
+      case TAG_SINT8:
+        return (int) (byte) bits;
+      case TAG_SINT16:
+        return (int) (short) bits;
+      case TAG_SINT32:
+        return (int) bits;
+      case TAG_FLOAT32:
+        {
+          final float f = Float.intBitsToFloat((int) bits);
+          return Float.isNaN(f) || Float.isInfinite(f)
+              ? JSONObject.NULL
+              : CborWriter.shortestDouble(f);
+        }
+      case TAG_FLOAT64:
+        {
+          final double d = Double.longBitsToDouble(bits);
+          return Double.isNaN(d) || Double.isInfinite(d) ? JSONObject.NULL : d;
+        }
+      case TAG_SINT64:
+        return narrow(bits);
+      default:
+        return narrowUnsigned(bits);
+    }
+  }
+
+  private int readPackedLength() {
+    final int header = readByte();
+    if ((header >>> 5) != MAJOR_BYTES || (header & 0x1f) == INDEFINITE) {
+      throw new IllegalArgumentException("Expected packed typed array data at " + (mPosition - 1));
+    }
+    final long length = readLength(header & 0x1f);
+    checkAvailable(length);
+    return (int) length;
+  }
+
+  private JSONArray readTypedArray(long tag) {
+    final int size = typedArrayElementSize(tag);
+    final int length = readPackedLength();
+    final int end = mPosition + length;
+    final JSONArray array = new JSONArray();
+    for (; mPosition + size <= end; mPosition += size) {
+      array.put(readTypedArrayElement(mBuffer, mPosition, tag));
+    }
+    mPosition = end;
+    return array;
+  }
+
+  /** Step over the next data item without decoding it. */
+  void skip() {
+    final int initial = readByte();
+    final int majorType = initial >>> 5;
+    final int info = initial & 0x1f;
+
+    switch (majorType) {
+      case MAJOR_UNSIGNED:
+      case MAJOR_NEGATIVE:
+        readLength(info);
+        break;
+      case MAJOR_BYTES:
+      case MAJOR_TEXT:
+        if (info == INDEFINITE) {
+          while (!consumeBreak()) {
+            skip();
+          }
+        } else {
+          final long length = readLength(info);
+          checkAvailable(length);
+          mPosition += (int) length;
+        }
+        break;
+      case MAJOR_ARRAY:
+      case MAJOR_MAP:
+        {
+          final int itemsPerEntry = majorType == MAJOR_MAP ? 2 : 1;
+          if (info == INDEFINITE) {
+            while (!consumeBreak()) {
+              for (int i = 0; i < itemsPerEntry; i++) {
+                skip();
+              }
+            }
+          } else {
+            for (long i = readLength(info) * itemsPerEntry; i > 0; i--) {
+              skip();
+            }
+          }
+          break;
+        }
+      case MAJOR_TAG:
+        readLength(info);
+        skip();
+        break;
+      case MAJOR_SIMPLE:
+      default:
+        if (info >= 24 && info <= 27) {
+          readBigEndian(1 << (info - 24));
+        } else if (info > 27) {
+          throw new IllegalArgumentException("Unsupported CBOR simple value " + info);
+        }
+        break;
+    }
+  }
+
+  /** Consume a break if it is the next byte, ending an indefinite length item. */
+  boolean consumeBreak() {
+    checkAvailable(1);
+    if ((mBuffer[mPosition] & 0xff) == BREAK) {
+      mPosition++;
+      return true;
+    }
+    return false;
+  }
+
+  String readKey() {
+    final int initial = readByte();
+    if ((initial >>> 5) != MAJOR_TEXT) {
+      throw new IllegalArgumentException("Expected a text map key at " + (mPosition - 1));
+    }
+    return readText(initial & 0x1f);
+  }
+
+  private String readText(int info) {
+    if (info == INDEFINITE) {
+      final StringBuilder builder = new StringBuilder();
+      while (!consumeBreak()) {
+        builder.append(readKey());
+      }
+      return builder.toString();
+    }
+    final long length = readLength(info);
+    checkAvailable(length);
+    final String s = new String(mBuffer, mPosition, (int) length, UTF_8);
+    mPosition += (int) length;
+    return s;
+  }
+
+  // JSON has no binary type, byte strings are read as the base64 strings they stand in for.
+  private String readBytesAsBase64(int info) {
+    if (info == INDEFINITE) {
+      final ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+      while (!consumeBreak()) {
+        final int initial = readByte();
+        if ((initial >>> 5) != MAJOR_BYTES || (initial & 0x1f) == INDEFINITE) {
+          throw new IllegalArgumentException("Malformed byte string chunk at " + (mPosition - 1));
+        }
+        final long length = readLength(initial & 0x1f);
+        checkAvailable(length);
+        chunks.write(mBuffer, mPosition, (int) length);
+        mPosition += (int) length;
+      }
+      final byte[] bytes = chunks.toByteArray();
+      return Base64Encoder.encode(bytes);
+    }
+    final long length = readLength(info);
+    checkAvailable(length);
+    final String s = Base64Encoder.encode(mBuffer, mPosition, (int) length);
+    mPosition += (int) length;
+    return s;
+  }
+
+  private Object readSimple(int info) {
+    switch (info) {
+      case 20:
+        return Boolean.FALSE;
+      case 21:
+        return Boolean.TRUE;
+      case 22:
+      case 23:
+        return JSONObject.NULL;
+      case 25:
+        return (double) halfToFloat((int) readBigEndian(2));
+      case 26:
+        return (double) Float.intBitsToFloat((int) readBigEndian(4));
+      case 27:
+        return Double.longBitsToDouble(readBigEndian(8));
+      default:
+        throw new IllegalArgumentException("Unsupported CBOR simple value " + info);
+    }
+  }
+
+  private long readLength(int info) {
+    if (info < 24) {
+      return info;
+    }
+    switch (info) {
+      case 24:
+        return readBigEndian(1);
+      case 25:
+        return readBigEndian(2);
+      case 26:
+        return readBigEndian(4);
+      case 27:
+        return readBigEndian(8);
+      default:
+        throw new IllegalArgumentException("Unsupported CBOR length encoding " + info);
+    }
+  }
+
+  private int readByte() {
+    checkAvailable(1);
+    return mBuffer[mPosition++] & 0xff;
+  }
+
+  private long readBigEndian(int bytes) {
+    checkAvailable(bytes);
+    long value = 0;
+    for (int i = 0; i < bytes; i++) {
+      value = (value << 8) | (mBuffer[mPosition++] & 0xff);
+    }
+    return value;
+  }
+
+  private void checkAvailable(long bytes) {
+    if (bytes < 0 || bytes > mEnd - mPosition) {
+      throw new IllegalArgumentException("Truncated CBOR data at " + mPosition);
+    }
+  }
+
+  static boolean regionEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+    for (int i = 0; i < length; i++) {
+      if (a[aOffset + i] != b[bOffset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static int regionHash(byte[] buffer, int offset, int length) {
+    int hash = 1;
+    for (int i = offset, end = offset + length; i < end; i++) {
+      hash = 31 * hash + buffer[i];
+    }
+    return hash;
+  }
+
+  private static Object narrow(long value) {
+    if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+      return (int) value;
+    }
+    return value;
+  }
+
+  /**
+   * Narrow an unsigned 64 bit value. Values beyond Long.MAX_VALUE, which are negative as a long, are
+   * read as the nearest double rather than wrapped around, as they would lose their precision as
+   * JSON numbers on the desktop anyway.
+   */
+  private static Object narrowUnsigned(long value) {
+    return value < 0 ? unsignedToDouble(value) : narrow(value);
+  }
+
+  private static double unsignedToDouble(long value) {
+    return (double) (value >>> 1) * 2 + (value & 1);
+  }
+
+  private static float halfToFloat(int half) {
+    final int exponent = (half >> 10) & 0x1f;
+    final int mantissa = half & 0x3ff;
+    final float value;
+    if (exponent == 0) {
+      value = mantissa * (float) Math.pow(2, -24);
+    } else if (exponent == 31) {
+      value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+    } else {
+      value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+    }
+    return (half & 0x8000) != 0 ? -value : value;
+  }
+}
@@ -0,0 +1,386 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Writes CBOR (RFC 7049) data items into a growable byte buffer. This is the format used to pass
+ * {@link SonarObject} and {@link SonarArray} payloads across the JNI boundary, where it is decoded
+ * straight into a folly::dynamic without going through a JSON string.
+ */
+final class CborWriter {
+  private static final int MAJOR_UNSIGNED = 0;
+  private static final int MAJOR_NEGATIVE = 1;
+  private static final int MAJOR_BYTES = 2;
+  private static final int MAJOR_TEXT = 3;
+  private static final int MAJOR_ARRAY = 4;
+  private static final int MAJOR_MAP = 5;
+  private static final int MAJOR_TAG = 6;
+
+  private static final int FALSE = 0xf4;
+  private static final int TRUE = 0xf5;
+  private static final int NULL = 0xf6;
+  private static final int FLOAT64 = 0xfb;
+
+  // Writers are pooled per thread so that building a tree of streaming builders on the main thread
+  // reuses the same handful of buffers. Oversized buffers are dropped rather than kept alive.
+  private static final int MAX_POOLED_WRITERS = 8;
+  private static final int MAX_POOLED_CAPACITY = 16 * 1024;
+
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+    1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private static final ThreadLocal<ArrayDeque<CborWriter>> sPool =
+      new ThreadLocal<ArrayDeque<CborWriter>>() {
+        @Override
+        protected ArrayDeque<CborWriter> initialValue() {
+          return new ArrayDeque<>(MAX_POOLED_WRITERS);
+        }
+      };
+
+  private byte[] mBuffer;
+  private int mSize;
+
+  /** Take an empty writer from the calling thread's pool. Hand it back with {@link #recycle()}. */
+  static CborWriter obtain() {
+    final CborWriter writer = sPool.get().pollFirst();
+    return writer != null ? writer : new CborWriter();
+  }
+
+  CborWriter() {
+    this(256);
+  }
+
+  CborWriter(int initialCapacity) {
+    mBuffer = new byte[initialCapacity];
+  }
+
+  int size() {
+    return mSize;
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(mBuffer, mSize);
+  }
+
+  /** Reset this writer and return it to the calling thread's pool. It must not be used after. */
+  void recycle() {
+    mSize = 0;
+    if (mBuffer.length > MAX_POOLED_CAPACITY) {
+      return;
+    }
+    final ArrayDeque<CborWriter> pool = sPool.get();
+    if (pool.size() < MAX_POOLED_WRITERS) {
+      pool.addFirst(this);
+    }
+  }
+
+  /** Append one or more already encoded data items. */
+  void writeRaw(byte[] bytes, int offset, int length) {
+    ensureCapacity(length);
+    System.arraycopy(bytes, offset, mBuffer, mSize, length);
+    mSize += length;
+  }
+
+  /** Write a map of size entries, taking the entries from another writer. */
+  void writeMap(int size, CborWriter entries) {
+    writeTypeAndLength(MAJOR_MAP, size);
+    writeRaw(entries.mBuffer, 0, entries.mSize);
+  }
+
+  /** Write an array of size elements, taking the elements from another writer. */
+  void writeArray(int size, CborWriter elements) {
+    writeTypeAndLength(MAJOR_ARRAY, size);
+    writeRaw(elements.mBuffer, 0, elements.mSize);
+  }
+
+  /** Copy out what has been written, prefixed with a map header for size entries. */
+  byte[] toMapByteArray(int size) {
+    return toByteArray(MAJOR_MAP, size);
+  }
+
+  /** Copy out what has been written, prefixed with an array header for size elements. */
+  byte[] toArrayByteArray(int size) {
+    return toByteArray(MAJOR_ARRAY, size);
+  }
+
+  private byte[] toByteArray(int majorType, int size) {
+    final int mark = mSize;
+    writeTypeAndLength(majorType, size);
+    final int headerLength = mSize - mark;
+    final byte[] result = new byte[headerLength + mark];
+    System.arraycopy(mBuffer, mark, result, 0, headerLength);
+    System.arraycopy(mBuffer, 0, result, headerLength, mark);
+    mSize = mark;
+    return result;
+  }
+
+  void writeMapHeader(int size) {
+    writeTypeAndLength(MAJOR_MAP, size);
+  }
+
+  void writeArrayHeader(int size) {
+    writeTypeAndLength(MAJOR_ARRAY, size);
+  }
+
+  void writeNull() {
+    ensureCapacity(1);
+    mBuffer[mSize++] = (byte) NULL;
+  }
+
+  void writeBoolean(boolean b) {
+    ensureCapacity(1);
+    mBuffer[mSize++] = (byte) (b ? TRUE : FALSE);
+  }
+
+  void writeLong(long l) {
+    if (l >= 0) {
+      writeTypeAndLength(MAJOR_UNSIGNED, l);
+    } else {
+      writeTypeAndLength(MAJOR_NEGATIVE, -1 - l);
+    }
+  }
+
+  /** Write NaN and infinities as null, as JSON has no way to represent them. */
+  void writeDouble(double d) {
+    if (Double.isNaN(d) || Double.isInfinite(d)) {
+      writeNull();
+      return;
+    }
+    ensureCapacity(9);
+    mBuffer[mSize++] = (byte) FLOAT64;
+    writeBigEndian(Double.doubleToLongBits(d), 8);
+  }
+
+  /**
+   * Write a float as the double with the fewest decimal digits that still rounds back to it. This
+   * keeps 0.1f as 0.1 on the desktop, as it was when floats were printed with Float#toString,
+   * rather than the widened 0.10000000149011612.
+   */
+  void writeFloat(float f) {
+    writeDouble(shortestDouble(f));
+  }
+
+  void writeString(String s) {
+    final int length = s.length();
+    int utf8Length = 0;
+    for (int i = 0; i < length; i++) {
+      final char c = s.charAt(i);
+      if (c < 0x80) {
+        utf8Length += 1;
+      } else if (c < 0x800) {
+        utf8Length += 2;
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < length
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        utf8Length += 4;
+        i++;
+      } else {
+        utf8Length += 3;
+      }
+    }
+
+    writeTypeAndLength(MAJOR_TEXT, utf8Length);
+    ensureCapacity(utf8Length);
+    final byte[] buffer = mBuffer;
+    int pos = mSize;
+    for (int i = 0; i < length; i++) {
+      final char c = s.charAt(i);
+      if (c < 0x80) {
+        buffer[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[pos++] = (byte) (0xc0 | (c >> 6));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < length
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        final int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        buffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogates can't be represented in UTF-8. Mirror String#getBytes.
+        buffer[pos++] = (byte) 0xef;
+        buffer[pos++] = (byte) 0xbf;
+        buffer[pos++] = (byte) 0xbd;
+      } else {
+        buffer[pos++] = (byte) (0xe0 | (c >> 12));
+        buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    mSize = pos;
+  }
+
+  /** Write binary data as a byte string, which the desktop sees as a base64 encoded string. */
+  void writeBytes(byte[] bytes) {
+    writeTypeAndLength(MAJOR_BYTES, bytes.length);
+    writeRaw(bytes, 0, bytes.length);
+  }
+
+  // Primitive arrays are written as RFC 8746 typed arrays, a tag followed by a byte string holding
+  // the packed big endian elements. The native side expands them into arrays of numbers.
+
+  void writeByteArray(byte[] values) {
+    writeTypedArrayHeader(CborReader.TAG_SINT8, values.length);
+    writeRaw(values, 0, values.length);
+  }
+
+  void writeIntArray(int[] values) {
+    writeTypedArrayHeader(CborReader.TAG_SINT32, values.length * 4L);
+    for (int value : values) {
+      writeBigEndian(value, 4);
+    }
+  }
+
+  void writeLongArray(long[] values) {
+    writeTypedArrayHeader(CborReader.TAG_SINT64, values.length * 8L);
+    for (long value : values) {
+      writeBigEndian(value, 8);
+    }
+  }
+
+  void writeFloatArray(float[] values) {
+    writeTypedArrayHeader(CborReader.TAG_FLOAT32, values.length * 4L);
+    for (float value : values) {
+      writeBigEndian(Float.floatToIntBits(value), 4);
+    }
+  }
+
+  void writeDoubleArray(double[] values) {
+    writeTypedArrayHeader(CborReader.TAG_FLOAT64, values.length * 8L);
+    for (double value : values) {
+      writeBigEndian(Double.doubleToLongBits(value), 8);
+    }
+  }
+
+  private void writeTypedArrayHeader(int tag, long byteLength) {
+    writeTypeAndLength(MAJOR_TAG, tag);
+    writeTypeAndLength(MAJOR_BYTES, byteLength);
+    ensureCapacity((int) byteLength);
+  }
+
+  /**
+   * Write a value as found in an org.json tree. Nested {@link JSONObject}s and {@link JSONArray}s
+   * are walked recursively, while {@link SonarObject}s and {@link SonarArray}s are copied in as
+   * they are already encoded.
+   */
+  void writeJson(Object value) {
+    if (value == null || value == JSONObject.NULL) {
+      writeNull();
+    } else if (value instanceof String) {
+      writeString((String) value);
+    } else if (value instanceof Integer || value instanceof Long) {
+      writeLong(((Number) value).longValue());
+    } else if (value instanceof Float) {
+      writeFloat((Float) value);
+    } else if (value instanceof Double) {
+      writeDouble((Double) value);
+    } else if (value instanceof Number) {
+      writeLong(((Number) value).longValue());
+    } else if (value instanceof Boolean) {
+      writeBoolean((Boolean) value);
+    } else if (value instanceof Binary) {
+      writeBytes(((Binary) value).mBytes);
+    } else if (value instanceof SonarObject) {
+      ((SonarObject) value).writeTo(this);
+    } else if (value instanceof SonarArray) {
+      ((SonarArray) value).writeTo(this);
+    } else if (value instanceof JSONObject) {
+      final JSONObject object = (JSONObject) value;
+      writeMapHeader(object.length());
+      final Iterator<String> keys = object.keys();
+      while (keys.hasNext()) {
+        final String key = keys.next();
+        writeString(key);
+        writeJson(object.opt(key));
+      }
+    } else if (value instanceof JSONArray) {
+      final JSONArray array = (JSONArray) value;
+      final int length = array.length();
+      writeArrayHeader(length);
+      for (int i = 0; i < length; i++) {
+        writeJson(array.opt(i));
+      }
+    } else {
+      writeString(value.toString());
+    }
+  }
+
+  static double shortestDouble(float f) {
+    if (Float.isNaN(f) || Float.isInfinite(f) || f == (long) f) {
+      return f;
+    }
+    final int exponent = (int) Math.floor(Math.log10(Math.abs(f)));
+    for (int digits = 1; digits <= 9; digits++) {
+      final int decimals = digits - 1 - exponent;
+      final double candidate;
+      if (decimals >= 0 && decimals < POWERS_OF_TEN.length) {
+        candidate = Math.rint(f * POWERS_OF_TEN[decimals]) / POWERS_OF_TEN[decimals];
+      } else if (decimals < 0 && -decimals < POWERS_OF_TEN.length) {
+        candidate = Math.rint(f / POWERS_OF_TEN[-decimals]) * POWERS_OF_TEN[-decimals];
+      } else {
+        return f;
+      }
+      if ((float) candidate == f) {
+        return candidate;
+      }
+    }
+    return f;
+  }
+
+  private void writeTypeAndLength(int majorType, long length) {
+    ensureCapacity(9);
+    final int type = majorType << 5;
+    if (length < 24) {
+      mBuffer[mSize++] = (byte) (type | length);
+    } else if (length <= 0xffL) {
+      mBuffer[mSize++] = (byte) (type | 24);
+      writeBigEndian(length, 1);
+    } else if (length <= 0xffffL) {
+      mBuffer[mSize++] = (byte) (type | 25);
+      writeBigEndian(length, 2);
+    } else if (length <= 0xffffffffL) {
+      mBuffer[mSize++] = (byte) (type | 26);
+      writeBigEndian(length, 4);
+    } else {
+      mBuffer[mSize++] = (byte) (type | 27);
+      writeBigEndian(length, 8);
+    }
+  }
+
+  private void writeBigEndian(long value, int bytes) {
+    for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+      mBuffer[mSize++] = (byte) (value >>> shift);
+    }
+  }
+
+  private void ensureCapacity(int extra) {
+    final int required = mSize + extra;
+    if (required > mBuffer.length) {
+      mBuffer = Arrays.copyOf(mBuffer, Math.max(required, mBuffer.length * 2));
+    }
+  }
+
+  /** Marks binary data held in an org.json tree, to be written as a byte string. */
+  static final class Binary {
+    final byte[] mBytes;
+
+    Binary(byte[] bytes) {
+      mBytes = bytes;
+    }
+  }
+}
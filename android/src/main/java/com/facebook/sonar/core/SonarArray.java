@@ -8,66 +8,153 @@
 package com.facebook.sonar.core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import javax.annotation.Nullable;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 public class SonarArray {
-  final JSONArray mJson;
+  // Immutable and backed by its CBOR encoding, see SonarObject.
+  private final byte[] mCbor;
+  private final int mOffset;
+  private final int mLength;
+  private @Nullable CborIndex mIndex;
+  private int mHash;
 
   SonarArray(JSONArray json) {
-    mJson = (json != null ? json : new JSONArray());
+    this(encode(json != null ? json : new JSONArray()));
   }
 
   SonarArray(String json) {
+    this(parse(json));
+  }
+
+  private SonarArray(byte[] cbor) {
+    this(cbor, 0, cbor.length);
+  }
+
+  SonarArray(byte[] cbor, int offset, int length) {
+    mCbor = cbor;
+    mOffset = offset;
+    mLength = length;
+  }
+
+  /** Create an array of ints which is stored and sent packed, without an object per element. */
+  public static SonarArray of(int[] values) {
+    final CborWriter writer = CborWriter.obtain();
+    writer.writeIntArray(values);
+    return fromWriter(writer);
+  }
+
+  /** Create an array of longs which is stored and sent packed. */
+  public static SonarArray of(long[] values) {
+    final CborWriter writer = CborWriter.obtain();
+    writer.writeLongArray(values);
+    return fromWriter(writer);
+  }
+
+  /** Create an array of floats which is stored and sent packed. */
+  public static SonarArray of(float[] values) {
+    final CborWriter writer = CborWriter.obtain();
+    writer.writeFloatArray(values);
+    return fromWriter(writer);
+  }
+
+  /** Create an array of doubles which is stored and sent packed. */
+  public static SonarArray of(double[] values) {
+    final CborWriter writer = CborWriter.obtain();
+    writer.writeDoubleArray(values);
+    return fromWriter(writer);
+  }
+
+  /**
+   * Create an array of bytes which is stored and sent packed. The desktop receives an array of
+   * numbers.
+   */
+  public static SonarArray of(byte[] values) {
+    final CborWriter writer = CborWriter.obtain();
+    writer.writeByteArray(values);
+    return fromWriter(writer);
+  }
+
+  private static SonarArray fromWriter(CborWriter writer) {
+    final SonarArray array = new SonarArray(writer.toByteArray());
+    writer.recycle();
+    return array;
+  }
+
+  private static byte[] parse(String json) {
     try {
-      mJson = new JSONArray(json);
+      return encode(new JSONArray(json));
     } catch (JSONException e) {
       throw new RuntimeException(e);
     }
   }
 
+  private static byte[] encode(Object json) {
+    final CborWriter writer = CborWriter.obtain();
+    writer.writeJson(json);
+    final byte[] cbor = writer.toByteArray();
+    writer.recycle();
+    return cbor;
+  }
+
+  private CborIndex index() {
+    if (mIndex == null) {
+      mIndex = CborIndex.ofArray(mCbor, mOffset, mLength);
+    }
+    return mIndex;
+  }
+
   public SonarDynamic getDynamic(int index) {
-    return new SonarDynamic(mJson.opt(index));
+    return new SonarDynamic(index().get(index));
   }
 
   public String getString(int index) {
-    return mJson.optString(index);
+    final String s = CborIndex.toString(index().get(index));
+    return s != null ? s : "";
   }
 
   public int getInt(int index) {
-    return mJson.optInt(index);
+    return CborIndex.toInt(index().get(index));
   }
 
   public long getLong(int index) {
-    return mJson.optLong(index);
+    return CborIndex.toLong(index().get(index));
   }
 
   public float getFloat(int index) {
-    return (float) mJson.optDouble(index);
+    return (float) getDouble(index);
   }
 
   public double getDouble(int index) {
-    return mJson.optDouble(index);
+    return CborIndex.toDouble(index().get(index));
   }
 
   public boolean getBoolean(int index) {
-    return mJson.optBoolean(index);
+    return CborIndex.toBoolean(index().get(index));
   }
 
   public SonarObject getObject(int index) {
-    final Object o = mJson.opt(index);
+    final Object o = index().get(index);
+    if (o instanceof SonarObject) {
+      return (SonarObject) o;
+    }
     return new SonarObject((JSONObject) o);
   }
 
   public SonarArray getArray(int index) {
-    final Object o = mJson.opt(index);
+    final Object o = index().get(index);
+    if (o instanceof SonarArray) {
+      return (SonarArray) o;
+    }
     return new SonarArray((JSONArray) o);
   }
 
   public int length() {
-    return mJson.length();
+    return index().size();
   }
 
   public List<String> toStringList() {
@@ -83,54 +170,153 @@ public class SonarArray {
     return toString();
   }
 
+  /** Encode this array as CBOR. Called from the native bridge in place of toJsonString(). */
+  byte[] toCbor() {
+    return mOffset == 0 && mLength == mCbor.length
+        ? mCbor
+        : Arrays.copyOfRange(mCbor, mOffset, mOffset + mLength);
+  }
+
+  /** Append the CBOR encoding of this array to writer without walking it again. */
+  void writeTo(CborWriter writer) {
+    writer.writeRaw(mCbor, mOffset, mLength);
+  }
+
+  /** Wrap a CBOR encoded array. Elements are decoded as they are read. */
+  static SonarArray fromCbor(byte[] cbor) {
+    final CborReader reader = new CborReader(cbor);
+    if (cbor.length == 0 || reader.peekMajorType() != CborReader.MAJOR_ARRAY) {
+      return new SonarArray((JSONArray) null);
+    }
+    return new SonarArray(cbor);
+  }
+
   @Override
   public String toString() {
-    return mJson.toString();
+    return new CborReader(mCbor, mOffset, mLength).readJson().toString();
   }
 
   @Override
   public boolean equals(Object o) {
-    return mJson.toString().equals(o.toString());
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SonarArray)) {
+      return false;
+    }
+    final SonarArray other = (SonarArray) o;
+    return mLength == other.mLength
+        && hashCode() == other.hashCode()
+        && CborReader.regionEquals(mCbor, mOffset, other.mCbor, other.mOffset, mLength);
   }
 
   @Override
   public int hashCode() {
-    return mJson.hashCode();
+    int hash = mHash;
+    if (hash == 0) {
+      hash = CborReader.regionHash(mCbor, mOffset, mLength);
+      mHash = hash;
+    }
+    return hash;
   }
 
+  /** Builds a {@link SonarArray}. See {@link SonarObject.Builder} for the streaming mode. */
   public static class Builder {
-    private final JSONArray mJson;
+    private final @Nullable JSONArray mJson;
+    private @Nullable CborWriter mWriter;
+    private int mSize;
 
     public Builder() {
       mJson = new JSONArray();
     }
 
+    private Builder(CborWriter writer) {
+      mJson = null;
+      mWriter = writer;
+    }
+
+    /**
+     * Create a builder which writes elements straight to its encoded form. A streaming builder is
+     * consumed once it is built or put into another builder.
+     */
+    public static Builder streaming() {
+      return new Builder(CborWriter.obtain());
+    }
+
     public Builder put(String s) {
+      if (mJson == null) {
+        if (s == null) {
+          nextElement().writeNull();
+        } else {
+          nextElement().writeString(s);
+        }
+        return this;
+      }
       mJson.put(s);
       return this;
     }
 
     public Builder put(Integer i) {
+      if (mJson == null) {
+        if (i == null) {
+          nextElement().writeNull();
+        } else {
+          nextElement().writeLong(i);
+        }
+        return this;
+      }
       mJson.put(i);
       return this;
     }
 
     public Builder put(Long l) {
+      if (mJson == null) {
+        if (l == null) {
+          nextElement().writeNull();
+        } else {
+          nextElement().writeLong(l);
+        }
+        return this;
+      }
       mJson.put(l);
       return this;
     }
 
     public Builder put(Float f) {
-      mJson.put(Float.isNaN(f) ? null : f);
+      if (mJson == null) {
+        if (f == null) {
+          nextElement().writeNull();
+        } else {
+          nextElement().writeFloat(f);
+        }
+        return this;
+      }
+      mJson.put(f == null || Float.isNaN(f) ? null : f);
       return this;
     }
 
     public Builder put(Double d) {
-      mJson.put(Double.isNaN(d) ? null : d);
+      if (mJson == null) {
+        if (d == null) {
+          nextElement().writeNull();
+        } else {
+          nextElement().writeDouble(d);
+        }
+        return this;
+      }
+      mJson.put(d == null || Double.isNaN(d) ? null : d);
       return this;
     }
 
     public Builder put(Boolean b) {
+      if (mJson == null) {
+        if (b == null) {
+          nextElement().writeNull();
+        } else {
+          nextElement().writeBoolean(b);
+        }
+        return this;
+      }
       mJson.put(b);
       return this;
     }
@@ -139,26 +325,124 @@ public class SonarArray {
       return put(v.toSonarObject());
     }
 
+    public Builder put(int[] values) {
+      if (mJson == null && values != null) {
+        nextElement().writeIntArray(values);
+        return this;
+      }
+      return put(values == null ? null : SonarArray.of(values));
+    }
+
+    public Builder put(long[] values) {
+      if (mJson == null && values != null) {
+        nextElement().writeLongArray(values);
+        return this;
+      }
+      return put(values == null ? null : SonarArray.of(values));
+    }
+
+    public Builder put(float[] values) {
+      if (mJson == null && values != null) {
+        nextElement().writeFloatArray(values);
+        return this;
+      }
+      return put(values == null ? null : SonarArray.of(values));
+    }
+
+    public Builder put(double[] values) {
+      if (mJson == null && values != null) {
+        nextElement().writeDoubleArray(values);
+        return this;
+      }
+      return put(values == null ? null : SonarArray.of(values));
+    }
+
+    public Builder put(byte[] values) {
+      if (mJson == null && values != null) {
+        nextElement().writeByteArray(values);
+        return this;
+      }
+      return put(values == null ? null : SonarArray.of(values));
+    }
+
     public Builder put(SonarArray a) {
-      mJson.put(a == null ? null : a.mJson);
+      if (mJson == null) {
+        if (a == null) {
+          nextElement().writeNull();
+        } else {
+          a.writeTo(nextElement());
+        }
+        return this;
+      }
+      mJson.put(a);
       return this;
     }
 
     public Builder put(SonarArray.Builder b) {
+      if (mJson == null && b.isStreaming()) {
+        b.writeTo(nextElement());
+        return this;
+      }
       return put(b.build());
     }
 
     public Builder put(SonarObject o) {
-      mJson.put(o == null ? null : o.mJson);
+      if (mJson == null) {
+        if (o == null) {
+          nextElement().writeNull();
+        } else {
+          o.writeTo(nextElement());
+        }
+        return this;
+      }
+      mJson.put(o);
       return this;
     }
 
     public Builder put(SonarObject.Builder b) {
+      if (mJson == null && b.isStreaming()) {
+        b.writeTo(nextElement());
+        return this;
+      }
       return put(b.build());
     }
 
     public SonarArray build() {
-      return new SonarArray(mJson);
+      if (mJson != null) {
+        return new SonarArray(encode(mJson));
+      }
+      final CborWriter writer = finish();
+      final SonarArray array = new SonarArray(writer.toArrayByteArray(mSize));
+      writer.recycle();
+      return array;
+    }
+
+    boolean isStreaming() {
+      return mJson == null;
+    }
+
+    /** Append the array built so far to writer, consuming this streaming builder. */
+    void writeTo(CborWriter writer) {
+      final CborWriter elements = finish();
+      writer.writeArray(mSize, elements);
+      elements.recycle();
+    }
+
+    private CborWriter nextElement() {
+      if (mWriter == null) {
+        throw new IllegalStateException("Builder has already been built");
+      }
+      mSize++;
+      return mWriter;
+    }
+
+    private CborWriter finish() {
+      final CborWriter writer = mWriter;
+      if (writer == null) {
+        throw new IllegalStateException("Builder has already been built");
+      }
+      mWriter = null;
+      return writer;
     }
   }
 }
@@ -14,6 +14,20 @@ package com.facebook.sonar.core;
  */
 public interface SonarConnection {
 
+  /**
+   * Lanes messages to the desktop are sent in, by connections that implement {@link
+   * SonarPrioritizedConnection}. A message only waits for those in its own lane and the lanes above
+   * it.
+   */
+  enum Priority {
+    /** Messages the desktop is waiting on. Never held back. */
+    INTERACTIVE,
+    /** Plugin events. Used by {@link #send(String, SonarObject)}. */
+    NORMAL,
+    /** Large or frequent events, such as network logs. */
+    BULK,
+  }
+
   /**
    * Call a remote method on the Sonar desktop application, passing an optional JSON object as a
    * parameter.
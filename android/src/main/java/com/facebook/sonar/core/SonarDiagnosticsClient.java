@@ -0,0 +1,28 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+/**
+ * A {@link SonarClient} that reports its own overhead. The clients Sonar ships implement it, but
+ * other implementations of SonarClient need not, so check for it before use:
+ *
+ * <pre>
+ * if (client instanceof SonarDiagnosticsClient) {
+ *   log(((SonarDiagnosticsClient) client).getDiagnostics());
+ * }
+ * </pre>
+ */
+public interface SonarDiagnosticsClient extends SonarClient {
+
+  /**
+   * Sonar's own overhead so far: messages and bytes sent for each plugin and method, calls handled
+   * and how long they took, time spent serializing and queueing, and reconnects. Each metric is
+   * described under "descriptions". The same data is shown by the built in Diagnostics plugin.
+   */
+  SonarObject getDiagnostics();
+}
@@ -8,96 +8,207 @@
 package com.facebook.sonar.core;
 
 import java.util.Arrays;
+import javax.annotation.Nullable;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 public class SonarObject {
-  final JSONObject mJson;
+  // A SonarObject is immutable. It holds its CBOR encoding, which is what gets sent, spliced into
+  // the encoding of any parent it is put into, and compared by equals(). Fields are read through an
+  // index of the encoding that is built on first access.
+  private final byte[] mCbor;
+  private final int mOffset;
+  private final int mLength;
+  private @Nullable CborIndex mIndex;
+  private int mHash;
 
   public SonarObject(JSONObject json) {
-    mJson = (json != null ? json : new JSONObject());
+    this(encode(json != null ? json : new JSONObject()));
   }
 
   public SonarObject(String json) {
+    this(parse(json));
+  }
+
+  private SonarObject(byte[] cbor) {
+    this(cbor, 0, cbor.length);
+  }
+
+  SonarObject(byte[] cbor, int offset, int length) {
+    mCbor = cbor;
+    mOffset = offset;
+    mLength = length;
+  }
+
+  private static byte[] parse(String json) {
     try {
-      mJson = new JSONObject(json);
+      return encode(new JSONObject(json));
     } catch (JSONException e) {
       throw new RuntimeException(e);
     }
   }
 
+  private static byte[] encode(Object json) {
+    final CborWriter writer = CborWriter.obtain();
+    writer.writeJson(json);
+    final byte[] cbor = writer.toByteArray();
+    writer.recycle();
+    return cbor;
+  }
+
+  private CborIndex index() {
+    if (mIndex == null) {
+      mIndex = CborIndex.ofMap(mCbor, mOffset, mLength);
+    }
+    return mIndex;
+  }
+
   public SonarDynamic getDynamic(String name) {
-    return new SonarDynamic(mJson.opt(name));
+    return new SonarDynamic(index().get(name));
   }
 
   public String getString(String name) {
-    if (mJson.isNull(name)) {
-      return null;
-    }
-    return mJson.optString(name);
+    final Object value = index().get(name);
+    return CborIndex.isNull(value) ? null : CborIndex.toString(value);
   }
 
   public int getInt(String name) {
-    return mJson.optInt(name);
+    return CborIndex.toInt(index().get(name));
   }
 
   public long getLong(String name) {
-    return mJson.optLong(name);
+    return CborIndex.toLong(index().get(name));
   }
 
   public float getFloat(String name) {
-    return (float) mJson.optDouble(name);
+    return (float) getDouble(name);
   }
 
   public double getDouble(String name) {
-    return mJson.optDouble(name);
+    return CborIndex.toDouble(index().get(name));
   }
 
   public boolean getBoolean(String name) {
-    return mJson.optBoolean(name);
+    return CborIndex.toBoolean(index().get(name));
   }
 
   public SonarObject getObject(String name) {
-    final Object o = mJson.opt(name);
+    final Object o = index().get(name);
+    if (o instanceof SonarObject) {
+      return (SonarObject) o;
+    }
     return new SonarObject((JSONObject) o);
   }
 
   public SonarArray getArray(String name) {
-    final Object o = mJson.opt(name);
+    final Object o = index().get(name);
+    if (o instanceof SonarArray) {
+      return (SonarArray) o;
+    }
     return new SonarArray((JSONArray) o);
   }
 
   public boolean contains(String name) {
-    return mJson.has(name);
+    return index().indexOf(name) >= 0;
   }
 
   public String toJsonString() {
     return toString();
   }
 
+  /**
+   * Encode this object as CBOR. Called from the native bridge and the JVM client in place of
+   * toJsonString(). The returned array may be shared with this object and must not be modified.
+   */
+  public byte[] toCbor() {
+    return mOffset == 0 && mLength == mCbor.length
+        ? mCbor
+        : Arrays.copyOfRange(mCbor, mOffset, mOffset + mLength);
+  }
+
+  /** Append the CBOR encoding of this object to writer without walking it again. */
+  void writeTo(CborWriter writer) {
+    writer.writeRaw(mCbor, mOffset, mLength);
+  }
+
+  /**
+   * Wrap a CBOR encoded object. Called from the native bridge and the JVM client for incoming
+   * messages, which are only decoded as far as they are read.
+   */
+  public static SonarObject fromCbor(byte[] cbor) {
+    final CborReader reader = new CborReader(cbor);
+    if (cbor.length == 0 || reader.peekMajorType() != CborReader.MAJOR_MAP) {
+      return new SonarObject((JSONObject) null);
+    }
+    return new SonarObject(cbor);
+  }
+
   @Override
   public String toString() {
-    return mJson.toString();
+    return new CborReader(mCbor, mOffset, mLength).readJson().toString();
   }
 
+  /**
+   * Objects are equal if their encodings are. Both builders and the native bridge write the same
+   * canonical encoding, definite lengths and the shortest integer forms, so this compares structure
+   * and field order.
+   */
   @Override
   public boolean equals(Object o) {
-    return mJson.toString().equals(o.toString());
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SonarObject)) {
+      return false;
+    }
+    final SonarObject other = (SonarObject) o;
+    return mLength == other.mLength
+        && hashCode() == other.hashCode()
+        && CborReader.regionEquals(mCbor, mOffset, other.mCbor, other.mOffset, mLength);
   }
 
   @Override
   public int hashCode() {
-    return mJson.hashCode();
+    int hash = mHash;
+    if (hash == 0) {
+      hash = CborReader.regionHash(mCbor, mOffset, mLength);
+      mHash = hash;
+    }
+    return hash;
   }
 
+  /**
+   * Builds a {@link SonarObject}. By default fields are collected in a JSONObject and encoded when
+   * the object is built. Builders created with {@link #streaming()} instead encode fields as they
+   * are put into a pooled buffer and should be preferred when building large trees, such as layout
+   * inspector nodes. Either way, objects and arrays that are put into a builder are spliced into
+   * the result as they are already encoded.
+   */
   public static class Builder {
-    private final JSONObject mJson;
+    private final @Nullable JSONObject mJson;
+    private @Nullable CborWriter mWriter;
+    private int mSize;
 
     public Builder() {
       mJson = new JSONObject();
     }
 
+    private Builder(CborWriter writer) {
+      mJson = null;
+      mWriter = writer;
+    }
+
+    /**
+     * Create a builder which writes fields straight to its encoded form. Unlike the default
+     * builder, putting a name twice keeps only the last value when read back, putting null leaves
+     * the name out, and a streaming builder is consumed once it is built or put into another
+     * builder.
+     */
+    public static Builder streaming() {
+      return new Builder(CborWriter.obtain());
+    }
+
     public Builder put(String name, Object obj) {
       if (obj == null) {
         return put(name, (String) null);
@@ -113,6 +224,16 @@ public class SonarObject {
         return put(name, (String) obj);
       } else if (obj instanceof Boolean) {
         return put(name, (Boolean) obj);
+      } else if (obj instanceof int[]) {
+        return put(name, (int[]) obj);
+      } else if (obj instanceof long[]) {
+        return put(name, (long[]) obj);
+      } else if (obj instanceof float[]) {
+        return put(name, (float[]) obj);
+      } else if (obj instanceof double[]) {
+        return put(name, (double[]) obj);
+      } else if (obj instanceof byte[]) {
+        return put(name, (byte[]) obj);
       } else if (obj instanceof Object[]) {
         return put(name, Arrays.deepToString((Object[]) obj));
       } else if (obj instanceof SonarObject) {
@@ -131,91 +252,209 @@ public class SonarObject {
     }
 
     public Builder put(String name, String s) {
-      try {
-        mJson.put(name, s);
-      } catch (JSONException e) {
-        throw new RuntimeException(e);
+      if (mJson == null) {
+        if (s != null) {
+          writeName(name).writeString(s);
+        }
+        return this;
       }
-      return this;
+      return putJson(name, s);
     }
 
     public Builder put(String name, Integer i) {
-      try {
-        mJson.put(name, i);
-      } catch (JSONException e) {
-        throw new RuntimeException(e);
+      if (mJson == null) {
+        if (i != null) {
+          writeName(name).writeLong(i);
+        }
+        return this;
       }
-      return this;
+      return putJson(name, i);
     }
 
     public Builder put(String name, Long l) {
-      try {
-        mJson.put(name, l);
-      } catch (JSONException e) {
-        throw new RuntimeException(e);
+      if (mJson == null) {
+        if (l != null) {
+          writeName(name).writeLong(l);
+        }
+        return this;
       }
-      return this;
+      return putJson(name, l);
     }
 
     public Builder put(String name, Float f) {
-      try {
-        mJson.put(name, Float.isNaN(f) ? null : f);
-      } catch (JSONException e) {
-        throw new RuntimeException(e);
+      if (mJson == null) {
+        if (f != null && !Float.isNaN(f)) {
+          writeName(name).writeFloat(f);
+        }
+        return this;
       }
-      return this;
+      return putJson(name, f == null || Float.isNaN(f) ? null : f);
     }
 
     public Builder put(String name, Double d) {
-      try {
-        mJson.put(name, Double.isNaN(d) ? null : d);
-      } catch (JSONException e) {
-        throw new RuntimeException(e);
+      if (mJson == null) {
+        if (d != null && !Double.isNaN(d)) {
+          writeName(name).writeDouble(d);
+        }
+        return this;
       }
-      return this;
+      return putJson(name, d == null || Double.isNaN(d) ? null : d);
     }
 
     public Builder put(String name, Boolean b) {
-      try {
-        mJson.put(name, b);
-      } catch (JSONException e) {
-        throw new RuntimeException(e);
+      if (mJson == null) {
+        if (b != null) {
+          writeName(name).writeBoolean(b);
+        }
+        return this;
       }
-      return this;
+      return putJson(name, b);
     }
 
     public Builder put(String name, SonarValue v) {
       return put(name, v.toSonarObject());
     }
 
+    /** Put an array of ints, packed without an object per element. */
+    public Builder put(String name, int[] values) {
+      if (mJson == null && values != null) {
+        writeName(name).writeIntArray(values);
+        return this;
+      }
+      return put(name, values == null ? null : SonarArray.of(values));
+    }
+
+    public Builder put(String name, long[] values) {
+      if (mJson == null && values != null) {
+        writeName(name).writeLongArray(values);
+        return this;
+      }
+      return put(name, values == null ? null : SonarArray.of(values));
+    }
+
+    public Builder put(String name, float[] values) {
+      if (mJson == null && values != null) {
+        writeName(name).writeFloatArray(values);
+        return this;
+      }
+      return put(name, values == null ? null : SonarArray.of(values));
+    }
+
+    public Builder put(String name, double[] values) {
+      if (mJson == null && values != null) {
+        writeName(name).writeDoubleArray(values);
+        return this;
+      }
+      return put(name, values == null ? null : SonarArray.of(values));
+    }
+
+    public Builder put(String name, byte[] values) {
+      if (mJson == null && values != null) {
+        writeName(name).writeByteArray(values);
+        return this;
+      }
+      return put(name, values == null ? null : SonarArray.of(values));
+    }
+
+    /**
+     * Put binary data, such as a network body. It is sent as a CBOR byte string where the
+     * connection allows it and as a base64 encoded string otherwise, and reads back as the base64
+     * encoded string either way.
+     */
+    public Builder putBinary(String name, byte[] data) {
+      if (mJson == null) {
+        if (data != null) {
+          writeName(name).writeBytes(data);
+        }
+        return this;
+      }
+      return putJson(name, data == null ? null : new CborWriter.Binary(data));
+    }
+
     public Builder put(String name, SonarArray a) {
-      try {
-        mJson.put(name, a == null ? null : a.mJson);
-      } catch (JSONException e) {
-        throw new RuntimeException(e);
+      if (mJson == null) {
+        if (a != null) {
+          a.writeTo(writeName(name));
+        }
+        return this;
       }
-      return this;
+      return putJson(name, a);
     }
 
     public Builder put(String name, SonarArray.Builder b) {
+      if (mJson == null && b.isStreaming()) {
+        b.writeTo(writeName(name));
+        return this;
+      }
       return put(name, b.build());
     }
 
     public Builder put(String name, SonarObject o) {
+      if (mJson == null) {
+        if (o != null) {
+          o.writeTo(writeName(name));
+        }
+        return this;
+      }
+      return putJson(name, o);
+    }
+
+    public Builder put(String name, SonarObject.Builder b) {
+      if (mJson == null && b.isStreaming()) {
+        b.writeTo(writeName(name));
+        return this;
+      }
+      return put(name, b.build());
+    }
+
+    public SonarObject build() {
+      if (mJson != null) {
+        return new SonarObject(encode(mJson));
+      }
+      final CborWriter writer = finish();
+      final SonarObject object = new SonarObject(writer.toMapByteArray(mSize));
+      writer.recycle();
+      return object;
+    }
+
+    boolean isStreaming() {
+      return mJson == null;
+    }
+
+    /** Append the map built so far to writer, consuming this streaming builder. */
+    void writeTo(CborWriter writer) {
+      final CborWriter entries = finish();
+      writer.writeMap(mSize, entries);
+      entries.recycle();
+    }
+
+    // SonarObjects, SonarArrays and binary data are kept in the JSONObject as they are, CborWriter
+    // writes them when the builder is encoded.
+    private Builder putJson(String name, @Nullable Object value) {
       try {
-        mJson.put(name, o == null ? null : o.mJson);
+        mJson.put(name, value);
       } catch (JSONException e) {
         throw new RuntimeException(e);
       }
       return this;
     }
 
-    public Builder put(String name, SonarObject.Builder b) {
-      return put(name, b.build());
+    private CborWriter writeName(String name) {
+      if (mWriter == null) {
+        throw new IllegalStateException("Builder has already been built");
+      }
+      mWriter.writeString(name);
+      mSize++;
+      return mWriter;
     }
 
-    public SonarObject build() {
-      return new SonarObject(mJson);
+    private CborWriter finish() {
+      final CborWriter writer = mWriter;
+      if (writer == null) {
+        throw new IllegalStateException("Builder has already been built");
+      }
+      mWriter = null;
+      return writer;
     }
   }
 }
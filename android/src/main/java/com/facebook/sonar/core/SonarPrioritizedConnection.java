@@ -0,0 +1,39 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+/**
+ * A {@link SonarConnection} that sends messages in priority lanes and reports back pressure. The
+ * connections Sonar hands to plugins implement it, but other implementations of SonarConnection
+ * need not, so check for it before use:
+ *
+ * <pre>
+ * if (connection instanceof SonarPrioritizedConnection) {
+ *   ((SonarPrioritizedConnection) connection).send(method, params, Priority.BULK);
+ * } else {
+ *   connection.send(method, params);
+ * }
+ * </pre>
+ */
+public interface SonarPrioritizedConnection extends SonarConnection {
+
+  /**
+   * Like {@link #send(String, SonarObject)}, in the given priority lane. Send large or frequent
+   * events as {@link Priority#BULK} so they don't hold up more important messages.
+   */
+  void send(String method, SonarObject params, Priority priority);
+
+  void send(String method, SonarArray params, Priority priority);
+
+  /**
+   * Whether messages sent on this connection are piling up faster than they can be delivered.
+   * Plugins that send often should send less, for example by coalescing updates, while it is. Once
+   * the backlog is full, further messages from the plugin are dropped.
+   */
+  boolean isUnderPressure();
+}
@@ -0,0 +1,31 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+/**
+ * Base class for {@link SonarResponder}s that know whether their call has been cancelled. The
+ * responders Sonar passes to receivers extend it. Receivers doing a lot of work should check
+ * {@link #isCancelled(SonarResponder)} now and then and give up early.
+ */
+public abstract class SonarResponderAdapter implements SonarResponder {
+
+  /**
+   * True once the Sonar desktop app no longer wants the response, because it cancelled the call,
+   * replaced it with a newer one or went away. Responding to a cancelled call is harmless. Never
+   * true unless overridden.
+   */
+  public boolean isCancelled() {
+    return false;
+  }
+
+  /** Whether the call responder answers has been cancelled, false if it can't tell. */
+  public static boolean isCancelled(SonarResponder responder) {
+    return responder instanceof SonarResponderAdapter
+        && ((SonarResponderAdapter) responder).isCancelled();
+  }
+}
@@ -8,17 +8,19 @@
 package com.facebook.sonar.testing;
 
 import com.facebook.sonar.core.SonarArray;
-import com.facebook.sonar.core.SonarConnection;
 import com.facebook.sonar.core.SonarObject;
+import com.facebook.sonar.core.SonarPrioritizedConnection;
 import com.facebook.sonar.core.SonarReceiver;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class SonarConnectionMock implements SonarConnection {
+public class SonarConnectionMock implements SonarPrioritizedConnection {
   public final Map<String, SonarReceiver> receivers = new HashMap<>();
   public final Map<String, List<Object>> sent = new HashMap<>();
+  public final List<Throwable> errors = new ArrayList<>();
+  public boolean underPressure = false;
 
   @Override
   public void send(String method, SonarObject params) {
@@ -47,7 +49,24 @@ public class SonarConnectionMock implements SonarConnection {
   }
 
   @Override
-  public void reportError(Throwable throwable) {}
+  public void send(String method, SonarObject params, Priority priority) {
+    send(method, params);
+  }
+
+  @Override
+  public void send(String method, SonarArray params, Priority priority) {
+    send(method, params);
+  }
+
+  @Override
+  public boolean isUnderPressure() {
+    return underPressure;
+  }
+
+  @Override
+  public void reportError(Throwable throwable) {
+    errors.add(throwable);
+  }
 
   @Override
   public void receive(String method, SonarReceiver receiver) {
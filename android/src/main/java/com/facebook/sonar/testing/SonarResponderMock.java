@@ -9,13 +9,14 @@ package com.facebook.sonar.testing;
 
 import com.facebook.sonar.core.SonarArray;
 import com.facebook.sonar.core.SonarObject;
-import com.facebook.sonar.core.SonarResponder;
+import com.facebook.sonar.core.SonarResponderAdapter;
 import java.util.LinkedList;
 import java.util.List;
 
-public class SonarResponderMock implements SonarResponder {
+public class SonarResponderMock extends SonarResponderAdapter {
   public final List<Object> successes = new LinkedList<>();
   public final List<SonarObject> errors = new LinkedList<>();
+  public boolean cancelled = false;
 
   @Override
   public void success(SonarObject response) {
@@ -36,4 +37,9 @@ public class SonarResponderMock implements SonarResponder {
   public void error(SonarObject response) {
     errors.add(response);
   }
+
+  @Override
+  public boolean isCancelled() {
+    return cancelled;
+  }
 }
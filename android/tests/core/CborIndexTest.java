@@ -0,0 +1,117 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+import static com.facebook.sonar.core.CborReaderTest.bytes;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class CborIndexTest {
+
+  @Test
+  public void decodesOnlyTheValuesThatAreRead() {
+    // {"good": 1, "bad": a byte string with an integer chunk}, which can be stepped over but not
+    // decoded.
+    final SonarObject object = SonarObject.fromCbor(bytes("a2 64676f6f64 01 63626164 5f01ff"));
+
+    assertThat(object.getInt("good"), equalTo(1));
+    assertThat(object.contains("bad"), is(true));
+    try {
+      object.getString("bad");
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void handsOutNestedContainersOverTheSameBuffer() {
+    // {"child": {"a": [1, 2]}}
+    final byte[] cbor = bytes("a1 656368696c64 a1 6161 820102");
+    final CborIndex index = CborIndex.ofMap(cbor, 0, cbor.length);
+
+    final Object child = index.get("child");
+    assertThat(child, instanceOf(SonarObject.class));
+    assertThat(CborWriterTest.hex(((SonarObject) child).toCbor()), equalTo("a16161820102"));
+    final SonarArray array = ((SonarObject) child).getArray("a");
+    assertThat(array.length(), equalTo(2));
+    assertThat(array.getInt(1), equalTo(2));
+  }
+
+  @Test
+  public void readsValuesLikeAParsedJSONObject() throws Exception {
+    final String json =
+        "{\"int\":42,\"double\":1.5,\"numeric\":\"12.7\",\"text\":\"h\u00e9llo\","
+            + "\"truthy\":\"TRUE\",\"null\":null,\"list\":[1,\"two\"]}";
+    final SonarObject lazy = SonarObject.fromCbor(new SonarObject(json).toCbor());
+    final JSONObject parsed = new JSONObject(json);
+
+    for (String name : new String[] {"int", "double", "numeric", "text", "truthy", "missing"}) {
+      assertThat(lazy.getString(name), equalTo(parsed.optString(name, null)));
+      assertThat(lazy.getInt(name), equalTo(parsed.optInt(name)));
+      assertThat(lazy.getLong(name), equalTo(parsed.optLong(name)));
+      assertThat(lazy.getBoolean(name), equalTo(parsed.optBoolean(name)));
+    }
+    assertThat(lazy.getDouble("numeric"), equalTo(parsed.optDouble("numeric")));
+    assertThat(lazy.getString("null"), nullValue());
+    assertThat(lazy.getArray("list").getString(1), equalTo("two"));
+  }
+
+  @Test
+  public void indexesIndefiniteLengthMapsPastTheInitialCapacity() {
+    final StringBuilder hex = new StringBuilder("bf");
+    for (int i = 0; i < 20; i++) {
+      hex.append(String.format("61%02x%02x", 'a' + i, i));
+    }
+    final byte[] cbor = bytes(hex.append("ff").toString());
+    final CborIndex index = CborIndex.ofMap(cbor, 0, cbor.length);
+
+    assertThat(index.size(), equalTo(20));
+    assertThat(index.get("a"), equalTo((Object) 0));
+    assertThat(index.get("t"), equalTo((Object) 19));
+  }
+
+  @Test
+  public void rejectsCountsBeyondTheData() {
+    // A map and an array claiming 2^32 - 1 entries, with nothing after.
+    final byte[] map = bytes("baffffffff");
+    try {
+      CborIndex.ofMap(map, 0, map.length);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+    final byte[] array = bytes("9affffffff");
+    try {
+      CborIndex.ofArray(array, 0, array.length);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void returnsNothingOutOfRange() {
+    final byte[] cbor = bytes("82 01 02");
+    final CborIndex index = CborIndex.ofArray(cbor, 0, cbor.length);
+
+    assertThat(index.get(-1), nullValue());
+    assertThat(index.get(2), nullValue());
+    assertThat(index.indexOf("a"), equalTo(-1));
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class CborReaderTest {
+
+  @Test
+  public void readsIntegersOfEveryWidth() {
+    assertThat(read("17"), equalTo((Object) 23));
+    assertThat(read("18ff"), equalTo((Object) 255));
+    assertThat(read("19ffff"), equalTo((Object) 65535));
+    assertThat(read("1a7fffffff"), equalTo((Object) Integer.MAX_VALUE));
+    assertThat(read("1affffffff"), equalTo((Object) 4294967295L));
+    assertThat(read("1b7fffffffffffffff"), equalTo((Object) Long.MAX_VALUE));
+    assertThat(read("3b7fffffffffffffff"), equalTo((Object) Long.MIN_VALUE));
+    assertThat(read("3818"), equalTo((Object) (-25)));
+  }
+
+  @Test
+  public void readsIntegersBeyondLongAsDoubles() {
+    assertThat(read("1bffffffffffffffff"), equalTo((Object) 18446744073709551615.0));
+    assertThat(read("1b8000000000000000"), equalTo((Object) 9223372036854775808.0));
+    assertThat(read("3b8000000000000000"), equalTo((Object) (-9223372036854775809.0)));
+
+    final JSONArray array = (JSONArray) read("d843 50 7fffffffffffffff 8000000000000000");
+    assertThat(array.opt(0), equalTo((Object) Long.MAX_VALUE));
+    assertThat(array.opt(1), equalTo((Object) 9223372036854775808.0));
+  }
+
+  @Test
+  public void readsHalfSingleAndDoublePrecisionFloats() {
+    assertThat(read("f93e00"), equalTo((Object) 1.5));
+    assertThat(read("f90001"), equalTo((Object) (double) (float) Math.pow(2, -24)));
+    assertThat(read("fa47c35000"), equalTo((Object) 100000.0));
+    assertThat(read("fb3ff199999999999a"), equalTo((Object) 1.1));
+  }
+
+  @Test
+  public void readsIndefiniteLengthItems() throws Exception {
+    // {_ "a": [_ 1, 2], "b": (_ "x", "y")}
+    final JSONObject object = (JSONObject) read("bf6161 9f0102ff 6162 7f61786179ff ff");
+    assertThat(object.getJSONArray("a").length(), equalTo(2));
+    assertThat(object.getString("b"), equalTo("xy"));
+  }
+
+  @Test
+  public void readsByteStringsAsBase64() {
+    assertThat(read("43010203"), equalTo((Object) "AQID"));
+    assertThat(read("5f4101420203ff"), equalTo((Object) "AQID"));
+    assertThat(read("40"), equalTo((Object) ""));
+  }
+
+  @Test
+  public void readsTypedArraysAsArraysOfNumbers() throws Exception {
+    final JSONArray array = (JSONArray) read("d84a 48 00000001 ffffffff");
+    assertThat(array.length(), equalTo(2));
+    assertThat(array.getInt(0), equalTo(1));
+    assertThat(array.getInt(1), equalTo(-1));
+  }
+
+  @Test
+  public void skipsUnknownTags() {
+    assertThat(read("c11a514b67b0"), equalTo((Object) 1363896240));
+  }
+
+  @Test
+  public void rejectsTruncatedInput() {
+    final String[] truncated = {
+      "", "18", "19ff", "1b00000000", "636162", "a16161", "82 01",
+      "9f01", "fb3ff1", "d84a 48 0000", "5f41"
+    };
+    for (String hex : truncated) {
+      try {
+        read(hex);
+        fail("Read truncated input " + hex);
+      } catch (IllegalArgumentException expected) {
+        assertThat(expected.getMessage().startsWith("Truncated CBOR data"), is(true));
+      }
+    }
+  }
+
+  @Test
+  public void rejectsTruncatedInputWhenSkipping() {
+    try {
+      new CborReader(bytes("a26161 01 6162")).skip();
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void readsOnlyTheGivenRegion() {
+    final byte[] buffer = bytes("ff 1818 ff");
+    assertThat(new CborReader(buffer, 1, 2).readJson(), equalTo((Object) 24));
+    try {
+      new CborReader(buffer, 1, 1).readJson();
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void indexesMapsWithLaterDuplicatesWinning() {
+    final byte[] cbor = bytes("a3 6161 01 6162 a0 6161 02");
+    final CborIndex index = CborIndex.ofMap(cbor, 0, cbor.length);
+    assertThat(index.size(), equalTo(3));
+    assertThat(index.get("a"), equalTo((Object) 2));
+    assertThat(index.get("b"), instanceOf(SonarObject.class));
+    assertThat(index.indexOf("c"), equalTo(-1));
+  }
+
+  @Test
+  public void indexesTypedArraysWithoutScanning() {
+    final byte[] cbor = bytes("d852 50 3ff8000000000000 7ff8000000000000");
+    final CborIndex index = CborIndex.ofArray(cbor, 0, cbor.length);
+    assertThat(index.size(), equalTo(2));
+    assertThat(index.get(0), equalTo((Object) 1.5));
+    assertThat(index.get(1), equalTo((Object) JSONObject.NULL));
+    assertThat(index.get(2), equalTo(null));
+  }
+
+  private static Object read(String hex) {
+    return new CborReader(bytes(hex)).readJson();
+  }
+
+  static byte[] bytes(String hex) {
+    final String digits = hex.replace(" ", "");
+    final byte[] bytes = new byte[digits.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(digits.substring(i * 2, i * 2 + 2), 16);
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class CborWriterTest {
+
+  @Test
+  public void writesIntegersInTheShortestForm() {
+    assertThat(hexOfLong(0), equalTo("00"));
+    assertThat(hexOfLong(23), equalTo("17"));
+    assertThat(hexOfLong(24), equalTo("1818"));
+    assertThat(hexOfLong(255), equalTo("18ff"));
+    assertThat(hexOfLong(256), equalTo("190100"));
+    assertThat(hexOfLong(65535), equalTo("19ffff"));
+    assertThat(hexOfLong(65536), equalTo("1a00010000"));
+    assertThat(hexOfLong(4294967295L), equalTo("1affffffff"));
+    assertThat(hexOfLong(4294967296L), equalTo("1b0000000100000000"));
+    assertThat(hexOfLong(Long.MAX_VALUE), equalTo("1b7fffffffffffffff"));
+  }
+
+  @Test
+  public void writesNegativeIntegersInTheShortestForm() {
+    assertThat(hexOfLong(-1), equalTo("20"));
+    assertThat(hexOfLong(-24), equalTo("37"));
+    assertThat(hexOfLong(-25), equalTo("3818"));
+    assertThat(hexOfLong(-257), equalTo("390100"));
+    assertThat(hexOfLong(Long.MIN_VALUE), equalTo("3b7fffffffffffffff"));
+  }
+
+  @Test
+  public void writesNaNAsNull() {
+    final CborWriter writer = new CborWriter();
+    writer.writeDouble(Double.NaN);
+    writer.writeFloat(Float.NaN);
+    assertThat(hex(writer.toByteArray()), equalTo("f6f6"));
+  }
+
+  @Test
+  public void writesInfinitiesAsNull() {
+    final CborWriter writer = new CborWriter();
+    writer.writeDouble(Double.POSITIVE_INFINITY);
+    writer.writeDouble(Double.NEGATIVE_INFINITY);
+    writer.writeFloat(Float.POSITIVE_INFINITY);
+    writer.writeFloat(Float.NEGATIVE_INFINITY);
+    assertThat(hex(writer.toByteArray()), equalTo("f6f6f6f6"));
+
+    final SonarObject object =
+        SonarObject.Builder.streaming().put("a", Double.POSITIVE_INFINITY).put("b", 1).build();
+    assertThat(object.toJsonString(), equalTo("{\"a\":null,\"b\":1}"));
+  }
+
+  @Test
+  public void writesStringsAsUtf8() {
+    final CborWriter writer = new CborWriter();
+    writer.writeString("a\u00e9\u20ac\ud83d\ude00");
+    assertThat(hex(writer.toByteArray()), equalTo("6a61c3a9e282acf09f9880"));
+  }
+
+  @Test
+  public void writesUnpairedSurrogatesAsReplacementCharacters() {
+    final CborWriter writer = new CborWriter();
+    writer.writeString("\ud83d");
+    assertThat(hex(writer.toByteArray()), equalTo("63efbfbd"));
+  }
+
+  @Test
+  public void writesFloatsWithTheirShortestDecimal() {
+    assertThat(CborWriter.shortestDouble(0.1f), equalTo(0.1));
+    assertThat(CborWriter.shortestDouble(1.5f), equalTo(1.5));
+    assertThat(CborWriter.shortestDouble(-3.14f), equalTo(-3.14));
+    assertThat(CborWriter.shortestDouble(16777216f), equalTo(16777216.0));
+  }
+
+  @Test
+  public void roundTripsNestedJson() throws Exception {
+    final JSONObject json =
+        new JSONObject(
+            "{\"name\":\"h\u00e9llo \u2603 \ud83d\ude00\","
+                + "\"nested\":{\"list\":[1,[2,{\"deep\":true}],null],\"empty\":{}},"
+                + "\"flag\":false}");
+
+    final JSONObject read = roundTrip(json);
+    assertThat(read.getString("name"), equalTo("h\u00e9llo \u2603 \ud83d\ude00"));
+    assertThat(read.getBoolean("flag"), is(false));
+    final JSONObject nested = read.getJSONObject("nested");
+    assertThat(nested.getJSONObject("empty").length(), equalTo(0));
+    final JSONArray list = nested.getJSONArray("list");
+    assertThat(list.length(), equalTo(3));
+    assertThat(list.getInt(0), equalTo(1));
+    assertThat(list.getJSONArray(1).getJSONObject(1).getBoolean("deep"), is(true));
+    assertThat(list.isNull(2), is(true));
+  }
+
+  @Test
+  public void roundTripsNumbers() throws Exception {
+    final JSONObject json = new JSONObject();
+    json.put("int", Integer.MIN_VALUE);
+    json.put("long", Long.MAX_VALUE);
+    json.put("negativeLong", Long.MIN_VALUE);
+    json.put("double", 0.1);
+    json.put("tiny", Double.MIN_VALUE);
+    json.put("huge", 1e300);
+    json.put("float", (Object) 0.1f);
+
+    final JSONObject read = roundTrip(json);
+    assertThat(read.get("int"), equalTo((Object) Integer.MIN_VALUE));
+    assertThat(read.get("long"), equalTo((Object) Long.MAX_VALUE));
+    assertThat(read.get("negativeLong"), equalTo((Object) Long.MIN_VALUE));
+    assertThat(read.get("double"), equalTo((Object) 0.1));
+    assertThat(read.get("tiny"), equalTo((Object) Double.MIN_VALUE));
+    assertThat(read.get("huge"), equalTo((Object) 1e300));
+    assertThat(read.get("float"), equalTo((Object) 0.1));
+  }
+
+  @Test
+  public void roundTripsNaNAsNull() throws Exception {
+    final JSONArray json = new JSONArray();
+    json.put((Object) Double.NaN);
+    json.put(1.0);
+
+    final CborWriter writer = new CborWriter();
+    writer.writeJson(json);
+    final JSONArray read = (JSONArray) new CborReader(writer.toByteArray()).readJson();
+    assertThat(read.isNull(0), is(true));
+    assertThat(read.getDouble(1), equalTo(1.0));
+  }
+
+  @Test
+  public void growsPastItsInitialCapacity() {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      builder.append('x');
+    }
+    final CborWriter writer = new CborWriter(4);
+    writer.writeString(builder.toString());
+    final Object read = new CborReader(writer.toByteArray()).readJson();
+    assertThat(read, equalTo((Object) builder.toString()));
+  }
+
+  private static JSONObject roundTrip(JSONObject json) {
+    final CborWriter writer = new CborWriter();
+    writer.writeJson(json);
+    return (JSONObject) new CborReader(writer.toByteArray()).readJson();
+  }
+
+  private static String hexOfLong(long value) {
+    final CborWriter writer = new CborWriter();
+    writer.writeLong(value);
+    return hex(writer.toByteArray());
+  }
+
+  static String hex(byte[] bytes) {
+    final StringBuilder builder = new StringBuilder();
+    for (byte b : bytes) {
+      builder.append(String.format("%02x", b & 0xff));
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.core;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class SonarObjectTest {
+
+  @Test
+  public void streamingBuilderLeavesOutNullValues() {
+    final SonarObject object =
+        SonarObject.Builder.streaming()
+            .put("string", (String) null)
+            .put("int", (Integer) null)
+            .put("float", (Float) null)
+            .put("double", (Double) null)
+            .put("object", (SonarObject) null)
+            .put("array", (SonarArray) null)
+            .put("binary", (Object) null)
+            .put("kept", "value")
+            .build();
+
+    assertThat(object.contains("string"), is(false));
+    assertThat(object.contains("int"), is(false));
+    assertThat(object.contains("float"), is(false));
+    assertThat(object.contains("double"), is(false));
+    assertThat(object.contains("object"), is(false));
+    assertThat(object.contains("array"), is(false));
+    assertThat(object.contains("binary"), is(false));
+    assertThat(object.toJsonString(), equalTo("{\"kept\":\"value\"}"));
+  }
+
+  @Test
+  public void acceptsNullFloatsAndDoubles() {
+    final SonarObject object =
+        new SonarObject.Builder().put("float", (Float) null).put("double", (Double) null).build();
+    assertThat(object.contains("float"), is(false));
+    assertThat(object.contains("double"), is(false));
+
+    final SonarArray.Builder[] builders = {
+      new SonarArray.Builder(), SonarArray.Builder.streaming()
+    };
+    for (SonarArray.Builder builder : builders) {
+      final SonarArray array = builder.put((Float) null).put((Double) null).build();
+      assertThat(array.toJsonString(), equalTo("[null,null]"));
+    }
+  }
+
+  @Test
+  public void streamingBuilderKeepsTheLastValueOfADuplicateName() {
+    final SonarObject object =
+        SonarObject.Builder.streaming().put("a", 1).put("b", true).put("a", "two").build();
+
+    assertThat(object.getString("a"), equalTo("two"));
+    assertThat(object.getBoolean("b"), is(true));
+    assertThat(object.toJsonString().contains("\"a\":\"two\""), is(true));
+  }
+
+  @Test
+  public void streamingBuilderCantBeReusedAfterBuilding() {
+    final SonarObject.Builder builder = SonarObject.Builder.streaming().put("a", 1);
+    builder.build();
+
+    try {
+      builder.put("b", 2);
+      fail();
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void streamingBuilderCantBeReusedAfterNesting() {
+    final SonarObject.Builder child = SonarObject.Builder.streaming().put("a", 1);
+    SonarObject.Builder.streaming().put("child", child).build();
+
+    try {
+      child.put("b", 2);
+      fail();
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+    try {
+      SonarObject.Builder.streaming().put("again", child);
+      fail();
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void streamingBuilderIsSplicedIntoADefaultBuilder() {
+    final SonarObject spliced =
+        new SonarObject.Builder()
+            .put(
+                "child",
+                SonarObject.Builder.streaming()
+                    .put("name", "node")
+                    .put("children", new SonarArray.Builder().put(1).put(2)))
+            .build();
+    final SonarObject expected =
+        new SonarObject.Builder()
+            .put(
+                "child",
+                new SonarObject.Builder()
+                    .put("name", "node")
+                    .put("children", new SonarArray.Builder().put(1).put(2)))
+            .build();
+
+    final SonarObject child = spliced.getObject("child");
+    assertThat(child.getString("name"), equalTo("node"));
+    assertThat(child.getArray("children").getInt(1), equalTo(2));
+    assertThat(spliced.toJsonString(), equalTo(expected.toJsonString()));
+  }
+
+  @Test
+  public void streamingBuilderIsSplicedIntoAStreamingBuilder() {
+    final SonarObject object =
+        SonarObject.Builder.streaming()
+            .put("before", 1)
+            .put("child", SonarObject.Builder.streaming().put("inner", "x"))
+            .put("after", 2)
+            .build();
+
+    assertThat(object.getInt("before"), equalTo(1));
+    assertThat(object.getObject("child").getString("inner"), equalTo("x"));
+    assertThat(object.getInt("after"), equalTo(2));
+  }
+
+  @Test
+  public void slicesEqualTheObjectsTheyHold() {
+    final SonarObject child = new SonarObject.Builder().put("a", 1).put("b", "two").build();
+    final SonarObject parent =
+        SonarObject.Builder.streaming().put("first", 0).put("child", child).build();
+
+    final SonarObject slice = parent.getObject("child");
+    assertThat(slice, equalTo(child));
+    assertThat(child, equalTo(slice));
+    assertThat(slice.hashCode(), equalTo(child.hashCode()));
+    assertThat(slice, not(equalTo(parent)));
+    assertThat(slice, not(equalTo(new SonarObject.Builder().put("a", 1).build())));
+  }
+
+  @Test
+  public void slicesAreCopiedOutAsCbor() {
+    final SonarObject child = new SonarObject.Builder().put("a", 1).build();
+    final SonarObject parent = SonarObject.Builder.streaming().put("child", child).build();
+
+    final byte[] whole = parent.toCbor();
+    assertThat(parent.toCbor(), sameInstance(whole));
+
+    final SonarObject slice = parent.getObject("child");
+    final byte[] copy = slice.toCbor();
+    assertThat(copy.length, equalTo(child.toCbor().length));
+    assertThat(SonarObject.fromCbor(copy), equalTo(child));
+
+    copy[copy.length - 1] = 2;
+    assertThat(parent.getObject("child").getInt("a"), equalTo(1));
+  }
+
+  @Test
+  public void cachesTheHashCode() {
+    final SonarObject object = new SonarObject("{\"a\":[1,2,3],\"b\":{\"c\":null}}");
+    final int hash = object.hashCode();
+
+    assertThat(hash, not(equalTo(0)));
+    assertThat(object.hashCode(), equalTo(hash));
+    assertThat(new SonarObject(object.toJsonString()).hashCode(), equalTo(hash));
+  }
+
+  @Test
+  public void coercesValuesLikeJSONObject() {
+    final SonarObject object =
+        new SonarObject.Builder()
+            .put("int", 42)
+            .put("double", 1.5)
+            .put("numeric", "12.7")
+            .put("text", "hello")
+            .put("truthy", "TRUE")
+            .put("null", (String) null)
+            .build();
+
+    assertThat(object.getString("int"), equalTo("42"));
+    assertThat(object.getString("double"), equalTo("1.5"));
+    assertThat(object.getInt("double"), equalTo(1));
+    assertThat(object.getInt("numeric"), equalTo(12));
+    assertThat(object.getLong("numeric"), equalTo(12L));
+    assertThat(object.getDouble("numeric"), equalTo(12.7));
+    assertThat(object.getBoolean("truthy"), is(true));
+    assertThat(object.getInt("text"), equalTo(0));
+    assertThat(Double.isNaN(object.getDouble("text")), is(true));
+    assertThat(object.getString("null"), nullValue());
+  }
+
+  @Test
+  public void readsMissingValuesAsDefaults() {
+    final SonarObject object = new SonarObject.Builder().put("a", 1).build();
+
+    assertThat(object.contains("missing"), is(false));
+    assertThat(object.getString("missing"), nullValue());
+    assertThat(object.getInt("missing"), equalTo(0));
+    assertThat(object.getLong("missing"), equalTo(0L));
+    assertThat(Double.isNaN(object.getDouble("missing")), is(true));
+    assertThat(object.getBoolean("missing"), is(false));
+  }
+
+  @Test
+  public void roundTripsPrimitiveArrays() {
+    final SonarObject.Builder[] builders = {
+      new SonarObject.Builder(), SonarObject.Builder.streaming()
+    };
+    for (SonarObject.Builder builder : builders) {
+      final SonarObject object =
+          builder
+              .put("ints", new int[] {Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE})
+              .put("longs", new long[] {Long.MIN_VALUE, Long.MAX_VALUE})
+              .put("floats", new float[] {0.1f, -2.5f, Float.NaN})
+              .put("doubles", new double[] {1e300, Double.POSITIVE_INFINITY})
+              .put("bytes", new byte[] {-128, 0, 127})
+              .put("empty", new int[0])
+              .build();
+
+      final SonarArray ints = object.getArray("ints");
+      assertThat(ints.length(), equalTo(4));
+      assertThat(ints.getInt(0), equalTo(Integer.MIN_VALUE));
+      assertThat(ints.getInt(1), equalTo(-1));
+      assertThat(ints.getInt(3), equalTo(Integer.MAX_VALUE));
+      assertThat(object.getArray("longs").getLong(0), equalTo(Long.MIN_VALUE));
+      assertThat(object.getArray("longs").getLong(1), equalTo(Long.MAX_VALUE));
+      assertThat(object.getArray("floats").getDouble(0), equalTo(0.1));
+      assertThat(object.getArray("floats").getDouble(1), equalTo(-2.5));
+      assertThat(Double.isNaN(object.getArray("floats").getDouble(2)), is(true));
+      assertThat(object.getArray("doubles").getDouble(0), equalTo(1e300));
+      assertThat(Double.isNaN(object.getArray("doubles").getDouble(1)), is(true));
+      assertThat(object.getArray("bytes").getInt(0), equalTo(-128));
+      assertThat(object.getArray("bytes").getInt(2), equalTo(127));
+      assertThat(object.getArray("empty").length(), equalTo(0));
+      assertThat(
+          new SonarObject(object.toJsonString()).getArray("ints").toJsonString(),
+          equalTo("[-2147483648,-1,0,2147483647]"));
+    }
+  }
+
+  @Test
+  public void roundTripsBinary() {
+    final byte[] data = {0, 1, 2, (byte) 0xfe, (byte) 0xff};
+    final SonarObject[] objects = {
+      new SonarObject.Builder().putBinary("data", data).putBinary("none", null).build(),
+      SonarObject.Builder.streaming().putBinary("data", data).putBinary("none", null).build()
+    };
+    for (SonarObject object : objects) {
+      assertThat(object.getString("data"), equalTo("AAEC/v8="));
+      assertThat(object.contains("none"), is(false));
+      assertThat(CborWriterTest.hex(object.toCbor()), equalTo("a1646461746145000102feff"));
+    }
+    assertThat(objects[0], equalTo(objects[1]));
+  }
+}
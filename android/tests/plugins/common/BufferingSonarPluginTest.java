@@ -0,0 +1,221 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.sonar.core.SonarArray;
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+import com.facebook.sonar.core.SonarReceiver;
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class BufferingSonarPluginTest {
+
+  @Test
+  public void replaysBufferedEventsInChunks() throws Exception {
+    final BufferingSonarPlugin plugin =
+        new TestPlugin(EventBudget.ofBytes(1024 * 1024).withReplayRate(2, 50));
+    for (int i = 0; i < 5; i++) {
+      plugin.send("buffered", new SonarObject.Builder().put("id", i).build());
+    }
+    final RecordingConnection connection = new RecordingConnection();
+    plugin.onConnect(connection);
+    plugin.send("live", new SonarObject.Builder().put("id", 0).build());
+
+    final List<String> methods = new ArrayList<>();
+    final List<SonarObject> progress = new ArrayList<>();
+    Sent sent;
+    while ((sent = connection.mSent.poll(5, TimeUnit.SECONDS)) != null) {
+      if (sent.method.equals("replayProgress")) {
+        methods.add("progress");
+        progress.add(sent.params);
+        if (sent.params.getBoolean("done")) {
+          break;
+        }
+      } else {
+        methods.add(sent.method + sent.params.getInt("id"));
+      }
+    }
+
+    // The live event doesn't wait for the second chunk.
+    assertThat(methods.indexOf("live0") < methods.indexOf("buffered2"), is(true));
+    methods.remove("live0");
+    assertThat(
+        methods.toString(),
+        equalTo(
+            "[buffered0, buffered1, progress, "
+                + "buffered2, buffered3, progress, "
+                + "buffered4, progress]"));
+    assertThat(progress.get(0).getInt("replayed"), equalTo(2));
+    assertThat(progress.get(0).getInt("remaining"), equalTo(3));
+    assertThat(progress.get(2).getInt("replayed"), equalTo(5));
+    assertThat(progress.get(2).getInt("remaining"), equalTo(0));
+  }
+
+  @Test
+  public void replaysWhatIsLeftToTheNextConnection() throws Exception {
+    final BufferingSonarPlugin plugin =
+        new TestPlugin(EventBudget.ofBytes(1024 * 1024).withReplayRate(2, 200));
+    for (int i = 0; i < 6; i++) {
+      plugin.send("buffered", new SonarObject.Builder().put("id", i).build());
+    }
+    final RecordingConnection first = new RecordingConnection();
+    plugin.onConnect(first);
+    assertThat(first.mSent.poll(5, TimeUnit.SECONDS).params.getInt("id"), equalTo(0));
+    assertThat(first.mSent.poll(5, TimeUnit.SECONDS).params.getInt("id"), equalTo(1));
+    assertThat(first.mSent.poll(5, TimeUnit.SECONDS).method, equalTo("replayProgress"));
+    plugin.onDisconnect();
+    final RecordingConnection second = new RecordingConnection();
+    plugin.onConnect(second);
+
+    final List<Integer> ids = new ArrayList<>();
+    Sent sent;
+    while ((sent = second.mSent.poll(5, TimeUnit.SECONDS)) != null) {
+      if (!sent.method.equals("replayProgress")) {
+        ids.add(sent.params.getInt("id"));
+      } else if (sent.params.getBoolean("done")) {
+        // Counted from the start of this connection's replay.
+        assertThat(sent.params.getInt("replayed"), equalTo(4));
+        break;
+      }
+    }
+    assertThat(ids.toString(), equalTo("[2, 3, 4, 5]"));
+    assertThat(first.mSent.isEmpty(), is(true));
+  }
+
+  @Test
+  public void keepsBufferedEventsInOrderWhileLiveEventsPass() throws Exception {
+    final BufferingSonarPlugin plugin =
+        new TestPlugin(EventBudget.ofBytes(1024 * 1024).withReplayRate(3, 10));
+    for (int i = 0; i < 30; i++) {
+      plugin.send("buffered", new SonarObject.Builder().put("id", i).build());
+    }
+    final RecordingConnection connection = new RecordingConnection();
+    plugin.onConnect(connection);
+    for (int i = 0; i < 30; i++) {
+      plugin.send("live", new SonarObject.Builder().put("id", i).build());
+      Thread.sleep(1);
+    }
+
+    final List<Integer> buffered = new ArrayList<>();
+    final List<Integer> live = new ArrayList<>();
+    Sent sent;
+    while ((sent = connection.mSent.poll(5, TimeUnit.SECONDS)) != null) {
+      if (sent.method.equals("buffered")) {
+        buffered.add(sent.params.getInt("id"));
+      } else if (sent.method.equals("live")) {
+        live.add(sent.params.getInt("id"));
+      } else if (sent.params.getBoolean("done")) {
+        break;
+      }
+    }
+    final List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      expected.add(i);
+    }
+    assertThat(buffered, equalTo(expected));
+    assertThat(live, equalTo(expected));
+  }
+
+  @Test
+  public void sendsNoProgressToAConnectionThatWentAway() throws Exception {
+    final BufferingSonarPlugin plugin =
+        new TestPlugin(EventBudget.ofBytes(1024 * 1024).withReplayRate(3, 10));
+    for (int i = 0; i < 4; i++) {
+      plugin.send("buffered", new SonarObject.Builder().put("id", i).build());
+    }
+    // Goes away as the first event reaches it, in the middle of the chunk.
+    final RecordingConnection first =
+        new RecordingConnection() {
+          @Override
+          public void send(String method, SonarObject params) {
+            plugin.onDisconnect();
+            super.send(method, params);
+          }
+        };
+    plugin.onConnect(first);
+    assertThat(first.mSent.poll(5, TimeUnit.SECONDS).params.getInt("id"), equalTo(0));
+
+    final RecordingConnection second = new RecordingConnection();
+    plugin.onConnect(second);
+    final List<Integer> ids = new ArrayList<>();
+    Sent sent;
+    while ((sent = second.mSent.poll(5, TimeUnit.SECONDS)) != null) {
+      if (!sent.method.equals("replayProgress")) {
+        ids.add(sent.params.getInt("id"));
+      } else if (sent.params.getBoolean("done")) {
+        break;
+      }
+    }
+    assertThat(ids.toString(), equalTo("[1, 2, 3]"));
+    assertThat(first.mSent.isEmpty(), is(true));
+  }
+
+  @Test
+  public void sendsStraightAwayWhenNothingIsBuffered() {
+    final BufferingSonarPlugin plugin = new TestPlugin(EventBudget.ofBytes(1024));
+    final RecordingConnection connection = new RecordingConnection();
+    plugin.onConnect(connection);
+    plugin.send("live", new SonarObject.Builder().build());
+
+    assertThat(connection.mSent.poll().method, equalTo("live"));
+    assertThat(connection.mSent.isEmpty(), is(true));
+  }
+
+  private static class TestPlugin extends BufferingSonarPlugin {
+    TestPlugin(EventBudget budget) {
+      super(budget);
+    }
+
+    @Override
+    public String getId() {
+      return "Test";
+    }
+  }
+
+  private static class Sent {
+    final String method;
+    final SonarObject params;
+
+    Sent(String method, SonarObject params) {
+      this.method = method;
+      this.params = params;
+    }
+  }
+
+  /** Records what is sent from any thread. */
+  private static class RecordingConnection implements SonarConnection {
+    final LinkedBlockingQueue<Sent> mSent = new LinkedBlockingQueue<>();
+
+    @Override
+    public void send(String method, SonarObject params) {
+      mSent.add(new Sent(method, params));
+    }
+
+    @Override
+    public void send(String method, SonarArray params) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void reportError(Throwable throwable) {}
+
+    @Override
+    public void receive(String method, SonarReceiver receiver) {}
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class DeferredEventQueueTest {
+  private final EventBuffer mFirst = new EventBuffer(EventBudget.ofBytes(1024 * 1024));
+  private final EventBuffer mSecond = new EventBuffer(EventBudget.ofBytes(1024 * 1024));
+  private final DeferredEventQueue mQueue = new DeferredEventQueue(mFirst);
+
+  @Test
+  public void keepsEventsInTheFirstQueueUntilHandedOver() {
+    add(1);
+    assertThat(mFirst.size(), equalTo(1));
+
+    mQueue.handOver(mSecond);
+    add(2);
+    assertThat(mSecond.size(), equalTo(1));
+    assertThat(mQueue.size(), equalTo(2));
+  }
+
+  @Test
+  public void takesTheOlderEventsFirst() {
+    add(1);
+    add(2);
+    mQueue.handOver(mSecond);
+    add(3);
+
+    for (int id = 1; id <= 3; id++) {
+      assertThat(mQueue.poll().getObject().getInt("id"), equalTo(id));
+    }
+    assertThat(mQueue.poll(), nullValue());
+    assertThat(mQueue.isEmpty(), is(true));
+  }
+
+  private void add(int id) {
+    mQueue.add(
+        "event", new SonarObject.Builder().put("id", id).build(), SonarConnection.Priority.NORMAL);
+  }
+}
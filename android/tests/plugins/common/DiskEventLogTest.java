@@ -0,0 +1,125 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import java.io.File;
+import java.io.FilenameFilter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class DiskEventLogTest {
+  private static final int MB = 1024 * 1024;
+
+  @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void readsEventsBackInOrder() throws Exception {
+    final DiskEventLog log = DiskEventLog.open(mFolder.getRoot(), 4 * MB);
+    assertThat(log.isEmpty(), is(true));
+    log.add("first", event(1, 0), SonarConnection.Priority.NORMAL);
+    log.add("second", event(2, 0), SonarConnection.Priority.BULK);
+    assertThat(log.isEmpty(), is(false));
+
+    final EventQueue.Event first = log.poll();
+    assertThat(first.method, equalTo("first"));
+    assertThat(first.priority, equalTo(SonarConnection.Priority.NORMAL));
+    assertThat(first.getObject(), equalTo(event(1, 0)));
+    final EventQueue.Event second = log.poll();
+    assertThat(second.method, equalTo("second"));
+    assertThat(second.priority, equalTo(SonarConnection.Priority.BULK));
+    assertThat(log.poll(), nullValue());
+    assertThat(log.isEmpty(), is(true));
+
+    log.add("third", event(3, 0), SonarConnection.Priority.NORMAL);
+    assertThat(log.poll().method, equalTo("third"));
+  }
+
+  @Test
+  public void dropsTheOldestSegmentsOverTheLimit() throws Exception {
+    final DiskEventLog log = DiskEventLog.open(mFolder.getRoot(), 2 * MB);
+    for (int i = 0; i < 10; i++) {
+      log.add("event", event(i, 400 * 1024), SonarConnection.Priority.NORMAL);
+    }
+
+    assertThat(segments(log).length, equalTo(2));
+    assertThat(log.poll().getObject().getInt("id"), equalTo(6));
+  }
+
+  @Test
+  public void dropsEventsBiggerThanTheLimit() throws Exception {
+    final DiskEventLog log = DiskEventLog.open(mFolder.getRoot(), MB);
+    log.add("event", event(1, 0), SonarConnection.Priority.NORMAL);
+    log.add("event", event(2, 2 * MB), SonarConnection.Priority.NORMAL);
+    log.add("event", event(3, 0), SonarConnection.Priority.NORMAL);
+
+    assertThat(log.size(), equalTo(2));
+    assertThat(log.poll().getObject().getInt("id"), equalTo(1));
+    assertThat(log.poll().getObject().getInt("id"), equalTo(3));
+    long bytes = 0;
+    for (File segment : segments(log)) {
+      bytes += segment.length();
+    }
+    assertThat(bytes <= MB, is(true));
+  }
+
+  @Test
+  public void deletesEventsFromAnEarlierRun() throws Exception {
+    final File directory = mFolder.newFolder("0");
+    final File earlier = new File(directory, "events-0.log");
+    assertThat(earlier.createNewFile(), is(true));
+    final File other = new File(directory, "other");
+    assertThat(other.createNewFile(), is(true));
+
+    final DiskEventLog log = DiskEventLog.open(mFolder.getRoot(), MB);
+    assertThat(log.getDirectory(), equalTo(directory));
+    assertThat(log.poll(), nullValue());
+    assertThat(earlier.exists(), is(false));
+    assertThat(other.exists(), is(true));
+  }
+
+  @Test
+  public void logsOpenedOnTheSameDirectoryKeepTheirOwnEvents() throws Exception {
+    final DiskEventLog first = DiskEventLog.open(mFolder.getRoot(), MB);
+    first.add("event", event(1, 0), SonarConnection.Priority.NORMAL);
+    final DiskEventLog second = DiskEventLog.open(mFolder.getRoot(), MB);
+    second.add("event", event(2, 0), SonarConnection.Priority.NORMAL);
+
+    assertThat(first.getDirectory(), not(equalTo(second.getDirectory())));
+    assertThat(first.poll().getObject().getInt("id"), equalTo(1));
+    assertThat(first.poll(), nullValue());
+    assertThat(second.poll().getObject().getInt("id"), equalTo(2));
+    assertThat(second.poll(), nullValue());
+  }
+
+  private static File[] segments(DiskEventLog log) {
+    return log.getDirectory()
+        .listFiles(
+            new FilenameFilter() {
+              @Override
+              public boolean accept(File directory, String name) {
+                return name.startsWith("events-");
+              }
+            });
+  }
+
+  private static SonarObject event(int id, int bodySize) {
+    return new SonarObject.Builder().put("id", id).putBinary("body", new byte[bodySize]).build();
+  }
+}
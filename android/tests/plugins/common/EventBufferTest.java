@@ -0,0 +1,111 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class EventBufferTest {
+  private static final int BODY_SIZE = 1000;
+  // Room for an event with a body and its id.
+  private static final int EVENT_SIZE = BODY_SIZE + 20;
+
+  private final EventBudget.Shrinker mDropBodies =
+      new EventBudget.Shrinker() {
+        @Override
+        public SonarObject shrink(String method, SonarObject event) {
+          return event.contains("body")
+              ? new SonarObject.Builder().put("id", event.getInt("id")).build()
+              : null;
+        }
+      };
+
+  @Test
+  public void dropsTheOldestEventsOverBudget() {
+    final EventBuffer buffer = new EventBuffer(EventBudget.ofBytes(3 * EVENT_SIZE));
+    for (int i = 0; i < 5; i++) {
+      add(buffer, "event", i, BODY_SIZE);
+    }
+
+    assertThat(ids(buffer), equalTo("2 3 4"));
+    assertThat(buffer.getBytes(), equalTo(0L));
+  }
+
+  @Test
+  public void keepsToTheMaximumNumberOfEvents() {
+    final EventBuffer buffer = new EventBuffer(EventBudget.ofBytes(1024 * 1024).withMaxEvents(2));
+    for (int i = 0; i < 5; i++) {
+      add(buffer, "event", i, 0);
+    }
+
+    assertThat(ids(buffer), equalTo("3 4"));
+    assertThat(buffer.getBytes(), equalTo(0L));
+  }
+
+  @Test
+  public void shrinksEventsBeforeDroppingThem() {
+    final EventBuffer buffer =
+        new EventBuffer(EventBudget.ofBytes(3 * EVENT_SIZE).withShrinker(mDropBodies));
+    for (int i = 0; i < 5; i++) {
+      add(buffer, "event", i, BODY_SIZE);
+    }
+
+    final List<EventQueue.Event> events = drain(buffer);
+    assertThat(events.size(), equalTo(5));
+    assertThat(events.get(0).getObject().contains("body"), is(false));
+    assertThat(events.get(4).getObject().contains("body"), is(true));
+  }
+
+  @Test
+  public void methodsOverQuotaMakeRoomFirst() {
+    final EventBuffer buffer =
+        new EventBuffer(
+            EventBudget.ofBytes(3 * EVENT_SIZE).withMethodQuota("newResponse", 2 * EVENT_SIZE));
+    add(buffer, "newRequest", 0, 10);
+    for (int i = 1; i < 5; i++) {
+      add(buffer, "newResponse", i, BODY_SIZE);
+    }
+
+    assertThat(ids(buffer), equalTo("0 3 4"));
+  }
+
+  private static void add(EventBuffer buffer, String method, int id, int bodySize) {
+    final SonarObject.Builder event = new SonarObject.Builder().put("id", id);
+    if (bodySize > 0) {
+      event.putBinary("body", new byte[bodySize]);
+    }
+    buffer.add(method, event.build(), SonarConnection.Priority.NORMAL);
+  }
+
+  private static List<EventQueue.Event> drain(EventBuffer buffer) {
+    final List<EventQueue.Event> events = new ArrayList<>();
+    EventQueue.Event event;
+    while ((event = buffer.poll()) != null) {
+      events.add(event);
+    }
+    return events;
+  }
+
+  private static String ids(EventBuffer buffer) {
+    final StringBuilder ids = new StringBuilder();
+    for (EventQueue.Event event : drain(buffer)) {
+      ids.append(ids.length() > 0 ? " " : "").append(event.getObject().getInt("id"));
+    }
+    return ids.toString();
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.sonar.core.SonarObject;
+import com.facebook.sonar.core.SonarReceiver;
+import com.facebook.sonar.core.SonarResponder;
+import com.facebook.sonar.testing.SonarConnectionMock;
+import com.facebook.sonar.testing.SonarResponderMock;
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class ReceiverExecutionTest {
+
+  private final List<Runnable> mQueued = new ArrayList<>();
+  private final Executor mExecutor =
+      new Executor() {
+        @Override
+        public void execute(Runnable command) {
+          mQueued.add(command);
+        }
+      };
+
+  private final SonarReceiver mEcho =
+      new SonarReceiver() {
+        @Override
+        public void onReceive(SonarObject params, SonarResponder responder) {
+          responder.success(params);
+        }
+      };
+
+  SonarConnectionMock connection;
+  SonarResponderMock responder;
+
+  @Before
+  public void setup() {
+    connection = new SonarConnectionMock();
+    responder = new SonarResponderMock();
+  }
+
+  @Test
+  public void runsOnTheExecutor() throws Exception {
+    final SonarObject params = new SonarObject.Builder().put("a", 1).build();
+    ReceiverExecution.on(mExecutor).wrap(connection, mEcho).onReceive(params, responder);
+    assertThat(responder.successes.size(), equalTo(0));
+
+    runQueued();
+    assertThat(responder.successes.size(), equalTo(1));
+    assertThat(responder.successes.get(0), equalTo((Object) params));
+  }
+
+  @Test
+  public void rejectsCallsOverTheConcurrencyLimit() throws Exception {
+    final SonarReceiver receiver =
+        ReceiverExecution.on(mExecutor).withMaxConcurrency(1).wrap(connection, mEcho);
+    final SonarObject params = new SonarObject.Builder().build();
+    receiver.onReceive(params, responder);
+    receiver.onReceive(params, responder);
+    assertThat(responder.errors.size(), equalTo(1));
+
+    runQueued();
+    receiver.onReceive(params, responder);
+    runQueued();
+    assertThat(responder.successes.size(), equalTo(2));
+  }
+
+  @Test
+  public void latestCallWins() throws Exception {
+    final SonarReceiver receiver =
+        ReceiverExecution.on(mExecutor).withLatestWins().wrap(connection, mEcho);
+    final SonarResponderMock stale = new SonarResponderMock();
+    receiver.onReceive(new SonarObject.Builder().put("query", "a").build(), stale);
+    receiver.onReceive(new SonarObject.Builder().put("query", "ab").build(), responder);
+    assertThat(stale.errors.size(), equalTo(1));
+
+    runQueued();
+    assertThat(stale.successes.size(), equalTo(0));
+    assertThat(responder.successes.size(), equalTo(1));
+  }
+
+  @Test
+  public void dropsCallsCancelledWhileQueued() throws Exception {
+    ReceiverExecution.on(mExecutor)
+        .wrap(connection, mEcho)
+        .onReceive(new SonarObject.Builder().build(), responder);
+    responder.cancelled = true;
+    runQueued();
+    assertThat(responder.successes.size(), equalTo(0));
+  }
+
+  @Test
+  public void reportsExceptions() throws Exception {
+    final SonarReceiver receiver =
+        ReceiverExecution.on(mExecutor)
+            .wrap(
+                connection,
+                new SonarReceiver() {
+                  @Override
+                  public void onReceive(SonarObject params, SonarResponder responder) {
+                    throw new IllegalStateException("broken");
+                  }
+                });
+    receiver.onReceive(new SonarObject.Builder().build(), responder);
+    runQueued();
+    assertThat(connection.errors.size(), equalTo(1));
+    assertThat(responder.errors.size(), equalTo(1));
+    assertThat(responder.errors.get(0).getString("message"), equalTo("broken"));
+  }
+
+  @Test
+  public void timesOutStalledReceivers() throws Exception {
+    final CountDownLatch answered = new CountDownLatch(1);
+    final SonarResponderMock responder =
+        new SonarResponderMock() {
+          @Override
+          public void error(SonarObject response) {
+            super.error(response);
+            answered.countDown();
+          }
+        };
+    ReceiverExecution.on(mExecutor)
+        .withTimeout(10)
+        .wrap(connection, mEcho)
+        .onReceive(new SonarObject.Builder().build(), responder);
+    assertThat(answered.await(5, TimeUnit.SECONDS), equalTo(true));
+
+    // The receiver finally running doesn't produce a second response.
+    runQueued();
+    assertThat(responder.successes.size(), equalTo(0));
+    assertThat(responder.errors.size(), equalTo(1));
+  }
+
+  @Test
+  public void timedOutCallsGiveUpTheirPlace() throws Exception {
+    final CountDownLatch answered = new CountDownLatch(1);
+    final SonarResponderMock stalled =
+        new SonarResponderMock() {
+          @Override
+          public void error(SonarObject response) {
+            super.error(response);
+            answered.countDown();
+          }
+        };
+    final SonarReceiver receiver =
+        ReceiverExecution.on(mExecutor)
+            .withMaxConcurrency(1)
+            .withTimeout(10)
+            .wrap(connection, mEcho);
+    receiver.onReceive(new SonarObject.Builder().build(), stalled);
+    assertThat(answered.await(5, TimeUnit.SECONDS), equalTo(true));
+
+    receiver.onReceive(new SonarObject.Builder().build(), responder);
+    assertThat(responder.errors.size(), equalTo(0));
+    runQueued();
+    assertThat(responder.successes.size(), equalTo(1));
+
+    // The stalled call returning didn't give up its place a second time.
+    final SonarResponderMock rejected = new SonarResponderMock();
+    receiver.onReceive(new SonarObject.Builder().build(), new SonarResponderMock());
+    receiver.onReceive(new SonarObject.Builder().build(), rejected);
+    assertThat(rejected.errors.size(), equalTo(1));
+  }
+
+  @Test
+  public void runsLanesInOrderAndForgetsThemWhenIdle() throws Exception {
+    final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(10);
+    final SonarReceiver receiver =
+        ReceiverExecution.serial("test")
+            .wrap(
+                connection,
+                new SonarReceiver() {
+                  @Override
+                  public void onReceive(SonarObject params, SonarResponder responder) {
+                    ran.add(params.getInt("i"));
+                    done.countDown();
+                  }
+                });
+    for (int i = 0; i < 10; i++) {
+      receiver.onReceive(new SonarObject.Builder().put("i", i).build(), responder);
+    }
+
+    assertThat(done.await(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat(ran.toString(), equalTo("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9]"));
+    for (int i = 0; i < 500 && ReceiverExecution.activeLanes() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(ReceiverExecution.activeLanes(), equalTo(0));
+  }
+
+  private void runQueued() {
+    final List<Runnable> queued = new ArrayList<>(mQueued);
+    mQueued.clear();
+    for (Runnable runnable : queued) {
+      runnable.run();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.common;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class RingBufferTest {
+  private static final int PRODUCERS = 4;
+  private static final int ITEMS_EACH = 20000;
+
+  @Test
+  public void keepsTheNewestItemsInOrder() {
+    final RingBuffer<Integer> buffer = new RingBuffer<>(3);
+    assertThat(buffer.isEmpty(), is(true));
+    for (int i = 0; i < 5; i++) {
+      buffer.enqueue(i);
+    }
+
+    assertThat(buffer.poll(), equalTo(2));
+    assertThat(buffer.poll(), equalTo(3));
+    buffer.enqueue(5);
+    assertThat(buffer.poll(), equalTo(4));
+    assertThat(buffer.poll(), equalTo(5));
+    assertThat(buffer.poll(), nullValue());
+    assertThat(buffer.isEmpty(), is(true));
+  }
+
+  @Test
+  public void keepsEachProducersOrderWhenOverwriting() throws Exception {
+    // Items may be overwritten before they are taken, but those taken come in order.
+    produceAndTake(new RingBuffer<int[]>(64));
+  }
+
+  @Test
+  public void losesNothingWhileThereIsRoom() throws Exception {
+    final int[] last = produceAndTake(new RingBuffer<int[]>(PRODUCERS * ITEMS_EACH));
+    for (int producer = 0; producer < PRODUCERS; producer++) {
+      assertThat(last[producer], equalTo(ITEMS_EACH - 1));
+    }
+  }
+
+  /** Returns the last item taken from each producer. */
+  private static int[] produceAndTake(final RingBuffer<int[]> buffer) {
+    final List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < PRODUCERS; p++) {
+      final int producer = p;
+      threads.add(
+          new Thread() {
+            @Override
+            public void run() {
+              for (int i = 0; i < ITEMS_EACH; i++) {
+                buffer.enqueue(new int[] {producer, i});
+              }
+            }
+          });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+
+    final int[] last = new int[PRODUCERS];
+    Arrays.fill(last, -1);
+    boolean running = true;
+    while (running || !buffer.isEmpty()) {
+      running = false;
+      for (Thread thread : threads) {
+        running |= thread.isAlive();
+      }
+      int[] item;
+      while ((item = buffer.poll()) != null) {
+        assertThat(item[1] > last[item[0]], is(true));
+        last[item[0]] = item[1];
+      }
+    }
+    return last;
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.network;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class BodyCapturePolicyTest {
+
+  @Test
+  public void capturesAnyTypeByDefault() {
+    final BodyCapturePolicy policy = BodyCapturePolicy.upTo(100);
+
+    assertThat(policy.shouldCapture("application/octet-stream"), is(true));
+    assertThat(policy.shouldCapture(null), is(true));
+  }
+
+  @Test
+  public void onlyCapturesAllowedTypes() {
+    final BodyCapturePolicy policy =
+        BodyCapturePolicy.upTo(100).withAllowedTypes("application/json", "text/");
+
+    assertThat(policy.shouldCapture("application/json; charset=utf-8"), is(true));
+    assertThat(policy.shouldCapture("Text/HTML"), is(true));
+    assertThat(policy.shouldCapture("multipart/form-data; boundary=x"), is(false));
+    assertThat(policy.shouldCapture(null), is(false));
+  }
+
+  @Test
+  public void deniedTypesWinOverAllowedOnes() {
+    final BodyCapturePolicy policy =
+        BodyCapturePolicy.upTo(100).withAllowedTypes("text/").withDeniedTypes("text/event-stream");
+
+    assertThat(policy.shouldCapture("text/plain"), is(true));
+    assertThat(policy.shouldCapture("text/event-stream"), is(false));
+  }
+
+  @Test
+  public void leavesOutMediaByDefault() {
+    assertThat(BodyCapturePolicy.DEFAULT.shouldCapture("image/jpeg"), is(false));
+    assertThat(BodyCapturePolicy.DEFAULT.shouldCapture("application/json"), is(true));
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.network;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class NetworkEncoderTest {
+
+  @Test
+  public void runsJobsInOrder() throws Exception {
+    final NetworkEncoder encoder = new NetworkEncoder(16);
+    final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(10);
+
+    for (int i = 0; i < 10; i++) {
+      final int job = i;
+      encoder.submit(
+          new Runnable() {
+            @Override
+            public void run() {
+              ran.add(job);
+              done.countDown();
+            }
+          });
+    }
+
+    assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(ran.toString(), equalTo("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9]"));
+  }
+
+  @Test
+  public void fallsBehindAndThenDropsInsteadOfBlocking() throws Exception {
+    final NetworkEncoder encoder = new NetworkEncoder(4);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    encoder.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            started.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+    assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+    final Runnable nothing =
+        new Runnable() {
+          @Override
+          public void run() {}
+        };
+    assertThat(encoder.submit(nothing), is(true));
+    assertThat(encoder.isBehind(), is(false));
+    assertThat(encoder.submit(nothing), is(true));
+    assertThat(encoder.isBehind(), is(true));
+    assertThat(encoder.submit(nothing), is(true));
+    assertThat(encoder.submit(nothing), is(true));
+    assertThat(encoder.submit(nothing), is(false));
+
+    release.countDown();
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.network;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.sonar.core.SonarObject;
+import com.facebook.sonar.plugins.network.NetworkReporter.RequestInfo;
+import com.facebook.sonar.plugins.network.NetworkReporter.ResponseInfo;
+import com.facebook.sonar.plugins.network.NetworkReporter.Timings;
+import com.facebook.sonar.testing.SonarConnectionMock;
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class NetworkSonarPluginTest {
+  private final NetworkEncoder mEncoder = new NetworkEncoder(4);
+  private final SonarConnectionMock mConnection = new SonarConnectionMock();
+
+  @After
+  public void tearDown() {
+    NetworkSonarPlugin.setEncoder(null);
+  }
+
+  // The timeout fails the test if reporting ever waits for the encoder.
+  @Test(timeout = 10000)
+  public void leavesOutBodiesAndThenDropsEventsWhenTheEncoderFallsBehind() throws Exception {
+    NetworkSonarPlugin.setEncoder(mEncoder);
+    final NetworkSonarPlugin plugin = new NetworkSonarPlugin();
+    plugin.onConnect(mConnection);
+    final CountDownLatch release = block();
+
+    final RequestInfo[] requests = new RequestInfo[6];
+    for (int i = 0; i < requests.length; i++) {
+      requests[i] = request(i);
+      plugin.reportRequest(requests[i]);
+    }
+
+    release.countDown();
+    mEncoder.awaitIdle();
+
+    final List<Object> sent = mConnection.sent.get("newRequest");
+    assertThat(sent.size(), equalTo(4));
+    for (int i = 0; i < sent.size(); i++) {
+      final SonarObject event = (SonarObject) sent.get(i);
+      assertThat(event.getString("id"), equalTo(String.valueOf(i)));
+      assertThat(event.contains("data"), is(i < 2));
+      assertThat(event.getBoolean("dataTruncated"), is(i >= 2));
+      assertThat(event.getLong("dataLength"), equalTo(i < 2 ? 0L : 4L));
+    }
+    // Bodies are left out of copies, as the caller may still be reading what it reported.
+    for (RequestInfo request : requests) {
+      assertThat(request.body, notNullValue());
+      assertThat(request.bodyTruncated, is(false));
+      assertThat(request.bodyLength, equalTo(-1L));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void leavesOutResponseBodiesFromACopy() throws Exception {
+    NetworkSonarPlugin.setEncoder(mEncoder);
+    final NetworkSonarPlugin plugin = new NetworkSonarPlugin();
+    plugin.onConnect(mConnection);
+    final CountDownLatch release = block();
+    plugin.reportRequest(request(0));
+    plugin.reportRequest(request(1));
+
+    final ResponseInfo response = new ResponseInfo();
+    response.requestId = "0";
+    response.timeStamp = 2000;
+    response.statusCode = 200;
+    response.statusReason = "OK";
+    response.headers = Collections.emptyList();
+    response.body = "response".getBytes();
+    response.timings = new Timings();
+    response.timings.totalNanos = 5000000;
+    plugin.reportResponse(response);
+    release.countDown();
+    mEncoder.awaitIdle();
+
+    final SonarObject event = (SonarObject) mConnection.sent.get("newResponse").get(0);
+    assertThat(event.getInt("status"), equalTo(200));
+    assertThat(event.contains("data"), is(false));
+    assertThat(event.getBoolean("dataTruncated"), is(true));
+    assertThat(event.getLong("dataLength"), equalTo(8L));
+    assertThat(event.getObject("timings").getDouble("total"), equalTo(5.0));
+    assertThat(new String(response.body), equalTo("response"));
+    assertThat(response.bodyTruncated, is(false));
+  }
+
+  /** Keeps the encoder busy until the returned latch is counted down. */
+  private CountDownLatch block() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    mEncoder.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            started.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+    assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+    return release;
+  }
+
+  private static RequestInfo request(int id) {
+    final RequestInfo request = new RequestInfo();
+    request.requestId = String.valueOf(id);
+    request.timeStamp = 1000 + id;
+    request.method = "POST";
+    request.uri = "https://example.com/" + id;
+    request.headers = Collections.emptyList();
+    request.body = "body".getBytes();
+    return request;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.network;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.sonar.plugins.network.NetworkReporter.RequestInfo;
+import com.facebook.sonar.plugins.network.NetworkReporter.ResponseInfo;
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import java.io.IOException;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class SonarOkhttpInterceptorTest {
+  private RequestInfo mRequest;
+  private ResponseInfo mResponse;
+
+  private final NetworkSonarPlugin mPlugin =
+      new NetworkSonarPlugin() {
+        @Override
+        public void reportRequest(RequestInfo requestInfo) {
+          mRequest = requestInfo;
+        }
+
+        @Override
+        public void reportResponse(ResponseInfo responseInfo) {
+          mResponse = responseInfo;
+        }
+      };
+
+  @Test
+  public void reportsARequestBodyThatFailsToWriteWithoutAMessage() throws Exception {
+    final RequestBody body =
+        new RequestBody() {
+          @Override
+          public MediaType contentType() {
+            return MediaType.parse("text/plain");
+          }
+
+          @Override
+          public long contentLength() {
+            return 10;
+          }
+
+          @Override
+          public void writeTo(BufferedSink sink) throws IOException {
+            throw new IOException();
+          }
+        };
+
+    call(new Request.Builder().url("https://example.com/").post(body).build(), "text/plain", "ok")
+        .close();
+
+    assertThat(new String(mRequest.body, "UTF-8"), equalTo("null"));
+  }
+
+  @Test
+  public void leavesOutBodiesTheDefaultPolicyDenies() throws Exception {
+    final Response response =
+        call(new Request.Builder().url("https://example.com/a.png").build(), "image/png", "png!");
+    assertThat(response.body().string(), equalTo("png!"));
+
+    assertThat(mResponse.body, nullValue());
+    assertThat(mResponse.bodyTruncated, is(true));
+    assertThat(mResponse.bodyLength, equalTo(4L));
+  }
+
+  /** Makes request through the interceptor, answering it with body instead of the network. */
+  private Response call(Request request, final String contentType, final String body)
+      throws IOException {
+    final OkHttpClient client =
+        new OkHttpClient.Builder()
+            .addInterceptor(new SonarOkhttpInterceptor(mPlugin))
+            .addInterceptor(
+                new Interceptor() {
+                  @Override
+                  public Response intercept(Chain chain) {
+                    return new Response.Builder()
+                        .request(chain.request())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .message("OK")
+                        .header("content-type", contentType)
+                        .body(ResponseBody.create(MediaType.parse(contentType), body))
+                        .build();
+                  }
+                })
+            .build();
+    return client.newCall(request).execute();
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.network;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.sonar.plugins.network.NetworkReporter.RequestInfo;
+import com.facebook.sonar.plugins.network.NetworkReporter.ResponseInfo;
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import java.util.ArrayList;
+import java.util.List;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class TeeResponseBodyTest {
+
+  @Test
+  public void reportsOnceTheBodyIsReadToTheEnd() throws Exception {
+    final RecordingReporter reporter = new RecordingReporter();
+    final ResponseBody body = tee("hello world", 100, reporter);
+
+    final BufferedSource source = body.source();
+    assertThat(source.readUtf8(5), equalTo("hello"));
+    assertThat(reporter.mResponses.size(), equalTo(0));
+    assertThat(source.readUtf8(), equalTo(" world"));
+    assertThat(reporter.mResponses.size(), equalTo(1));
+    assertThat(new String(reporter.mResponses.get(0).body, "UTF-8"), equalTo("hello world"));
+    assertThat(reporter.mResponses.get(0).bodyTruncated, equalTo(false));
+
+    body.close();
+    assertThat(reporter.mResponses.size(), equalTo(1));
+  }
+
+  @Test
+  public void capturesUpToTheCapButHandsOverEverything() throws Exception {
+    final RecordingReporter reporter = new RecordingReporter();
+    final ResponseBody body = tee("hello world", 5, reporter);
+
+    assertThat(body.string(), equalTo("hello world"));
+    assertThat(new String(reporter.mResponses.get(0).body, "UTF-8"), equalTo("hello"));
+    assertThat(reporter.mResponses.get(0).bodyTruncated, equalTo(true));
+    assertThat(reporter.mResponses.get(0).bodyLength, equalTo(11L));
+  }
+
+  @Test
+  public void capturesNothingOfDeniedTypes() throws Exception {
+    final RecordingReporter reporter = new RecordingReporter();
+    final Buffer buffer = new Buffer().writeUtf8("hello world");
+    final ResponseBody body =
+        new TeeResponseBody(
+            ResponseBody.create(MediaType.parse("image/png"), buffer.size(), buffer),
+            BodyCapturePolicy.DEFAULT,
+            null,
+            new ResponseInfo(),
+            reporter);
+
+    assertThat(body.string(), equalTo("hello world"));
+    assertThat(reporter.mResponses.get(0).body, nullValue());
+    assertThat(reporter.mResponses.get(0).bodyTruncated, equalTo(true));
+    assertThat(reporter.mResponses.get(0).bodyLength, equalTo(11L));
+  }
+
+  @Test
+  public void reportsWhatWasReadWhenClosedEarly() throws Exception {
+    final RecordingReporter reporter = new RecordingReporter();
+    final ResponseBody body = tee("hello world", 100, reporter);
+
+    body.source().require(5);
+    body.close();
+    assertThat(reporter.mResponses.size(), equalTo(1));
+    assertThat(new String(reporter.mResponses.get(0).body, "UTF-8"), equalTo("hello world"));
+  }
+
+  @Test
+  public void reportsAnEmptyBodyWhenClosedUnread() throws Exception {
+    final RecordingReporter reporter = new RecordingReporter();
+    final ResponseBody body = tee("hello world", 100, reporter);
+
+    body.close();
+    assertThat(reporter.mResponses.size(), equalTo(1));
+    assertThat(reporter.mResponses.get(0).body.length, equalTo(0));
+    assertThat(reporter.mResponses.get(0).bodyTruncated, equalTo(true));
+  }
+
+  @Test
+  public void keepsContentTypeAndLength() {
+    final ResponseBody body = tee("hello world", 5, new RecordingReporter());
+
+    assertThat(body.contentLength(), equalTo(11L));
+    assertThat(body.contentType(), nullValue());
+  }
+
+  private static ResponseBody tee(String content, long maxBytes, NetworkReporter reporter) {
+    final Buffer buffer = new Buffer().writeUtf8(content);
+    final ResponseBody delegate = ResponseBody.create(null, buffer.size(), buffer);
+    return new TeeResponseBody(
+        delegate, BodyCapturePolicy.upTo(maxBytes), null, new ResponseInfo(), reporter);
+  }
+
+  private static class RecordingReporter implements NetworkReporter {
+    final List<ResponseInfo> mResponses = new ArrayList<>();
+
+    @Override
+    public void reportRequest(RequestInfo requestInfo) {}
+
+    @Override
+    public void reportResponse(ResponseInfo responseInfo) {
+      mResponses.add(responseInfo);
+    }
+  }
+}
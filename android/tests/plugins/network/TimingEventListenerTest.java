@@ -0,0 +1,99 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.plugins.network;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.sonar.plugins.network.NetworkReporter.Timings;
+import com.facebook.testing.robolectric.v3.WithTestDefaultsRunner;
+import java.io.IOException;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(WithTestDefaultsRunner.class)
+public class TimingEventListenerTest {
+  private final OkHttpClient mClient = new OkHttpClient();
+
+  @Test
+  public void timesThePhasesOfANewConnection() {
+    final TimingEventListener.Factory factory =
+        new TimingEventListener.Factory(new ConnectionPool());
+    final Call call = newCall();
+    final TimingEventListener listener = (TimingEventListener) factory.create(call);
+
+    listener.callStart(call);
+    listener.dnsStart(call, "example.com");
+    listener.dnsEnd(call, "example.com", null);
+    listener.connectStart(call, null, null);
+    listener.secureConnectStart(call);
+    listener.secureConnectEnd(call, null);
+    listener.connectEnd(call, null, null, null);
+    listener.connectionAcquired(call, null);
+    listener.requestHeadersStart(call);
+    listener.requestHeadersEnd(call, call.request());
+    listener.responseHeadersStart(call);
+    listener.responseHeadersEnd(call, null);
+    listener.responseBodyStart(call);
+    listener.responseBodyEnd(call, 0);
+
+    final Timings timings = listener.snapshot();
+    assertThat(timings.dnsNanos >= 0, is(true));
+    assertThat(timings.connectNanos >= timings.tlsNanos, is(true));
+    assertThat(timings.tlsNanos >= 0, is(true));
+    assertThat(timings.requestWriteNanos >= 0, is(true));
+    assertThat(timings.timeToFirstByteNanos >= 0, is(true));
+    assertThat(timings.bodyReadNanos >= 0, is(true));
+    assertThat(timings.totalNanos >= timings.connectNanos, is(true));
+    assertThat(timings.connectionReused, is(false));
+    assertThat(timings.poolConnectionCount, equalTo(0));
+    assertThat(timings.poolIdleConnectionCount, equalTo(0));
+  }
+
+  @Test
+  public void leavesOutPhasesOfAReusedConnection() {
+    final TimingEventListener.Factory factory = new TimingEventListener.Factory(null);
+    final Call call = newCall();
+    final TimingEventListener listener = (TimingEventListener) factory.create(call);
+
+    listener.connectionAcquired(call, null);
+
+    final Timings timings = listener.snapshot();
+    assertThat(timings.connectionReused, is(true));
+    assertThat(timings.dnsNanos, equalTo(-1L));
+    assertThat(timings.connectNanos, equalTo(-1L));
+    assertThat(timings.tlsNanos, equalTo(-1L));
+    assertThat(timings.poolConnectionCount, equalTo(-1));
+  }
+
+  @Test
+  public void forgetsCallsThatHaveEnded() {
+    final TimingEventListener.Factory factory = new TimingEventListener.Factory(null);
+    final Call ended = newCall();
+    final Call failed = newCall();
+    final Call running = newCall();
+    final TimingEventListener listener = (TimingEventListener) factory.create(running);
+    factory.create(ended).callEnd(ended);
+    factory.create(failed).callFailed(failed, new IOException());
+
+    assertThat(factory.get(ended), nullValue());
+    assertThat(factory.get(failed), nullValue());
+    assertThat(factory.get(running), sameInstance(listener));
+  }
+
+  private Call newCall() {
+    return mClient.newCall(new Request.Builder().url("https://example.com/").build());
+  }
+}
@@ -35,9 +35,12 @@
 {
   const auto lambda = [receiver](const folly::dynamic &message,
                                  std::unique_ptr<facebook::sonar::SonarResponder> responder) {
-    SonarCppBridgingResponder *const objCResponder =
-        [[SonarCppBridgingResponder alloc] initWithCppResponder:std::move(responder)];
-    receiver(facebook::cxxutils::convertFollyDynamicToId(message), objCResponder);
+    // Receivers run on long lived dispatch threads, drain what each call autoreleases.
+    @autoreleasepool {
+      SonarCppBridgingResponder *const objCResponder =
+          [[SonarCppBridgingResponder alloc] initWithCppResponder:std::move(responder)];
+      receiver(facebook::cxxutils::convertFollyDynamicToId(message), objCResponder);
+    }
   };
   conn_->receive([method UTF8String], lambda);
 }
@@ -30,13 +30,21 @@ public:
 
   std::string identifier() const override { return [[_objCPlugin identifier] UTF8String]; }
 
+  // Called on long lived dispatch threads, so each call drains what it autoreleases.
   void didConnect(std::shared_ptr<facebook::sonar::SonarConnection> conn) override
   {
-    SonarCppBridgingConnection *const bridgingConn = [[SonarCppBridgingConnection alloc] initWithCppConnection:conn];
-    [_objCPlugin didConnect:bridgingConn];
+    @autoreleasepool {
+      SonarCppBridgingConnection *const bridgingConn = [[SonarCppBridgingConnection alloc] initWithCppConnection:conn];
+      [_objCPlugin didConnect:bridgingConn];
+    }
   }
 
-  void didDisconnect() override { [_objCPlugin didDisconnect]; }
+  void didDisconnect() override
+  {
+    @autoreleasepool {
+      [_objCPlugin didDisconnect];
+    }
+  }
 
   ObjCPlugin getObjCPlugin() { return _objCPlugin; }
 
@@ -60,7 +60,7 @@ using WrapperPlugin = facebook::sonar::SonarCppWrapperPlugin;
     deviceName = [NSString stringWithFormat:@"%@ %@", [[UIDevice currentDevice] model], @"Simulator"];
 #endif
 
-    facebook::sonar::SonarClient::init({
+    facebook::sonar::SonarInitConfig config = {
       {
         "localhost",
         "iOS",
@@ -72,7 +72,15 @@ using WrapperPlugin = facebook::sonar::SonarCppWrapperPlugin;
       },
       sonarThread.getEventBase(),
       connectionThread.getEventBase()
-    });
+    };
+    // Plugins are called on the dispatch threads, which need an autorelease pool of their own.
+    // The bridge drains a nested pool after each call, this one catches anything else.
+    config.dispatchThreadWrapper = [](std::function<void()> &&body) {
+      @autoreleasepool {
+        body();
+      }
+    };
+    facebook::sonar::SonarClient::init(std::move(config));
     _cppClient = facebook::sonar::SonarClient::instance();
   }
   return self;
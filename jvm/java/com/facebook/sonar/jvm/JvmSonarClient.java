@@ -0,0 +1,469 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.jvm;
+
+import com.facebook.sonar.core.SonarArray;
+import com.facebook.sonar.core.SonarClient;
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarDiagnosticsClient;
+import com.facebook.sonar.core.SonarObject;
+import com.facebook.sonar.core.SonarPlugin;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link SonarClient} written in Java, for the JVM. It speaks the same protocol as the native
+ * client and runs the same plugins, without JNI or a native library, so plugins can run and be
+ * measured off device, for example in integration tests against a real desktop app.
+ *
+ * <p>Calls from the desktop are handled like the native client handles them: each plugin handles
+ * one call at a time, in order, on a shared pool of dispatch threads.
+ */
+public final class JvmSonarClient implements SonarDiagnosticsClient {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  // Control message from the desktop selecting how messages are packed. This client sends one
+  // JSON message at a time whatever it asks for, so it is dropped.
+  private static final String SET_ENCODING_METHOD = "setEncoding";
+
+  /** What the desktop is told about the client when it connects. */
+  public static final class DeviceData {
+    public final String os;
+    public final String device;
+    public final String deviceId;
+    public final String app;
+
+    public DeviceData(String os, String device, String deviceId, String app) {
+      this.os = os;
+      this.device = device;
+      this.deviceId = deviceId;
+      this.app = app;
+    }
+  }
+
+  private final SonarTransport mTransport;
+  private final byte[] mSetup;
+  private final PluginDispatcher mDispatcher;
+  private final SonarTransport.Listener mListener = new TransportListener();
+  // Guarded by mPlugins, which also guards mConnections. Plugins are never called with it held.
+  private final Map<String, SonarPlugin> mPlugins = new TreeMap<>();
+  private final Map<String, JvmSonarConnection> mConnections = new HashMap<>();
+  // Calls plugins haven't answered yet, by id, so that they can be cancelled.
+  private final Map<Long, JvmSonarResponder> mCalls = new ConcurrentHashMap<>();
+  private volatile boolean mConnected;
+
+  private final AtomicLong mMessagesReceived = new AtomicLong();
+  private final AtomicLong mBytesReceived = new AtomicLong();
+  private final AtomicLong mMessagesSent = new AtomicLong();
+  private final AtomicLong mBytesSent = new AtomicLong();
+  // Guarded by itself.
+  private final Map<String, Map<String, MethodStats>> mMethodStats = new TreeMap<>();
+
+  /**
+   * @param dispatchThreads Threads plugins handle calls on, so how many plugins can be busy at
+   *     once. With none, calls are handled on the transport's thread.
+   */
+  public JvmSonarClient(SonarTransport transport, DeviceData deviceData, int dispatchThreads) {
+    mTransport = transport;
+    mDispatcher = new PluginDispatcher(dispatchThreads);
+    // Only desktops that see cancellation send cancel messages.
+    mSetup =
+        new SonarObject.Builder()
+            .put("os", deviceData.os)
+            .put("device", deviceData.device)
+            .put("device_id", deviceData.deviceId)
+            .put("app", deviceData.app)
+            .put("cancellation", true)
+            .build()
+            .toJsonString()
+            .getBytes(UTF_8);
+  }
+
+  @Override
+  public void addPlugin(SonarPlugin plugin) {
+    synchronized (mPlugins) {
+      if (mPlugins.containsKey(plugin.getId())) {
+        reportError(new IllegalArgumentException("plugin " + plugin.getId() + " already added."));
+        return;
+      }
+      mPlugins.put(plugin.getId(), plugin);
+    }
+    refreshPlugins();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T extends SonarPlugin> T getPlugin(String id) {
+    synchronized (mPlugins) {
+      return (T) mPlugins.get(id);
+    }
+  }
+
+  @Override
+  public void removePlugin(SonarPlugin plugin) {
+    final boolean wasConnected;
+    synchronized (mPlugins) {
+      if (mPlugins.remove(plugin.getId()) == null) {
+        reportError(new IllegalArgumentException("plugin " + plugin.getId() + " not added."));
+        return;
+      }
+      wasConnected = mConnections.remove(plugin.getId()) != null;
+    }
+    refreshPlugins();
+    if (wasConnected) {
+      disconnect(plugin);
+    }
+  }
+
+  @Override
+  public void start() {
+    mTransport.start(mSetup, mListener);
+  }
+
+  @Override
+  public void stop() {
+    mTransport.stop();
+  }
+
+  @Override
+  public SonarObject getDiagnostics() {
+    final SonarObject.Builder plugins = new SonarObject.Builder();
+    synchronized (mMethodStats) {
+      for (Map.Entry<String, Map<String, MethodStats>> plugin : mMethodStats.entrySet()) {
+        final SonarObject.Builder methods = new SonarObject.Builder();
+        for (Map.Entry<String, MethodStats> method : plugin.getValue().entrySet()) {
+          methods.put(method.getKey(), method.getValue().toSonarObject());
+        }
+        plugins.put(plugin.getKey(), methods);
+      }
+    }
+    return new SonarObject.Builder()
+        .put(
+            "counters",
+            new SonarObject.Builder()
+                .put("messagesReceived", mMessagesReceived.get())
+                .put("bytesReceived", mBytesReceived.get())
+                .put("messagesSent", mMessagesSent.get())
+                .put("bytesSent", mBytesSent.get()))
+        .put("timers", new SonarObject.Builder())
+        .put("plugins", plugins)
+        .put("connection", mTransport.getDiagnostics())
+        .put(
+            "descriptions",
+            new SonarObject.Builder()
+                .put("messagesReceived", "Messages received from the desktop")
+                .put("bytesReceived", "Bytes received from the desktop")
+                .put("messagesSent", "Messages sent to the desktop")
+                .put("bytesSent", "Bytes sent to the desktop, as they were encoded")
+                .put("sent", "Messages the plugin sent with this method")
+                .put("sentBytes", "Bytes of those messages, as they were encoded")
+                .put("calls", "Calls the desktop made to this method")
+                .put("callMicros", "Time spent handling those calls, in microseconds"))
+        .build();
+  }
+
+  void respond(long id, String kind, Object response) {
+    mCalls.remove(id);
+    send(
+        SonarObject.Builder.streaming().put("id", id).put(kind, response).build(),
+        SonarConnection.Priority.INTERACTIVE);
+  }
+
+  void sendPluginMessage(
+      String plugin, String method, Object params, SonarConnection.Priority priority) {
+    final SonarObject message =
+        SonarObject.Builder.streaming()
+            .put("method", "execute")
+            .put(
+                "params",
+                SonarObject.Builder.streaming()
+                    .put("api", plugin)
+                    .put("method", method)
+                    .put("params", params))
+            .build();
+    final int bytes = send(message, priority);
+    methodStats(plugin, method).sent(bytes);
+  }
+
+  boolean isUnderPressure() {
+    return mTransport.isUnderPressure();
+  }
+
+  void reportError(Throwable throwable) {
+    if (!mConnected) {
+      return;
+    }
+    final StringWriter stacktrace = new StringWriter();
+    throwable.printStackTrace(new PrintWriter(stacktrace));
+    final String message = throwable.getMessage();
+    send(
+        new SonarObject.Builder()
+            .put(
+                "error",
+                new SonarObject.Builder()
+                    .put("message", message != null ? message : throwable.toString())
+                    .put("stacktrace", stacktrace.toString()))
+            .build(),
+        SonarConnection.Priority.INTERACTIVE);
+  }
+
+  private int send(SonarObject message, SonarConnection.Priority priority) {
+    final byte[] encoded = message.toJsonString().getBytes(UTF_8);
+    mMessagesSent.incrementAndGet();
+    mBytesSent.addAndGet(encoded.length);
+    mTransport.send(encoded, priority);
+    return encoded.length;
+  }
+
+  private void refreshPlugins() {
+    if (mConnected) {
+      send(
+          new SonarObject.Builder().put("method", "refreshPlugins").build(),
+          SonarConnection.Priority.INTERACTIVE);
+    }
+  }
+
+  private void disconnect(final SonarPlugin plugin) {
+    mDispatcher.dispatch(
+        plugin.getId(),
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              plugin.onDisconnect();
+            } catch (Exception e) {
+              reportError(e);
+            }
+          }
+        });
+  }
+
+  private void onMessage(byte[] encoded) {
+    mMessagesReceived.incrementAndGet();
+    mBytesReceived.addAndGet(encoded.length);
+    try {
+      handleMessage(new SonarObject(new String(encoded, UTF_8)));
+    } catch (Exception e) {
+      reportError(e);
+    }
+  }
+
+  private void handleMessage(SonarObject message) {
+    final String method = message.getString("method");
+    final SonarObject params = objectOrEmpty(message, "params");
+
+    JvmSonarResponder responder = null;
+    if (message.contains("id")) {
+      final long id = message.getLong("id");
+      responder = new JvmSonarResponder(this, id);
+      if ("execute".equals(method)) {
+        mCalls.put(id, responder);
+      }
+    }
+
+    if (SET_ENCODING_METHOD.equals(method)) {
+      return;
+    }
+
+    if ("cancel".equals(method)) {
+      final JvmSonarResponder call = mCalls.remove(params.getLong("id"));
+      if (call != null) {
+        call.cancel();
+      }
+      return;
+    }
+
+    if ("getPlugins".equals(method)) {
+      if (responder == null) {
+        return;
+      }
+      final SonarArray.Builder identifiers = new SonarArray.Builder();
+      synchronized (mPlugins) {
+        for (String identifier : mPlugins.keySet()) {
+          identifiers.put(identifier);
+        }
+      }
+      responder.success(new SonarObject.Builder().put("plugins", identifiers).build());
+      return;
+    }
+
+    if ("init".equals(method)) {
+      final String identifier = params.getString("plugin");
+      final SonarPlugin plugin;
+      final JvmSonarConnection connection;
+      synchronized (mPlugins) {
+        plugin = mPlugins.get(identifier);
+        if (plugin == null) {
+          throw new IllegalArgumentException(
+              "plugin " + identifier + " not found for method " + method);
+        }
+        connection = new JvmSonarConnection(this, identifier);
+        mConnections.put(identifier, connection);
+      }
+      mDispatcher.dispatch(
+          identifier,
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                plugin.onConnect(connection);
+              } catch (Exception e) {
+                reportError(e);
+              }
+            }
+          });
+      return;
+    }
+
+    if ("deinit".equals(method)) {
+      final String identifier = params.getString("plugin");
+      final SonarPlugin plugin;
+      final boolean wasConnected;
+      synchronized (mPlugins) {
+        plugin = mPlugins.get(identifier);
+        if (plugin == null) {
+          throw new IllegalArgumentException(
+              "plugin " + identifier + " not found for method " + method);
+        }
+        wasConnected = mConnections.remove(identifier) != null;
+      }
+      if (wasConnected) {
+        disconnect(plugin);
+      }
+      return;
+    }
+
+    if ("execute".equals(method)) {
+      final String identifier = params.getString("api");
+      final JvmSonarConnection connection;
+      synchronized (mPlugins) {
+        connection = mConnections.get(identifier);
+      }
+      if (connection == null) {
+        throw new IllegalArgumentException(
+            "connection " + identifier + " not found for method " + method);
+      }
+      final String receiverMethod = params.getString("method");
+      final SonarObject receiverParams = objectOrEmpty(params, "params");
+      final JvmSonarResponder call = responder;
+      mDispatcher.dispatch(
+          identifier,
+          new Runnable() {
+            @Override
+            public void run() {
+              // Calls cancelled while they were queued are dropped unseen.
+              if (call != null && call.isCancelled()) {
+                return;
+              }
+              final long start = System.nanoTime();
+              try {
+                connection.call(receiverMethod, receiverParams, call);
+              } catch (Exception e) {
+                reportError(e);
+              }
+              methodStats(identifier, receiverMethod)
+                  .call(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            }
+          });
+      return;
+    }
+
+    if (responder != null) {
+      responder.error(
+          new SonarObject.Builder().put("message", "Received unknown method: " + method).build());
+    }
+  }
+
+  private void onDisconnected() {
+    mConnected = false;
+    for (JvmSonarResponder call : mCalls.values()) {
+      call.cancel();
+    }
+    mCalls.clear();
+    final List<SonarPlugin> disconnected = new ArrayList<>();
+    synchronized (mPlugins) {
+      for (String identifier : mConnections.keySet()) {
+        disconnected.add(mPlugins.get(identifier));
+      }
+      mConnections.clear();
+    }
+    for (SonarPlugin plugin : disconnected) {
+      disconnect(plugin);
+    }
+  }
+
+  private MethodStats methodStats(String plugin, String method) {
+    synchronized (mMethodStats) {
+      Map<String, MethodStats> methods = mMethodStats.get(plugin);
+      if (methods == null) {
+        methods = new TreeMap<>();
+        mMethodStats.put(plugin, methods);
+      }
+      MethodStats stats = methods.get(method);
+      if (stats == null) {
+        stats = new MethodStats();
+        methods.put(method, stats);
+      }
+      return stats;
+    }
+  }
+
+  private static SonarObject objectOrEmpty(SonarObject object, String name) {
+    return object.contains(name) ? object.getObject(name) : new SonarObject.Builder().build();
+  }
+
+  private final class TransportListener implements SonarTransport.Listener {
+    @Override
+    public void onConnected() {
+      mConnected = true;
+    }
+
+    @Override
+    public void onDisconnected() {
+      JvmSonarClient.this.onDisconnected();
+    }
+
+    @Override
+    public void onMessage(byte[] message) {
+      JvmSonarClient.this.onMessage(message);
+    }
+  }
+
+  private static final class MethodStats {
+    private final AtomicLong mSent = new AtomicLong();
+    private final AtomicLong mSentBytes = new AtomicLong();
+    private final AtomicLong mCalls = new AtomicLong();
+    private final AtomicLong mCallMicros = new AtomicLong();
+
+    void sent(int bytes) {
+      mSent.incrementAndGet();
+      mSentBytes.addAndGet(bytes);
+    }
+
+    void call(long micros) {
+      mCalls.incrementAndGet();
+      mCallMicros.addAndGet(micros);
+    }
+
+    SonarObject.Builder toSonarObject() {
+      return new SonarObject.Builder()
+          .put("sent", mSent.get())
+          .put("sentBytes", mSentBytes.get())
+          .put("calls", mCalls.get())
+          .put("callMicros", mCallMicros.get());
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.jvm;
+
+import com.facebook.sonar.core.SonarArray;
+import com.facebook.sonar.core.SonarObject;
+import com.facebook.sonar.core.SonarPrioritizedConnection;
+import com.facebook.sonar.core.SonarReceiver;
+import com.facebook.sonar.core.SonarResponder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+final class JvmSonarConnection implements SonarPrioritizedConnection {
+  private final JvmSonarClient mClient;
+  private final String mPlugin;
+  private final Map<String, SonarReceiver> mReceivers = new ConcurrentHashMap<>();
+
+  JvmSonarConnection(JvmSonarClient client, String plugin) {
+    mClient = client;
+    mPlugin = plugin;
+  }
+
+  @Override
+  public void send(String method, SonarObject params) {
+    send(method, params, Priority.NORMAL);
+  }
+
+  @Override
+  public void send(String method, SonarArray params) {
+    send(method, params, Priority.NORMAL);
+  }
+
+  @Override
+  public void send(String method, SonarObject params, Priority priority) {
+    mClient.sendPluginMessage(mPlugin, method, params, priority);
+  }
+
+  @Override
+  public void send(String method, SonarArray params, Priority priority) {
+    mClient.sendPluginMessage(mPlugin, method, params, priority);
+  }
+
+  @Override
+  public boolean isUnderPressure() {
+    return mClient.isUnderPressure();
+  }
+
+  @Override
+  public void reportError(Throwable throwable) {
+    mClient.reportError(throwable);
+  }
+
+  @Override
+  public void receive(String method, SonarReceiver receiver) {
+    mReceivers.put(method, receiver);
+  }
+
+  void call(String method, SonarObject params, SonarResponder responder) throws Exception {
+    final SonarReceiver receiver = mReceivers.get(method);
+    if (receiver == null) {
+      throw new IllegalArgumentException("receiver " + method + " not found.");
+    }
+    receiver.onReceive(params, responder);
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.jvm;
+
+import com.facebook.sonar.core.SonarArray;
+import com.facebook.sonar.core.SonarObject;
+import com.facebook.sonar.core.SonarResponderAdapter;
+
+final class JvmSonarResponder extends SonarResponderAdapter {
+  private final JvmSonarClient mClient;
+  private final long mId;
+  private volatile boolean mCancelled;
+
+  JvmSonarResponder(JvmSonarClient client, long id) {
+    mClient = client;
+    mId = id;
+  }
+
+  @Override
+  public void success(SonarObject response) {
+    mClient.respond(mId, "success", response);
+  }
+
+  @Override
+  public void success(SonarArray response) {
+    mClient.respond(mId, "success", response);
+  }
+
+  @Override
+  public void success() {
+    success(new SonarObject.Builder().build());
+  }
+
+  @Override
+  public void error(SonarObject response) {
+    mClient.respond(mId, "error", response);
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return mCancelled;
+  }
+
+  void cancel() {
+    mCancelled = true;
+  }
+}
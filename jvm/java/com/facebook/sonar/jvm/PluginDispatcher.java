@@ -0,0 +1,93 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.jvm;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Runs tasks in serial queues, one per plugin, on a shared pool of threads, like the native
+ * client's SonarDispatcher. A plugin handles one call at a time, in the order they came, and a slow
+ * plugin only holds up itself.
+ */
+final class PluginDispatcher {
+  private final @Nullable ExecutorService mExecutor;
+  // Tasks waiting for each plugin, for plugins with a task running.
+  private final Map<String, ArrayDeque<Runnable>> mQueues = new HashMap<>();
+
+  /**
+   * With no threads, tasks run on the thread dispatching them, which keeps tests deterministic. The
+   * threads are daemons and live as long as the process.
+   */
+  PluginDispatcher(int threads) {
+    mExecutor =
+        threads > 0 ? Executors.newFixedThreadPool(threads, new DispatchThreadFactory()) : null;
+  }
+
+  void dispatch(String plugin, Runnable task) {
+    if (mExecutor == null) {
+      task.run();
+      return;
+    }
+    synchronized (mQueues) {
+      final ArrayDeque<Runnable> queue = mQueues.get(plugin);
+      if (queue != null) {
+        queue.add(task);
+        return;
+      }
+      mQueues.put(plugin, new ArrayDeque<Runnable>());
+    }
+    mExecutor.execute(new Drain(plugin, task));
+  }
+
+  private final class Drain implements Runnable {
+    private final String mPlugin;
+    private Runnable mTask;
+
+    Drain(String plugin, Runnable task) {
+      mPlugin = plugin;
+      mTask = task;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          mTask.run();
+        } catch (RuntimeException e) {
+          // Tasks report their own errors.
+        }
+        synchronized (mQueues) {
+          final Runnable next = mQueues.get(mPlugin).poll();
+          if (next == null) {
+            mQueues.remove(mPlugin);
+            return;
+          }
+          mTask = next;
+        }
+      }
+    }
+  }
+
+  private static final class DispatchThreadFactory implements ThreadFactory {
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, "SonarDispatch-" + mCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.jvm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The few RSocket 1.0 frames Sonar uses, each preceded by the 3 byte length TCP connections put
+ * before frames. Sonar only ever sends fire and forget requests both ways, so there are no
+ * streams to keep track of.
+ */
+final class RSocketFrames {
+  static final int TYPE_SETUP = 0x01;
+  static final int TYPE_KEEPALIVE = 0x03;
+  static final int TYPE_REQUEST_FNF = 0x05;
+  static final int TYPE_ERROR = 0x0B;
+
+  static final int FLAG_METADATA = 0x100;
+  static final int FLAG_RESPOND = 0x80;
+
+  static final int LENGTH_SIZE = 3;
+  static final int MAX_FRAME_LENGTH = 0xffffff;
+
+  private static final int HEADER_SIZE = 6;
+  private static final Charset US_ASCII = Charset.forName("US-ASCII");
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private RSocketFrames() {}
+
+  static ByteBuffer setup(
+      int keepaliveMillis, int maxLifetimeMillis, String mimeType, byte[] data) {
+    final byte[] mime = mimeType.getBytes(US_ASCII);
+    final ByteBuffer frame =
+        frame(0, TYPE_SETUP, 0, 2 + 2 + 4 + 4 + 2 * (1 + mime.length) + data.length);
+    frame.putShort((short) 1).putShort((short) 0);
+    frame.putInt(keepaliveMillis).putInt(maxLifetimeMillis);
+    // The same mime type for metadata and data.
+    frame.put((byte) mime.length).put(mime);
+    frame.put((byte) mime.length).put(mime);
+    frame.put(data);
+    frame.flip();
+    return frame;
+  }
+
+  static ByteBuffer keepalive(boolean respond, long position) {
+    final ByteBuffer frame = frame(0, TYPE_KEEPALIVE, respond ? FLAG_RESPOND : 0, 8);
+    frame.putLong(position);
+    frame.flip();
+    return frame;
+  }
+
+  static ByteBuffer fireAndForget(int streamId, byte[] data) {
+    final ByteBuffer frame = frame(streamId, TYPE_REQUEST_FNF, 0, data.length);
+    frame.put(data);
+    frame.flip();
+    return frame;
+  }
+
+  /** Length of the frame at the start of buffer, or -1 if not all of the length has arrived. */
+  static int frameLength(ByteBuffer buffer) {
+    if (buffer.remaining() < LENGTH_SIZE) {
+      return -1;
+    }
+    return readLength(buffer, buffer.position());
+  }
+
+  /** Type of the frame in buffer, which starts after the length. */
+  static int type(ByteBuffer frame) {
+    return (frame.getShort(frame.position() + 4) & 0xffff) >>> 10;
+  }
+
+  static int flags(ByteBuffer frame) {
+    return frame.getShort(frame.position() + 4) & 0x3ff;
+  }
+
+  /** The data of a request, without its metadata. */
+  static byte[] requestData(ByteBuffer frame) {
+    int at = frame.position() + HEADER_SIZE;
+    if ((flags(frame) & FLAG_METADATA) != 0) {
+      at += LENGTH_SIZE + readLength(frame, at);
+    }
+    final byte[] data = new byte[frame.limit() - at];
+    final ByteBuffer body = frame.duplicate();
+    body.position(at);
+    body.get(data);
+    return data;
+  }
+
+  static long keepalivePosition(ByteBuffer frame) {
+    return frame.getLong(frame.position() + HEADER_SIZE);
+  }
+
+  static String errorMessage(ByteBuffer frame) {
+    final int at = frame.position() + HEADER_SIZE;
+    final byte[] message = new byte[frame.limit() - at - 4];
+    final ByteBuffer body = frame.duplicate();
+    body.position(at + 4);
+    body.get(message);
+    return "0x" + Integer.toHexString(frame.getInt(at)) + ": " + new String(message, UTF_8);
+  }
+
+  private static int readLength(ByteBuffer buffer, int at) {
+    return (buffer.get(at) & 0xff) << 16 | (buffer.get(at + 1) & 0xff) << 8
+        | (buffer.get(at + 2) & 0xff);
+  }
+
+  private static ByteBuffer frame(int streamId, int type, int flags, int bodyLength) {
+    final int length = HEADER_SIZE + bodyLength;
+    if (length > MAX_FRAME_LENGTH) {
+      throw new IllegalArgumentException("frame of " + length + " bytes is too long.");
+    }
+    final ByteBuffer frame = ByteBuffer.allocate(LENGTH_SIZE + length);
+    frame.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+    frame.putInt(streamId);
+    frame.putShort((short) (type << 10 | flags));
+    return frame;
+  }
+}
@@ -0,0 +1,420 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.jvm;
+
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+/**
+ * Connects to the Sonar desktop app the way the native client does, with RSocket over TCP, and
+ * optionally TLS. Everything happens on one thread, which waits on a selector for the socket and
+ * for messages to send.
+ *
+ * <p>Unlike the native client this doesn't ask the desktop to sign a certificate for it. Pass an
+ * {@link SSLContext} holding a certificate the desktop already trusts to connect to its secure
+ * port, or null to connect without TLS.
+ */
+public final class RSocketTransport implements SonarTransport {
+  private static final String MIME_TYPE = "text/plain";
+  private static final int KEEPALIVE_MILLIS = 10000;
+  private static final int RECONNECT_MILLIS = 2000;
+  private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+  private static final int DEFAULT_MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+  private final String mHost;
+  private final int mPort;
+  private final @Nullable SSLContext mSslContext;
+  private final int mMaxQueuedBytes;
+
+  private volatile boolean mStopped;
+  private volatile boolean mConnected;
+  private @Nullable Thread mThread;
+  private @Nullable Selector mSelector;
+  private final AtomicBoolean mWakeupPending = new AtomicBoolean();
+
+  // Messages waiting to be sent, one queue per priority. Guarded by mQueues.
+  private final ArrayDeque<byte[]>[] mQueues;
+  private int mQueuedBytes;
+
+  private final AtomicLong mReconnects = new AtomicLong();
+  private final AtomicLong mFramesSent = new AtomicLong();
+  private final AtomicLong mFramesReceived = new AtomicLong();
+  private final AtomicLong mDropped = new AtomicLong();
+
+  public RSocketTransport(String host, int port, @Nullable SSLContext sslContext) {
+    this(host, port, sslContext, DEFAULT_MAX_QUEUED_BYTES);
+  }
+
+  /**
+   * @param maxQueuedBytes How much may wait to be sent before normal and bulk messages are dropped.
+   *     Responses to the desktop are never dropped.
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public RSocketTransport(
+      String host, int port, @Nullable SSLContext sslContext, int maxQueuedBytes) {
+    mHost = host;
+    mPort = port;
+    mSslContext = sslContext;
+    mMaxQueuedBytes = maxQueuedBytes;
+    mQueues = new ArrayDeque[SonarConnection.Priority.values().length];
+    for (int i = 0; i < mQueues.length; i++) {
+      mQueues[i] = new ArrayDeque<>();
+    }
+  }
+
+  @Override
+  public synchronized void start(final byte[] setup, final Listener listener) {
+    if (mThread != null) {
+      return;
+    }
+    try {
+      mSelector = Selector.open();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    mStopped = false;
+    mThread =
+        new Thread("SonarTransport") {
+          @Override
+          public void run() {
+            loop(setup, listener);
+          }
+        };
+    mThread.setDaemon(true);
+    mThread.start();
+  }
+
+  @Override
+  public void stop() {
+    final Thread thread;
+    synchronized (this) {
+      thread = mThread;
+      mThread = null;
+    }
+    if (thread == null) {
+      return;
+    }
+    mStopped = true;
+    mSelector.wakeup();
+    if (thread != Thread.currentThread()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public void send(byte[] message, SonarConnection.Priority priority) {
+    if (!mConnected) {
+      return;
+    }
+    synchronized (mQueues) {
+      if (priority != SonarConnection.Priority.INTERACTIVE
+          && mQueuedBytes + message.length > mMaxQueuedBytes) {
+        mDropped.incrementAndGet();
+        return;
+      }
+      mQueues[priority.ordinal()].add(message);
+      mQueuedBytes += message.length;
+    }
+    // Once woken the I/O thread sends everything queued, so one wakeup is enough for many sends.
+    if (mWakeupPending.compareAndSet(false, true)) {
+      mSelector.wakeup();
+    }
+  }
+
+  @Override
+  public boolean isUnderPressure() {
+    synchronized (mQueues) {
+      return mQueuedBytes > mMaxQueuedBytes / 2;
+    }
+  }
+
+  @Override
+  public SonarObject getDiagnostics() {
+    final int queuedBytes;
+    synchronized (mQueues) {
+      queuedBytes = mQueuedBytes;
+    }
+    return new SonarObject.Builder()
+        .put("connected", mConnected)
+        .put("secure", mSslContext != null)
+        .put("reconnects", mReconnects.get())
+        .put("framesSent", mFramesSent.get())
+        .put("framesReceived", mFramesReceived.get())
+        .put("queuedBytes", queuedBytes)
+        .put("droppedMessages", mDropped.get())
+        .build();
+  }
+
+  private void loop(byte[] setup, Listener listener) {
+    while (!mStopped) {
+      final Connection connection = new Connection(setup, listener);
+      try {
+        connection.run();
+      } catch (IOException e) {
+        // Reconnect below.
+      } finally {
+        connection.close();
+      }
+      if (mConnected) {
+        mConnected = false;
+        synchronized (mQueues) {
+          for (ArrayDeque<byte[]> queue : mQueues) {
+            queue.clear();
+          }
+          mQueuedBytes = 0;
+        }
+        listener.onDisconnected();
+      }
+      if (!mStopped) {
+        mReconnects.incrementAndGet();
+        try {
+          // Woken early by stop().
+          mSelector.select(RECONNECT_MILLIS);
+          mSelector.selectedKeys().clear();
+        } catch (IOException e) {
+          break;
+        }
+      }
+    }
+    try {
+      mSelector.close();
+    } catch (IOException e) {
+      // Nothing left to do with it.
+    }
+  }
+
+  @Nullable
+  private byte[] pollMessage() {
+    synchronized (mQueues) {
+      for (ArrayDeque<byte[]> queue : mQueues) {
+        final byte[] message = queue.poll();
+        if (message != null) {
+          mQueuedBytes -= message.length;
+          return message;
+        }
+      }
+      return null;
+    }
+  }
+
+  /** One connection, from connecting until it is lost. Only used on the I/O thread. */
+  private final class Connection {
+    private final byte[] mSetup;
+    private final Listener mListener;
+    private SocketChannel mChannel;
+    private SelectionKey mKey;
+    private @Nullable TlsChannel mTls;
+    private boolean mReady;
+    private ByteBuffer mIn = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    // The frame being written, if any.
+    private @Nullable ByteBuffer mOut;
+    // Frames of our own, written before any messages.
+    private final ArrayDeque<ByteBuffer> mControl = new ArrayDeque<>();
+    private int mNextStreamId = 1;
+    private long mNextKeepalive;
+
+    Connection(byte[] setup, Listener listener) {
+      mSetup = setup;
+      mListener = listener;
+    }
+
+    void run() throws IOException {
+      mChannel = SocketChannel.open();
+      mChannel.configureBlocking(false);
+      mChannel.socket().setTcpNoDelay(true);
+      mChannel.connect(new InetSocketAddress(mHost, mPort));
+      mKey = mChannel.register(mSelector, SelectionKey.OP_CONNECT);
+      final long connectDeadline =
+          System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+
+      while (!mStopped) {
+        final long now = System.nanoTime();
+        if (!mReady && now - connectDeadline >= 0) {
+          throw new IOException("Timed out connecting to " + mHost + ":" + mPort);
+        }
+        if (mReady && now - mNextKeepalive >= 0) {
+          mControl.add(RSocketFrames.keepalive(true, 0));
+          mNextKeepalive = now + TimeUnit.MILLISECONDS.toNanos(KEEPALIVE_MILLIS);
+        }
+        mWakeupPending.set(false);
+        if (mReady) {
+          write();
+        }
+        final long timeout =
+            TimeUnit.NANOSECONDS.toMillis((mReady ? mNextKeepalive : connectDeadline) - now) + 1;
+        mSelector.select(timeout);
+        mSelector.selectedKeys().clear();
+        if (!mKey.isValid()) {
+          return;
+        }
+        if (mKey.isConnectable() && mChannel.finishConnect()) {
+          onTcpConnected();
+        }
+        if (!mReady && mTls != null && mChannel.isConnected() && mTls.handshake()) {
+          onReady();
+        }
+        if (mReady && mKey.isReadable()) {
+          read();
+        }
+      }
+    }
+
+    void close() {
+      if (mTls != null) {
+        mTls.close();
+      }
+      if (mKey != null) {
+        mKey.cancel();
+      }
+      try {
+        if (mChannel != null) {
+          mChannel.close();
+        }
+      } catch (IOException e) {
+        // Nothing left to do with it.
+      }
+    }
+
+    private void onTcpConnected() throws IOException {
+      mKey.interestOps(SelectionKey.OP_READ);
+      if (mSslContext == null) {
+        onReady();
+        return;
+      }
+      final SSLEngine engine = mSslContext.createSSLEngine(mHost, mPort);
+      engine.setUseClientMode(true);
+      mTls = new TlsChannel(mChannel, engine);
+    }
+
+    private void onReady() {
+      mReady = true;
+      mControl.add(
+          RSocketFrames.setup(KEEPALIVE_MILLIS, Integer.MAX_VALUE, MIME_TYPE, mSetup));
+      mNextKeepalive = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(KEEPALIVE_MILLIS);
+      mConnected = true;
+      mListener.onConnected();
+    }
+
+    private void write() throws IOException {
+      while (true) {
+        if (mOut == null || !mOut.hasRemaining()) {
+          mOut = nextFrame();
+        }
+        if (mOut == null) {
+          // Encrypted bytes may still be waiting for the socket.
+          final boolean flushed = mTls == null || mTls.flush();
+          setWriteInterest(!flushed);
+          return;
+        }
+        final boolean written;
+        if (mTls != null) {
+          written = mTls.write(mOut);
+        } else {
+          mChannel.write(mOut);
+          written = !mOut.hasRemaining();
+        }
+        if (!written) {
+          setWriteInterest(true);
+          return;
+        }
+        mFramesSent.incrementAndGet();
+      }
+    }
+
+    @Nullable
+    private ByteBuffer nextFrame() {
+      final ByteBuffer control = mControl.poll();
+      if (control != null) {
+        return control;
+      }
+      final byte[] message = pollMessage();
+      if (message == null) {
+        return null;
+      }
+      final ByteBuffer frame = RSocketFrames.fireAndForget(mNextStreamId, message);
+      // Clients use odd stream ids.
+      mNextStreamId = (mNextStreamId + 2) & 0x7fffffff;
+      return frame;
+    }
+
+    private void setWriteInterest(boolean interested) {
+      mKey.interestOps(
+          interested ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void read() throws IOException {
+      while (true) {
+        if (!mIn.hasRemaining()) {
+          final ByteBuffer larger = ByteBuffer.allocate(mIn.capacity() * 2);
+          mIn.flip();
+          larger.put(mIn);
+          mIn = larger;
+        }
+        final int read = mTls != null ? mTls.read(mIn) : mChannel.read(mIn);
+        if (read < 0) {
+          throw new EOFException("Connection closed by the desktop");
+        }
+        if (read == 0) {
+          return;
+        }
+        mIn.flip();
+        while (true) {
+          final int length = RSocketFrames.frameLength(mIn);
+          if (length < 0 || mIn.remaining() < RSocketFrames.LENGTH_SIZE + length) {
+            break;
+          }
+          final ByteBuffer frame = mIn.duplicate();
+          frame.position(mIn.position() + RSocketFrames.LENGTH_SIZE);
+          frame.limit(frame.position() + length);
+          mIn.position(frame.limit());
+          onFrame(frame);
+        }
+        mIn.compact();
+      }
+    }
+
+    private void onFrame(ByteBuffer frame) throws IOException {
+      mFramesReceived.incrementAndGet();
+      switch (RSocketFrames.type(frame)) {
+        case RSocketFrames.TYPE_REQUEST_FNF:
+          mListener.onMessage(RSocketFrames.requestData(frame));
+          break;
+        case RSocketFrames.TYPE_KEEPALIVE:
+          if ((RSocketFrames.flags(frame) & RSocketFrames.FLAG_RESPOND) != 0) {
+            mControl.add(RSocketFrames.keepalive(false, RSocketFrames.keepalivePosition(frame)));
+          }
+          break;
+        case RSocketFrames.TYPE_ERROR:
+          throw new IOException(
+              "Desktop closed the connection with error " + RSocketFrames.errorMessage(frame));
+        default:
+          // Nothing else is sent to clients.
+          break;
+      }
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.jvm;
+
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+
+/**
+ * Carries encoded messages between a {@link JvmSonarClient} and the Sonar desktop app. The client
+ * takes care of what is in the messages, a transport only of getting them across and of staying
+ * connected.
+ */
+public interface SonarTransport {
+
+  /** Told about the connection and what arrives on it. Called on the transport's own thread. */
+  interface Listener {
+    void onConnected();
+
+    void onDisconnected();
+
+    /** A message from the desktop, as JSON text. */
+    void onMessage(byte[] message);
+  }
+
+  /**
+   * Connect to the desktop, and reconnect whenever the connection is lost until {@link #stop()}.
+   *
+   * @param setup Encoded description of the client and what it supports, sent first on every
+   *     connection.
+   */
+  void start(byte[] setup, Listener listener);
+
+  /** Close the connection and stop reconnecting. */
+  void stop();
+
+  /**
+   * Queue a message to be sent. Messages go out in order within a priority, and higher priorities
+   * go first. Messages sent while there is no connection are dropped.
+   */
+  void send(byte[] message, SonarConnection.Priority priority);
+
+  /** Whether messages are being queued faster than they can be sent. */
+  boolean isUnderPressure();
+
+  /** State of the connection, for {@link JvmSonarClient#getDiagnostics()}. */
+  SonarObject getDiagnostics();
+}
@@ -0,0 +1,185 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.jvm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * TLS over a non-blocking socket channel. Nothing here blocks: calls do what the socket allows
+ * and report whether there is more to do, and the caller comes back when the selector says so.
+ *
+ * <p>All buffers are kept ready to be filled between calls.
+ */
+final class TlsChannel {
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private final SocketChannel mChannel;
+  private final SSLEngine mEngine;
+  // Encrypted bytes read but not yet decrypted.
+  private ByteBuffer mNetIn;
+  // Encrypted bytes not yet written.
+  private final ByteBuffer mNetOut;
+  // Decrypted bytes not yet handed out.
+  private ByteBuffer mAppIn;
+
+  TlsChannel(SocketChannel channel, SSLEngine engine) throws SSLException {
+    mChannel = channel;
+    mEngine = engine;
+    mNetIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+    mNetOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+    mAppIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    engine.beginHandshake();
+  }
+
+  /** Moves the handshake along. Returns whether it has finished. */
+  boolean handshake() throws IOException {
+    while (true) {
+      switch (mEngine.getHandshakeStatus()) {
+        case NEED_TASK:
+          Runnable task;
+          while ((task = mEngine.getDelegatedTask()) != null) {
+            task.run();
+          }
+          break;
+        case NEED_WRAP:
+          if (!flush()) {
+            return false;
+          }
+          check(mEngine.wrap(EMPTY, mNetOut));
+          break;
+        case NEED_UNWRAP:
+          if (!flush()) {
+            return false;
+          }
+          if (!unwrap()) {
+            final int read = fill();
+            if (read < 0) {
+              throw new EOFException("Connection closed during TLS handshake");
+            } else if (read == 0) {
+              return false;
+            }
+          }
+          break;
+        default:
+          return flush();
+      }
+    }
+  }
+
+  /** Reads decrypted bytes into dst. Returns how many, or -1 once the peer has closed. */
+  int read(ByteBuffer dst) throws IOException {
+    if (mAppIn.position() == 0) {
+      final int read = fill();
+      // Records may also be for the engine itself, which may want to answer them.
+      while (unwrap() || (engineHasWork() && handshake())) {}
+      if (mAppIn.position() == 0) {
+        return read < 0 ? -1 : 0;
+      }
+    }
+    mAppIn.flip();
+    final int count = Math.min(mAppIn.remaining(), dst.remaining());
+    final ByteBuffer slice = mAppIn.duplicate();
+    slice.limit(slice.position() + count);
+    dst.put(slice);
+    mAppIn.position(mAppIn.position() + count);
+    mAppIn.compact();
+    return count;
+  }
+
+  /**
+   * Encrypts as much of src as can be sent right now. Returns whether everything encrypted so far
+   * has been written, which when it hasn't means waiting until the socket is writable.
+   */
+  boolean write(ByteBuffer src) throws IOException {
+    while (src.hasRemaining()) {
+      if (!flush()) {
+        return false;
+      }
+      final SSLEngineResult result = mEngine.wrap(src, mNetOut);
+      check(result);
+      if (result.bytesConsumed() == 0 && !handshake()) {
+        return false;
+      }
+    }
+    return flush();
+  }
+
+  /** Writes encrypted bytes left over from earlier calls. Returns whether none remain. */
+  boolean flush() throws IOException {
+    mNetOut.flip();
+    mChannel.write(mNetOut);
+    final boolean flushed = !mNetOut.hasRemaining();
+    mNetOut.compact();
+    return flushed;
+  }
+
+  void close() {
+    mEngine.closeOutbound();
+    try {
+      mEngine.wrap(EMPTY, mNetOut);
+      flush();
+    } catch (IOException e) {
+      // Closing anyway.
+    }
+  }
+
+  private int fill() throws IOException {
+    if (!mNetIn.hasRemaining()) {
+      mNetIn = enlarge(mNetIn, mEngine.getSession().getPacketBufferSize());
+    }
+    return mChannel.read(mNetIn);
+  }
+
+  /** Decrypts one record if a whole one has arrived. Returns whether it did. */
+  private boolean unwrap() throws IOException {
+    mNetIn.flip();
+    try {
+      while (true) {
+        final SSLEngineResult result = mEngine.unwrap(mNetIn, mAppIn);
+        switch (result.getStatus()) {
+          case BUFFER_OVERFLOW:
+            mAppIn = enlarge(mAppIn, mEngine.getSession().getApplicationBufferSize());
+            break;
+          case CLOSED:
+            throw new EOFException("TLS connection closed");
+          case BUFFER_UNDERFLOW:
+            return false;
+          default:
+            return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        }
+      }
+    } finally {
+      mNetIn.compact();
+    }
+  }
+
+  private boolean engineHasWork() {
+    final SSLEngineResult.HandshakeStatus status = mEngine.getHandshakeStatus();
+    return status == SSLEngineResult.HandshakeStatus.NEED_TASK
+        || status == SSLEngineResult.HandshakeStatus.NEED_WRAP;
+  }
+
+  private static void check(SSLEngineResult result) throws IOException {
+    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+      throw new EOFException("TLS connection closed");
+    }
+  }
+
+  private static ByteBuffer enlarge(ByteBuffer buffer, int by) {
+    final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() + by);
+    buffer.flip();
+    larger.put(buffer);
+    return larger;
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.jvm;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.sonar.core.SonarConnection;
+import com.facebook.sonar.core.SonarObject;
+import com.facebook.sonar.core.SonarPlugin;
+import com.facebook.sonar.core.SonarReceiver;
+import com.facebook.sonar.core.SonarResponder;
+import com.facebook.sonar.core.SonarResponderAdapter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JvmSonarClientTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private FakeTransport mTransport;
+  private JvmSonarClient mClient;
+  private EchoPlugin mPlugin;
+
+  @Before
+  public void setup() {
+    mTransport = new FakeTransport();
+    mClient =
+        new JvmSonarClient(
+            mTransport, new JvmSonarClient.DeviceData("JVM", "test", "id", "app"), 0);
+    mPlugin = new EchoPlugin();
+    mClient.addPlugin(mPlugin);
+    mClient.start();
+    mTransport.mListener.onConnected();
+  }
+
+  @Test
+  public void sendsSetup() {
+    final SonarObject setup = new SonarObject(new String(mTransport.mSetup, UTF_8));
+    assertThat(setup.getString("os"), equalTo("JVM"));
+    assertThat(setup.getString("device_id"), equalTo("id"));
+    assertThat(setup.getBoolean("cancellation"), is(true));
+  }
+
+  @Test
+  public void listsPlugins() {
+    receive("{\"id\":1,\"method\":\"getPlugins\"}");
+    assertThat(
+        mTransport.lastJson().getObject("success").getArray("plugins").getString(0),
+        equalTo("Echo"));
+  }
+
+  @Test
+  public void ignoresGetPluginsWithoutAnId() {
+    final int sent = mTransport.mSent.size();
+    receive("{\"method\":\"getPlugins\"}");
+    assertThat(mTransport.mSent.size(), equalTo(sent));
+  }
+
+  @Test
+  public void executesOnConnectedPlugins() {
+    receive("{\"method\":\"init\",\"params\":{\"plugin\":\"Echo\"}}");
+    assertThat(mPlugin.mConnection != null, is(true));
+
+    receive(
+        "{\"id\":2,\"method\":\"execute\","
+            + "\"params\":{\"api\":\"Echo\",\"method\":\"echo\",\"params\":{\"a\":1}}}");
+    final SonarObject response = mTransport.lastJson();
+    assertThat(response.getLong("id"), equalTo(2L));
+    assertThat(response.getObject("success").getInt("a"), equalTo(1));
+
+    receive("{\"method\":\"deinit\",\"params\":{\"plugin\":\"Echo\"}}");
+    assertThat(mPlugin.mConnection == null, is(true));
+  }
+
+  @Test
+  public void sendsPluginMessages() {
+    receive("{\"method\":\"init\",\"params\":{\"plugin\":\"Echo\"}}");
+    mPlugin.mConnection.send("event", new SonarObject.Builder().put("b", 2).build());
+
+    final SonarObject params = mTransport.lastJson().getObject("params");
+    assertThat(params.getString("api"), equalTo("Echo"));
+    assertThat(params.getString("method"), equalTo("event"));
+    assertThat(params.getObject("params").getInt("b"), equalTo(2));
+    final SonarObject plugins = mClient.getDiagnostics().getObject("plugins");
+    assertThat(plugins.getObject("Echo").getObject("event").getLong("sent"), equalTo(1L));
+  }
+
+  @Test
+  public void answersUnknownMethodsWithAnError() {
+    receive("{\"id\":3,\"method\":\"unknown\"}");
+    assertThat(
+        mTransport.lastJson().getObject("error").getString("message"),
+        equalTo("Received unknown method: unknown"));
+  }
+
+  @Test
+  public void keepsSendingJsonWhenAskedForCbor() {
+    receive("{\"method\":\"setEncoding\",\"params\":{\"encoding\":\"cbor\"}}");
+    receive("{\"id\":4,\"method\":\"getPlugins\"}");
+    assertThat(mTransport.lastJson().getLong("id"), equalTo(4L));
+  }
+
+  @Test
+  public void cancelsCallsWhenDisconnected() {
+    receive("{\"method\":\"init\",\"params\":{\"plugin\":\"Echo\"}}");
+    receive(
+        "{\"id\":5,\"method\":\"execute\","
+            + "\"params\":{\"api\":\"Echo\",\"method\":\"hold\",\"params\":{}}}");
+    assertThat(SonarResponderAdapter.isCancelled(mPlugin.mHeld), is(false));
+
+    mTransport.mListener.onDisconnected();
+    assertThat(SonarResponderAdapter.isCancelled(mPlugin.mHeld), is(true));
+    assertThat(mPlugin.mConnection == null, is(true));
+  }
+
+  private void receive(String json) {
+    receive(json.getBytes(UTF_8));
+  }
+
+  private void receive(byte[] message) {
+    mTransport.mListener.onMessage(message);
+  }
+
+  private static class EchoPlugin implements SonarPlugin {
+    SonarConnection mConnection;
+    SonarResponder mHeld;
+
+    @Override
+    public String getId() {
+      return "Echo";
+    }
+
+    @Override
+    public void onConnect(SonarConnection connection) {
+      mConnection = connection;
+      connection.receive(
+          "echo",
+          new SonarReceiver() {
+            @Override
+            public void onReceive(SonarObject params, SonarResponder responder) {
+              responder.success(params);
+            }
+          });
+      connection.receive(
+          "hold",
+          new SonarReceiver() {
+            @Override
+            public void onReceive(SonarObject params, SonarResponder responder) {
+              mHeld = responder;
+            }
+          });
+    }
+
+    @Override
+    public void onDisconnect() {
+      mConnection = null;
+    }
+  }
+
+  private static class FakeTransport implements SonarTransport {
+    byte[] mSetup;
+    Listener mListener;
+    final List<byte[]> mSent = new ArrayList<>();
+
+    SonarObject lastJson() {
+      return new SonarObject(new String(mSent.get(mSent.size() - 1), UTF_8));
+    }
+
+    @Override
+    public void start(byte[] setup, Listener listener) {
+      mSetup = setup;
+      mListener = listener;
+    }
+
+    @Override
+    public void stop() {}
+
+    @Override
+    public void send(byte[] message, SonarConnection.Priority priority) {
+      mSent.add(message);
+    }
+
+    @Override
+    public boolean isUnderPressure() {
+      return false;
+    }
+
+    @Override
+    public SonarObject getDiagnostics() {
+      return new SonarObject.Builder().build();
+    }
+  }
+}
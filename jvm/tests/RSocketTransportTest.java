@@ -0,0 +1,109 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+package com.facebook.sonar.jvm;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.facebook.sonar.core.SonarConnection;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RSocketTransportTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private ServerSocket mServer;
+  private RSocketTransport mTransport;
+  private final BlockingQueue<String> mEvents = new LinkedBlockingQueue<>();
+
+  @Before
+  public void setup() throws IOException {
+    mServer = new ServerSocket(0);
+    mTransport = new RSocketTransport("localhost", mServer.getLocalPort(), null);
+    mTransport.start(
+        "{\"os\":\"JVM\"}".getBytes(UTF_8),
+        new SonarTransport.Listener() {
+          @Override
+          public void onConnected() {
+            mEvents.add("connected");
+          }
+
+          @Override
+          public void onDisconnected() {
+            mEvents.add("disconnected");
+          }
+
+          @Override
+          public void onMessage(byte[] message) {
+            mEvents.add(new String(message, UTF_8));
+          }
+        });
+  }
+
+  @After
+  public void teardown() throws IOException {
+    mTransport.stop();
+    mServer.close();
+  }
+
+  @Test
+  public void exchangesMessages() throws Exception {
+    final Socket socket = mServer.accept();
+    final DataInputStream in = new DataInputStream(socket.getInputStream());
+    final OutputStream out = socket.getOutputStream();
+
+    final ByteBuffer setup = readFrame(in);
+    assertThat(RSocketFrames.type(setup), equalTo(RSocketFrames.TYPE_SETUP));
+    assertThat(nextEvent(), equalTo("connected"));
+
+    write(out, RSocketFrames.fireAndForget(1, "{\"method\":\"getPlugins\"}".getBytes(UTF_8)));
+    assertThat(nextEvent(), equalTo("{\"method\":\"getPlugins\"}"));
+
+    mTransport.send("{\"id\":1}".getBytes(UTF_8), SonarConnection.Priority.INTERACTIVE);
+    final ByteBuffer response = readFrame(in);
+    assertThat(RSocketFrames.type(response), equalTo(RSocketFrames.TYPE_REQUEST_FNF));
+    assertThat(new String(RSocketFrames.requestData(response), UTF_8), equalTo("{\"id\":1}"));
+
+    write(out, RSocketFrames.keepalive(true, 7));
+    final ByteBuffer keepalive = readFrame(in);
+    assertThat(RSocketFrames.type(keepalive), equalTo(RSocketFrames.TYPE_KEEPALIVE));
+    assertThat(RSocketFrames.flags(keepalive), equalTo(0));
+    assertThat(RSocketFrames.keepalivePosition(keepalive), equalTo(7L));
+
+    socket.close();
+    assertThat(nextEvent(), equalTo("disconnected"));
+  }
+
+  private String nextEvent() throws InterruptedException {
+    return mEvents.poll(5, TimeUnit.SECONDS);
+  }
+
+  private static ByteBuffer readFrame(DataInputStream in) throws IOException {
+    final byte[] length = new byte[RSocketFrames.LENGTH_SIZE];
+    in.readFully(length);
+    final byte[] frame = new byte[RSocketFrames.frameLength(ByteBuffer.wrap(length))];
+    in.readFully(frame);
+    return ByteBuffer.wrap(frame);
+  }
+
+  private static void write(OutputStream out, ByteBuffer frame) throws IOException {
+    out.write(frame.array(), frame.position(), frame.remaining());
+    out.flush();
+  }
+}
@@ -22,6 +22,8 @@ export type ClientQuery = {|
   os: string,
   device: string,
   device_id: ?string,
+  batching?: boolean,
+  cancellation?: boolean,
 |};
 
 type RequestMetadata = {method: string, id: number, params: ?Object};
@@ -45,6 +47,7 @@ export default class Client extends EventEmitter {
 
     this.broadcastCallbacks = new Map();
     this.requestCallbacks = new Map();
+    this.latestCalls = new Map();
 
     const client = this;
     this.responder = {
@@ -78,6 +81,7 @@ export default class Client extends EventEmitter {
   responder: PartialResponder;
 
   broadcastCallbacks: Map<?string, Map<string, Set<Function>>>;
+  latestCalls: Map<string, number>;
 
   requestCallbacks: Map<
     number,
@@ -101,6 +105,10 @@ export default class Client extends EventEmitter {
   }
 
   async init() {
+    if (this.query.batching) {
+      // let the device send several messages in one frame, see onMessage
+      this.rawSend('setEncoding', {batching: true});
+    }
     await this.getPlugins();
   }
 
@@ -130,6 +138,15 @@ export default class Client extends EventEmitter {
       return;
     }
 
+    // batched frames hold an array of messages, in the order they were sent
+    if (Array.isArray(rawData)) {
+      rawData.forEach(message => this.handleMessage(message));
+    } else {
+      this.handleMessage(rawData);
+    }
+  }
+
+  handleMessage(rawData: Object) {
     const data: {|
       id?: number,
       method?: string,
@@ -281,6 +298,32 @@ export default class Client extends EventEmitter {
     return this.rawCall('execute', {api, method, params});
   }
 
+  // Like call, but supersedes the previous call to the same method if it
+  // hasn't been answered yet. Its promise is rejected with an error that has
+  // cancelled set, and the device is told to stop working on it.
+  callLatest(api: string, method: string, params?: Object): Promise<Object> {
+    const key = `${api}#${method}`;
+    const previous = this.latestCalls.get(key);
+    if (previous != null) {
+      this.cancel(previous);
+    }
+    // rawCall takes the next id synchronously.
+    this.latestCalls.set(key, this.messageIdCounter);
+    return this.rawCall('execute', {api, method, params});
+  }
+
+  cancel(id: number) {
+    const callbacks = this.requestCallbacks.get(id);
+    if (!callbacks) {
+      return;
+    }
+    this.requestCallbacks.delete(id);
+    if (this.query.cancellation) {
+      this.rawSend('cancel', {id});
+    }
+    callbacks.reject({message: 'Superseded by a newer call', cancelled: true});
+  }
+
   send(api: string, method: string, params?: Object): void {
     return this.rawSend('execute', {api, method, params});
   }
@@ -19,6 +19,7 @@ const invariant = require('invariant');
 export type PluginClient = {|
   send: (method: string, params?: Object) => void,
   call: (method: string, params?: Object) => Promise<any>,
+  callLatest: (method: string, params?: Object) => Promise<any>,
   subscribe: (method: string, callback: (params: any) => void) => void,
 |};
 
@@ -110,6 +111,8 @@ export class SonarPlugin<S = *, A = *, P = *> extends SonarBasePlugin<S, A, P> {
     this.realClient = props.target;
     this.client = {
       call: (method, params) => this.realClient.call(id, method, params),
+      callLatest: (method, params) =>
+        this.realClient.callLatest(id, method, params),
       send: (method, params) => this.realClient.send(id, method, params),
       subscribe: (method, callback) => {
         this.subscriptions.push({
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2018-present Facebook.
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ * @format
+ */
+
+import {
+  ManagedTable,
+  Panel,
+  FlexColumn,
+  Toolbar,
+  Button,
+  DataInspector,
+} from 'sonar';
+import {SonarPlugin} from 'sonar';
+
+const REFRESH_INTERVAL_MS = 2000;
+
+type Histogram = {|
+  count: number,
+  totalMicros: number,
+  maxMicros: number,
+  p50Micros: number,
+  p90Micros: number,
+  p99Micros: number,
+|};
+
+type MethodStats = {|
+  sent: number,
+  sentBytes: number,
+  calls: number,
+  callMicros: number,
+|};
+
+type Diagnostics = {|
+  counters: {[name: string]: number},
+  timers: {[name: string]: Histogram},
+  plugins: {[plugin: string]: {[method: string]: MethodStats}},
+  connection: {[name: string]: any},
+  descriptions: {[name: string]: string},
+|};
+
+type DiagnosticsState = {|
+  diagnostics: ?Diagnostics,
+|};
+
+const TIMER_COLUMNS = {
+  name: {value: 'Timer'},
+  count: {value: 'Count'},
+  p50: {value: 'p50 (µs)'},
+  p90: {value: 'p90 (µs)'},
+  p99: {value: 'p99 (µs)'},
+  max: {value: 'Max (µs)'},
+};
+
+const METHOD_COLUMNS = {
+  plugin: {value: 'Plugin'},
+  method: {value: 'Method'},
+  sent: {value: 'Sent'},
+  sentBytes: {value: 'Bytes sent'},
+  calls: {value: 'Calls'},
+  callMicros: {value: 'Call time (µs)'},
+};
+
+export default class extends SonarPlugin<DiagnosticsState> {
+  static title = 'Sonar Diagnostics';
+  static id = 'Diagnostics';
+  static icon = 'bug';
+
+  state = {
+    diagnostics: null,
+  };
+
+  interval: ?IntervalID;
+
+  reducers = {
+    UpdateDiagnostics(state: DiagnosticsState, {diagnostics}: Object) {
+      return {diagnostics};
+    },
+  };
+
+  init() {
+    this.refresh();
+    this.interval = setInterval(this.refresh, REFRESH_INTERVAL_MS);
+  }
+
+  teardown() {
+    if (this.interval != null) {
+      clearInterval(this.interval);
+    }
+  }
+
+  refresh = () => {
+    this.client
+      .call('getDiagnostics')
+      .then((diagnostics: Diagnostics) =>
+        this.dispatchAction({diagnostics, type: 'UpdateDiagnostics'}),
+      );
+  };
+
+  reset = () => {
+    this.client.call('reset').then(this.refresh);
+  };
+
+  describe(name: string) {
+    const {diagnostics} = this.state;
+    return (diagnostics && diagnostics.descriptions[name]) || name;
+  }
+
+  render() {
+    const {diagnostics} = this.state;
+    if (diagnostics == null) {
+      return null;
+    }
+
+    const timerRows = Object.keys(diagnostics.timers).map(name => {
+      const timer = diagnostics.timers[name];
+      return {
+        key: name,
+        columns: {
+          name: {value: name, title: this.describe(name)},
+          count: {value: timer.count},
+          p50: {value: timer.p50Micros},
+          p90: {value: timer.p90Micros},
+          p99: {value: timer.p99Micros},
+          max: {value: timer.maxMicros},
+        },
+      };
+    });
+
+    const methodRows = [];
+    Object.keys(diagnostics.plugins).forEach(plugin => {
+      const methods = diagnostics.plugins[plugin];
+      Object.keys(methods).forEach(method => {
+        const stats = methods[method];
+        methodRows.push({
+          key: `${plugin}#${method}`,
+          columns: {
+            plugin: {value: plugin},
+            method: {value: method},
+            sent: {value: stats.sent},
+            sentBytes: {value: stats.sentBytes},
+            calls: {value: stats.calls},
+            callMicros: {value: stats.callMicros},
+          },
+        });
+      });
+    });
+
+    return (
+      <FlexColumn fill={true} scrollable={true}>
+        <Toolbar>
+          <Button onClick={this.reset}>Reset</Button>
+        </Toolbar>
+        <Panel heading="Connection">
+          <DataInspector
+            data={{...diagnostics.counters, ...diagnostics.connection}}
+          />
+        </Panel>
+        <Panel heading="Timers">
+          <ManagedTable columns={TIMER_COLUMNS} rows={timerRows} />
+        </Panel>
+        <Panel heading="Methods">
+          <ManagedTable columns={METHOD_COLUMNS} rows={methodRows} />
+        </Panel>
+      </FlexColumn>
+    );
+  }
+}
@@ -280,9 +280,14 @@ export default class Layout extends SonarPlugin<InspectorState> {
     this.setState({
       outstandingSearchQuery: query,
     });
-    this.client
-      .call('getSearchResults', {query: query})
-      .then(response => this.displaySearchResults(response));
+    this.client.callLatest('getSearchResults', {query: query}).then(
+      response => this.displaySearchResults(response),
+      error => {
+        if (!error.cancelled) {
+          throw error;
+        }
+      },
+    );
   }
 
   executeCommand(command: string) {
@@ -7,7 +7,7 @@
 
 // $FlowFixMe
 import pako from 'pako';
-import type {Request, Response, Header} from './index.js';
+import type {Request, Response, Header, Timings} from './index.js';
 
 import {
   Component,
@@ -19,7 +19,7 @@ import {
   styled,
   colors,
 } from 'sonar';
-import {getHeaderValue} from './index.js';
+import {formatBytes, getHeaderValue} from './index.js';
 
 import querystring from 'querystring';
 
@@ -51,6 +51,15 @@ type RequestDetailsProps = {
   response: ?Response,
 };
 
+function bodyHeading(title: string, container: Request | Response): string {
+  if (!container.dataTruncated) {
+    return title;
+  }
+  return container.dataLength != null
+    ? `${title} (truncated, ${formatBytes(container.dataLength)} in full)`
+    : `${title} (truncated)`;
+}
+
 function decodeBody(container: Request | Response): string {
   if (!container.data) {
     return '';
@@ -167,8 +176,10 @@ export default class RequestDetails extends Component<RequestDetailsProps> {
           </Panel>
         ) : null}
 
-        {request.data != null ? (
-          <Panel heading={'Request Body'} floating={false}>
+        {request.data != null || request.dataTruncated ? (
+          <Panel
+            heading={bodyHeading('Request Body', request)}
+            floating={false}>
             <RequestBodyInspector request={request} />
           </Panel>
         ) : null}
@@ -183,7 +194,14 @@ export default class RequestDetails extends Component<RequestDetailsProps> {
                   <HeaderInspector headers={response.headers} />
                 </Panel>
               ) : null,
-              <Panel heading={'Response Body'} floating={false}>
+              response.timings ? (
+                <Panel heading={'Timings'} floating={false} padded={false}>
+                  <TimingsInspector timings={response.timings} />
+                </Panel>
+              ) : null,
+              <Panel
+                heading={bodyHeading('Response Body', response)}
+                floating={false}>
                 <ResponseBodyInspector request={request} response={response} />
               </Panel>,
             ]
@@ -274,6 +292,60 @@ class HeaderInspector extends Component<
   }
 }
 
+class TimingsInspector extends Component<{timings: Timings}> {
+  render() {
+    const {timings} = this.props;
+    const phases = [
+      ['DNS', timings.dns],
+      ['Connect', timings.connect],
+      ['TLS', timings.tls],
+      ['Request write', timings.requestWrite],
+      ['Time to first byte', timings.timeToFirstByte],
+      ['Body read', timings.bodyRead],
+      ['Total', timings.total],
+    ];
+    const values = [];
+    for (const [name, millis] of phases) {
+      if (millis != null) {
+        values.push([name, `${millis.toFixed(1)} ms`]);
+      }
+    }
+    values.push(['Connection', timings.connectionReused ? 'Reused' : 'New']);
+    if (timings.poolConnections != null) {
+      const idle = timings.poolIdleConnections || 0;
+      values.push([
+        'Connection pool',
+        `${timings.poolConnections} open, ${idle} idle`,
+      ]);
+    }
+
+    const rows = values.map(([key, value]) => ({
+      columns: {
+        key: {
+          value: <WrappingText>{key}</WrappingText>,
+        },
+        value: {
+          value: <WrappingText>{value}</WrappingText>,
+        },
+      },
+      copyText: value,
+      key,
+    }));
+
+    return (
+      <ManagedTable
+        multiline={true}
+        columnSizes={KeyValueColumnSizes}
+        columns={KeyValueColumns}
+        rows={rows}
+        autoHeight={true}
+        floating={false}
+        zebra={false}
+      />
+    );
+  }
+}
+
 const BodyContainer = styled.view({
   paddingTop: 10,
   paddingBottom: 20,
@@ -10,6 +10,7 @@ import type {TableHighlightedRows, TableRows, TableBodyRow} from 'sonar';
 import {
   ContextMenu,
   FlexColumn,
+  FlexRow,
   Button,
   Text,
   Glyph,
@@ -26,6 +27,15 @@ type RequestId = string;
 type PersistedState = {|
   requests: {[id: RequestId]: Request},
   responses: {[id: RequestId]: Response},
+  replay?: ReplayProgress,
+|};
+
+// Sent by the app while it sends requests it buffered before the desktop
+// connected.
+type ReplayProgress = {|
+  replayed: number,
+  remaining: number,
+  done: boolean,
 |};
 
 type State = {|
@@ -39,6 +49,8 @@ export type Request = {|
   url: string,
   headers: Array<Header>,
   data: ?string,
+  dataTruncated?: boolean,
+  dataLength?: number,
 |};
 
 export type Response = {|
@@ -48,6 +60,23 @@ export type Response = {|
   reason: string,
   headers: Array<Header>,
   data: ?string,
+  dataTruncated?: boolean,
+  dataLength?: number,
+  timings?: Timings,
+|};
+
+// In milliseconds, phases that didn't happen are left out.
+export type Timings = {|
+  dns?: number,
+  connect?: number,
+  tls?: number,
+  requestWrite?: number,
+  timeToFirstByte?: number,
+  bodyRead?: number,
+  total?: number,
+  connectionReused: boolean,
+  poolConnections?: number,
+  poolIdleConnections?: number,
 |};
 
 export type Header = {|
@@ -141,6 +170,9 @@ export default class extends SonarPlugin<State, *, PersistedState> {
         },
       });
     });
+    this.client.subscribe('replayProgress', (replay: ReplayProgress) => {
+      this.props.setPersistedState({replay});
+    });
   }
 
   onRowHighlighted = (selectedIds: Array<RequestId>) =>
@@ -166,13 +198,14 @@ export default class extends SonarPlugin<State, *, PersistedState> {
   };
 
   render() {
-    const {requests, responses} = this.props.persistedState;
+    const {requests, responses, replay} = this.props.persistedState;
 
     return (
       <FlexColumn fill={true}>
         <NetworkTable
           requests={requests || {}}
           responses={responses || {}}
+          replay={replay}
           clear={this.clearLogs}
           onRowHighlighted={this.onRowHighlighted}
         />
@@ -185,6 +218,7 @@ export default class extends SonarPlugin<State, *, PersistedState> {
 type NetworkTableProps = {
   requests: {[id: RequestId]: Request},
   responses: {[id: RequestId]: Response},
+  replay: ?ReplayProgress,
   clear: () => void,
   onRowHighlighted: (keys: TableHighlightedRows) => void,
 };
@@ -316,7 +350,14 @@ class NetworkTable extends PureComponent<NetworkTableProps, NetworkTableState> {
     },
   ];
 
+  static ReplayText = Text.extends({
+    color: colors.light50,
+    marginRight: 10,
+    lineHeight: '28px',
+  });
+
   render() {
+    const {replay} = this.props;
     return (
       <NetworkTable.ContextMenu items={this.contextMenuItems}>
         <SearchableTable
@@ -331,7 +372,17 @@ class NetworkTable extends PureComponent<NetworkTableProps, NetworkTableState> {
           onRowHighlighted={this.props.onRowHighlighted}
           rowLineHeight={26}
           zebra={false}
-          actions={<Button onClick={this.props.clear}>Clear Table</Button>}
+          actions={
+            <FlexRow>
+              {replay && !replay.done ? (
+                <NetworkTable.ReplayText>
+                  Loading {replay.remaining.toLocaleString()} buffered
+                  requests and responses
+                </NetworkTable.ReplayText>
+              ) : null}
+              <Button onClick={this.props.clear}>Clear Table</Button>
+            </FlexRow>
+          }
         />
       </NetworkTable.ContextMenu>
     );
@@ -412,6 +463,8 @@ class SizeColumn extends PureComponent<{
       : undefined;
     if (lengthString != null && lengthString != '') {
       length = parseInt(lengthString, 10);
+    } else if (response.dataLength != null) {
+      length = response.dataLength;
     } else if (response.data) {
       length = atob(response.data).length;
     }
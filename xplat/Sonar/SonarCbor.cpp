@@ -0,0 +1,476 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#include "SonarCbor.h"
+#include <cmath>
+#include <cstring>
+#include <limits>
+#include <stdexcept>
+
+namespace facebook {
+namespace sonar {
+
+namespace {
+
+constexpr uint8_t kMajorUnsigned = 0;
+constexpr uint8_t kMajorNegative = 1;
+constexpr uint8_t kMajorBytes = 2;
+constexpr uint8_t kMajorText = 3;
+constexpr uint8_t kMajorArray = 4;
+constexpr uint8_t kMajorMap = 5;
+constexpr uint8_t kMajorTag = 6;
+constexpr uint8_t kMajorSimple = 7;
+
+constexpr uint8_t kIndefinite = 31;
+constexpr uint8_t kFalse = 0xf4;
+constexpr uint8_t kTrue = 0xf5;
+constexpr uint8_t kNull = 0xf6;
+constexpr uint8_t kFloat64 = 0xfb;
+constexpr uint8_t kBreak = 0xff;
+
+// RFC 8746 typed arrays, packed big endian numbers in a byte string. The Java
+// client uses these for primitive arrays.
+constexpr uint64_t kTagUint8 = 64;
+constexpr uint64_t kTagUint16 = 65;
+constexpr uint64_t kTagUint32 = 66;
+constexpr uint64_t kTagUint64 = 67;
+constexpr uint64_t kTagSint8 = 72;
+constexpr uint64_t kTagSint16 = 73;
+constexpr uint64_t kTagSint32 = 74;
+constexpr uint64_t kTagSint64 = 75;
+constexpr uint64_t kTagFloat32 = 81;
+constexpr uint64_t kTagFloat64 = 82;
+
+constexpr double kPowersOfTen[] = {1e0,  1e1,  1e2,  1e3,  1e4,  1e5,
+                                   1e6,  1e7,  1e8,  1e9,  1e10, 1e11,
+                                   1e12, 1e13, 1e14, 1e15, 1e16, 1e17,
+                                   1e18, 1e19, 1e20, 1e21, 1e22};
+
+// Same nesting limit folly::parseJson applies by default.
+constexpr int kMaxDepth = 100;
+
+void appendBigEndian(std::string& out, uint64_t value, int bytes) {
+  for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+    out.push_back(static_cast<char>((value >> shift) & 0xff));
+  }
+}
+
+void appendTypeAndLength(std::string& out, uint8_t majorType, uint64_t length) {
+  const uint8_t type = majorType << 5;
+  if (length < 24) {
+    out.push_back(static_cast<char>(type | length));
+  } else if (length <= 0xff) {
+    out.push_back(static_cast<char>(type | 24));
+    appendBigEndian(out, length, 1);
+  } else if (length <= 0xffff) {
+    out.push_back(static_cast<char>(type | 25));
+    appendBigEndian(out, length, 2);
+  } else if (length <= 0xffffffff) {
+    out.push_back(static_cast<char>(type | 26));
+    appendBigEndian(out, length, 4);
+  } else {
+    out.push_back(static_cast<char>(type | 27));
+    appendBigEndian(out, length, 8);
+  }
+}
+
+std::string base64Encode(const std::string& bytes) {
+  static const char kAlphabet[] =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+  std::string out;
+  out.reserve((bytes.size() + 2) / 3 * 4);
+  size_t i = 0;
+  for (; i + 2 < bytes.size(); i += 3) {
+    const uint32_t n = (static_cast<uint8_t>(bytes[i]) << 16) |
+        (static_cast<uint8_t>(bytes[i + 1]) << 8) |
+        static_cast<uint8_t>(bytes[i + 2]);
+    out.push_back(kAlphabet[(n >> 18) & 0x3f]);
+    out.push_back(kAlphabet[(n >> 12) & 0x3f]);
+    out.push_back(kAlphabet[(n >> 6) & 0x3f]);
+    out.push_back(kAlphabet[n & 0x3f]);
+  }
+  if (i < bytes.size()) {
+    const bool two = i + 1 < bytes.size();
+    const uint32_t n = (static_cast<uint8_t>(bytes[i]) << 16) |
+        (two ? static_cast<uint8_t>(bytes[i + 1]) << 8 : 0);
+    out.push_back(kAlphabet[(n >> 18) & 0x3f]);
+    out.push_back(kAlphabet[(n >> 12) & 0x3f]);
+    out.push_back(two ? kAlphabet[(n >> 6) & 0x3f] : '=');
+    out.push_back('=');
+  }
+  return out;
+}
+
+class CborParser {
+ public:
+  explicit CborParser(folly::ByteRange data)
+      : pos_(data.begin()), end_(data.end()) {}
+
+  folly::dynamic parseValue(int depth) {
+    if (depth > kMaxDepth) {
+      throw std::invalid_argument("CBOR data nested too deeply");
+    }
+    const uint8_t initial = readByte();
+    const uint8_t majorType = initial >> 5;
+    const uint8_t info = initial & 0x1f;
+
+    switch (majorType) {
+      case kMajorUnsigned:
+        return unsignedValue(readLength(info));
+      case kMajorNegative:
+        return negativeValue(readLength(info));
+      case kMajorBytes:
+        return base64Encode(readString(majorType, info));
+      case kMajorText:
+        return readString(majorType, info);
+      case kMajorArray: {
+        folly::dynamic array = folly::dynamic::array();
+        if (info == kIndefinite) {
+          while (!consumeBreak()) {
+            array.push_back(parseValue(depth + 1));
+          }
+        } else {
+          for (uint64_t i = readLength(info); i > 0; i--) {
+            array.push_back(parseValue(depth + 1));
+          }
+        }
+        return array;
+      }
+      case kMajorMap: {
+        folly::dynamic object = folly::dynamic::object();
+        if (info == kIndefinite) {
+          while (!consumeBreak()) {
+            auto key = parseValue(depth + 1);
+            object.insert(std::move(key), parseValue(depth + 1));
+          }
+        } else {
+          for (uint64_t i = readLength(info); i > 0; i--) {
+            auto key = parseValue(depth + 1);
+            object.insert(std::move(key), parseValue(depth + 1));
+          }
+        }
+        return object;
+      }
+      case kMajorTag: {
+        const uint64_t tag = readLength(info);
+        const int elementSize = typedArrayElementSize(tag);
+        if (elementSize > 0) {
+          return readTypedArray(tag, elementSize);
+        }
+        return parseValue(depth + 1);
+      }
+      case kMajorSimple:
+      default:
+        return readSimple(info);
+    }
+  }
+
+  bool atEnd() const {
+    return pos_ == end_;
+  }
+
+ private:
+  const uint8_t* pos_;
+  const uint8_t* end_;
+
+  void checkAvailable(uint64_t bytes) const {
+    if (bytes > static_cast<uint64_t>(end_ - pos_)) {
+      throw std::invalid_argument("Truncated CBOR data");
+    }
+  }
+
+  uint8_t readByte() {
+    checkAvailable(1);
+    return *pos_++;
+  }
+
+  uint64_t readBigEndian(int bytes) {
+    checkAvailable(bytes);
+    uint64_t value = 0;
+    for (int i = 0; i < bytes; i++) {
+      value = (value << 8) | *pos_++;
+    }
+    return value;
+  }
+
+  uint64_t readLength(uint8_t info) {
+    if (info < 24) {
+      return info;
+    }
+    switch (info) {
+      case 24:
+        return readBigEndian(1);
+      case 25:
+        return readBigEndian(2);
+      case 26:
+        return readBigEndian(4);
+      case 27:
+        return readBigEndian(8);
+      default:
+        throw std::invalid_argument("Unsupported CBOR length encoding");
+    }
+  }
+
+  bool consumeBreak() {
+    checkAvailable(1);
+    if (*pos_ == kBreak) {
+      pos_++;
+      return true;
+    }
+    return false;
+  }
+
+  std::string readString(uint8_t majorType, uint8_t info) {
+    if (info == kIndefinite) {
+      std::string result;
+      while (!consumeBreak()) {
+        const uint8_t chunk = readByte();
+        if ((chunk >> 5) != majorType || (chunk & 0x1f) == kIndefinite) {
+          throw std::invalid_argument("Invalid CBOR string chunk");
+        }
+        result += readString(majorType, chunk & 0x1f);
+      }
+      return result;
+    }
+    const uint64_t length = readLength(info);
+    checkAvailable(length);
+    std::string result(reinterpret_cast<const char*>(pos_), length);
+    pos_ += length;
+    return result;
+  }
+
+  folly::dynamic readSimple(uint8_t info) {
+    switch (info) {
+      case 20:
+        return false;
+      case 21:
+        return true;
+      case 22:
+      case 23:
+        return nullptr;
+      case 25:
+        return halfToDouble(static_cast<uint16_t>(readBigEndian(2)));
+      case 26: {
+        const uint32_t bits = static_cast<uint32_t>(readBigEndian(4));
+        float value;
+        std::memcpy(&value, &bits, sizeof(value));
+        return static_cast<double>(value);
+      }
+      case 27: {
+        const uint64_t bits = readBigEndian(8);
+        double value;
+        std::memcpy(&value, &bits, sizeof(value));
+        return value;
+      }
+      default:
+        throw std::invalid_argument("Unsupported CBOR simple value");
+    }
+  }
+
+  static int typedArrayElementSize(uint64_t tag) {
+    switch (tag) {
+      case kTagUint8:
+      case kTagSint8:
+        return 1;
+      case kTagUint16:
+      case kTagSint16:
+        return 2;
+      case kTagUint32:
+      case kTagSint32:
+      case kTagFloat32:
+        return 4;
+      case kTagUint64:
+      case kTagSint64:
+      case kTagFloat64:
+        return 8;
+      default:
+        return 0;
+    }
+  }
+
+  folly::dynamic readTypedArray(uint64_t tag, int elementSize) {
+    const uint8_t header = readByte();
+    if ((header >> 5) != kMajorBytes || (header & 0x1f) == kIndefinite) {
+      throw std::invalid_argument("Expected packed typed array data");
+    }
+    const uint64_t length = readLength(header & 0x1f);
+    checkAvailable(length);
+    if (length % elementSize != 0) {
+      throw std::invalid_argument(
+          "Typed array length is not a multiple of its element size");
+    }
+    folly::dynamic array = folly::dynamic::array();
+    for (uint64_t i = 0; i < length; i += elementSize) {
+      array.push_back(readTypedArrayElement(tag, elementSize));
+    }
+    return array;
+  }
+
+  folly::dynamic readTypedArrayElement(uint64_t tag, int elementSize) {
+    const uint64_t bits = readBigEndian(elementSize);
+    switch (tag) {
+      case kTagSint8:
+        return static_cast<int64_t>(static_cast<int8_t>(bits));
+      case kTagSint16:
+        return static_cast<int64_t>(static_cast<int16_t>(bits));
+      case kTagSint32:
+        return static_cast<int64_t>(static_cast<int32_t>(bits));
+      case kTagFloat32: {
+        const uint32_t floatBits = static_cast<uint32_t>(bits);
+        float value;
+        std::memcpy(&value, &floatBits, sizeof(value));
+        if (!std::isfinite(value)) {
+          return nullptr;
+        }
+        return shortestDouble(value);
+      }
+      case kTagFloat64: {
+        double value;
+        std::memcpy(&value, &bits, sizeof(value));
+        if (!std::isfinite(value)) {
+          return nullptr;
+        }
+        return value;
+      }
+      case kTagSint64:
+        return static_cast<int64_t>(bits);
+      default:
+        return unsignedValue(bits);
+    }
+  }
+
+  // Integers beyond the range of int64_t are read as the nearest double rather
+  // than wrapped around. JSON numbers lose their precision on the desktop
+  // anyway.
+  static folly::dynamic unsignedValue(uint64_t value) {
+    if (value > static_cast<uint64_t>(std::numeric_limits<int64_t>::max())) {
+      return static_cast<double>(value);
+    }
+    return static_cast<int64_t>(value);
+  }
+
+  static folly::dynamic negativeValue(uint64_t value) {
+    if (value > static_cast<uint64_t>(std::numeric_limits<int64_t>::max())) {
+      return -1.0 - static_cast<double>(value);
+    }
+    return -1 - static_cast<int64_t>(value);
+  }
+
+  /**
+  The double with the fewest significant digits that rounds to the same float,
+  so that 0.1f reaches the desktop as 0.1 rather than 0.10000000149011612.
+  Mirrors CborWriter.shortestDouble on the Java side.
+  */
+  static double shortestDouble(float value) {
+    const double widened = value;
+    if (value == 0 || widened == std::trunc(widened)) {
+      return widened;
+    }
+    const int exponent =
+        static_cast<int>(std::floor(std::log10(std::fabs(widened))));
+    for (int digits = 1; digits <= 9; digits++) {
+      const int decimals = digits - 1 - exponent;
+      if (decimals > 22 || decimals < -22) {
+        return widened;
+      }
+      const double scale = kPowersOfTen[std::abs(decimals)];
+      const double candidate = decimals >= 0
+          ? std::nearbyint(widened * scale) / scale
+          : std::nearbyint(widened / scale) * scale;
+      if (static_cast<float>(candidate) == value) {
+        return candidate;
+      }
+    }
+    return widened;
+  }
+
+  static double halfToDouble(uint16_t half) {
+    const int exponent = (half >> 10) & 0x1f;
+    const int mantissa = half & 0x3ff;
+    double value;
+    if (exponent == 0) {
+      value = std::ldexp(mantissa, -24);
+    } else if (exponent == 31) {
+      value = mantissa == 0 ? INFINITY : NAN;
+    } else {
+      value = std::ldexp(mantissa + 1024, exponent - 25);
+    }
+    return (half & 0x8000) ? -value : value;
+  }
+};
+
+} // namespace
+
+void appendCbor(const folly::dynamic& value, std::string& out) {
+  switch (value.type()) {
+    case folly::dynamic::NULLT:
+      out.push_back(static_cast<char>(kNull));
+      break;
+    case folly::dynamic::BOOL:
+      out.push_back(static_cast<char>(value.getBool() ? kTrue : kFalse));
+      break;
+    case folly::dynamic::INT64: {
+      const int64_t i = value.getInt();
+      if (i >= 0) {
+        appendTypeAndLength(out, kMajorUnsigned, static_cast<uint64_t>(i));
+      } else {
+        appendTypeAndLength(out, kMajorNegative, static_cast<uint64_t>(-1 - i));
+      }
+      break;
+    }
+    case folly::dynamic::DOUBLE: {
+      const double d = value.getDouble();
+      uint64_t bits;
+      std::memcpy(&bits, &d, sizeof(bits));
+      out.push_back(static_cast<char>(kFloat64));
+      appendBigEndian(out, bits, 8);
+      break;
+    }
+    case folly::dynamic::STRING: {
+      const auto& s = value.getString();
+      appendTypeAndLength(out, kMajorText, s.size());
+      out.append(s);
+      break;
+    }
+    case folly::dynamic::ARRAY:
+      appendTypeAndLength(out, kMajorArray, value.size());
+      for (const auto& element : value) {
+        appendCbor(element, out);
+      }
+      break;
+    case folly::dynamic::OBJECT:
+      appendTypeAndLength(out, kMajorMap, value.size());
+      for (const auto& item : value.items()) {
+        appendCbor(item.first, out);
+        appendCbor(item.second, out);
+      }
+      break;
+  }
+}
+
+void appendCborMapHeader(uint64_t size, std::string& out) {
+  appendTypeAndLength(out, kMajorMap, size);
+}
+
+std::string toCbor(const folly::dynamic& value) {
+  std::string out;
+  appendCbor(value, out);
+  return out;
+}
+
+folly::dynamic parseCbor(folly::ByteRange data) {
+  CborParser parser(data);
+  auto value = parser.parseValue(0);
+  if (!parser.atEnd()) {
+    throw std::invalid_argument("Trailing data after CBOR value");
+  }
+  return value;
+}
+
+} // namespace sonar
+} // namespace facebook
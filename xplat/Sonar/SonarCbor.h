@@ -0,0 +1,47 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#pragma once
+
+#include <folly/Range.h>
+#include <folly/dynamic.h>
+#include <string>
+
+namespace facebook {
+namespace sonar {
+
+/**
+ Serializes a folly::dynamic as a single CBOR (RFC 7049) data item. CBOR is
+ used to move payloads between the Java and native halves of the client
+ without printing and re-parsing JSON text.
+ */
+std::string toCbor(const folly::dynamic& value);
+
+/**
+ Appends the CBOR encoding of value to out.
+ */
+void appendCbor(const folly::dynamic& value, std::string& out);
+
+/**
+ Appends the header of a map with size entries to out. The caller appends the
+ keys and values. Used to wrap already encoded payloads in an envelope without
+ decoding them.
+ */
+void appendCborMapHeader(uint64_t size, std::string& out);
+
+/**
+ Parses a single CBOR data item into a folly::dynamic. Both definite and
+ indefinite length arrays, maps and strings are accepted. Byte strings become
+ base64 encoded strings, which is how binary data is represented in JSON.
+ Throws std::invalid_argument if the data is malformed or uses unsupported
+ types.
+ */
+folly::dynamic parseCbor(folly::ByteRange data);
+
+} // namespace sonar
+} // namespace facebook
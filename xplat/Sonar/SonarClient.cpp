@@ -8,6 +8,7 @@
 
 #include "SonarClient.h"
 #include "SonarConnectionImpl.h"
+#include "SonarDiagnosticsPlugin.h"
 #include "SonarResponderImpl.h"
 #include "SonarWebSocketImpl.h"
 
@@ -29,8 +30,14 @@ static SonarClient* kInstance;
 using folly::dynamic;
 
 void SonarClient::init(SonarInitConfig config) {
-  kInstance =
-      new SonarClient(std::make_unique<SonarWebSocketImpl>(std::move(config)));
+  const auto dispatchThreads = config.dispatchThreads;
+  auto dispatchThreadWrapper = config.dispatchThreadWrapper;
+  kInstance = new SonarClient(
+      std::make_unique<SonarWebSocketImpl>(std::move(config)),
+      dispatchThreads,
+      std::move(dispatchThreadWrapper));
+  kInstance->addPlugin(std::make_shared<SonarDiagnosticsPlugin>(
+      []() { return kInstance->diagnostics(); }));
 }
 
 SonarClient* SonarClient::instance() {
@@ -40,13 +47,16 @@ SonarClient* SonarClient::instance() {
 void SonarClient::addPlugin(std::shared_ptr<SonarPlugin> plugin) {
   SONAR_LOG(("SonarClient::addPlugin " + plugin->identifier()).c_str());
 
-  std::lock_guard<std::mutex> lock(mutex_);
   performAndReportError([this, plugin]() {
-    if (plugins_.find(plugin->identifier()) != plugins_.end()) {
-      throw std::out_of_range(
-          "plugin " + plugin->identifier() + " already added.");
+    {
+      std::lock_guard<std::mutex> lock(mutex_);
+      if (plugins_.find(plugin->identifier()) != plugins_.end()) {
+        throw std::out_of_range(
+            "plugin " + plugin->identifier() + " already added.");
+      }
+      plugins_[plugin->identifier()] = plugin;
     }
-    plugins_[plugin->identifier()] = plugin;
+    // Sent after releasing the lock, so sending never holds up the dispatch.
     if (connected_) {
       refreshPlugins();
     }
@@ -56,16 +66,23 @@ void SonarClient::addPlugin(std::shared_ptr<SonarPlugin> plugin) {
 void SonarClient::removePlugin(std::shared_ptr<SonarPlugin> plugin) {
   SONAR_LOG(("SonarClient::removePlugin " + plugin->identifier()).c_str());
 
-  std::lock_guard<std::mutex> lock(mutex_);
   performAndReportError([this, plugin]() {
-    if (plugins_.find(plugin->identifier()) == plugins_.end()) {
-      throw std::out_of_range("plugin " + plugin->identifier() + " not added.");
+    bool wasConnected;
+    {
+      std::lock_guard<std::mutex> lock(mutex_);
+      if (plugins_.find(plugin->identifier()) == plugins_.end()) {
+        throw std::out_of_range(
+            "plugin " + plugin->identifier() + " not added.");
+      }
+      wasConnected = connections_.erase(plugin->identifier()) > 0;
+      plugins_.erase(plugin->identifier());
     }
-    disconnect(plugin);
-    plugins_.erase(plugin->identifier());
     if (connected_) {
       refreshPlugins();
     }
+    if (wasConnected) {
+      disconnect(plugin);
+    }
   });
 }
 
@@ -78,17 +95,21 @@ std::shared_ptr<SonarPlugin> SonarClient::getPlugin(
   return plugins_.at(identifier);
 }
 
+dynamic SonarClient::diagnostics() {
+  auto diagnostics = SonarDiagnostics::instance()->snapshot();
+  diagnostics["connection"] = socket_->diagnostics();
+  return diagnostics;
+}
+
 bool SonarClient::hasPlugin(const std::string& identifier) {
   std::lock_guard<std::mutex> lock(mutex_);
   return plugins_.find(identifier) != plugins_.end();
 }
 
 void SonarClient::disconnect(std::shared_ptr<SonarPlugin> plugin) {
-  const auto& conn = connections_.find(plugin->identifier());
-  if (conn != connections_.end()) {
-    connections_.erase(plugin->identifier());
-    plugin->didDisconnect();
-  }
+  dispatcher_.dispatch(plugin->identifier(), [this, plugin]() {
+    performAndReportError([plugin]() { plugin->didDisconnect(); });
+  });
 }
 
 void SonarClient::refreshPlugins() {
@@ -99,38 +120,57 @@ void SonarClient::refreshPlugins() {
 void SonarClient::onConnected() {
   SONAR_LOG("SonarClient::onConnected");
 
-  std::lock_guard<std::mutex> lock(mutex_);
   connected_ = true;
 }
 
 void SonarClient::onDisconnected() {
   SONAR_LOG("SonarClient::onDisconnected");
 
-  std::lock_guard<std::mutex> lock(mutex_);
   connected_ = false;
-  performAndReportError([this]() {
-    for (const auto& iter : plugins_) {
-      disconnect(iter.second);
+  cancelAllCalls();
+  std::vector<std::shared_ptr<SonarPlugin>> disconnected;
+  {
+    std::lock_guard<std::mutex> lock(mutex_);
+    for (const auto& iter : connections_) {
+      disconnected.push_back(plugins_.at(iter.first));
     }
-  });
+    connections_.clear();
+  }
+  for (const auto& plugin : disconnected) {
+    disconnect(plugin);
+  }
 }
 
 void SonarClient::onMessageReceived(const dynamic& message) {
-  std::lock_guard<std::mutex> lock(mutex_);
   performAndReportError([this, &message]() {
     const auto& method = message["method"];
     const auto& params = message.getDefault("params");
 
     std::unique_ptr<SonarResponderImpl> responder;
+    std::shared_ptr<std::atomic<bool>> cancelled;
     if (message.find("id") != message.items().end()) {
-      responder.reset(
-          new SonarResponderImpl(socket_.get(), message["id"].getInt()));
+      const auto id = message["id"].getInt();
+      if (method == "execute") {
+        cancelled = trackCall(id);
+      }
+      responder.reset(new SonarResponderImpl(socket_.get(), id, cancelled));
+    }
+
+    if (method == "cancel") {
+      cancelCall(params["id"].getInt());
+      return;
     }
 
     if (method == "getPlugins") {
+      if (!responder) {
+        return;
+      }
       dynamic identifiers = dynamic::array();
-      for (const auto& elem : plugins_) {
-        identifiers.push_back(elem.first);
+      {
+        std::lock_guard<std::mutex> lock(mutex_);
+        for (const auto& elem : plugins_) {
+          identifiers.push_back(elem.first);
+        }
       }
       dynamic response = dynamic::object("plugins", identifiers);
       responder->success(response);
@@ -139,52 +179,133 @@ void SonarClient::onMessageReceived(const dynamic& message) {
 
     if (method == "init") {
       const auto identifier = params["plugin"].getString();
-      if (plugins_.find(identifier) == plugins_.end()) {
-        throw std::out_of_range(
-            "plugin " + identifier + " not found for method " +
-            method.getString());
+      std::shared_ptr<SonarPlugin> plugin;
+      std::shared_ptr<SonarConnectionImpl> conn;
+      {
+        std::lock_guard<std::mutex> lock(mutex_);
+        if (plugins_.find(identifier) == plugins_.end()) {
+          throw std::out_of_range(
+              "plugin " + identifier + " not found for method " +
+              method.getString());
+        }
+        plugin = plugins_.at(identifier);
+        conn = std::make_shared<SonarConnectionImpl>(socket_.get(), identifier);
+        connections_[identifier] = conn;
       }
-      const auto plugin = plugins_.at(identifier);
-      auto& conn = connections_[plugin->identifier()];
-      conn = std::make_shared<SonarConnectionImpl>(
-          socket_.get(), plugin->identifier());
-      plugin->didConnect(conn);
+      dispatcher_.dispatch(identifier, [this, plugin, conn]() {
+        performAndReportError([&]() { plugin->didConnect(conn); });
+      });
       return;
     }
 
     if (method == "deinit") {
       const auto identifier = params["plugin"].getString();
-      if (plugins_.find(identifier) == plugins_.end()) {
-        throw std::out_of_range(
-            "plugin " + identifier + " not found for method " +
-            method.getString());
+      std::shared_ptr<SonarPlugin> plugin;
+      bool wasConnected;
+      {
+        std::lock_guard<std::mutex> lock(mutex_);
+        if (plugins_.find(identifier) == plugins_.end()) {
+          throw std::out_of_range(
+              "plugin " + identifier + " not found for method " +
+              method.getString());
+        }
+        plugin = plugins_.at(identifier);
+        wasConnected = connections_.erase(identifier) > 0;
+      }
+      if (wasConnected) {
+        disconnect(plugin);
       }
-      const auto plugin = plugins_.at(identifier);
-      disconnect(plugin);
       return;
     }
 
     if (method == "execute") {
       const auto identifier = params["api"].getString();
-      if (connections_.find(identifier) == connections_.end()) {
-        throw std::out_of_range(
-            "connection " + identifier + " not found for method " +
-            method.getString());
+      std::shared_ptr<SonarConnectionImpl> conn;
+      {
+        std::lock_guard<std::mutex> lock(mutex_);
+        if (connections_.find(identifier) == connections_.end()) {
+          throw std::out_of_range(
+              "connection " + identifier + " not found for method " +
+              method.getString());
+        }
+        conn = connections_.at(identifier);
       }
-      const auto& conn = connections_.at(params["api"].getString());
-      conn->call(
-          params["method"].getString(),
-          params.getDefault("params"),
-          std::move(responder));
+      // The task has to be copyable, so the responder is moved into it
+      // through a shared holder.
+      auto heldResponder =
+          std::make_shared<std::unique_ptr<SonarResponderImpl>>(
+              std::move(responder));
+      const auto receiverMethod = params["method"].getString();
+      const auto receiverParams = params.getDefault("params");
+      const auto queuedAt = std::chrono::steady_clock::now();
+      dispatcher_.dispatch(
+          identifier,
+          [this, conn, identifier, receiverMethod, receiverParams,
+           heldResponder, cancelled, queuedAt]() {
+            const auto start = std::chrono::steady_clock::now();
+            SonarDiagnostics::instance()->record(
+                DiagnosticsTimer::CallQueueWait,
+                std::chrono::duration_cast<std::chrono::microseconds>(
+                    start - queuedAt));
+            // Calls cancelled while they were queued are dropped unseen.
+            if (cancelled && *cancelled) {
+              return;
+            }
+            performAndReportError([&]() {
+              conn->call(
+                  receiverMethod, receiverParams, std::move(*heldResponder));
+            });
+            SonarDiagnostics::instance()->recordCall(
+                identifier,
+                receiverMethod,
+                std::chrono::duration_cast<std::chrono::microseconds>(
+                    std::chrono::steady_clock::now() - start));
+          });
       return;
     }
 
-    dynamic response =
-        dynamic::object("message", "Received unknown method: " + method);
-    responder->error(response);
+    if (responder) {
+      dynamic response =
+          dynamic::object("message", "Received unknown method: " + method);
+      responder->error(response);
+    }
   });
 }
 
+std::shared_ptr<std::atomic<bool>> SonarClient::trackCall(int64_t id) {
+  auto cancelled = std::make_shared<std::atomic<bool>>(false);
+  std::lock_guard<std::mutex> lock(mutex_);
+  // Flags go away with the last responder, so this stays as small as the
+  // number of calls that haven't been answered yet.
+  for (auto it = calls_.begin(); it != calls_.end();) {
+    it = it->second.expired() ? calls_.erase(it) : std::next(it);
+  }
+  calls_[id] = cancelled;
+  return cancelled;
+}
+
+void SonarClient::cancelCall(int64_t id) {
+  std::lock_guard<std::mutex> lock(mutex_);
+  const auto it = calls_.find(id);
+  if (it == calls_.end()) {
+    return;
+  }
+  if (const auto cancelled = it->second.lock()) {
+    *cancelled = true;
+  }
+  calls_.erase(it);
+}
+
+void SonarClient::cancelAllCalls() {
+  std::lock_guard<std::mutex> lock(mutex_);
+  for (const auto& call : calls_) {
+    if (const auto cancelled = call.second.lock()) {
+      *cancelled = true;
+    }
+  }
+  calls_.clear();
+}
+
 void SonarClient::performAndReportError(const std::function<void()>& func) {
   try {
     func();
@@ -9,9 +9,11 @@
 #pragma once
 
 #include <Sonar/SonarConnectionImpl.h>
+#include <Sonar/SonarDispatcher.h>
 #include <Sonar/SonarInitConfig.h>
 #include <Sonar/SonarPlugin.h>
 #include <Sonar/SonarWebSocket.h>
+#include <atomic>
 #include <map>
 #include <mutex>
 
@@ -35,10 +37,18 @@ class SonarClient : public SonarWebSocket::Callbacks {
   static SonarClient* instance();
 
   /**
-   Only public for testing
+   Only public for testing. Plugins are called on the thread the socket
+   delivers messages on.
    */
   SonarClient(std::unique_ptr<SonarWebSocket> socket)
-      : socket_(std::move(socket)) {
+      : SonarClient(std::move(socket), 0, nullptr) {}
+
+  SonarClient(
+      std::unique_ptr<SonarWebSocket> socket,
+      size_t dispatchThreads,
+      SonarDispatcher::ThreadWrapper dispatchThreadWrapper)
+      : socket_(std::move(socket)),
+        dispatcher_(dispatchThreads, std::move(dispatchThreadWrapper)) {
     socket_->setCallbacks(this);
   }
 
@@ -71,16 +81,29 @@ class SonarClient : public SonarWebSocket::Callbacks {
 
   bool hasPlugin(const std::string& identifier);
 
+  /**
+   Snapshot of SonarDiagnostics, along with the state of the connection.
+   */
+  folly::dynamic diagnostics();
+
  private:
   static SonarClient* instance_;
-  bool connected_ = false;
+  std::atomic<bool> connected_{false};
   std::unique_ptr<SonarWebSocket> socket_;
+  // Guards plugins_ and connections_ only, plugins are never called with it
+  // held. Calls into a plugin go through its queue on dispatcher_.
   std::map<std::string, std::shared_ptr<SonarPlugin>> plugins_;
   std::map<std::string, std::shared_ptr<SonarConnectionImpl>> connections_;
+  // Cancellation flags of the calls plugins may still be working on, by id.
+  std::map<int64_t, std::weak_ptr<std::atomic<bool>>> calls_;
   std::mutex mutex_;
+  SonarDispatcher dispatcher_;
 
   void performAndReportError(const std::function<void()>& func);
   void disconnect(std::shared_ptr<SonarPlugin> plugin);
+  std::shared_ptr<std::atomic<bool>> trackCall(int64_t id);
+  void cancelCall(int64_t id);
+  void cancelAllCalls();
 };
 
 } // namespace sonar
@@ -8,9 +8,11 @@
 
 #pragma once
 
+#include <Sonar/SonarCbor.h>
 #include <Sonar/SonarResponder.h>
 #include <folly/json.h>
 #include <functional>
+#include <Sonar/SonarSendPriority.h>
 #include <string>
 
 namespace facebook {
@@ -34,6 +36,40 @@ class SonarConnection {
       const std::string& method,
       const folly::dynamic& params) = 0;
 
+  /**
+  Like send(), in the given priority lane. Use SendPriority::Bulk for large or
+  frequent events, so they don't hold up more important messages.
+  */
+  virtual void sendWithPriority(
+      const std::string& method,
+      const folly::dynamic& params,
+      SendPriority priority) {
+    send(method, params);
+  }
+
+  /**
+  Like sendWithPriority(), with params that are already CBOR encoded, as they
+  are when they come from the Java client.
+  */
+  virtual void sendEncoded(
+      const std::string& method,
+      const std::string& params,
+      SendPriority priority) {
+    sendWithPriority(
+        method,
+        parseCbor(folly::ByteRange(
+            reinterpret_cast<const uint8_t*>(params.data()), params.size())),
+        priority);
+  }
+
+  /**
+  True if messages sent on this connection are piling up faster than they can
+  be delivered. Plugins that send often should send less while it is.
+  */
+  virtual bool isUnderPressure() const {
+    return false;
+  }
+
   /**
   Report an error to the Sonar desktop app
   */
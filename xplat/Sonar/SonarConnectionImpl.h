@@ -8,7 +8,9 @@
 
 #pragma once
 
+#include <Sonar/SonarCbor.h>
 #include <Sonar/SonarConnection.h>
+#include <Sonar/SonarDiagnostics.h>
 #include <Sonar/SonarWebSocket.h>
 #include <map>
 #include <string>
@@ -32,11 +34,46 @@ class SonarConnectionImpl : public SonarConnection {
   }
 
   void send(const std::string& method, const folly::dynamic& params) override {
+    sendWithPriority(method, params, SendPriority::Normal);
+  }
+
+  void sendWithPriority(
+      const std::string& method,
+      const folly::dynamic& params,
+      SendPriority priority) override {
     folly::dynamic message = folly::dynamic::object("method", "execute")(
         "params",
         folly::dynamic::object("api", name_)("method", method)(
             "params", params));
-    socket_->sendMessage(message);
+    const auto bytes = socket_->sendPluginMessage(name_, message, priority);
+    SonarDiagnostics::instance()->recordSent(name_, method, bytes);
+  }
+
+  void sendEncoded(
+      const std::string& method,
+      const std::string& params,
+      SendPriority priority) override {
+    // Same envelope as send(), with the encoded params copied in as they are.
+    std::string message;
+    message.reserve(params.size() + name_.size() + method.size() + 48);
+    appendCborMapHeader(2, message);
+    appendCbor("method", message);
+    appendCbor("execute", message);
+    appendCbor("params", message);
+    appendCborMapHeader(3, message);
+    appendCbor("api", message);
+    appendCbor(name_, message);
+    appendCbor("method", message);
+    appendCbor(method, message);
+    appendCbor("params", message);
+    message.append(params);
+    const auto bytes =
+        socket_->sendEncodedPluginMessage(name_, message, priority);
+    SonarDiagnostics::instance()->recordSent(name_, method, bytes);
+  }
+
+  bool isUnderPressure() const override {
+    return socket_->isUnderPressure(name_);
   }
 
   void error(const std::string& message, const std::string& stacktrace)
@@ -0,0 +1,195 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#include "SonarDiagnostics.h"
+#include <algorithm>
+
+namespace facebook {
+namespace sonar {
+
+using folly::dynamic;
+
+static const char* const kCounterNames[] = {
+    "connectionAttempts",
+    "connectionFailures",
+    "disconnections",
+    "messagesReceived",
+    "bytesReceived",
+};
+
+static const char* const kTimerNames[] = {
+    "serialization",
+    "sendQueueWait",
+    "callQueueWait",
+    "callExecution",
+};
+
+static_assert(
+    sizeof(kCounterNames) / sizeof(kCounterNames[0]) ==
+        static_cast<size_t>(DiagnosticsCounter::Count),
+    "every counter needs a name");
+static_assert(
+    sizeof(kTimerNames) / sizeof(kTimerNames[0]) ==
+        static_cast<size_t>(DiagnosticsTimer::Count),
+    "every timer needs a name");
+
+static dynamic descriptions() {
+  return dynamic::object(
+      "connectionAttempts", "Attempts to connect to the desktop")(
+      "connectionFailures", "Attempts to connect that failed")(
+      "disconnections", "Times an open connection was lost")(
+      "messagesReceived", "Messages received from the desktop")(
+      "bytesReceived", "Bytes received from the desktop, as on the wire")(
+      "serialization",
+      "Time converting between Java objects and native values")(
+      "sendQueueWait",
+      "Time messages waited to be sent, including the rate limit")(
+      "callQueueWait",
+      "Time calls from the desktop waited for their plugin to be free")(
+      "callExecution",
+      "Time receivers took to handle calls, until they returned")(
+      "sent", "Messages the plugin sent with this method")(
+      "sentBytes", "Bytes of those messages")(
+      "calls", "Calls the desktop made to this method")(
+      "callMicros", "Time spent handling those calls, in microseconds")(
+      "queuedMessages", "Messages waiting to be sent")(
+      "queuedBytes", "Bytes of messages waiting to be sent")(
+      "droppedMessages", "Messages dropped because plugins sent too much")(
+      "wireBytes", "Bytes sent, as on the wire");
+}
+
+static size_t bucketFor(uint64_t micros) {
+  size_t bucket = 0;
+  while (micros > 0 && bucket < DiagnosticsHistogram::kBuckets - 1) {
+    micros >>= 1;
+    bucket++;
+  }
+  return bucket;
+}
+
+void DiagnosticsHistogram::record(std::chrono::microseconds duration) {
+  const uint64_t micros = duration.count() > 0 ? duration.count() : 0;
+  buckets_[bucketFor(micros)]++;
+  totalMicros_ += micros;
+  uint64_t max = maxMicros_;
+  while (micros > max && !maxMicros_.compare_exchange_weak(max, micros)) {
+  }
+}
+
+folly::dynamic DiagnosticsHistogram::toDynamic() const {
+  std::array<uint64_t, kBuckets> buckets;
+  uint64_t count = 0;
+  for (size_t i = 0; i < kBuckets; i++) {
+    buckets[i] = buckets_[i];
+    count += buckets[i];
+  }
+  const uint64_t max = maxMicros_;
+
+  // Bucket i holds durations below 2^i microseconds, the last one the rest.
+  const auto percentile = [&](double p) -> uint64_t {
+    const auto rank = static_cast<uint64_t>(count * p + 0.999999);
+    uint64_t seen = 0;
+    for (size_t i = 0; i < kBuckets - 1; i++) {
+      seen += buckets[i];
+      if (seen >= rank && seen > 0) {
+        return std::min<uint64_t>(uint64_t(1) << i, max);
+      }
+    }
+    return max;
+  };
+
+  return dynamic::object("count", count)("totalMicros", totalMicros_.load())(
+      "maxMicros", max)("p50Micros", percentile(0.5))(
+      "p90Micros", percentile(0.9))("p99Micros", percentile(0.99));
+}
+
+void DiagnosticsHistogram::reset() {
+  for (auto& bucket : buckets_) {
+    bucket = 0;
+  }
+  totalMicros_ = 0;
+  maxMicros_ = 0;
+}
+
+SonarDiagnostics* SonarDiagnostics::instance() {
+  static SonarDiagnostics instance;
+  return &instance;
+}
+
+void SonarDiagnostics::count(DiagnosticsCounter counter, uint64_t n) {
+  counters_[static_cast<size_t>(counter)] += n;
+}
+
+void SonarDiagnostics::record(
+    DiagnosticsTimer timer,
+    std::chrono::microseconds duration) {
+  timers_[static_cast<size_t>(timer)].record(duration);
+}
+
+void SonarDiagnostics::recordSent(
+    const std::string& plugin,
+    const std::string& method,
+    size_t bytes) {
+  std::lock_guard<std::mutex> lock(mutex_);
+  auto& stats = methods_[plugin][method];
+  stats.sent++;
+  stats.sentBytes += bytes;
+}
+
+void SonarDiagnostics::recordCall(
+    const std::string& plugin,
+    const std::string& method,
+    std::chrono::microseconds duration) {
+  record(DiagnosticsTimer::CallExecution, duration);
+  std::lock_guard<std::mutex> lock(mutex_);
+  auto& stats = methods_[plugin][method];
+  stats.calls++;
+  stats.callMicros += duration.count();
+}
+
+folly::dynamic SonarDiagnostics::snapshot() const {
+  dynamic counters = dynamic::object();
+  for (size_t i = 0; i < counters_.size(); i++) {
+    counters[kCounterNames[i]] = counters_[i].load();
+  }
+  dynamic timers = dynamic::object();
+  for (size_t i = 0; i < timers_.size(); i++) {
+    timers[kTimerNames[i]] = timers_[i].toDynamic();
+  }
+  dynamic plugins = dynamic::object();
+  {
+    std::lock_guard<std::mutex> lock(mutex_);
+    for (const auto& plugin : methods_) {
+      dynamic methods = dynamic::object();
+      for (const auto& method : plugin.second) {
+        methods[method.first] = dynamic::object("sent", method.second.sent)(
+            "sentBytes", method.second.sentBytes)(
+            "calls", method.second.calls)(
+            "callMicros", method.second.callMicros);
+      }
+      plugins[plugin.first] = std::move(methods);
+    }
+  }
+  return dynamic::object("counters", std::move(counters))(
+      "timers", std::move(timers))("plugins", std::move(plugins))(
+      "descriptions", descriptions());
+}
+
+void SonarDiagnostics::reset() {
+  for (auto& counter : counters_) {
+    counter = 0;
+  }
+  for (auto& timer : timers_) {
+    timer.reset();
+  }
+  std::lock_guard<std::mutex> lock(mutex_);
+  methods_.clear();
+}
+
+} // namespace sonar
+} // namespace facebook
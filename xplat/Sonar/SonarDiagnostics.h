@@ -0,0 +1,152 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#pragma once
+
+#include <folly/dynamic.h>
+#include <array>
+#include <atomic>
+#include <chrono>
+#include <map>
+#include <mutex>
+#include <string>
+
+namespace facebook {
+namespace sonar {
+
+/**
+ Events in the life of the connection to the desktop.
+ */
+enum class DiagnosticsCounter {
+  ConnectionAttempts,
+  ConnectionFailures,
+  Disconnections,
+  MessagesReceived,
+  BytesReceived,
+  Count,
+};
+
+/**
+ Places where time goes on Sonar's behalf.
+ */
+enum class DiagnosticsTimer {
+  /** Converting between Java objects and CBOR or folly::dynamic. */
+  Serialization,
+  /** A message waiting in the send queue for the sonar thread. */
+  SendQueueWait,
+  /** A call from the desktop waiting in its plugin's dispatch queue. */
+  CallQueueWait,
+  /** A plugin's receiver handling a call, until it returns. */
+  CallExecution,
+  Count,
+};
+
+/**
+ Durations counted in buckets of powers of two microseconds. Recording is lock
+ free and cheap enough to do for every message.
+ */
+class DiagnosticsHistogram {
+ public:
+  static constexpr size_t kBuckets = 24;
+
+  void record(std::chrono::microseconds duration);
+
+  /**
+   The count, total and maximum, and the 50th, 90th and 99th percentiles. A
+   percentile is the upper bound of the bucket it falls in. Times are in
+   microseconds.
+   */
+  folly::dynamic toDynamic() const;
+
+  void reset();
+
+ private:
+  std::array<std::atomic<uint64_t>, kBuckets> buckets_{};
+  std::atomic<uint64_t> totalMicros_{0};
+  std::atomic<uint64_t> maxMicros_{0};
+};
+
+/**
+ Sonar's own overhead: what it sends and receives for each plugin and method,
+ how often it reconnects and where its time goes. Shared by the whole
+ process. Thread safe.
+ */
+class SonarDiagnostics {
+ public:
+  static SonarDiagnostics* instance();
+
+  void count(DiagnosticsCounter counter, uint64_t n = 1);
+
+  void record(DiagnosticsTimer timer, std::chrono::microseconds duration);
+
+  /**
+   A plugin sent a message, of the given size as it was queued.
+   */
+  void recordSent(
+      const std::string& plugin,
+      const std::string& method,
+      size_t bytes);
+
+  /**
+   A plugin's receiver handled a call from the desktop.
+   */
+  void recordCall(
+      const std::string& plugin,
+      const std::string& method,
+      std::chrono::microseconds duration);
+
+  /**
+   Everything recorded so far, with a description of each metric so that it
+   can be shown without knowing what is in it:
+   {"counters": {name: n}, "timers": {name: histogram},
+    "plugins": {plugin: {method: stats}}, "descriptions": {name: text}}
+   */
+  folly::dynamic snapshot() const;
+
+  void reset();
+
+ private:
+  struct MethodStats {
+    uint64_t sent = 0;
+    uint64_t sentBytes = 0;
+    uint64_t calls = 0;
+    uint64_t callMicros = 0;
+  };
+
+  std::array<
+      std::atomic<uint64_t>,
+      static_cast<size_t>(DiagnosticsCounter::Count)>
+      counters_{};
+  std::array<DiagnosticsHistogram, static_cast<size_t>(DiagnosticsTimer::Count)>
+      timers_;
+  mutable std::mutex mutex_;
+  std::map<std::string, std::map<std::string, MethodStats>> methods_;
+};
+
+/**
+ Records the time from its construction to its destruction.
+ */
+class DiagnosticsScope {
+ public:
+  explicit DiagnosticsScope(DiagnosticsTimer timer)
+      : timer_(timer), start_(std::chrono::steady_clock::now()) {}
+
+  ~DiagnosticsScope() {
+    SonarDiagnostics::instance()->record(
+        timer_,
+        std::chrono::duration_cast<std::chrono::microseconds>(
+            std::chrono::steady_clock::now() - start_));
+  }
+
+ private:
+  DiagnosticsTimer timer_;
+  std::chrono::steady_clock::time_point start_;
+};
+
+} // namespace sonar
+} // namespace facebook
@@ -0,0 +1,56 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#pragma once
+
+#include <Sonar/SonarDiagnostics.h>
+#include <Sonar/SonarPlugin.h>
+#include <functional>
+
+namespace facebook {
+namespace sonar {
+
+/**
+ Built in plugin that shows SonarDiagnostics in the desktop app, so Sonar's
+ own overhead can be told apart from the app's.
+ */
+class SonarDiagnosticsPlugin : public SonarPlugin {
+ public:
+  static constexpr const char* kIdentifier = "Diagnostics";
+
+  explicit SonarDiagnosticsPlugin(std::function<folly::dynamic()> snapshot)
+      : snapshot_(std::move(snapshot)) {}
+
+  std::string identifier() const override {
+    return kIdentifier;
+  }
+
+  void didConnect(std::shared_ptr<SonarConnection> conn) override {
+    const auto snapshot = snapshot_;
+    conn->receive(
+        "getDiagnostics",
+        [snapshot](
+            const folly::dynamic&, std::unique_ptr<SonarResponder> responder) {
+          responder->success(snapshot());
+        });
+    conn->receive(
+        "reset",
+        [](const folly::dynamic&, std::unique_ptr<SonarResponder> responder) {
+          SonarDiagnostics::instance()->reset();
+          responder->success(folly::dynamic::object());
+        });
+  }
+
+  void didDisconnect() override {}
+
+ private:
+  std::function<folly::dynamic()> snapshot_;
+};
+
+} // namespace sonar
+} // namespace facebook
@@ -0,0 +1,96 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#include "SonarDispatcher.h"
+
+namespace facebook {
+namespace sonar {
+
+SonarDispatcher::SonarDispatcher(size_t threads, ThreadWrapper wrapper) {
+  for (size_t i = 0; i < threads; i++) {
+    threads_.emplace_back([this, wrapper]() {
+      if (wrapper) {
+        wrapper([this]() { run(); });
+      } else {
+        run();
+      }
+    });
+  }
+}
+
+SonarDispatcher::~SonarDispatcher() {
+  {
+    std::lock_guard<std::mutex> lock(mutex_);
+    stopping_ = true;
+  }
+  wakeup_.notify_all();
+  for (auto& thread : threads_) {
+    thread.join();
+  }
+}
+
+void SonarDispatcher::dispatch(
+    const std::string& key,
+    std::function<void()> task) {
+  if (threads_.empty()) {
+    try {
+      task();
+    } catch (...) {
+    }
+    return;
+  }
+  {
+    std::lock_guard<std::mutex> lock(mutex_);
+    auto& queue = queues_[key];
+    queue.tasks.push_back(std::move(task));
+    if (queue.running || queue.tasks.size() > 1) {
+      // Already running or ready, the key gets back in line when its current
+      // task finishes.
+      return;
+    }
+    ready_.push_back(key);
+  }
+  wakeup_.notify_one();
+}
+
+void SonarDispatcher::run() {
+  std::unique_lock<std::mutex> lock(mutex_);
+  while (true) {
+    wakeup_.wait(lock, [this]() { return stopping_ || !ready_.empty(); });
+    if (stopping_) {
+      return;
+    }
+    const auto key = std::move(ready_.front());
+    ready_.pop_front();
+    auto& queue = queues_[key];
+    auto task = std::move(queue.tasks.front());
+    queue.tasks.pop_front();
+    queue.running = true;
+
+    lock.unlock();
+    try {
+      task();
+    } catch (...) {
+    }
+    lock.lock();
+
+    // References into queues_ aren't invalidated by other keys being added.
+    queue.running = false;
+    if (queue.tasks.empty()) {
+      queues_.erase(key);
+    } else {
+      // Behind the keys that were waiting, so a busy plugin can't starve
+      // the others.
+      ready_.push_back(key);
+      wakeup_.notify_one();
+    }
+  }
+}
+
+} // namespace sonar
+} // namespace facebook
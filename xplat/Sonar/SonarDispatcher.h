@@ -0,0 +1,73 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#pragma once
+
+#include <condition_variable>
+#include <deque>
+#include <functional>
+#include <mutex>
+#include <string>
+#include <thread>
+#include <unordered_map>
+#include <vector>
+
+namespace facebook {
+namespace sonar {
+
+/**
+ Runs tasks in serial queues, one per key, on a shared pool of threads. Tasks
+ with the same key run one at a time in the order they were dispatched, tasks
+ with different keys run concurrently, up to the number of threads. SonarClient
+ keeps a queue per plugin, so a slow plugin only holds up itself.
+ */
+class SonarDispatcher {
+ public:
+  /**
+   Runs the body of a dispatch thread, for platforms that need to set up
+   threads that call into them, such as attaching them to the JVM.
+   */
+  using ThreadWrapper = std::function<void(std::function<void()>&&)>;
+
+  /**
+   With no threads, tasks run on the thread dispatching them before
+   dispatch() returns, which keeps tests deterministic.
+   */
+  SonarDispatcher(size_t threads, ThreadWrapper wrapper = nullptr);
+
+  /** Waits for the running tasks to finish. Queued tasks are dropped. */
+  ~SonarDispatcher();
+
+  SonarDispatcher(const SonarDispatcher&) = delete;
+  SonarDispatcher& operator=(const SonarDispatcher&) = delete;
+
+  /**
+   Queues task to run after the tasks already dispatched with the same key.
+   Exceptions thrown by task are swallowed; tasks report their own errors.
+   */
+  void dispatch(const std::string& key, std::function<void()> task);
+
+ private:
+  struct Queue {
+    std::deque<std::function<void()>> tasks;
+    bool running = false;
+  };
+
+  std::mutex mutex_;
+  std::condition_variable wakeup_;
+  std::unordered_map<std::string, Queue> queues_;
+  // Keys with tasks waiting and none running, in the order they became ready.
+  std::deque<std::string> ready_;
+  bool stopping_ = false;
+  std::vector<std::thread> threads_;
+
+  void run();
+};
+
+} // namespace sonar
+} // namespace facebook
@@ -8,6 +8,8 @@
 
 #pragma once
 
+#include <Sonar/SonarDispatcher.h>
+#include <Sonar/SonarSendQueue.h>
 #include <folly/io/async/EventBase.h>
 #include <map>
 
@@ -39,6 +41,24 @@ struct SonarInitConfig {
   EventBase to be used to maintain the network connection.
   */
   folly::EventBase* connectionWorker;
+
+  /**
+  Limits on messages from plugins waiting to be sent, and what to do with
+  messages beyond them.
+  */
+  SendQueueConfig sendQueue;
+
+  /**
+  Threads plugins handle calls from the desktop on. Each plugin handles one
+  call at a time, so this is how many plugins can be busy at once.
+  */
+  size_t dispatchThreads = 2;
+
+  /**
+  Runs the body of each dispatch thread. Set by platforms that need to set up
+  threads before they call into plugins.
+  */
+  SonarDispatcher::ThreadWrapper dispatchThreadWrapper;
 };
 
 } // namespace sonar
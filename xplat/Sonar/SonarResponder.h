@@ -8,6 +8,7 @@
 
 #pragma once
 
+#include <Sonar/SonarCbor.h>
 #include <folly/json.h>
 
 namespace facebook {
@@ -26,10 +27,28 @@ class SonarResponder {
    */
   virtual void success(const folly::dynamic& response) const = 0;
 
+  /**
+   * Like success(), with a response that is already CBOR encoded.
+   */
+  virtual void successEncoded(const std::string& response) const {
+    success(parseCbor(folly::ByteRange(
+        reinterpret_cast<const uint8_t*>(response.data()), response.size())));
+  }
+
   /**
    * Inform the Sonar desktop app of an error in handling the request.
    */
   virtual void error(const folly::dynamic& response) const = 0;
+
+  /**
+   * True once the Sonar desktop app no longer wants the response, because it
+   * cancelled the call or went away. Long running receivers should check it
+   * now and then and give up early. Responding to a cancelled call is
+   * harmless, the response is dropped instead of being sent.
+   */
+  virtual bool isCancelled() const {
+    return false;
+  }
 };
 
 } // namespace sonar
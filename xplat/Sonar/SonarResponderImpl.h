@@ -8,33 +8,69 @@
 
 #pragma once
 
+#include <Sonar/SonarCbor.h>
 #include <Sonar/SonarResponder.h>
 #include <Sonar/SonarWebSocket.h>
 #include <folly/json.h>
+#include <atomic>
+#include <memory>
 
 namespace facebook {
 namespace sonar {
 
 class SonarResponderImpl : public SonarResponder {
  public:
-  SonarResponderImpl(SonarWebSocket* socket, int64_t responseID)
-      : socket_(socket), responseID_(responseID) {}
+  SonarResponderImpl(
+      SonarWebSocket* socket,
+      int64_t responseID,
+      std::shared_ptr<std::atomic<bool>> cancelled = nullptr)
+      : socket_(socket),
+        responseID_(responseID),
+        cancelled_(std::move(cancelled)) {}
 
   void success(const folly::dynamic& response) const override {
+    if (isCancelled()) {
+      return;
+    }
     const folly::dynamic message =
         folly::dynamic::object("id", responseID_)("success", response);
     socket_->sendMessage(message);
+    socket_->flush();
+  }
+
+  void successEncoded(const std::string& response) const override {
+    if (isCancelled()) {
+      return;
+    }
+    std::string message;
+    message.reserve(response.size() + 24);
+    appendCborMapHeader(2, message);
+    appendCbor("id", message);
+    appendCbor(responseID_, message);
+    appendCbor("success", message);
+    message.append(response);
+    socket_->sendEncodedMessage(message);
+    socket_->flush();
   }
 
   void error(const folly::dynamic& response) const override {
+    if (isCancelled()) {
+      return;
+    }
     const folly::dynamic message =
         folly::dynamic::object("id", responseID_)("error", response);
     socket_->sendMessage(message);
+    socket_->flush();
+  }
+
+  bool isCancelled() const override {
+    return cancelled_ && *cancelled_;
   }
 
  private:
   SonarWebSocket* socket_;
   int64_t responseID_;
+  std::shared_ptr<std::atomic<bool>> cancelled_;
 };
 
 } // namespace sonar
@@ -0,0 +1,31 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#pragma once
+
+namespace facebook {
+namespace sonar {
+
+/**
+ Lanes messages to the desktop are sent in. A message waits only for those
+ in its own lane and the lanes above it.
+ */
+enum class SendPriority {
+  /**
+   Responses and errors, which the desktop is waiting on. Always sent first
+   and never held back.
+   */
+  Interactive = 0,
+  /** Plugin events. The default for messages from plugins. */
+  Normal = 1,
+  /** Large or frequent plugin events, such as network logs. */
+  Bulk = 2,
+};
+
+} // namespace sonar
+} // namespace facebook
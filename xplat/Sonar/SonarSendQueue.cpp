@@ -0,0 +1,184 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#include "SonarSendQueue.h"
+#include <algorithm>
+#include <cmath>
+
+namespace facebook {
+namespace sonar {
+
+bool SonarSendQueue::push(Message message, bool mayBlock) {
+  std::unique_lock<std::mutex> lock(mutex_);
+  const auto size = message.payload.size();
+  const auto& plugin = message.plugin;
+
+  if (!plugin.empty()) {
+    const bool canEverFit =
+        size <= config_.pluginMaxBytes && size <= config_.maxBytes;
+    if (!canEverFit) {
+      recordDropped(plugin);
+      return false;
+    }
+    switch (config_.policy) {
+      case SendQueuePolicy::DropOldest:
+        // A plugin only ever loses its own messages.
+        while (!fits(plugin, size) && dropOldest(plugin)) {
+        }
+        break;
+      case SendQueuePolicy::Block:
+        if (mayBlock) {
+          spaceAvailable_.wait_for(lock, config_.blockTimeout, [&]() {
+            return fits(plugin, size);
+          });
+        }
+        break;
+      case SendQueuePolicy::DropNewest:
+        break;
+    }
+    if (!fits(plugin, size)) {
+      recordDropped(plugin);
+      return false;
+    }
+    auto& usage = usage_[plugin];
+    usage.messages++;
+    usage.bytes += size;
+    pluginBytes_ += size;
+  }
+
+  // While rate limited a retry is already scheduled, but Interactive messages
+  // shouldn't wait for it.
+  const bool schedule = !takeScheduled_ ||
+      (rateLimited_ && message.priority == SendPriority::Interactive);
+  takeScheduled_ = true;
+  bytes_ += size;
+  lanes_[static_cast<size_t>(message.priority)].push_back(std::move(message));
+  return schedule;
+}
+
+SonarSendQueue::Taken SonarSendQueue::take(
+    std::chrono::steady_clock::time_point now) {
+  Taken result;
+  {
+    std::lock_guard<std::mutex> lock(mutex_);
+    takeScheduled_ = false;
+    result.messages.reserve(messageCount());
+    result.retryAfter = std::chrono::milliseconds(0);
+
+    auto& interactive = lanes_[static_cast<size_t>(SendPriority::Interactive)];
+    for (auto& message : interactive) {
+      taken(message);
+      result.messages.push_back(std::move(message));
+    }
+    interactive.clear();
+
+    const double rate = config_.eventBytesPerSecond;
+    const double elapsed =
+        std::chrono::duration<double>(now - lastRefill_).count();
+    tokens_ = rate > 0
+        ? std::min<double>(config_.eventBurstBytes, tokens_ + elapsed * rate)
+        : config_.eventBurstBytes;
+    lastRefill_ = now;
+
+    for (auto priority : {SendPriority::Normal, SendPriority::Bulk}) {
+      auto& lane = lanes_[static_cast<size_t>(priority)];
+      // A message larger than what is left still goes, and is paid back
+      // before the next one.
+      while (!lane.empty() && (rate == 0 || tokens_ > 0)) {
+        tokens_ -= lane.front().payload.size();
+        taken(lane.front());
+        result.messages.push_back(std::move(lane.front()));
+        lane.pop_front();
+      }
+    }
+
+    rateLimited_ = messageCount() > 0;
+    if (rateLimited_) {
+      takeScheduled_ = true;
+      const auto millis = std::ceil((1 - tokens_) * 1000 / rate);
+      result.retryAfter =
+          std::chrono::milliseconds(std::max<int64_t>(1, millis));
+    }
+  }
+  spaceAvailable_.notify_all();
+  return result;
+}
+
+bool SonarSendQueue::isUnderPressure(const std::string& plugin) const {
+  std::lock_guard<std::mutex> lock(mutex_);
+  const auto usage = usage_.find(plugin);
+  const size_t bytes = usage == usage_.end() ? 0 : usage->second.bytes;
+  return bytes * 2 > config_.pluginMaxBytes ||
+      pluginBytes_ * 2 > config_.maxBytes;
+}
+
+SendQueueStats SonarSendQueue::stats() const {
+  std::lock_guard<std::mutex> lock(mutex_);
+  return SendQueueStats{messageCount(), bytes_, dropped_};
+}
+
+SendQueueStats SonarSendQueue::pluginStats(const std::string& plugin) const {
+  std::lock_guard<std::mutex> lock(mutex_);
+  const auto usage = usage_.find(plugin);
+  if (usage == usage_.end()) {
+    return SendQueueStats{0, 0, 0};
+  }
+  return SendQueueStats{
+      usage->second.messages, usage->second.bytes, usage->second.dropped};
+}
+
+bool SonarSendQueue::fits(const std::string& plugin, size_t size) const {
+  const auto usage = usage_.find(plugin);
+  const size_t bytes = usage == usage_.end() ? 0 : usage->second.bytes;
+  return bytes + size <= config_.pluginMaxBytes &&
+      pluginBytes_ + size <= config_.maxBytes;
+}
+
+bool SonarSendQueue::dropOldest(const std::string& plugin) {
+  // Lowest priority lane first.
+  for (auto lane = lanes_.rbegin(); lane != lanes_.rend(); lane++) {
+    const auto oldest = std::find_if(
+        lane->begin(), lane->end(), [&](const Message& message) {
+          return message.plugin == plugin;
+        });
+    if (oldest != lane->end()) {
+      taken(*oldest);
+      lane->erase(oldest);
+      recordDropped(plugin);
+      return true;
+    }
+  }
+  return false;
+}
+
+void SonarSendQueue::recordDropped(const std::string& plugin) {
+  usage_[plugin].dropped++;
+  dropped_++;
+}
+
+void SonarSendQueue::taken(const Message& message) {
+  const auto size = message.payload.size();
+  if (!message.plugin.empty()) {
+    auto& usage = usage_[message.plugin];
+    usage.messages--;
+    usage.bytes -= size;
+    pluginBytes_ -= size;
+  }
+  bytes_ -= size;
+}
+
+size_t SonarSendQueue::messageCount() const {
+  size_t count = 0;
+  for (const auto& lane : lanes_) {
+    count += lane.size();
+  }
+  return count;
+}
+
+} // namespace sonar
+} // namespace facebook
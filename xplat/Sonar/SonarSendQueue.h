@@ -0,0 +1,147 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#pragma once
+
+#include <Sonar/SonarSendPriority.h>
+#include <array>
+#include <chrono>
+#include <condition_variable>
+#include <deque>
+#include <mutex>
+#include <string>
+#include <unordered_map>
+#include <vector>
+
+namespace facebook {
+namespace sonar {
+
+/**
+ What to do with a plugin's message when its share of the queue is full.
+ */
+enum class SendQueuePolicy {
+  /** Make room by dropping the plugin's oldest queued messages. */
+  DropOldest,
+  /** Drop the message being sent. */
+  DropNewest,
+  /**
+   Wait for room, up to blockTimeout, then drop the message being sent. Never
+   blocks the sonar thread, which is the one making room.
+   */
+  Block,
+};
+
+struct SendQueueConfig {
+  /** Bytes of messages a single plugin can have queued. */
+  size_t pluginMaxBytes = 1024 * 1024;
+  /** Bytes of plugin messages that can be queued across all plugins. */
+  size_t maxBytes = 4 * 1024 * 1024;
+  SendQueuePolicy policy = SendQueuePolicy::DropOldest;
+  std::chrono::milliseconds blockTimeout = std::chrono::milliseconds(100);
+  /**
+   Rate at which Normal and Bulk messages are let through, so that the
+   connection isn't flooded ahead of Interactive ones. 0 lets them all
+   through.
+   */
+  size_t eventBytesPerSecond = 2 * 1024 * 1024;
+  /** Bytes of Normal and Bulk messages that can go through at once. */
+  size_t eventBurstBytes = 256 * 1024;
+};
+
+struct SendQueueStats {
+  size_t messages;
+  size_t bytes;
+  uint64_t dropped;
+};
+
+/**
+ Messages waiting to be handed to the connection, in one lane per
+ SendPriority. Messages come out of a lane in the order they went in, and
+ Normal and Bulk messages are rate limited. Messages from plugins are bounded
+ per plugin and in total according to a SendQueueConfig. Messages without a
+ plugin, such as responses to the desktop, are never dropped. Thread safe.
+ */
+class SonarSendQueue {
+ public:
+  struct Message {
+    /** Plugin that sent the message, empty if it is not from a plugin. */
+    std::string plugin;
+    /** The message, encoded as CBOR or JSON text. */
+    std::string payload;
+    bool isCbor;
+    SendPriority priority = SendPriority::Normal;
+    /** When the message was pushed, for diagnostics. */
+    std::chrono::steady_clock::time_point queuedAt;
+  };
+
+  struct Taken {
+    std::vector<Message> messages;
+    /**
+     If messages were held back by the rate limit, when to take again. Zero
+     if the queue is empty.
+     */
+    std::chrono::milliseconds retryAfter;
+  };
+
+  explicit SonarSendQueue(SendQueueConfig config)
+      : config_(config), tokens_(config.eventBurstBytes) {}
+
+  /**
+   Adds a message to the back of its lane, unless the policy says to drop it.
+   mayBlock is false on the thread that drains the queue. Returns true if the
+   caller should schedule a take(), which is when none is scheduled yet, or
+   none is due before the rate limit allows it.
+   */
+  bool push(Message message, bool mayBlock);
+
+  /**
+   Removes and returns the messages that can be sent now, highest priority
+   first, making room for producers.
+   */
+  Taken take(std::chrono::steady_clock::time_point now);
+
+  /**
+   True if the plugin's messages, or plugin messages overall, fill more than
+   half of the space they are allowed. Producers should send less often.
+   */
+  bool isUnderPressure(const std::string& plugin) const;
+
+  SendQueueStats stats() const;
+
+  SendQueueStats pluginStats(const std::string& plugin) const;
+
+ private:
+  struct PluginUsage {
+    size_t messages = 0;
+    size_t bytes = 0;
+    uint64_t dropped = 0;
+  };
+
+  const SendQueueConfig config_;
+  mutable std::mutex mutex_;
+  std::condition_variable spaceAvailable_;
+  std::array<std::deque<Message>, 3> lanes_;
+  std::unordered_map<std::string, PluginUsage> usage_;
+  // A take() is scheduled, or a retry is while rate limited.
+  bool takeScheduled_ = false;
+  bool rateLimited_ = false;
+  double tokens_;
+  std::chrono::steady_clock::time_point lastRefill_;
+  size_t bytes_ = 0;
+  size_t pluginBytes_ = 0;
+  uint64_t dropped_ = 0;
+
+  bool fits(const std::string& plugin, size_t size) const;
+  bool dropOldest(const std::string& plugin);
+  void recordDropped(const std::string& plugin);
+  void taken(const Message& message);
+  size_t messageCount() const;
+};
+
+} // namespace sonar
+} // namespace facebook
@@ -8,6 +8,8 @@
 
 #pragma once
 
+#include <Sonar/SonarCbor.h>
+#include <Sonar/SonarSendPriority.h>
 #include <folly/json.h>
 
 namespace facebook {
@@ -41,6 +43,63 @@ class SonarWebSocket {
    */
   virtual void sendMessage(const folly::dynamic& message) = 0;
 
+  /**
+   Send a message that is already CBOR encoded. Implementations may queue it
+   as it is and only convert it to JSON when it is sent.
+   */
+  virtual void sendEncodedMessage(const std::string& message) {
+    sendMessage(parseCbor(folly::ByteRange(
+        reinterpret_cast<const uint8_t*>(message.data()), message.size())));
+  }
+
+  /**
+   Like sendMessage(), for a message a plugin sends of its own accord. It is
+   sent in the given priority lane and counts against the plugin's share of
+   the outgoing queue, and may be dropped if the plugin sends faster than
+   messages can go out. Messages sent with sendMessage() are Interactive.
+   Returns the size of the message as it was queued, or 0 if that isn't
+   known.
+   */
+  virtual size_t sendPluginMessage(
+      const std::string& plugin,
+      const folly::dynamic& message,
+      SendPriority priority) {
+    sendMessage(message);
+    return 0;
+  }
+
+  /**
+   Like sendEncodedMessage(), for a message a plugin sends of its own accord.
+   */
+  virtual size_t sendEncodedPluginMessage(
+      const std::string& plugin,
+      const std::string& message,
+      SendPriority priority) {
+    sendEncodedMessage(message);
+    return message.size();
+  }
+
+  /**
+   True if the plugin's messages are piling up faster than they can be sent.
+   */
+  virtual bool isUnderPressure(const std::string& plugin) const {
+    return false;
+  }
+
+  /**
+   Send messages that are held back to be batched with others right away.
+   Called after responding to the desktop, which is waiting on the response.
+   */
+  virtual void flush() {}
+
+  /**
+   State of the connection for SonarDiagnostics, such as how much is queued
+   and sent.
+   */
+  virtual folly::dynamic diagnostics() const {
+    return folly::dynamic::object();
+  }
+
   /**
    Handler for connection and message receipt from the ws server.
    The callbacks should be set before a connection is established.
@@ -20,6 +20,7 @@
 #include <iostream>
 #include <thread>
 #include "CertificateUtils.h"
+#include "SonarDiagnostics.h"
 
 #ifdef __ANDROID__
 #include <android/log.h>
@@ -40,41 +41,44 @@ static constexpr int reconnectIntervalSeconds = 2;
 static constexpr int connectionKeepaliveSeconds = 10;
 static constexpr int securePort = 8088;
 static constexpr int insecurePort = 8089;
+// Control message from the desktop selecting how messages are sent from here
+// on. It is handled by the socket and not passed on.
+static constexpr const char* setEncodingMethod = "setEncoding";
+// Once batching is on, messages are held back for up to batchLingerMillis,
+// or until the batch holds batchMaxMessages or batchMaxBytes, and are then
+// sent in a single frame.
+static constexpr int batchLingerMillis = 5;
+static constexpr size_t batchMaxMessages = 100;
+static constexpr size_t batchMaxBytes = 64 * 1024;
 
 namespace facebook {
 namespace sonar {
 
 bool fileExists(std::string fileName);
 
-class ConnectionEvents : public rsocket::RSocketConnectionEvents {
- private:
-  SonarWebSocketImpl* websocket_;
-
- public:
-  ConnectionEvents(SonarWebSocketImpl* websocket) : websocket_(websocket) {}
-
-  void onConnected() {
-    websocket_->isOpen_ = true;
-    if (websocket_->connectionIsTrusted_) {
-      websocket_->callbacks_->onConnected();
-    }
+void ConnectionEvents::onConnected() {
+  websocket_->connectionIsTrusted_ = trusted_;
+  websocket_->isOpen_ = true;
+  if (trusted_) {
+    websocket_->callbacks_->onConnected();
   }
+}
 
-  void onDisconnected(const folly::exception_wrapper&) {
-    if (!websocket_->isOpen_)
-      return;
-    websocket_->isOpen_ = false;
-    websocket_->connectionIsTrusted_ = false;
-    if (websocket_->connectionIsTrusted_) {
-      websocket_->callbacks_->onDisconnected();
-    }
-    websocket_->reconnect();
+void ConnectionEvents::onDisconnected(const folly::exception_wrapper&) {
+  if (!websocket_->isOpen_.exchange(false)) {
+    return;
   }
-
-  void onClosed(const folly::exception_wrapper& e) {
-    onDisconnected(e);
+  SonarDiagnostics::instance()->count(DiagnosticsCounter::Disconnections);
+  // The callbacks were only told about the connection if it was trusted.
+  if (websocket_->connectionIsTrusted_.exchange(false)) {
+    websocket_->callbacks_->onDisconnected();
   }
-};
+  websocket_->reconnect();
+}
+
+void ConnectionEvents::onClosed(const folly::exception_wrapper& e) {
+  onDisconnected(e);
+}
 
 class Responder : public rsocket::RSocketResponder {
  private:
@@ -86,13 +90,15 @@ class Responder : public rsocket::RSocketResponder {
   void handleFireAndForget(
       rsocket::Payload request,
       rsocket::StreamId streamId) {
-    const auto payload = request.moveDataToString();
-    websocket_->callbacks_->onMessageReceived(folly::parseJson(payload));
+    websocket_->onMessageReceived(request.moveDataToString());
   }
 };
 
 SonarWebSocketImpl::SonarWebSocketImpl(SonarInitConfig config)
-    : deviceData_(config.deviceData), sonarEventBase_(config.callbackWorker), connectionEventBase_(config.connectionWorker) {}
+    : deviceData_(config.deviceData),
+      sonarEventBase_(config.callbackWorker),
+      connectionEventBase_(config.connectionWorker),
+      sendQueue_(config.sendQueue) {}
 
 SonarWebSocketImpl::~SonarWebSocketImpl() {
   stop();
@@ -114,6 +120,7 @@ void SonarWebSocketImpl::startSync() {
     SONAR_LOG("Already connected");
     return;
   }
+  SonarDiagnostics::instance()->count(DiagnosticsCounter::ConnectionAttempts);
   try {
     if (isCertificateExchangeNeeded()) {
       doCertificateExchange();
@@ -122,6 +129,7 @@ void SonarWebSocketImpl::startSync() {
 
     connectSecurely();
   } catch (const std::exception&) {
+    SonarDiagnostics::instance()->count(DiagnosticsCounter::ConnectionFailures);
     failedConnectionAttempts_++;
     reconnect();
   }
@@ -146,7 +154,7 @@ void SonarWebSocketImpl::doCertificateExchange() {
           nullptr,
           std::chrono::seconds(connectionKeepaliveSeconds), // keepaliveInterval
           nullptr, // stats
-          std::make_shared<ConnectionEvents>(this))
+          std::make_shared<ConnectionEvents>(this, false))
           .get();
 
   ensureSonarDirExists();
@@ -156,9 +164,13 @@ void SonarWebSocketImpl::doCertificateExchange() {
 void SonarWebSocketImpl::connectSecurely() {
   rsocket::SetupParameters parameters;
   folly::SocketAddress address;
-  parameters.payload = rsocket::Payload(folly::toJson(folly::dynamic::object(
-      "os", deviceData_.os)("device", deviceData_.device)(
-      "device_id", deviceData_.deviceId)("app", deviceData_.app)));
+  // Desktops that understand batching answer with setEncoding, older ones
+  // ignore it and keep to one message per frame. Only desktops that see
+  // cancellation send cancel messages.
+  auto setupPayload = folly::dynamic::object("os", deviceData_.os)(
+      "device", deviceData_.device)("device_id", deviceData_.deviceId)(
+      "app", deviceData_.app)("batching", true)("cancellation", true);
+  parameters.payload = rsocket::Payload(folly::toJson(setupPayload));
   address.setFromHostPort(deviceData_.host, securePort);
 
   std::shared_ptr<folly::SSLContext> sslContext =
@@ -172,7 +184,9 @@ void SonarWebSocketImpl::connectSecurely() {
       absoluteFilePath(PRIVATE_KEY_FILE).c_str());
   sslContext->authenticate(true, false);
 
-  connectionIsTrusted_ = true;
+  sendBatched_ = false;
+  batch_.clear();
+  batchCount_ = 0;
   client_ =
       rsocket::RSocket::createConnectedClient(
           std::make_unique<rsocket::TcpConnectionFactory>(
@@ -183,7 +197,7 @@ void SonarWebSocketImpl::connectSecurely() {
           std::make_shared<Responder>(this),
           std::chrono::seconds(connectionKeepaliveSeconds), // keepaliveInterval
           nullptr, // stats
-          std::make_shared<ConnectionEvents>(this))
+          std::make_shared<ConnectionEvents>(this, true))
           .get();
   failedConnectionAttempts_ = 0;
 }
@@ -196,6 +210,9 @@ void SonarWebSocketImpl::reconnect() {
 }
 
 void SonarWebSocketImpl::stop() {
+  if (!client_) {
+    return;
+  }
   client_->disconnect();
   client_ = nullptr;
 }
@@ -209,13 +226,174 @@ void SonarWebSocketImpl::setCallbacks(Callbacks* callbacks) {
 }
 
 void SonarWebSocketImpl::sendMessage(const folly::dynamic& message) {
-  sonarEventBase_->add([this, message]() {
-    if (client_) {
-      client_->getRequester()
-          ->fireAndForget(rsocket::Payload(folly::toJson(message)))
-          ->subscribe([]() {});
+  sendPluginMessage("", message, SendPriority::Interactive);
+}
+
+void SonarWebSocketImpl::sendEncodedMessage(const std::string& message) {
+  sendEncodedPluginMessage("", message, SendPriority::Interactive);
+}
+
+size_t SonarWebSocketImpl::sendPluginMessage(
+    const std::string& plugin,
+    const folly::dynamic& message,
+    SendPriority priority) {
+  // Encoded here rather than on the sonar thread, so the queue knows its size.
+  return enqueue({plugin, folly::toJson(message), false, priority});
+}
+
+size_t SonarWebSocketImpl::sendEncodedPluginMessage(
+    const std::string& plugin,
+    const std::string& message,
+    SendPriority priority) {
+  return enqueue({plugin, message, true, priority});
+}
+
+bool SonarWebSocketImpl::isUnderPressure(const std::string& plugin) const {
+  return sendQueue_.isUnderPressure(plugin);
+}
+
+SendQueueStats SonarWebSocketImpl::sendQueueStats() const {
+  return sendQueue_.stats();
+}
+
+SendQueueStats SonarWebSocketImpl::sendQueueStats(
+    const std::string& plugin) const {
+  return sendQueue_.pluginStats(plugin);
+}
+
+size_t SonarWebSocketImpl::enqueue(SonarSendQueue::Message message) {
+  const auto size = message.payload.size();
+  message.queuedAt = std::chrono::steady_clock::now();
+  // Producers may wait for room, except the sonar thread which makes it.
+  const bool mayBlock = !sonarEventBase_->isInEventBaseThread();
+  if (sendQueue_.push(std::move(message), mayBlock)) {
+    sonarEventBase_->add([this]() { drainSendQueue(); });
+  }
+  return size;
+}
+
+void SonarWebSocketImpl::drainSendQueue() {
+  const auto now = std::chrono::steady_clock::now();
+  auto taken = sendQueue_.take(now);
+  if (taken.retryAfter.count() > 0) {
+    scheduleDrainRetry(taken.retryAfter);
+  }
+  for (auto& message : taken.messages) {
+    SonarDiagnostics::instance()->record(
+        DiagnosticsTimer::SendQueueWait,
+        std::chrono::duration_cast<std::chrono::microseconds>(
+            now - message.queuedAt));
+    // Messages from Java arrive as CBOR, the desktop only reads JSON.
+    if (message.isCbor) {
+      queuePayload(folly::toJson(parseCbor(folly::ByteRange(
+          reinterpret_cast<const uint8_t*>(message.payload.data()),
+          message.payload.size()))));
+    } else {
+      queuePayload(std::move(message.payload));
     }
-  });
+  }
+}
+
+void SonarWebSocketImpl::scheduleDrainRetry(std::chrono::milliseconds delay) {
+  if (drainRetryScheduled_) {
+    return;
+  }
+  drainRetryScheduled_ = true;
+  sonarEventBase_->runAfterDelay(
+      [this]() {
+        drainRetryScheduled_ = false;
+        drainSendQueue();
+      },
+      delay.count());
+}
+
+void SonarWebSocketImpl::flush() {
+  sonarEventBase_->add([this]() { flushBatch(); });
+}
+
+void SonarWebSocketImpl::queuePayload(std::string payload) {
+  if (!sendBatched_) {
+    sendPayload(std::move(payload));
+    return;
+  }
+  if (batch_.size() + payload.size() > batchMaxBytes) {
+    flushBatch();
+  }
+  if (payload.size() >= batchMaxBytes) {
+    sendPayload(std::move(payload));
+    return;
+  }
+  if (batchCount_ > 0) {
+    batch_.push_back(',');
+  }
+  batch_.append(payload);
+  batchCount_++;
+  if (batchCount_ >= batchMaxMessages) {
+    flushBatch();
+  } else if (!batchFlushScheduled_) {
+    batchFlushScheduled_ = true;
+    sonarEventBase_->runAfterDelay(
+        [this]() {
+          batchFlushScheduled_ = false;
+          flushBatch();
+        },
+        batchLingerMillis);
+  }
+}
+
+void SonarWebSocketImpl::flushBatch() {
+  if (batchCount_ == 0) {
+    return;
+  }
+  std::string frame;
+  if (batchCount_ == 1) {
+    // A batch of one is sent as the message itself.
+    frame = std::move(batch_);
+  } else {
+    frame.reserve(batch_.size() + 2);
+    frame.push_back('[');
+    frame.append(batch_);
+    frame.push_back(']');
+  }
+  batch_.clear();
+  batchCount_ = 0;
+  sendPayload(std::move(frame));
+}
+
+void SonarWebSocketImpl::sendPayload(std::string payload) {
+  if (!client_) {
+    return;
+  }
+  sentBytes_ += payload.size();
+  client_->getRequester()
+      ->fireAndForget(rsocket::Payload(std::move(payload)))
+      ->subscribe([]() {});
+}
+
+folly::dynamic SonarWebSocketImpl::diagnostics() const {
+  const auto queue = sendQueue_.stats();
+  return folly::dynamic::object("open", isOpen())(
+      "queuedMessages", queue.messages)("queuedBytes", queue.bytes)(
+      "droppedMessages", queue.dropped)("wireBytes", sentBytes_.load());
+}
+
+void SonarWebSocketImpl::onMessageReceived(const std::string& payload) {
+  SonarDiagnostics::instance()->count(DiagnosticsCounter::MessagesReceived);
+  SonarDiagnostics::instance()->count(
+      DiagnosticsCounter::BytesReceived, payload.size());
+  const auto message = folly::parseJson(payload);
+
+  if (message.getDefault("method", "") == setEncodingMethod) {
+    const auto params =
+        message.getDefault("params", folly::dynamic::object());
+    const bool batching = params.getDefault("batching", false) == true;
+    sonarEventBase_->add([this, batching]() {
+      flushBatch();
+      sendBatched_ = batching;
+    });
+    return;
+  }
+  callbacks_->onMessageReceived(message);
 }
 
 bool SonarWebSocketImpl::isCertificateExchangeNeeded() {
@@ -9,17 +9,39 @@
 #pragma once
 
 #include <Sonar/SonarInitConfig.h>
+#include <Sonar/SonarSendQueue.h>
 #include <Sonar/SonarWebSocket.h>
 #include <folly/Executor.h>
 #include <folly/io/async/EventBase.h>
 #include <rsocket/RSocket.h>
+#include <atomic>
 #include <mutex>
 
 namespace facebook {
 namespace sonar {
 
-class ConnectionEvents;
 class Responder;
+class SonarWebSocketImpl;
+
+/**
+Tells the socket when one of its connections opens or drops. Only trusted
+connections, the ones plugins talk over, are passed on to the callbacks.
+*/
+class ConnectionEvents : public rsocket::RSocketConnectionEvents {
+ public:
+  ConnectionEvents(SonarWebSocketImpl* websocket, bool trusted)
+      : websocket_(websocket), trusted_(trusted) {}
+
+  void onConnected() override;
+
+  void onDisconnected(const folly::exception_wrapper&) override;
+
+  void onClosed(const folly::exception_wrapper& e) override;
+
+ private:
+  SonarWebSocketImpl* websocket_;
+  const bool trusted_;
+};
 
 class SonarWebSocketImpl : public SonarWebSocket {
   friend ConnectionEvents;
@@ -40,18 +62,53 @@ class SonarWebSocketImpl : public SonarWebSocket {
 
   void sendMessage(const folly::dynamic& message) override;
 
-  void reconnect();
+  void sendEncodedMessage(const std::string& message) override;
+
+  size_t sendPluginMessage(
+      const std::string& plugin,
+      const folly::dynamic& message,
+      SendPriority priority) override;
+
+  size_t sendEncodedPluginMessage(
+      const std::string& plugin,
+      const std::string& message,
+      SendPriority priority) override;
+
+  bool isUnderPressure(const std::string& plugin) const override;
+
+  void flush() override;
+
+  folly::dynamic diagnostics() const override;
+
+  virtual void reconnect();
+
+  SendQueueStats sendQueueStats() const;
+
+  SendQueueStats sendQueueStats(const std::string& plugin) const;
 
  private:
-  bool isOpen_ = false;
+  // Written on the connection thread, read by isOpen() from any thread, such as
+  // the one asking for diagnostics().
+  std::atomic<bool> isOpen_{false};
   Callbacks* callbacks_;
   DeviceData deviceData_;
 
   folly::EventBase* sonarEventBase_;
   folly::EventBase* connectionEventBase_;
   std::unique_ptr<rsocket::RSocketClient> client_;
-  bool connectionIsTrusted_;
+  std::atomic<bool> connectionIsTrusted_{false};
   int failedConnectionAttempts_ = 0;
+  // Set when the desktop has agreed to unpack frames holding an array of
+  // messages. Messages are then gathered in batch_, already encoded.
+  bool sendBatched_ = false;
+  std::string batch_;
+  size_t batchCount_ = 0;
+  bool batchFlushScheduled_ = false;
+  // Messages on their way to the sonar thread.
+  SonarSendQueue sendQueue_;
+  bool drainRetryScheduled_ = false;
+  // Written on the sonar thread, read from anywhere.
+  std::atomic<uint64_t> sentBytes_{0};
 
   void startSync();
   void doCertificateExchange();
@@ -63,6 +120,13 @@ class SonarWebSocketImpl : public SonarWebSocket {
   void requestSignedCertFromSonar();
   bool ensureSonarDirExists();
   bool isRunningInOwnThread();
+  void onMessageReceived(const std::string& payload);
+  size_t enqueue(SonarSendQueue::Message message);
+  void drainSendQueue();
+  void scheduleDrainRetry(std::chrono::milliseconds delay);
+  void queuePayload(std::string payload);
+  void flushBatch();
+  void sendPayload(std::string payload);
 };
 
 } // namespace sonar
@@ -0,0 +1,198 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#pragma once
+
+#include <Sonar/SonarDiagnostics.h>
+#include <SonarTestLib/SonarLoopbackWebSocket.h>
+#include <chrono>
+#include <condition_variable>
+#include <map>
+#include <mutex>
+#include <vector>
+
+namespace facebook {
+namespace sonar {
+namespace test {
+
+/**
+ Plays the desktop app at the other end of a SonarLoopbackWebSocket. Tests
+ script it to init plugins and call their methods, as many times as they like,
+ and it records what comes back and how long each response took.
+ */
+class SonarFakeDesktop {
+ public:
+  struct Response {
+    int64_t id;
+    /** The whole message, with "success" or "error". */
+    folly::dynamic message;
+    /** From sending the call to the response arriving. */
+    std::chrono::microseconds latency;
+  };
+
+  explicit SonarFakeDesktop(SonarLoopbackWebSocket* socket) : socket_(socket) {
+    socket_->setDesktop(
+        [this](const std::string& message) { onMessage(message); });
+  }
+
+  ~SonarFakeDesktop() {
+    socket_->setDesktop(nullptr);
+  }
+
+  SonarFakeDesktop(const SonarFakeDesktop&) = delete;
+  SonarFakeDesktop& operator=(const SonarFakeDesktop&) = delete;
+
+  void init(const std::string& plugin) {
+    send(folly::dynamic::object("method", "init")(
+        "params", folly::dynamic::object("plugin", plugin)));
+  }
+
+  void deinit(const std::string& plugin) {
+    send(folly::dynamic::object("method", "deinit")(
+        "params", folly::dynamic::object("plugin", plugin)));
+  }
+
+  /**
+   Calls a method of a plugin. Returns the id its response will have.
+   */
+  int64_t execute(
+      const std::string& api,
+      const std::string& method,
+      const folly::dynamic& params = folly::dynamic::object()) {
+    return call(
+        "execute",
+        folly::dynamic::object("api", api)("method", method)(
+            "params", params));
+  }
+
+  int64_t getPlugins() {
+    return call("getPlugins", nullptr);
+  }
+
+  void cancel(int64_t id) {
+    send(folly::dynamic::object("method", "cancel")(
+        "params", folly::dynamic::object("id", id)));
+  }
+
+  /**
+   Blocks until at least count responses have arrived in all, or the timeout
+   passes. Returns whether they arrived.
+   */
+  bool awaitResponses(size_t count, std::chrono::milliseconds timeout) {
+    std::unique_lock<std::mutex> lock(mutex_);
+    return changed_.wait_for(
+        lock, timeout, [&]() { return responses_.size() >= count; });
+  }
+
+  /**
+   Like awaitResponses(), for messages that aren't responses, such as the
+   ones plugins send of their own accord.
+   */
+  bool awaitMessages(size_t count, std::chrono::milliseconds timeout) {
+    std::unique_lock<std::mutex> lock(mutex_);
+    return changed_.wait_for(
+        lock, timeout, [&]() { return messages_.size() >= count; });
+  }
+
+  /** Responses in the order they arrived. */
+  std::vector<Response> responses() const {
+    std::lock_guard<std::mutex> lock(mutex_);
+    return responses_;
+  }
+
+  /** Messages other than responses, in the order they arrived. */
+  std::vector<folly::dynamic> messages() const {
+    std::lock_guard<std::mutex> lock(mutex_);
+    return messages_;
+  }
+
+  /**
+   Latencies of the responses so far, as DiagnosticsHistogram::toDynamic()
+   reports them.
+   */
+  folly::dynamic latencies() const {
+    return latencies_.toDynamic();
+  }
+
+  /**
+   Bytes received from the client, as CBOR.
+   */
+  uint64_t receivedBytes() const {
+    std::lock_guard<std::mutex> lock(mutex_);
+    return receivedBytes_;
+  }
+
+  /** Forgets what has been received, to measure a phase of a test alone. */
+  void clear() {
+    std::lock_guard<std::mutex> lock(mutex_);
+    responses_.clear();
+    messages_.clear();
+    receivedBytes_ = 0;
+    latencies_.reset();
+  }
+
+ private:
+  SonarLoopbackWebSocket* socket_;
+  mutable std::mutex mutex_;
+  std::condition_variable changed_;
+  int64_t nextId_ = 1;
+  std::map<int64_t, std::chrono::steady_clock::time_point> sentAt_;
+  std::vector<Response> responses_;
+  std::vector<folly::dynamic> messages_;
+  uint64_t receivedBytes_ = 0;
+  DiagnosticsHistogram latencies_;
+
+  int64_t call(const std::string& method, const folly::dynamic& params) {
+    int64_t id;
+    {
+      std::lock_guard<std::mutex> lock(mutex_);
+      id = nextId_++;
+      sentAt_[id] = std::chrono::steady_clock::now();
+    }
+    folly::dynamic message =
+        folly::dynamic::object("id", id)("method", method);
+    if (!params.isNull()) {
+      message["params"] = params;
+    }
+    send(message);
+    return id;
+  }
+
+  void send(const folly::dynamic& message) {
+    socket_->receive(toCbor(message));
+  }
+
+  void onMessage(const std::string& encoded) {
+    const auto message = parseCbor(folly::ByteRange(
+        reinterpret_cast<const uint8_t*>(encoded.data()), encoded.size()));
+    const auto now = std::chrono::steady_clock::now();
+    {
+      std::lock_guard<std::mutex> lock(mutex_);
+      receivedBytes_ += encoded.size();
+      const auto id = message.find("id");
+      const auto sentAt = id != message.items().end()
+          ? sentAt_.find(id->second.asInt())
+          : sentAt_.end();
+      if (sentAt == sentAt_.end()) {
+        messages_.push_back(message);
+      } else {
+        const auto latency =
+            std::chrono::duration_cast<std::chrono::microseconds>(
+                now - sentAt->second);
+        latencies_.record(latency);
+        responses_.push_back(Response{sentAt->first, message, latency});
+        sentAt_.erase(sentAt);
+      }
+    }
+    changed_.notify_all();
+  }
+};
+
+} // namespace test
+} // namespace sonar
+} // namespace facebook
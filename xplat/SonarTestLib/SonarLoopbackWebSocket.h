@@ -0,0 +1,177 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#pragma once
+
+#include <Sonar/SonarDispatcher.h>
+#include <Sonar/SonarWebSocket.h>
+#include <atomic>
+#include <condition_variable>
+#include <mutex>
+
+namespace facebook {
+namespace sonar {
+namespace test {
+
+/**
+ A SonarWebSocket connected to a desktop in the same process, for end to end
+ tests of SonarClient that run offline. Unlike SonarWebSocketMock it behaves
+ like the real socket: messages from the desktop are decoded and delivered on
+ a sonar thread of its own, and messages to the desktop are CBOR encoded on
+ the thread sending them and delivered on a desktop thread. Drive it with
+ SonarFakeDesktop.
+ */
+class SonarLoopbackWebSocket : public SonarWebSocket {
+ public:
+  /**
+   Receives every message the client sends, CBOR encoded, on the desktop
+   thread, in the order they were sent.
+   */
+  using Desktop = std::function<void(const std::string& message)>;
+
+  SonarLoopbackWebSocket() : sonarThread_(1), desktopThread_(1) {}
+
+  void start() override {
+    runOnSonarThread([this]() {
+      if (!open_) {
+        open_ = true;
+        callbacks_->onConnected();
+      }
+    });
+  }
+
+  /**
+   Returns once the client has been told of the disconnection, so no more
+   calls are delivered to it.
+   */
+  void stop() override {
+    runOnSonarThread([this]() {
+      if (open_) {
+        open_ = false;
+        callbacks_->onDisconnected();
+      }
+    });
+    waitForSonarThread();
+  }
+
+  bool isOpen() const override {
+    return open_;
+  }
+
+  void sendMessage(const folly::dynamic& message) override {
+    sendEncodedMessage(toCbor(message));
+  }
+
+  void sendEncodedMessage(const std::string& message) override {
+    // Like the real socket, drop what is sent while closed.
+    if (!open_) {
+      return;
+    }
+    sentMessages_++;
+    sentBytes_ += message.size();
+    desktopThread_.dispatch(kLane, [this, message]() {
+      std::lock_guard<std::mutex> lock(desktopMutex_);
+      if (desktop_) {
+        desktop_(message);
+      }
+    });
+  }
+
+  size_t sendPluginMessage(
+      const std::string& plugin,
+      const folly::dynamic& message,
+      SendPriority priority) override {
+    auto encoded = toCbor(message);
+    const auto size = encoded.size();
+    sendEncodedMessage(std::move(encoded));
+    return size;
+  }
+
+  size_t sendEncodedPluginMessage(
+      const std::string& plugin,
+      const std::string& message,
+      SendPriority priority) override {
+    sendEncodedMessage(message);
+    return message.size();
+  }
+
+  folly::dynamic diagnostics() const override {
+    return folly::dynamic::object("open", isOpen())(
+        "sentMessages", sentMessages_.load())("sentBytes", sentBytes_.load())(
+        "receivedMessages", receivedMessages_.load());
+  }
+
+  void setCallbacks(Callbacks* callbacks) override {
+    callbacks_ = callbacks;
+  }
+
+  /**
+   Connects the desktop end. Messages sent while no desktop is connected are
+   dropped. Returns once the previous desktop is no longer being called.
+   */
+  void setDesktop(Desktop desktop) {
+    std::lock_guard<std::mutex> lock(desktopMutex_);
+    desktop_ = std::move(desktop);
+  }
+
+  /**
+   Called by the desktop end with a CBOR encoded message for the client. It is
+   decoded and handed to the client on the sonar thread. Messages sent while
+   the socket is closed are dropped, as they would be by the real socket.
+   */
+  void receive(const std::string& message) {
+    runOnSonarThread([this, message]() {
+      if (!open_) {
+        return;
+      }
+      receivedMessages_++;
+      callbacks_->onMessageReceived(parseCbor(folly::ByteRange(
+          reinterpret_cast<const uint8_t*>(message.data()), message.size())));
+    });
+  }
+
+  /**
+   Blocks until the messages already passed to receive() have been handed to
+   the client.
+   */
+  void waitForSonarThread() {
+    std::mutex mutex;
+    std::condition_variable done;
+    bool ran = false;
+    sonarThread_.dispatch(kLane, [&]() {
+      std::lock_guard<std::mutex> lock(mutex);
+      ran = true;
+      done.notify_all();
+    });
+    std::unique_lock<std::mutex> lock(mutex);
+    done.wait(lock, [&]() { return ran; });
+  }
+
+ private:
+  static constexpr const char* kLane = "loopback";
+
+  std::atomic<bool> open_{false};
+  Callbacks* callbacks_ = nullptr;
+  std::mutex desktopMutex_;
+  Desktop desktop_;
+  std::atomic<uint64_t> sentMessages_{0};
+  std::atomic<uint64_t> sentBytes_{0};
+  std::atomic<uint64_t> receivedMessages_{0};
+  // Declared last so that their threads are joined before the state they use
+  // goes away.
+  SonarDispatcher sonarThread_;
+  SonarDispatcher desktopThread_;
+
+  void runOnSonarThread(std::function<void()> task) {
+    sonarThread_.dispatch(kLane, std::move(task));
+  }
+};
+
+} // namespace test
+} // namespace sonar
+} // namespace facebook
@@ -0,0 +1,110 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#include <Sonar/SonarCbor.h>
+
+#include <folly/json.h>
+#include <gtest/gtest.h>
+#include <limits>
+
+namespace facebook {
+namespace sonar {
+namespace test {
+
+using folly::dynamic;
+
+static dynamic roundTrip(const dynamic& value) {
+  const auto cbor = toCbor(value);
+  return parseCbor(folly::ByteRange(
+      reinterpret_cast<const uint8_t*>(cbor.data()), cbor.size()));
+}
+
+static dynamic parse(std::initializer_list<uint8_t> bytes) {
+  return parseCbor(folly::ByteRange(bytes.begin(), bytes.end()));
+}
+
+TEST(SonarCborTests, testRoundTrip) {
+  dynamic value = dynamic::object("id", "1234")("count", 42)(
+      "negative", -100000)("big", int64_t(1) << 40)("ratio", 0.25)(
+      "flag", true)("missing", nullptr)(
+      "children", dynamic::array("a", "b", dynamic::object("x", "y")))(
+      "unicode", "héllo");
+  EXPECT_EQ(roundTrip(value), value);
+}
+
+TEST(SonarCborTests, testIndefiniteLength) {
+  // {_ "a": [_ 1, 2], "b": "cd"}
+  dynamic expected =
+      dynamic::object("a", dynamic::array(1, 2))("b", "cd");
+  EXPECT_EQ(
+      parse({0xbf,
+             0x61, 'a', 0x9f, 0x01, 0x02, 0xff,
+             0x61, 'b', 0x62, 'c', 'd',
+             0xff}),
+      expected);
+}
+
+TEST(SonarCborTests, testFloats) {
+  EXPECT_EQ(parse({0xf9, 0x3c, 0x00}), dynamic(1.0));
+  EXPECT_EQ(parse({0xfa, 0x3f, 0xc0, 0x00, 0x00}), dynamic(1.5));
+}
+
+TEST(SonarCborTests, testIntegersBeyondInt64BecomeDoubles) {
+  EXPECT_EQ(
+      parse({0x1b, 0x7f, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff}),
+      dynamic(std::numeric_limits<int64_t>::max()));
+  EXPECT_EQ(
+      parse({0x3b, 0x7f, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff}),
+      dynamic(std::numeric_limits<int64_t>::min()));
+  EXPECT_EQ(
+      parse({0x1b, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff}),
+      dynamic(18446744073709551615.0));
+  EXPECT_EQ(
+      parse({0x3b, 0x80, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00}),
+      dynamic(-9223372036854775809.0));
+  // uint64 [2^63]
+  EXPECT_EQ(
+      parse({0xd8, 67, 0x48, 0x80, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00}),
+      dynamic::array(9223372036854775808.0));
+}
+
+TEST(SonarCborTests, testTypedArrays) {
+  // sint32 big endian [1, -2]
+  EXPECT_EQ(
+      parse({0xd8, 74, 0x48,
+             0x00, 0x00, 0x00, 0x01,
+             0xff, 0xff, 0xff, 0xfe}),
+      dynamic::array(1, -2));
+  // sint8 [-1, 5]
+  EXPECT_EQ(parse({0xd8, 72, 0x42, 0xff, 0x05}), dynamic::array(-1, 5));
+  // float32 [0.1, NaN]
+  EXPECT_EQ(
+      parse({0xd8, 81, 0x48,
+             0x3d, 0xcc, 0xcc, 0xcd,
+             0x7f, 0xc0, 0x00, 0x00}),
+      dynamic::array(0.1, nullptr));
+  // Packed data must be a whole number of elements.
+  EXPECT_THROW(
+      parse({0xd8, 74, 0x43, 0x00, 0x00, 0x01}), std::invalid_argument);
+}
+
+TEST(SonarCborTests, testByteStringsBecomeBase64) {
+  EXPECT_EQ(parse({0x43, 'a', 'b', 'c'}), dynamic("YWJj"));
+  EXPECT_EQ(parse({0x42, 0xff, 0x00}), dynamic("/wA="));
+  EXPECT_EQ(parse({0x41, 'a'}), dynamic("YQ=="));
+}
+
+TEST(SonarCborTests, testMalformed) {
+  EXPECT_THROW(parse({0x82, 0x01}), std::invalid_argument);
+  EXPECT_THROW(parse({0x01, 0x02}), std::invalid_argument);
+  EXPECT_THROW(parse({0x7a, 0xff, 0xff, 0xff, 0xff}), std::invalid_argument);
+}
+
+} // namespace test
+} // namespace sonar
+} // namespace facebook
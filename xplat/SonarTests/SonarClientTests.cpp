@@ -6,6 +6,7 @@
  *
  */
 
+#include <Sonar/SonarCbor.h>
 #include <Sonar/SonarClient.h>
 #include <SonarTestLib/SonarPluginMock.h>
 #include <SonarTestLib/SonarWebSocketMock.h>
@@ -46,6 +47,19 @@ TEST(SonarClientTests, testGetPlugins) {
   EXPECT_EQ(socket->messages.back(), expected);
 }
 
+TEST(SonarClientTests, testGetPluginsWithoutId) {
+  auto socket = new SonarWebSocketMock;
+  SonarClient client(std::unique_ptr<SonarWebSocketMock>{socket});
+  client.start();
+
+  client.addPlugin(std::make_shared<SonarPluginMock>("Cat"));
+
+  // There is no one to answer.
+  const auto sent = socket->messages.size();
+  socket->callbacks->onMessageReceived(dynamic::object("method", "getPlugins"));
+  EXPECT_EQ(socket->messages.size(), sent);
+}
+
 TEST(SonarClientTests, testGetPlugin) {
   auto socket = new SonarWebSocketMock;
   SonarClient client(std::unique_ptr<SonarWebSocketMock>{socket});
@@ -261,6 +275,51 @@ TEST(SonarClientTests, testExecuteWithParams) {
   EXPECT_EQ(socket->messages.back(), expected);
 }
 
+TEST(SonarClientTests, testCancel) {
+  auto socket = new SonarWebSocketMock;
+  SonarClient client(std::unique_ptr<SonarWebSocketMock>{socket});
+  client.start();
+
+  std::vector<std::unique_ptr<SonarResponder>> responders;
+  const auto connectionCallback = [&](std::shared_ptr<SonarConnection> conn) {
+    const auto receiver = [&](const dynamic &params,
+                              std::unique_ptr<SonarResponder> responder) {
+      responders.push_back(std::move(responder));
+    };
+    conn->receive("slow", receiver);
+  };
+  auto plugin = std::make_shared<SonarPluginMock>("Test", connectionCallback);
+  client.addPlugin(plugin);
+
+  dynamic messageInit = dynamic::object("method", "init")(
+      "params", dynamic::object("plugin", "Test"));
+  socket->callbacks->onMessageReceived(messageInit);
+
+  for (int id = 1; id <= 2; id++) {
+    socket->callbacks->onMessageReceived(
+        dynamic::object("id", id)("method", "execute")(
+            "params", dynamic::object("api", "Test")("method", "slow")));
+  }
+  ASSERT_EQ(responders.size(), 2);
+  EXPECT_FALSE(responders[0]->isCancelled());
+
+  socket->callbacks->onMessageReceived(dynamic::object("method", "cancel")(
+      "params", dynamic::object("id", 1)));
+  EXPECT_TRUE(responders[0]->isCancelled());
+  EXPECT_FALSE(responders[1]->isCancelled());
+
+  const auto sent = socket->messages.size();
+  responders[0]->success(dynamic::object("late", true));
+  EXPECT_EQ(socket->messages.size(), sent);
+  responders[1]->success(dynamic::object());
+  EXPECT_EQ(
+      socket->messages.back(),
+      dynamic::object("id", 2)("success", dynamic::object()));
+
+  socket->callbacks->onDisconnected();
+  EXPECT_TRUE(responders[1]->isCancelled());
+}
+
 TEST(SonarClientTests, testExceptionUnknownPlugin) {
   auto socket = new SonarWebSocketMock;
   SonarClient client(std::unique_ptr<SonarWebSocketMock>{socket});
@@ -287,6 +346,30 @@ TEST(SonarClientTests, testExceptionUnknownApi) {
             "connection Unknown not found for method execute");
 }
 
+TEST(SonarClientTests, testSendEncodedMatchesSend) {
+  auto socket = new SonarWebSocketMock;
+  SonarClient client(std::unique_ptr<SonarWebSocketMock>{socket});
+
+  std::shared_ptr<SonarConnection> connection;
+  const auto connectionCallback = [&](std::shared_ptr<SonarConnection> conn) {
+    connection = conn;
+  };
+  auto plugin = std::make_shared<SonarPluginMock>("Test", connectionCallback,
+                                                  [] {});
+  client.addPlugin(plugin);
+  client.start();
+
+  dynamic messageInit = dynamic::object("method", "init")(
+      "params", dynamic::object("plugin", "Test"));
+  socket->callbacks->onMessageReceived(messageInit);
+
+  dynamic params = dynamic::object("a", dynamic::array(1, "b"))("c", nullptr);
+  connection->send("update", params);
+  const auto sent = socket->messages.back();
+  connection->sendEncoded("update", toCbor(params), SendPriority::Normal);
+  EXPECT_EQ(socket->messages.back(), sent);
+}
+
 } // namespace test
 } // namespace sonar
 } // namespace facebook
@@ -0,0 +1,85 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#include <Sonar/SonarClient.h>
+#include <Sonar/SonarDiagnostics.h>
+#include <SonarTestLib/SonarPluginMock.h>
+#include <SonarTestLib/SonarWebSocketMock.h>
+
+#include <gtest/gtest.h>
+
+namespace facebook {
+namespace sonar {
+namespace test {
+
+using folly::dynamic;
+using std::chrono::microseconds;
+
+TEST(SonarDiagnosticsTests, testHistogram) {
+  DiagnosticsHistogram histogram;
+  for (int i = 0; i < 98; i++) {
+    histogram.record(microseconds(3));
+  }
+  histogram.record(microseconds(100));
+  histogram.record(microseconds(5000));
+
+  const auto summary = histogram.toDynamic();
+  EXPECT_EQ(summary["count"].asInt(), 100);
+  EXPECT_EQ(summary["totalMicros"].asInt(), 98 * 3 + 100 + 5000);
+  EXPECT_EQ(summary["maxMicros"].asInt(), 5000);
+  // 3us falls in the bucket below 4us, 100us in the one below 128us.
+  EXPECT_EQ(summary["p50Micros"].asInt(), 4);
+  EXPECT_EQ(summary["p90Micros"].asInt(), 4);
+  EXPECT_EQ(summary["p99Micros"].asInt(), 128);
+
+  histogram.reset();
+  EXPECT_EQ(histogram.toDynamic()["count"].asInt(), 0);
+  EXPECT_EQ(histogram.toDynamic()["p50Micros"].asInt(), 0);
+}
+
+TEST(SonarDiagnosticsTests, testPluginMethods) {
+  SonarDiagnostics::instance()->reset();
+  auto socket = new SonarWebSocketMock;
+  SonarClient client(std::unique_ptr<SonarWebSocketMock>{socket});
+  client.start();
+
+  const auto connectionCallback = [](std::shared_ptr<SonarConnection> conn) {
+    conn->receive(
+        "ping",
+        [connection = conn.get()](
+            const dynamic&, std::unique_ptr<SonarResponder> responder) {
+          connection->sendEncoded(
+              "pong", toCbor(dynamic::object("a", 1)), SendPriority::Normal);
+          responder->success(dynamic::object());
+        });
+  };
+  client.addPlugin(
+      std::make_shared<SonarPluginMock>("Test", connectionCallback));
+  socket->callbacks->onMessageReceived(dynamic::object("method", "init")(
+      "params", dynamic::object("plugin", "Test")));
+  for (int id = 1; id <= 2; id++) {
+    socket->callbacks->onMessageReceived(
+        dynamic::object("id", id)("method", "execute")(
+            "params", dynamic::object("api", "Test")("method", "ping")));
+  }
+
+  const auto diagnostics = client.diagnostics();
+  const auto& ping = diagnostics["plugins"]["Test"]["ping"];
+  EXPECT_EQ(ping["calls"].asInt(), 2);
+  const auto& pong = diagnostics["plugins"]["Test"]["pong"];
+  EXPECT_EQ(pong["sent"].asInt(), 2);
+  EXPECT_GT(pong["sentBytes"].asInt(), 2 * toCbor(dynamic::object()).size());
+  EXPECT_EQ(diagnostics["timers"]["callExecution"]["count"].asInt(), 2);
+  EXPECT_EQ(diagnostics["timers"]["callQueueWait"]["count"].asInt(), 2);
+  EXPECT_TRUE(diagnostics["descriptions"].find("callMicros") !=
+              diagnostics["descriptions"].items().end());
+}
+
+} // namespace test
+} // namespace sonar
+} // namespace facebook
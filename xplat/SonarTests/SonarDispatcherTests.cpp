@@ -0,0 +1,74 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#include <Sonar/SonarDispatcher.h>
+
+#include <gtest/gtest.h>
+#include <atomic>
+#include <future>
+
+namespace facebook {
+namespace sonar {
+namespace test {
+
+TEST(SonarDispatcherTests, testInline) {
+  SonarDispatcher dispatcher(0);
+  bool ran = false;
+  dispatcher.dispatch("a", [&]() { ran = true; });
+  EXPECT_TRUE(ran);
+}
+
+TEST(SonarDispatcherTests, testSameKeyRunsInOrder) {
+  std::vector<int> order;
+  std::promise<void> done;
+  {
+    SonarDispatcher dispatcher(4);
+    for (int i = 0; i < 100; i++) {
+      // Not synchronized, tasks with the same key never overlap.
+      dispatcher.dispatch("a", [&order, i]() { order.push_back(i); });
+    }
+    dispatcher.dispatch("a", [&]() { done.set_value(); });
+    done.get_future().wait();
+  }
+  ASSERT_EQ(order.size(), 100);
+  for (int i = 0; i < 100; i++) {
+    EXPECT_EQ(order[i], i);
+  }
+}
+
+TEST(SonarDispatcherTests, testSlowKeyDoesNotBlockOthers) {
+  SonarDispatcher dispatcher(2);
+  std::promise<void> release;
+  auto released = release.get_future().share();
+  std::promise<void> otherRan;
+
+  dispatcher.dispatch("slow", [released]() { released.wait(); });
+  dispatcher.dispatch("slow", []() {});
+  dispatcher.dispatch("fast", [&]() { otherRan.set_value(); });
+
+  EXPECT_EQ(
+      otherRan.get_future().wait_for(std::chrono::seconds(5)),
+      std::future_status::ready);
+  release.set_value();
+}
+
+TEST(SonarDispatcherTests, testThreadWrapper) {
+  std::atomic<int> wrapped{0};
+  {
+    SonarDispatcher dispatcher(
+        3, [&](std::function<void()>&& body) {
+          wrapped++;
+          body();
+        });
+  }
+  EXPECT_EQ(wrapped, 3);
+}
+
+} // namespace test
+} // namespace sonar
+} // namespace facebook
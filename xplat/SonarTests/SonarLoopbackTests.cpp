@@ -0,0 +1,176 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#include <Sonar/SonarClient.h>
+#include <SonarTestLib/SonarFakeDesktop.h>
+#include <SonarTestLib/SonarLoopbackWebSocket.h>
+#include <SonarTestLib/SonarPluginMock.h>
+
+#include <gtest/gtest.h>
+#include <thread>
+
+namespace facebook {
+namespace sonar {
+namespace test {
+
+using folly::dynamic;
+using std::chrono::milliseconds;
+
+static const milliseconds kTimeout(30000);
+
+static std::shared_ptr<SonarPlugin> echoPlugin(const std::string& identifier) {
+  return std::make_shared<SonarPluginMock>(
+      identifier, [](std::shared_ptr<SonarConnection> conn) {
+        conn->receive(
+            "echo",
+            [](const dynamic& params,
+               std::unique_ptr<SonarResponder> responder) {
+              responder->success(params);
+            });
+      });
+}
+
+static void recordThroughput(
+    const SonarFakeDesktop& desktop,
+    size_t calls,
+    std::chrono::steady_clock::time_point start) {
+  const auto elapsed = std::chrono::duration_cast<milliseconds>(
+      std::chrono::steady_clock::now() - start);
+  const auto latencies = desktop.latencies();
+  ::testing::Test::RecordProperty(
+      "callsPerSecond", int(calls * 1000 / (elapsed.count() + 1)));
+  ::testing::Test::RecordProperty(
+      "p50LatencyMicros", int(latencies["p50Micros"].asInt()));
+  ::testing::Test::RecordProperty(
+      "p99LatencyMicros", int(latencies["p99Micros"].asInt()));
+}
+
+TEST(SonarLoopbackTests, testExecuteStorm) {
+  const int kCallsPerPlugin = 2000;
+  auto socket = new SonarLoopbackWebSocket;
+  SonarClient client(
+      std::unique_ptr<SonarLoopbackWebSocket>{socket}, 2, nullptr);
+  SonarFakeDesktop desktop(socket);
+  client.addPlugin(echoPlugin("A"));
+  client.addPlugin(echoPlugin("B"));
+  client.start();
+  desktop.init("A");
+  desktop.init("B");
+
+  const auto start = std::chrono::steady_clock::now();
+  std::map<int64_t, std::pair<std::string, int>> calls;
+  for (int i = 0; i < kCallsPerPlugin; i++) {
+    for (const auto plugin : {"A", "B"}) {
+      const auto id =
+          desktop.execute(plugin, "echo", dynamic::object("n", i));
+      calls[id] = std::make_pair(plugin, i);
+    }
+  }
+  EXPECT_TRUE(desktop.awaitResponses(calls.size(), kTimeout));
+  recordThroughput(desktop, calls.size(), start);
+  client.stop();
+
+  const auto responses = desktop.responses();
+  EXPECT_EQ(responses.size(), calls.size());
+  // Each plugin handles its calls one at a time, in the order they came.
+  std::map<std::string, int> lastByPlugin{{"A", -1}, {"B", -1}};
+  for (const auto& response : responses) {
+    const auto call = calls.find(response.id);
+    EXPECT_TRUE(call != calls.end());
+    if (call == calls.end()) {
+      continue;
+    }
+    EXPECT_EQ(
+        response.message["success"],
+        dynamic::object("n", call->second.second));
+    EXPECT_EQ(lastByPlugin[call->second.first] + 1, call->second.second);
+    lastByPlugin[call->second.first] = call->second.second;
+    calls.erase(call);
+  }
+  EXPECT_TRUE(calls.empty());
+}
+
+TEST(SonarLoopbackTests, testPluginMessagesUnderLoad) {
+  const int kCalls = 500;
+  const int kMessagesPerCall = 4;
+  auto socket = new SonarLoopbackWebSocket;
+  SonarClient client(
+      std::unique_ptr<SonarLoopbackWebSocket>{socket}, 2, nullptr);
+  SonarFakeDesktop desktop(socket);
+  client.addPlugin(std::make_shared<SonarPluginMock>(
+      "Events", [](std::shared_ptr<SonarConnection> conn) {
+        conn->receive(
+            "emit",
+            [connection = conn.get()](
+                const dynamic& params,
+                std::unique_ptr<SonarResponder> responder) {
+              for (int i = 0; i < kMessagesPerCall; i++) {
+                connection->send(
+                    "event", dynamic::object("call", params["call"])("i", i));
+              }
+              responder->success(dynamic::object());
+            });
+      }));
+  client.start();
+  desktop.init("Events");
+
+  const auto start = std::chrono::steady_clock::now();
+  for (int i = 0; i < kCalls; i++) {
+    desktop.execute("Events", "emit", dynamic::object("call", i));
+  }
+  EXPECT_TRUE(desktop.awaitResponses(kCalls, kTimeout));
+  EXPECT_TRUE(desktop.awaitMessages(kCalls * kMessagesPerCall, kTimeout));
+  recordThroughput(desktop, kCalls, start);
+  client.stop();
+
+  const auto messages = desktop.messages();
+  EXPECT_EQ(messages.size(), kCalls * kMessagesPerCall);
+  for (size_t i = 0; i < messages.size(); i++) {
+    const auto& message = messages[i];
+    EXPECT_EQ(message["method"], "execute");
+    EXPECT_EQ(message["params"]["api"], "Events");
+    EXPECT_EQ(
+        message["params"]["params"],
+        dynamic::object("call", int(i / kMessagesPerCall))(
+            "i", int(i % kMessagesPerCall)));
+  }
+  EXPECT_GT(desktop.receivedBytes(), 0);
+}
+
+TEST(SonarLoopbackTests, testStopDuringStorm) {
+  auto socket = new SonarLoopbackWebSocket;
+  SonarClient client(
+      std::unique_ptr<SonarLoopbackWebSocket>{socket}, 2, nullptr);
+  SonarFakeDesktop desktop(socket);
+  client.addPlugin(echoPlugin("A"));
+  client.start();
+  desktop.init("A");
+
+  for (int i = 0; i < 1000; i++) {
+    desktop.execute("A", "echo", dynamic::object("n", i));
+  }
+  client.stop();
+  EXPECT_FALSE(socket->isOpen());
+
+  // Messages sent once the socket has closed are dropped.
+  const auto sent = socket->diagnostics()["sentMessages"];
+  socket->sendMessage(dynamic::object("late", true));
+  EXPECT_EQ(socket->diagnostics()["sentMessages"], sent);
+
+  // The client takes no calls once it has stopped.
+  const auto id = desktop.execute("A", "echo");
+  std::this_thread::sleep_for(milliseconds(100));
+  for (const auto& response : desktop.responses()) {
+    EXPECT_NE(response.id, id);
+  }
+  EXPECT_EQ(client.diagnostics()["connection"]["open"], false);
+}
+
+} // namespace test
+} // namespace sonar
+} // namespace facebook
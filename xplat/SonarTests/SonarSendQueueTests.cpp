@@ -0,0 +1,140 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#include <Sonar/SonarSendQueue.h>
+
+#include <gtest/gtest.h>
+
+namespace facebook {
+namespace sonar {
+namespace test {
+
+static SendQueueConfig config(SendQueuePolicy policy) {
+  SendQueueConfig config;
+  config.pluginMaxBytes = 10;
+  config.maxBytes = 15;
+  config.policy = policy;
+  config.blockTimeout = std::chrono::milliseconds(1);
+  return config;
+}
+
+static SonarSendQueue::Message message(
+    const std::string& plugin,
+    const std::string& payload,
+    SendPriority priority = SendPriority::Normal) {
+  return SonarSendQueue::Message{plugin, payload, false, priority};
+}
+
+static std::string payloads(const SonarSendQueue::Taken& taken) {
+  std::string joined;
+  for (const auto& message : taken.messages) {
+    joined += message.payload + " ";
+  }
+  return joined;
+}
+
+static const auto now = std::chrono::steady_clock::now();
+
+TEST(SonarSendQueueTests, testDropOldest) {
+  SonarSendQueue queue(config(SendQueuePolicy::DropOldest));
+  EXPECT_TRUE(queue.push(message("a", "1111"), true));
+  EXPECT_FALSE(queue.push(message("b", "2222"), true));
+  queue.push(message("a", "3333"), true);
+  queue.push(message("a", "5555"), true);
+
+  EXPECT_EQ(queue.stats().dropped, 1);
+  EXPECT_EQ(queue.pluginStats("a").dropped, 1);
+  EXPECT_EQ(queue.pluginStats("b").dropped, 0);
+  EXPECT_EQ(payloads(queue.take(now)), "2222 3333 5555 ");
+  EXPECT_EQ(queue.stats().messages, 0);
+}
+
+TEST(SonarSendQueueTests, testDropNewest) {
+  SonarSendQueue queue(config(SendQueuePolicy::DropNewest));
+  queue.push(message("a", "1111"), true);
+  queue.push(message("a", "2222"), true);
+  queue.push(message("a", "3333"), true);
+  queue.push(message("b", "4444"), true);
+  queue.push(message("b", "5555"), true);
+
+  // "a" is limited by its quota, "b" by the total.
+  EXPECT_EQ(queue.pluginStats("a").dropped, 1);
+  EXPECT_EQ(queue.pluginStats("b").dropped, 1);
+  EXPECT_EQ(payloads(queue.take(now)), "1111 2222 4444 ");
+}
+
+TEST(SonarSendQueueTests, testBlockGivesUp) {
+  SonarSendQueue queue(config(SendQueuePolicy::Block));
+  queue.push(message("a", "12345678"), true);
+  EXPECT_FALSE(queue.push(message("a", "1234"), true));
+  EXPECT_EQ(queue.stats().dropped, 1);
+  EXPECT_EQ(queue.stats().messages, 1);
+}
+
+TEST(SonarSendQueueTests, testNonPluginMessagesAreNeverDropped) {
+  SonarSendQueue queue(config(SendQueuePolicy::DropNewest));
+  queue.push(message("", std::string(100, 'x')), true);
+  queue.push(message("a", "1111"), true);
+  EXPECT_EQ(queue.stats().dropped, 0);
+  EXPECT_EQ(queue.stats().messages, 2);
+}
+
+TEST(SonarSendQueueTests, testPressure) {
+  SonarSendQueue queue(config(SendQueuePolicy::DropOldest));
+  queue.push(message("a", "1111"), true);
+  EXPECT_FALSE(queue.isUnderPressure("a"));
+  queue.push(message("a", "22"), true);
+  EXPECT_TRUE(queue.isUnderPressure("a"));
+  EXPECT_FALSE(queue.isUnderPressure("b"));
+  queue.take(now);
+  EXPECT_FALSE(queue.isUnderPressure("a"));
+}
+
+TEST(SonarSendQueueTests, testPriorities) {
+  SonarSendQueue queue(config(SendQueuePolicy::DropOldest));
+  EXPECT_TRUE(queue.push(message("a", "bulk", SendPriority::Bulk), true));
+  EXPECT_FALSE(queue.push(message("a", "normal"), true));
+  queue.push(message("", "response", SendPriority::Interactive), true);
+  EXPECT_EQ(payloads(queue.take(now)), "response normal bulk ");
+}
+
+TEST(SonarSendQueueTests, testRateLimit) {
+  auto limited = config(SendQueuePolicy::DropOldest);
+  limited.pluginMaxBytes = 100;
+  limited.maxBytes = 100;
+  limited.eventBytesPerSecond = 1000;
+  limited.eventBurstBytes = 10;
+  SonarSendQueue queue(limited);
+  queue.push(message("a", "11111111"), true);
+  queue.push(message("a", "22222222"), true);
+  queue.push(message("a", "33333333"), true);
+
+  // The second message overdraws the burst by 6 bytes, and the third waits
+  // for the 7ms it takes to pay that back.
+  auto taken = queue.take(now);
+  EXPECT_EQ(payloads(taken), "11111111 22222222 ");
+  EXPECT_EQ(taken.retryAfter.count(), 7);
+
+  // Only Interactive messages get past the limit, and ask to be taken now.
+  EXPECT_FALSE(queue.push(message("a", "4"), true));
+  EXPECT_TRUE(
+      queue.push(message("", "response", SendPriority::Interactive), true));
+  EXPECT_EQ(payloads(queue.take(now)), "response ");
+
+  taken = queue.take(now + std::chrono::milliseconds(7));
+  EXPECT_EQ(payloads(taken), "33333333 ");
+  EXPECT_EQ(taken.retryAfter.count(), 8);
+
+  taken = queue.take(now + std::chrono::milliseconds(15));
+  EXPECT_EQ(payloads(taken), "4 ");
+  EXPECT_EQ(taken.retryAfter.count(), 0);
+}
+
+} // namespace test
+} // namespace sonar
+} // namespace facebook
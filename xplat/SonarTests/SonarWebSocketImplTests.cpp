@@ -0,0 +1,117 @@
+/*
+ *  Copyright (c) 2018-present, Facebook, Inc.
+ *
+ *  This source code is licensed under the MIT license found in the LICENSE
+ *  file in the root directory of this source tree.
+ *
+ */
+
+#include <Sonar/SonarClient.h>
+#include <Sonar/SonarWebSocketImpl.h>
+#include <SonarTestLib/SonarPluginMock.h>
+
+#include <folly/io/async/EventBase.h>
+#include <gtest/gtest.h>
+
+namespace facebook {
+namespace sonar {
+namespace test {
+
+using folly::dynamic;
+
+// Stays down once dropped, rather than dialling the desktop again.
+class SonarWebSocketWithoutReconnect : public SonarWebSocketImpl {
+ public:
+  using SonarWebSocketImpl::SonarWebSocketImpl;
+
+  void reconnect() override {
+    reconnects++;
+  }
+
+  int reconnects = 0;
+};
+
+class CountingCallbacks : public SonarWebSocket::Callbacks {
+ public:
+  void onConnected() override {
+    connected++;
+  }
+
+  void onDisconnected() override {
+    disconnected++;
+  }
+
+  void onMessageReceived(const folly::dynamic&) override {}
+
+  int connected = 0;
+  int disconnected = 0;
+};
+
+TEST(SonarWebSocketImplTests, testDroppedTrustedConnectionCancelsCalls) {
+  folly::EventBase eventBase;
+  SonarInitConfig config;
+  config.callbackWorker = &eventBase;
+  config.connectionWorker = &eventBase;
+  auto socket = new SonarWebSocketWithoutReconnect(std::move(config));
+  SonarClient client(std::unique_ptr<SonarWebSocketImpl>{socket});
+
+  std::vector<std::unique_ptr<SonarResponder>> responders;
+  const auto connectionCallback = [&](std::shared_ptr<SonarConnection> conn) {
+    const auto receiver = [&](const dynamic& params,
+                              std::unique_ptr<SonarResponder> responder) {
+      responders.push_back(std::move(responder));
+    };
+    conn->receive("slow", receiver);
+  };
+  client.addPlugin(
+      std::make_shared<SonarPluginMock>("Test", connectionCallback));
+
+  ConnectionEvents events(socket, true);
+  events.onConnected();
+  EXPECT_TRUE(socket->isOpen());
+
+  client.onMessageReceived(dynamic::object("method", "init")(
+      "params", dynamic::object("plugin", "Test")));
+  for (int id = 1; id <= 2; id++) {
+    client.onMessageReceived(dynamic::object("id", id)("method", "execute")(
+        "params", dynamic::object("api", "Test")("method", "slow")));
+  }
+  ASSERT_EQ(responders.size(), 2);
+  EXPECT_FALSE(responders[0]->isCancelled());
+
+  events.onDisconnected(folly::exception_wrapper());
+  EXPECT_FALSE(socket->isOpen());
+  EXPECT_TRUE(responders[0]->isCancelled());
+  EXPECT_TRUE(responders[1]->isCancelled());
+  EXPECT_EQ(socket->reconnects, 1);
+
+  // A second report of the same drop is ignored.
+  events.onClosed(folly::exception_wrapper());
+  EXPECT_EQ(socket->reconnects, 1);
+
+  // Run anything sent meanwhile while the socket is still around.
+  eventBase.loop();
+}
+
+TEST(SonarWebSocketImplTests, testUntrustedConnectionIsNotPassedOn) {
+  folly::EventBase eventBase;
+  SonarInitConfig config;
+  config.callbackWorker = &eventBase;
+  config.connectionWorker = &eventBase;
+  SonarWebSocketWithoutReconnect socket(std::move(config));
+  CountingCallbacks callbacks;
+  socket.setCallbacks(&callbacks);
+
+  ConnectionEvents events(&socket, false);
+  events.onConnected();
+  EXPECT_FALSE(socket.isOpen());
+  events.onDisconnected(folly::exception_wrapper());
+
+  EXPECT_EQ(callbacks.connected, 0);
+  EXPECT_EQ(callbacks.disconnected, 0);
+  EXPECT_EQ(socket.reconnects, 1);
+}
+
+} // namespace test
+} // namespace sonar
+} // namespace facebook